@@ -45,7 +45,8 @@ import processing.core.*;
  * </PRE>
  * This will let you do Graphics2D calls directly, but is not supported
  * in any way shape or form. Which just means "have fun, but don't complain
- * if it breaks."
+ * if it breaks." Once getNative() has been called, the transform of g2 is
+ * read back every time it's needed, since it can be changed from outside.
  * <p>
  * Advanced <a href="http://docs.oracle.com/javase/7/docs/webnotes/tsg/TSG-Desktop/html/java2d.html">debugging notes</a> for Java2D.
  */
@@ -86,6 +87,15 @@ public class PGraphicsJava2D extends PGraphics {
     new AffineTransform[MATRIX_STACK_DEPTH];
   double[] transform = new double[6];
 
+  // The transform of g2, only read back after it has changed. Reading it
+  // makes a new AffineTransform every time, which adds up when screenX()
+  // and screenY() are called for many points. Also read again whenever g2
+  // is replaced, e.g. by beginDraw() or by the PDF and SVG renderers.
+  // Not kept at all once g2 has been handed out by getNative().
+  PMatrix2D transformMatrix = new PMatrix2D();
+  Graphics2D transformSource;
+  boolean nativeShared;
+
   Line2D.Float line = new Line2D.Float();
   Ellipse2D.Float ellipse = new Ellipse2D.Float();
   Rectangle2D.Float rect = new Rectangle2D.Float();
@@ -266,6 +276,7 @@ public class PGraphicsJava2D extends PGraphics {
   /** Returns the java.awt.Graphics2D object used by this renderer. */
   @Override
   public Object getNative() {
+    nativeShared = true;
     return g2;
   }
 
@@ -1604,7 +1615,11 @@ public class PGraphicsJava2D extends PGraphics {
     }
 
     if (who.isModified()) {
-      if (who.pixels == null) {
+      // Compact images only make ARGB data while the cache is updated
+      boolean release = (who.pixels == null) && (who instanceof PImageBuffer);
+      if (release) {
+        who.loadPixels();
+      } else if (who.pixels == null) {
         // This might be a PGraphics that hasn't been drawn to yet.
         // Can't just bail because the cache has been created above.
         // https://github.com/processing/processing/issues/2208
@@ -1612,6 +1627,9 @@ public class PGraphicsJava2D extends PGraphics {
       }
       cash.update(who, tint, tintColor);
       who.setModified(false);
+      if (release) {
+        ((PImageBuffer) who).releasePixels();
+      }
     }
 
     u1 *= who.pixelDensity;
@@ -1669,6 +1687,32 @@ public class PGraphicsJava2D extends PGraphics {
      * with the update without further checks.
      */
     public void update(PImage source, boolean tint, int tintColor) {
+      // Must always use an ARGB image, otherwise will write zeros
+      // in the alpha channel when drawn to the screen.
+      // https://github.com/processing/processing/issues/2030
+      if (image == null) {
+        image = new BufferedImage(source.pixelWidth, source.pixelHeight,
+                                  BufferedImage.TYPE_INT_ARGB);
+      }
+
+      // Only convert the areas that were marked with updatePixels(). A tint
+      // change or a new cache marks the whole image, see imageImpl().
+      int count = source.getModifiedRectCount();
+      int[] rects = source.getModifiedRects();
+      for (int i = 0; i < count; i++) {
+        updateRegion(source, tint, tintColor,
+                     rects[i*4], rects[i*4 + 1], rects[i*4 + 2], rects[i*4 + 3]);
+      }
+      this.tinted = tint;
+      this.tintedColor = tintColor;
+    }
+
+
+    /**
+     * Update the pixels between x1, y1 (inclusive) and x2, y2 (exclusive).
+     */
+    protected void updateRegion(PImage source, boolean tint, int tintColor,
+                                int x1, int y1, int x2, int y2) {
       //int bufferType = BufferedImage.TYPE_INT_ARGB;
       int targetType = ARGB;
       boolean opaque = (tintColor & 0xFF000000) == 0xFF000000;
@@ -1682,17 +1726,9 @@ public class PGraphicsJava2D extends PGraphics {
 //      if ((image == null) || wrongType) {
 //        image = new BufferedImage(source.width, source.height, bufferType);
 //      }
-      // Must always use an ARGB image, otherwise will write zeros
-      // in the alpha channel when drawn to the screen.
-      // https://github.com/processing/processing/issues/2030
-      if (image == null) {
-        image = new BufferedImage(source.pixelWidth, source.pixelHeight,
-                                  BufferedImage.TYPE_INT_ARGB);
-      }
-
       WritableRaster wr = image.getRaster();
       if (tint) {
-        if (tintedTemp == null || tintedTemp.length != source.pixelWidth) {
+        if (tintedTemp == null || tintedTemp.length < source.pixelWidth) {
           tintedTemp = new int[source.pixelWidth];
         }
         int a2 = (tintColor >> 24) & 0xff;
@@ -1706,9 +1742,9 @@ public class PGraphicsJava2D extends PGraphics {
         if (targetType == RGB) {
           // The target image is opaque, meaning that the source image has no
           // alpha (is not ARGB), and the tint has no alpha.
-          int index = 0;
-          for (int y = 0; y < source.pixelHeight; y++) {
-            for (int x = 0; x < source.pixelWidth; x++) {
+          for (int y = y1; y < y2; y++) {
+            int index = y * source.pixelWidth + x1;
+            for (int x = 0; x < x2 - x1; x++) {
               int argb1 = source.pixels[index++];
               int r1 = (argb1 >> 16) & 0xff;
               int g1 = (argb1 >> 8) & 0xff;
@@ -1722,7 +1758,7 @@ public class PGraphicsJava2D extends PGraphics {
                   ((g2 * g1) & 0xff00) |
                   (((b2 * b1) & 0xff00) >> 8);
             }
-            wr.setDataElements(0, y, source.pixelWidth, 1, tintedTemp);
+            wr.setDataElements(x1, y, x2 - x1, 1, tintedTemp);
           }
           // could this be any slower?
 //          float[] scales = { tintR, tintG, tintB };
@@ -1735,19 +1771,19 @@ public class PGraphicsJava2D extends PGraphics {
           if (source.format == RGB &&
               (tintColor & 0xffffff) == 0xffffff) {
             int hi = tintColor & 0xff000000;
-            int index = 0;
-            for (int y = 0; y < source.pixelHeight; y++) {
-              for (int x = 0; x < source.pixelWidth; x++) {
+            for (int y = y1; y < y2; y++) {
+              int index = y * source.pixelWidth + x1;
+              for (int x = 0; x < x2 - x1; x++) {
                 tintedTemp[x] = hi | (source.pixels[index++] & 0xFFFFFF);
               }
-              wr.setDataElements(0, y, source.pixelWidth, 1, tintedTemp);
+              wr.setDataElements(x1, y, x2 - x1, 1, tintedTemp);
             }
           } else {
-            int index = 0;
-            for (int y = 0; y < source.pixelHeight; y++) {
+            for (int y = y1; y < y2; y++) {
+              int index = y * source.pixelWidth + x1;
               if (source.format == RGB) {
                 int alpha = tintColor & 0xFF000000;
-                for (int x = 0; x < source.pixelWidth; x++) {
+                for (int x = 0; x < x2 - x1; x++) {
                   int argb1 = source.pixels[index++];
                   int r1 = (argb1 >> 16) & 0xff;
                   int g1 = (argb1 >> 8) & 0xff;
@@ -1758,7 +1794,7 @@ public class PGraphicsJava2D extends PGraphics {
                       (((b2 * b1) & 0xff00) >> 8);
                 }
               } else if (source.format == ARGB) {
-                for (int x = 0; x < source.pixelWidth; x++) {
+                for (int x = 0; x < x2 - x1; x++) {
                   int argb1 = source.pixels[index++];
                   int a1 = (argb1 >> 24) & 0xff;
                   int r1 = (argb1 >> 16) & 0xff;
@@ -1772,13 +1808,13 @@ public class PGraphicsJava2D extends PGraphics {
                 }
               } else if (source.format == ALPHA) {
                 int lower = tintColor & 0xFFFFFF;
-                for (int x = 0; x < source.pixelWidth; x++) {
+                for (int x = 0; x < x2 - x1; x++) {
                   int a1 = source.pixels[index++];
                   tintedTemp[x] =
                       (((a2 * a1) & 0xff00) << 16) | lower;
                 }
               }
-              wr.setDataElements(0, y, source.pixelWidth, 1, tintedTemp);
+              wr.setDataElements(x1, y, x2 - x1, 1, tintedTemp);
             }
           }
           // Not sure why ARGB images take the scales in this order...
@@ -1798,10 +1834,20 @@ public class PGraphicsJava2D extends PGraphics {
           // in a PImage and how the high bits will be set.
         }
         // If no tint, just shove the pixels on in there verbatim
-        wr.setDataElements(0, 0, source.pixelWidth, source.pixelHeight, source.pixels);
+        if (x1 == 0 && y1 == 0 &&
+            x2 == source.pixelWidth && y2 == source.pixelHeight) {
+          wr.setDataElements(0, 0, source.pixelWidth, source.pixelHeight, source.pixels);
+        } else {
+          if (tintedTemp == null || tintedTemp.length < source.pixelWidth) {
+            tintedTemp = new int[source.pixelWidth];
+          }
+          for (int y = y1; y < y2; y++) {
+            System.arraycopy(source.pixels, y * source.pixelWidth + x1,
+                             tintedTemp, 0, x2 - x1);
+            wr.setDataElements(x1, y, x2 - x1, 1, tintedTemp);
+          }
+        }
       }
-      this.tinted = tint;
-      this.tintedColor = tintColor;
 
 //      GraphicsConfiguration gc = parent.getGraphicsConfiguration();
 //      compat = gc.createCompatibleImage(image.getWidth(),
@@ -2157,6 +2203,7 @@ public class PGraphicsJava2D extends PGraphics {
     }
     transformCount--;
     g2.setTransform(transformStack[transformCount]);
+    transformSource = null;
   }
 
 
@@ -2169,6 +2216,7 @@ public class PGraphicsJava2D extends PGraphics {
   @Override
   public void translate(float tx, float ty) {
     g2.translate(tx, ty);
+    transformSource = null;
   }
 
 
@@ -2178,6 +2226,7 @@ public class PGraphicsJava2D extends PGraphics {
   @Override
   public void rotate(float angle) {
     g2.rotate(angle);
+    transformSource = null;
   }
 
 
@@ -2208,12 +2257,14 @@ public class PGraphicsJava2D extends PGraphics {
   @Override
   public void scale(float s) {
     g2.scale(s, s);
+    transformSource = null;
   }
 
 
   @Override
   public void scale(float sx, float sy) {
     g2.scale(sx, sy);
+    transformSource = null;
   }
 
 
@@ -2226,12 +2277,14 @@ public class PGraphicsJava2D extends PGraphics {
   @Override
   public void shearX(float angle) {
     g2.shear(Math.tan(angle), 0);
+    transformSource = null;
   }
 
 
   @Override
   public void shearY(float angle) {
     g2.shear(0, Math.tan(angle));
+    transformSource = null;
   }
 
 
@@ -2245,6 +2298,7 @@ public class PGraphicsJava2D extends PGraphics {
   public void resetMatrix() {
     g2.setTransform(new AffineTransform());
     g2.scale(pixelDensity, pixelDensity);
+    transformSource = null;
   }
 
 
@@ -2258,6 +2312,7 @@ public class PGraphicsJava2D extends PGraphics {
     //System.out.println(new AffineTransform(n00, n10, n01, n11, n02, n12));
     g2.transform(new AffineTransform(n00, n10, n01, n11, n02, n12));
     //g2.transform(new AffineTransform(n00, n01, n02, n10, n11, n12));
+    transformSource = null;
   }
 
 
@@ -2290,13 +2345,24 @@ public class PGraphicsJava2D extends PGraphics {
     if (target == null) {
       target = new PMatrix2D();
     }
-    g2.getTransform().getMatrix(transform);
-    target.set((float) transform[0], (float) transform[2], (float) transform[4],
-               (float) transform[1], (float) transform[3], (float) transform[5]);
+    target.set(currentTransform());
     return target;
   }
 
 
+  protected PMatrix2D currentTransform() {
+    if (transformSource != g2 || nativeShared) {
+      g2.getTransform().getMatrix(transform);
+      transformMatrix.set((float) transform[0], (float) transform[2],
+                          (float) transform[4],
+                          (float) transform[1], (float) transform[3],
+                          (float) transform[5]);
+      transformSource = g2;
+    }
+    return transformMatrix;
+  }
+
+
   @Override
   public PMatrix3D getMatrix(PMatrix3D target) {
     showVariationWarning("getMatrix");
@@ -2312,6 +2378,7 @@ public class PGraphicsJava2D extends PGraphics {
     g2.setTransform(new AffineTransform(source.m00, source.m10,
                                         source.m01, source.m11,
                                         source.m02, source.m12));
+    transformSource = null;
   }
 
 
@@ -2363,15 +2430,13 @@ public class PGraphicsJava2D extends PGraphics {
 
   @Override
   public float screenX(float x, float y) {
-    g2.getTransform().getMatrix(transform);
-    return (float)transform[0]*x + (float)transform[2]*y + (float)transform[4];
+    return currentTransform().multX(x, y);
   }
 
 
   @Override
   public float screenY(float x, float y) {
-    g2.getTransform().getMatrix(transform);
-    return (float)transform[1]*x + (float)transform[3]*y + (float)transform[5];
+    return currentTransform().multY(x, y);
   }
 
 
@@ -2797,16 +2862,27 @@ public class PGraphicsJava2D extends PGraphics {
   public void updatePixels(int x, int y, int c, int d) {
     //if ((x == 0) && (y == 0) && (c == width) && (d == height)) {
 //    System.err.format("%d %d %d %d .. w/h = %d %d .. pw/ph = %d %d %n", x, y, c, d, width, height, pixelWidth, pixelHeight);
-    if ((x != 0) || (y != 0) || (c != pixelWidth) || (d != pixelHeight)) {
-      // Show a warning message, but continue anyway.
-      showVariationWarning("updatePixels(x, y, w, h)");
-//      new Exception().printStackTrace(System.out);
-    }
 //    updatePixels();
     if (pixels != null) {
-      getRaster().setDataElements(0, 0, pixelWidth, pixelHeight, pixels);
+      int x1 = PApplet.max(0, x);
+      int y1 = PApplet.max(0, y);
+      int x2 = PApplet.min(pixelWidth, x + c);
+      int y2 = PApplet.min(pixelHeight, y + d);
+      if (x1 == 0 && y1 == 0 && x2 == pixelWidth && y2 == pixelHeight) {
+        getRaster().setDataElements(0, 0, pixelWidth, pixelHeight, pixels);
+
+      } else if (x1 < x2 && y1 < y2) {
+        // Only copy the rows of the area that changed
+        int[] row = new int[x2 - x1];
+        WritableRaster raster = getRaster();
+        for (int yy = y1; yy < y2; yy++) {
+          System.arraycopy(pixels, yy * pixelWidth + x1, row, 0, row.length);
+          raster.setDataElements(x1, yy, row.length, 1, row);
+        }
+      }
     }
-    modified = true;
+    // Also records the area, so that caches of this image only update it
+    super.updatePixels(x, y, c, d);
   }
 
 
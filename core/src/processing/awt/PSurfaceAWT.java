@@ -53,6 +53,7 @@ import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PGraphics;
 import processing.core.PImage;
+import processing.core.PProfiler;
 import processing.core.PSurfaceNone;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
@@ -1546,6 +1547,10 @@ public class PSurfaceAWT extends PSurfaceNone {
       public void callDraw() {
         sketch.handleDraw();
         render();
+        PProfiler profiler = sketch.getProfiler();
+        if (profiler != null) {
+          profiler.mark(PProfiler.BLIT);
+        }
       }
     };
   }
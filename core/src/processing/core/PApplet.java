@@ -67,16 +67,23 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.text.*;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 import java.util.regex.*;
 import java.util.zip.*;
 
@@ -1409,66 +1416,93 @@ public class PApplet implements PConstants {
 
 
   /** Map of registered methods, stored by name. */
-  HashMap<String, RegisteredMethods> registerMap =
-    new HashMap<>();
+  Map<String, RegisteredMethods> registerMap =
+    new ConcurrentHashMap<>();
 
   /** Lock when un/registering from multiple threads */
   private final Object registerLock = new Object[0];
 
 
+  /**
+   * The objects registered for one event. Adding and removing makes a new
+   * copy of the list, so handle() can walk it without taking a lock, even
+   * while another thread registers. Each method is bound to its object as
+   * a MethodHandle when registered, so calling it doesn't need reflection
+   * or an argument array.
+   */
   class RegisteredMethods {
-    int count;
-    Object[] objects;
-    // Because the Method comes from the class being called,
-    // it will be unique for most, if not all, objects.
-    Method[] methods;
-    Object[] emptyArgs = new Object[] { };
+    final String name;
+    volatile Registration[] registrations = new Registration[0];
 
 
-    void handle() {
-      handle(emptyArgs);
+    RegisteredMethods(String name) {
+      this.name = name;
     }
 
 
-    void handle(Object[] args) {
-      for (int i = 0; i < count; i++) {
+    void handle() {
+      final PProfiler profiler = PApplet.this.profiler;
+      for (Registration r : registrations) {
+        long start = (profiler != null) ? System.nanoTime() : 0;
         try {
-          methods[i].invoke(objects[i], args);
-        } catch (Exception e) {
-          // check for wrapped exception, get root exception
-          Throwable t;
-          if (e instanceof InvocationTargetException) {
-            InvocationTargetException ite = (InvocationTargetException) e;
-            t = ite.getCause();
+          if (r.handle != null) {
+            r.handle.invokeExact();
           } else {
-            t = e;
+            r.method.invoke(r.object);
           }
-          // check for RuntimeException, and allow to bubble up
-          if (t instanceof RuntimeException) {
-            // re-throw exception
-            throw (RuntimeException) t;
+        } catch (Throwable t) {
+          handleException(t);
+        }
+        if (profiler != null) {
+          r.getTiming(profiler, name).add(System.nanoTime() - start);
+        }
+      }
+    }
+
+
+    void handle(Object arg) {
+      final PProfiler profiler = PApplet.this.profiler;
+      for (Registration r : registrations) {
+        long start = (profiler != null) ? System.nanoTime() : 0;
+        try {
+          if (r.handle != null) {
+            r.handle.invokeExact(arg);
           } else {
-            // trap and print as usual
-            printStackTrace(t);
+            r.method.invoke(r.object, arg);
           }
+        } catch (Throwable t) {
+          handleException(t);
+        }
+        if (profiler != null) {
+          r.getTiming(profiler, name).add(System.nanoTime() - start);
         }
       }
     }
 
 
+    void handleException(Throwable t) {
+      // check for wrapped exception, get root exception
+      if (t instanceof InvocationTargetException) {
+        t = ((InvocationTargetException) t).getCause();
+      }
+      // check for RuntimeException, and allow to bubble up
+      if (t instanceof RuntimeException) {
+        // re-throw exception
+        throw (RuntimeException) t;
+      } else {
+        // trap and print as usual
+        printStackTrace(t);
+      }
+    }
+
+
+    // only called while holding registerLock
     void add(Object object, Method method) {
       if (findIndex(object) == -1) {
-        if (objects == null) {
-          objects = new Object[5];
-          methods = new Method[5];
-
-        } else if (count == objects.length) {
-          objects = (Object[]) PApplet.expand(objects);
-          methods = (Method[]) PApplet.expand(methods);
-        }
-        objects[count] = object;
-        methods[count] = method;
-        count++;
+        Registration[] current = registrations;
+        Registration[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new Registration(object, method);
+        registrations = next;
       } else {
         die(method.getName() + "() already added for this instance of " +
             object.getClass().getName());
@@ -1479,35 +1513,27 @@ public class PApplet implements PConstants {
     /**
      * Removes first object/method pair matched (and only the first,
      * must be called multiple times if object is registered multiple times).
-     * Does not shrink array afterwards, silently returns if method not found.
+     * Silently returns if method not found. Only called with registerLock.
      */
-//    public void remove(Object object, Method method) {
-//      int index = findIndex(object, method);
     public void remove(Object object) {
       int index = findIndex(object);
       if (index != -1) {
-        // shift remaining methods by one to preserve ordering
-        count--;
-        for (int i = index; i < count; i++) {
-          objects[i] = objects[i+1];
-          methods[i] = methods[i+1];
-        }
-        // clean things out for the gc's sake
-        objects[count] = null;
-        methods[count] = null;
+        // copy the remaining methods to preserve ordering
+        Registration[] current = registrations;
+        Registration[] next = new Registration[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        System.arraycopy(current, index + 1, next, index, next.length - index);
+        registrations = next;
       }
     }
 
 
-//    protected int findIndex(Object object, Method method) {
     protected int findIndex(Object object) {
-      for (int i = 0; i < count; i++) {
-        if (objects[i] == object) {
-//        if (objects[i] == object && methods[i].equals(method)) {
-          //objects[i].equals() might be overridden, so use == for safety
-          // since here we do care about actual object identity
-          //methods[i]==method is never true even for same method, so must use
-          // equals(), this should be safe because of object identity
+      Registration[] current = registrations;
+      for (int i = 0; i < current.length; i++) {
+        //objects[i].equals() might be overridden, so use == for safety
+        // since here we do care about actual object identity
+        if (current[i].object == object) {
           return i;
         }
       }
@@ -1516,6 +1542,43 @@ public class PApplet implements PConstants {
   }
 
 
+  static class Registration {
+    final Object object;
+    final Method method;
+    // Bound to the object and adapted to ()V or (Object)V, or null when
+    // the method can only be called through reflection.
+    final MethodHandle handle;
+    // timing of this method while profiling
+    PProfiler timingProfiler;
+    PHistogram timing;
+
+    Registration(Object object, Method method) {
+      this.object = object;
+      this.method = method;
+
+      MethodHandle mh = null;
+      try {
+        MethodType type = (method.getParameterTypes().length == 0) ?
+          MethodType.methodType(void.class) :
+          MethodType.methodType(void.class, Object.class);
+        mh = MethodHandles.publicLookup().unreflect(method)
+          .bindTo(object).asType(type);
+      } catch (IllegalAccessException e) {
+        // leave it to Method.invoke(), which reports the same problem
+      }
+      handle = mh;
+    }
+
+    PHistogram getTiming(PProfiler profiler, String name) {
+      if (timingProfiler != profiler) {
+        timing = profiler.getMethodHistogram(name, object);
+        timingProfiler = profiler;
+      }
+      return timing;
+    }
+  }
+
+
   /**
    * Register a built-in event so that it can be fired for libraries, etc.
    * Supported events include:
@@ -1562,7 +1625,7 @@ public class PApplet implements PConstants {
       synchronized (registerLock) {
         RegisteredMethods meth = registerMap.get(name);
         if (meth == null) {
-          meth = new RegisteredMethods();
+          meth = new RegisteredMethods(name);
           registerMap.put(name, meth);
         }
         meth.add(o, method);
@@ -1584,7 +1647,7 @@ public class PApplet implements PConstants {
       synchronized (registerLock) {
         RegisteredMethods meth = registerMap.get(name);
         if (meth == null) {
-          meth = new RegisteredMethods();
+          meth = new RegisteredMethods(name);
           registerMap.put(name, meth);
         }
         meth.add(o, method);
@@ -1622,21 +1685,30 @@ public class PApplet implements PConstants {
 
 
   protected void handleMethods(String methodName) {
-    synchronized (registerLock) {
-      RegisteredMethods meth = registerMap.get(methodName);
-      if (meth != null) {
-        meth.handle();
-      }
+    RegisteredMethods meth = registerMap.get(methodName);
+    if (meth != null) {
+      meth.handle();
+    }
+  }
+
+
+  /**
+   * Call the methods registered for an event that takes one argument,
+   * such as mouseEvent or keyEvent.
+   */
+  protected void handleMethods(String methodName, Object arg) {
+    RegisteredMethods meth = registerMap.get(methodName);
+    if (meth != null) {
+      meth.handle(arg);
     }
   }
 
 
   protected void handleMethods(String methodName, Object[] args) {
-    synchronized (registerLock) {
-      RegisteredMethods meth = registerMap.get(methodName);
-      if (meth != null) {
-        meth.handle(args);
-      }
+    if (args.length == 0) {
+      handleMethods(methodName);
+    } else {
+      handleMethods(methodName, args[0]);
     }
   }
 
@@ -1853,6 +1925,20 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Called at a fixed rate, separate from draw(), once an update rate has
+   * been set with the surface's PFrameScheduler. Useful for physics or
+   * simulations that should advance in equal steps whatever the frame rate.
+   */
+  public void fixedUpdate() { }
+
+
+  public void handleFixedUpdate() {
+    fixedUpdate();
+    handleMethods("fixedUpdate");
+  }
+
+
   //////////////////////////////////////////////////////////////
 
 
@@ -2416,10 +2502,14 @@ public class PApplet implements PConstants {
     }
 
     insideDraw = true;
+    if (profiler != null && frameCount != 0) {
+      profiler.beginFrame(frameCount);
+    }
     g.beginDraw();
     if (recorder != null) {
       recorder.beginDraw();
     }
+    if (profiler != null) profiler.mark(PProfiler.BEGIN_DRAW);
 
     long now = System.nanoTime();
 
@@ -2472,6 +2562,8 @@ public class PApplet implements PConstants {
       if (frameCount != 0) {
         handleMethods("pre");
       }
+      handleDrawThreadTasks();
+      if (profiler != null) profiler.mark(PProfiler.PRE);
 
       // use dmouseX/Y as previous mouse pos, since this is the
       // last position the mouse was in during the previous draw.
@@ -2481,6 +2573,7 @@ public class PApplet implements PConstants {
         //println("Calling draw()");
       draw();
         //println("Done calling draw()");
+      if (profiler != null) profiler.mark(PProfiler.DRAW);
 
       // dmouseX/Y is updated only once per frame (unlike emouseX/Y)
       dmouseX = mouseX;
@@ -2491,8 +2584,15 @@ public class PApplet implements PConstants {
       // be before, since a call to background() would wipe
       // out anything that had been drawn so far.
       dequeueEvents();
+      if (profiler != null) profiler.mark(PProfiler.EVENTS);
 
       handleMethods("draw");
+      if (profiler != null) profiler.mark(PProfiler.LIBRARY_DRAW);
+
+      if (frameRecorder != null) {
+        frameRecorder.addFrame(g);
+        if (profiler != null) profiler.mark(PProfiler.RECORDING);
+      }
 
       redraw = false;  // unset 'redraw' flag in case it was set
       // (only do this once draw() has run, not just setup())
@@ -2507,10 +2607,12 @@ public class PApplet implements PConstants {
       recorder.endDraw();
     }
     insideDraw = false;
+    if (profiler != null) profiler.mark(PProfiler.END_DRAW);
 
     if (frameCount != 0) {
       handleMethods("post");
     }
+    if (profiler != null) profiler.mark(PProfiler.POST);
 
     frameRateLastNanos = now;
     frameCount++;
@@ -2626,7 +2728,7 @@ public class PApplet implements PConstants {
   //////////////////////////////////////////////////////////////
 
 
-  BlockingQueue<Event> eventQueue = new LinkedBlockingQueue<>();
+  PEventQueue eventQueue = new PEventQueue();
   private final Object eventQueueDequeueLock = new Object[0];
 
 
@@ -2643,19 +2745,31 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * The queue holding input events until the next frame. Use it to turn
+   * on coalescing of mouse motion, to get every MOVE and DRAG event of the
+   * last frame, or to check how long events wait before being handled.
+   */
+  public PEventQueue getEventQueue() {
+    return eventQueue;
+  }
+
+
   protected void dequeueEvents() {
     synchronized (eventQueueDequeueLock) {
-      while (!eventQueue.isEmpty()) {
-        Event e = eventQueue.remove();
-        switch (e.getFlavor()) {
-        case Event.MOUSE:
-          handleMouseEvent((MouseEvent) e);
-          break;
-        case Event.KEY:
-          handleKeyEvent((KeyEvent) e);
-          break;
-        }
-      }
+      eventQueue.handle(this);
+    }
+  }
+
+
+  protected void handleEvent(Event e) {
+    switch (e.getFlavor()) {
+    case Event.MOUSE:
+      handleMouseEvent((MouseEvent) e);
+      break;
+    case Event.KEY:
+      handleKeyEvent((KeyEvent) e);
+      break;
     }
   }
 
@@ -2746,7 +2860,7 @@ public class PApplet implements PConstants {
       break;
     }
 
-    handleMethods("mouseEvent", new Object[] { event });
+    handleMethods("mouseEvent", event);
 
     switch (action) {
     case MouseEvent.PRESS:
@@ -3018,7 +3132,7 @@ public class PApplet implements PConstants {
     }
     */
 
-    handleMethods("keyEvent", new Object[] { event });
+    handleMethods("keyEvent", event);
 
     // if someone else wants to intercept the key, they should
     // set key to zero (or something besides the ESC).
@@ -3829,12 +3943,20 @@ public class PApplet implements PConstants {
     // don't run the disposers twice
     if (surface.stopThread()) {
 
+      // finish writing any frames that are still queued
+      stopRecording();
+      // and close the profiler's output file
+      noProfile();
+
       // shut down renderer
       if (g != null) {
         g.dispose();
       }
       // run dispose() methods registered by libraries
       handleMethods("dispose");
+
+      // no more background work for this sketch
+      shutdownTasks();
     }
 
     if (platform == MACOSX) {
@@ -3899,13 +4021,153 @@ public class PApplet implements PConstants {
    * @see PApplet#noLoop()
    */
   public void thread(final String name) {
-    Thread later = new Thread() {
-      @Override
+    // Threads are reused, so calling this every frame doesn't create a new
+    // thread each time. The pool grows as needed, so a function that never
+    // returns still gets a thread of its own.
+    if (threadPool == null) {
+      synchronized (taskLock) {
+        if (threadPool == null) {
+          threadPool = Executors.newCachedThreadPool(new ThreadFactory() {
+            int count;
+
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "thread() " + (++count));
+              t.setDaemon(true);
+              return t;
+            }
+          });
+        }
+      }
+    }
+    threadPool.execute(new Runnable() {
       public void run() {
         method(name);
       }
-    };
-    later.start();
+    });
+  }
+
+
+  static final String TASK_THREAD_PREFIX = "Processing Task";
+
+  private final Object taskLock = new Object[0];
+  // shared by runAsync() and the request*() functions
+  private volatile ExecutorService taskPool;
+  // used by thread()
+  private volatile ExecutorService threadPool;
+  // added to by runOnDrawThread(), run at the start of each frame
+  private final Queue<Runnable> drawThreadTasks = new ConcurrentLinkedQueue<>();
+
+
+  /**
+   * The thread pool shared by runAsync(), requestImage() and the other
+   * request functions. A work stealing pool with at least four threads, or
+   * one per processor on larger machines. Its threads are daemon threads,
+   * so they don't keep the sketch from quitting, and the pool is shut down
+   * by dispose().
+   */
+  public ExecutorService getTaskPool() {
+    if (taskPool == null) {
+      synchronized (taskLock) {
+        if (taskPool == null) {
+          int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+          ForkJoinPool.ForkJoinWorkerThreadFactory factory =
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            int count;
+
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+              ForkJoinWorkerThread t =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+              t.setName(TASK_THREAD_PREFIX + " " + (++count));
+              return t;
+            }
+          };
+          taskPool = new ForkJoinPool(threads, factory, null, true);
+        }
+      }
+    }
+    return taskPool;
+  }
+
+
+  /**
+   * True if called from one of the sketch's task threads (or one of the
+   * older requestImage() threads) rather than from the animation thread.
+   */
+  static boolean isTaskThread() {
+    String name = Thread.currentThread().getName();
+    return name.startsWith(TASK_THREAD_PREFIX) ||
+      name.startsWith(REQUEST_IMAGE_THREAD_PREFIX);
+  }
+
+
+  /**
+   * Run a task on the sketch's thread pool. Errors are printed to the
+   * console as they would be with thread(), and also complete the returned
+   * future, which can be used to wait for the task or chain more work.
+   * <p/>
+   * Drawing can only happen on the animation thread: use runOnDrawThread()
+   * to pass results back to it.
+   */
+  public CompletableFuture<Void> runAsync(final Runnable task) {
+    return supplyAsync(new Supplier<Void>() {
+      public Void get() {
+        task.run();
+        return null;
+      }
+    });
+  }
+
+
+  /**
+   * Like runAsync(), for a task that produces a result.
+   */
+  public <T> CompletableFuture<T> supplyAsync(final Supplier<T> task) {
+    return CompletableFuture.supplyAsync(new Supplier<T>() {
+      public T get() {
+        try {
+          return task.get();
+        } catch (RuntimeException | Error e) {
+          printStackTrace(e);
+          throw e;
+        }
+      }
+    }, getTaskPool());
+  }
+
+
+  /**
+   * Run a task on the animation thread, right before the next draw(),
+   * where it's safe to draw or to change variables that draw() uses.
+   * Can be called from any thread.
+   */
+  public void runOnDrawThread(Runnable task) {
+    drawThreadTasks.add(task);
+  }
+
+
+  protected void handleDrawThreadTasks() {
+    Runnable task;
+    while ((task = drawThreadTasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+
+  protected void shutdownTasks() {
+    if (requestQueue != null) {
+      requestQueue.cancelAll();
+    }
+    synchronized (taskLock) {
+      if (taskPool != null) {
+        taskPool.shutdown();
+        taskPool = null;
+      }
+      if (threadPool != null) {
+        threadPool.shutdown();
+        threadPool = null;
+      }
+    }
+    drawThreadTasks.clear();
   }
 
 
@@ -4017,6 +4279,79 @@ public class PApplet implements PConstants {
   }
 
 
+  protected PRecorder frameRecorder;
+
+  /** Set by profile(), null when not profiling. */
+  protected volatile PProfiler profiler;
+
+
+  /**
+   * Start saving every frame to a numbered sequence of images, using a
+   * pool of background encoder threads. See PRecorder for the options.
+   *
+   * @param pattern file name with #### marks for the frame number
+   * @see PApplet#stopRecording()
+   */
+  public PRecorder startRecording(String pattern) {
+    return startRecording(pattern, new PRecorder());
+  }
+
+
+  /**
+   * @param options recorder with its queue depth, policy, etc. already set
+   */
+  public PRecorder startRecording(String pattern, PRecorder options) {
+    stopRecording();
+    options.start(this, pattern);
+    frameRecorder = options;
+    return options;
+  }
+
+
+  /**
+   * Stop recording frames, after the frames already captured are written.
+   */
+  public void stopRecording() {
+    if (frameRecorder != null) {
+      frameRecorder.stop();
+      frameRecorder = null;
+    }
+  }
+
+
+
+  /**
+   * Start measuring how long each part of a frame takes: pre(), draw(),
+   * events, registered library methods, endDraw() and so on. Returns the
+   * PProfiler that holds the results, see getSummary() and getFrames().
+   * Calling it again while profiling returns the same object.
+   */
+  public PProfiler profile() {
+    if (profiler == null) {
+      profiler = new PProfiler(this);
+    }
+    return profiler;
+  }
+
+
+  /**
+   * Stop profiling. The results stay available from the PProfiler
+   * returned by profile().
+   */
+  public void noProfile() {
+    if (profiler != null) {
+      profiler.dispose();
+      profiler = null;
+    }
+  }
+
+
+  /** The active profiler, or null if not profiling. */
+  public PProfiler getProfiler() {
+    return profiler;
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -5227,22 +5562,18 @@ public class PApplet implements PConstants {
   // implementation by the german demo group farbrausch
   // as used in their demo "art": http://www.farb-rausch.de/fr010src.zip
 
-  static final int PERLIN_YWRAPB = 4;
-  static final int PERLIN_YWRAP = 1<<PERLIN_YWRAPB;
-  static final int PERLIN_ZWRAPB = 8;
-  static final int PERLIN_ZWRAP = 1<<PERLIN_ZWRAPB;
-  static final int PERLIN_SIZE = 4095;
+  // The implementation lives in PNoise, so that it can be used
+  // without a PApplet, and from more than one thread.
 
-  int perlin_octaves = 4; // default to medium smooth
-  float perlin_amp_falloff = 0.5f; // 50% reduction/octave
+  PNoise perlinNoise;
 
-  // [toxi 031112]
-  // new vars needed due to recent change of cos table in PGraphics
-  int perlin_TWOPI, perlin_PI;
-  float[] perlin_cosTable;
-  float[] perlin;
 
-  Random perlinRandom;
+  PNoise perlinNoise() {
+    if (perlinNoise == null) {
+      perlinNoise = new PNoise();
+    }
+    return perlinNoise;
+  }
 
 
   /**
@@ -5298,77 +5629,20 @@ public class PApplet implements PConstants {
    * @see PApplet#random(float,float)
    */
   public float noise(float x, float y, float z) {
-    if (perlin == null) {
-      if (perlinRandom == null) {
-        perlinRandom = new Random();
-      }
-      perlin = new float[PERLIN_SIZE + 1];
-      for (int i = 0; i < PERLIN_SIZE + 1; i++) {
-        perlin[i] = perlinRandom.nextFloat(); //(float)Math.random();
-      }
-      // [toxi 031112]
-      // noise broke due to recent change of cos table in PGraphics
-      // this will take care of it
-      perlin_cosTable = PGraphics.cosLUT;
-      perlin_TWOPI = perlin_PI = PGraphics.SINCOS_LENGTH;
-      perlin_PI >>= 1;
-    }
-
-    if (x<0) x=-x;
-    if (y<0) y=-y;
-    if (z<0) z=-z;
-
-    int xi=(int)x, yi=(int)y, zi=(int)z;
-    float xf = x - xi;
-    float yf = y - yi;
-    float zf = z - zi;
-    float rxf, ryf;
-
-    float r=0;
-    float ampl=0.5f;
-
-    float n1,n2,n3;
-
-    for (int i=0; i<perlin_octaves; i++) {
-      int of=xi+(yi<<PERLIN_YWRAPB)+(zi<<PERLIN_ZWRAPB);
-
-      rxf=noise_fsc(xf);
-      ryf=noise_fsc(yf);
-
-      n1  = perlin[of&PERLIN_SIZE];
-      n1 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n1);
-      n2  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
-      n2 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n2);
-      n1 += ryf*(n2-n1);
-
-      of += PERLIN_ZWRAP;
-      n2  = perlin[of&PERLIN_SIZE];
-      n2 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n2);
-      n3  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
-      n3 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n3);
-      n2 += ryf*(n3-n2);
-
-      n1 += noise_fsc(zf)*(n2-n1);
-
-      r += n1*ampl;
-      ampl *= perlin_amp_falloff;
-      xi<<=1; xf*=2;
-      yi<<=1; yf*=2;
-      zi<<=1; zf*=2;
-
-      if (xf>=1.0f) { xi++; xf--; }
-      if (yf>=1.0f) { yi++; yf--; }
-      if (zf>=1.0f) { zi++; zf--; }
-    }
-    return r;
+    return perlinNoise().noise(x, y, z);
   }
 
-  // [toxi 031112]
-  // now adjusts to the size of the cosLUT used via
-  // the new variables, defined above
-  private float noise_fsc(float i) {
-    // using bagel's cosine table instead
-    return 0.5f*(1.0f-perlin_cosTable[(int)(i*perlin_PI)%perlin_TWOPI]);
+
+  /**
+   * Fill an array with a w by h grid of noise values, starting at (x0, y0)
+   * with values dx and dy apart. Same as calling noise() for each point,
+   * only faster.
+   *
+   * @see PNoise#noiseField(float, float, float, float, int, int, float[])
+   */
+  public float[] noiseField(float x0, float y0, float dx, float dy,
+                            int w, int h, float[] out) {
+    return perlinNoise().noiseField(x0, y0, dx, dy, w, h, out);
   }
 
   // [toxi 040903]
@@ -5400,7 +5674,7 @@ public class PApplet implements PConstants {
    * @see PApplet#noise(float, float, float)
    */
   public void noiseDetail(int lod) {
-    if (lod>0) perlin_octaves=lod;
+    perlinNoise().noiseDetail(lod);
   }
 
   /**
@@ -5408,8 +5682,7 @@ public class PApplet implements PConstants {
    * @param falloff falloff factor for each octave
    */
   public void noiseDetail(int lod, float falloff) {
-    if (lod>0) perlin_octaves=lod;
-    if (falloff>0) perlin_amp_falloff=falloff;
+    perlinNoise().noiseDetail(lod, falloff);
   }
 
   /**
@@ -5429,10 +5702,7 @@ public class PApplet implements PConstants {
    * @see PApplet#randomSeed(long)
    */
   public void noiseSeed(long seed) {
-    if (perlinRandom == null) perlinRandom = new Random();
-    perlinRandom.setSeed(seed);
-    // force table reset after changing the random number seed [0122]
-    perlin = null;
+    perlinNoise().noiseSeed(seed);
   }
 
 
@@ -5442,6 +5712,28 @@ public class PApplet implements PConstants {
 
   protected String[] loadImageFormats;
 
+  /** Cache used by loadImage(), loadShape(), and loadFont(), or null. */
+  protected volatile PAssetCache assetCache;
+
+
+  /**
+   * Keep the images, shapes, and fonts loaded by this sketch in a cache,
+   * so that loading the same file again doesn't decode it again. Use
+   * PAssetCache.getShared() to share one cache between several sketches,
+   * or null to turn the cache off (the default).
+   *
+   * @see PAssetCache
+   */
+  public void setAssetCache(PAssetCache cache) {
+    assetCache = cache;
+  }
+
+
+  public PAssetCache getAssetCache() {
+    return assetCache;
+  }
+
+
   /**
    * ( begin auto-generated from loadImage.xml )
    *
@@ -5509,10 +5801,30 @@ public class PApplet implements PConstants {
     // awaitAsyncSaveCompletion() has to run on the main thread, because P2D
     // and P3D call GL functions. If this runs on background, requestImage()
     // already called awaitAsyncSaveCompletion() on the main thread.
-    if (g != null && !Thread.currentThread().getName().startsWith(REQUEST_IMAGE_THREAD_PREFIX)) {
+    if (g != null && !isTaskThread()) {
       g.awaitAsyncSaveCompletion(filename);
     }
 
+    PAssetCache cache = assetCache;
+    if (cache == null) {
+      return loadImageImpl(filename, extension);
+    }
+    String kind = (extension == null) ? "image" : "image/" + extension;
+    String key = cache.getKey(this, filename, kind);
+    PImage image = cache.getImage(key);
+    if (image == null) {
+      image = loadImageImpl(filename, extension);
+      if (image == null || image.width == -1) {
+        return image;  // don't keep broken images around
+      }
+      image = cache.putImage(key, image);
+    }
+    image.parent = this;
+    return image;
+  }
+
+
+  protected PImage loadImageImpl(String filename, String extension) {
     if (extension == null) {
       String lower = filename.toLowerCase();
       int dot = filename.lastIndexOf('.');
@@ -5638,8 +5950,6 @@ public class PApplet implements PConstants {
 
 
   static private final String REQUEST_IMAGE_THREAD_PREFIX = "requestImage";
-  // fixed-size thread pool used by requestImage()
-  ExecutorService requestImagePool;
 
 
   public PImage requestImage(String filename) {
@@ -5677,16 +5987,7 @@ public class PApplet implements PConstants {
     }
     PImage vessel = createImage(0, 0, ARGB);
 
-    // if the image loading thread pool hasn't been created, create it
-    if (requestImagePool == null) {
-      ThreadFactory factory = new ThreadFactory() {
-        public Thread newThread(Runnable r) {
-          return new Thread(r, REQUEST_IMAGE_THREAD_PREFIX);
-        }
-      };
-      requestImagePool = Executors.newFixedThreadPool(4, factory);
-    }
-    requestImagePool.execute(() -> {
+    getTaskPool().execute(() -> {
       PImage actual = loadImage(filename, extension);
 
       // An error message should have already printed
@@ -5709,6 +6010,172 @@ public class PApplet implements PConstants {
   }
 
 
+  private PRequestQueue requestQueue;
+
+
+  /**
+   * The queue behind requestTable(), requestJSONObject() and the other
+   * request functions, to check how many files are still loading or to
+   * change how many are loaded at once.
+   */
+  public PRequestQueue getRequestQueue() {
+    synchronized (taskLock) {
+      if (requestQueue == null) {
+        requestQueue = new PRequestQueue(this);
+      }
+      return requestQueue;
+    }
+  }
+
+
+  /**
+   * Load a text file in the background, the same as loadStrings() but
+   * without holding up draw(). See PRequest for how to get the result.
+   */
+  public PRequest<String[]> requestStrings(String filename) {
+    return getRequestQueue().request("strings:" + filename, filename,
+                                     new PRequest.Loader<String[]>() {
+      public String[] load(PRequest<String[]> request) throws IOException {
+        InputStream input = request.createInput();
+        if (input == null) {
+          System.err.println("The file \"" + filename + "\" " +
+                             "is missing or inaccessible, make sure " +
+                             "the URL is valid or that the file has been " +
+                             "added to your sketch and is readable.");
+          return null;
+        }
+        try {
+          return loadStrings(input);
+        } finally {
+          input.close();
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Load a file as bytes in the background, like loadBytes().
+   */
+  public PRequest<byte[]> requestBytes(String filename) {
+    return getRequestQueue().request("bytes:" + filename, filename,
+                                     new PRequest.Loader<byte[]>() {
+      public byte[] load(PRequest<byte[]> request) throws IOException {
+        InputStream input = request.createInput();
+        if (input == null) {
+          System.err.println("The file \"" + filename + "\" " +
+                             "is missing or inaccessible, make sure " +
+                             "the URL is valid or that the file has been " +
+                             "added to your sketch and is readable.");
+          return null;
+        }
+        try {
+          return loadBytes(input);
+        } finally {
+          input.close();
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Load a JSON object in the background, like loadJSONObject().
+   */
+  public PRequest<JSONObject> requestJSONObject(String filename) {
+    return getRequestQueue().request("json-object:" + filename, filename,
+                                     new PRequest.Loader<JSONObject>() {
+      public JSONObject load(PRequest<JSONObject> request) throws IOException {
+        InputStream input = request.createInput();
+        if (input == null) {
+          System.err.println(filename + " does not exist or could not be read");
+          return null;
+        }
+        BufferedReader reader = createReader(input);
+        try {
+          return new JSONObject(reader);
+        } finally {
+          reader.close();
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Load a JSON array in the background, like loadJSONArray().
+   */
+  public PRequest<JSONArray> requestJSONArray(String filename) {
+    return getRequestQueue().request("json-array:" + filename, filename,
+                                     new PRequest.Loader<JSONArray>() {
+      public JSONArray load(PRequest<JSONArray> request) throws IOException {
+        InputStream input = request.createInput();
+        if (input == null) {
+          System.err.println(filename + " does not exist or could not be read");
+          return null;
+        }
+        BufferedReader reader = createReader(input);
+        try {
+          return new JSONArray(reader);
+        } finally {
+          reader.close();
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Load a Table in the background, like loadTable().
+   */
+  public PRequest<Table> requestTable(String filename) {
+    return requestTable(filename, null);
+  }
+
+
+  /**
+   * @param options may contain "header", "tsv", "csv", or "bin" separated by commas
+   */
+  public PRequest<Table> requestTable(final String filename,
+                                      final String options) {
+    String key = "table:" + filename + (options == null ? "" : "?" + options);
+    return getRequestQueue().request(key, filename,
+                                     new PRequest.Loader<Table>() {
+      public Table load(PRequest<Table> request) throws IOException {
+        String optionStr = Table.extensionOptions(true, filename, options);
+        if (optionStr.contains("dictionary=")) {
+          // needs a second file, leave that to loadTable()
+          return loadTable(filename, options);
+        }
+        InputStream input = request.createInput();
+        if (input == null) {
+          System.err.println(filename + " does not exist or could not be read");
+          return null;
+        }
+        try {
+          return new Table(input, optionStr);
+        } finally {
+          input.close();
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Load a shape in the background, like loadShape(). As with
+   * requestImage(), the shape is made for the main renderer.
+   */
+  public PRequest<PShape> requestShape(final String filename) {
+    return getRequestQueue().request("shape:" + filename, filename,
+                                     new PRequest.Loader<PShape>() {
+      public PShape load(PRequest<PShape> request) {
+        return loadShape(filename);
+      }
+    });
+  }
+
+
   /**
    * Use Java 1.4 ImageIO methods to load an image.
    */
@@ -6306,6 +6773,51 @@ public class PApplet implements PConstants {
 
 
 
+  //////////////////////////////////////////////////////////////
+
+  // SHAPE I/O
+
+  /**
+   * @webref shape
+   * @param filename name of file to load, can be .svg or .obj
+   * @see PShape
+   * @see PApplet#createShape()
+   */
+  public PShape loadShape(String filename) {
+    return loadShape(filename, null);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  public PShape loadShape(String filename, String options) {
+    PAssetCache cache = assetCache;
+    String key = null;
+    if (cache != null) {
+      // OpenGL shapes belong to the renderer that loaded them, so shapes
+      // are only shared between loads on the same renderer
+      String kind = "shape " + g.getClass().getName() + "@" +
+        Integer.toHexString(System.identityHashCode(g));
+      if (options != null) {
+        kind += " " + options;
+      }
+      key = cache.getKey(this, filename, kind);
+      PShape shape = cache.getShape(key);
+      if (shape != null) {
+        return shape;
+      }
+    }
+    PShape shape = (options == null) ?
+      g.loadShape(filename) : g.loadShape(filename, options);
+    if (cache != null && shape != null) {
+      cache.putShape(key, shape);
+    }
+    return shape;
+  }
+
+
+
   //////////////////////////////////////////////////////////////
 
   // FONT I/O
@@ -6346,9 +6858,22 @@ public class PApplet implements PConstants {
     if (!filename.toLowerCase().endsWith(".vlw")) {
       throw new IllegalArgumentException("loadFont() is for .vlw files, try createFont()");
     }
+    PAssetCache cache = assetCache;
+    String key = null;
+    if (cache != null) {
+      key = cache.getKey(this, filename, "font");
+      PFont font = cache.getFont(key);
+      if (font != null) {
+        return font;
+      }
+    }
     try {
       InputStream input = createInput(filename);
-      return new PFont(input);
+      PFont font = new PFont(input);
+      if (cache != null) {
+        cache.putFont(key, font);
+      }
+      return font;
 
     } catch (Exception e) {
       die("Could not load font " + filename + ". " +
@@ -6426,6 +6951,23 @@ public class PApplet implements PConstants {
 
 
 
+  /**
+   * Set the cache used to remember the width of strings and where text
+   * in a box breaks into lines. Pass null to measure everything each time.
+   * The recorder, if any, gets a cache of its own with the same capacity,
+   * since its measurements can differ from those of the main renderer.
+   * @see PTextCache
+   */
+  public void setTextCache(PTextCache cache) {
+    if (recorder != null) {
+      recorder.setTextCache((cache == null) ?
+                            null : new PTextCache(cache.getCapacity()));
+    }
+    g.setTextCache(cache);
+  }
+
+
+
   //////////////////////////////////////////////////////////////
 
   // FILE/FOLDER SELECTION
@@ -9148,17 +9690,50 @@ public class PApplet implements PConstants {
    * @see PApplet#trim(String)
    */
   static public String[] splitTokens(String value, String delim) {
-    StringTokenizer toker = new StringTokenizer(value, delim);
-    String pieces[] = new String[toker.countTokens()];
-
+    // count first so that the array can be filled without a temporary list
+    String pieces[] = new String[countTokens(value, delim)];
     int index = 0;
-    while (toker.hasMoreTokens()) {
-      pieces[index++] = toker.nextToken();
+    int length = value.length();
+    int start = -1;
+    for (int i = 0; i < length; i++) {
+      if (isDelim(value.charAt(i), delim)) {
+        if (start != -1) {
+          pieces[index++] = value.substring(start, i);
+          start = -1;
+        }
+      } else if (start == -1) {
+        start = i;
+      }
+    }
+    if (start != -1) {
+      pieces[index] = value.substring(start);
     }
     return pieces;
   }
 
 
+  static private int countTokens(String value, String delim) {
+    int count = 0;
+    boolean inside = false;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (isDelim(value.charAt(i), delim)) {
+        inside = false;
+      } else if (!inside) {
+        inside = true;
+        count++;
+      }
+    }
+    return count;
+  }
+
+
+  static private boolean isDelim(char c, String delim) {
+    // the usual case, a single delimiter (or whitespace) checked inline
+    return (delim.length() == 1) ? c == delim.charAt(0) : delim.indexOf(c) != -1;
+  }
+
+
   /**
    * ( begin auto-generated from split.xml )
    *
@@ -9197,75 +9772,134 @@ public class PApplet implements PConstants {
     // do this so that the exception occurs inside the user's
     // program, rather than appearing to be a bug inside split()
     if (value == null) return null;
-    //return split(what, String.valueOf(delim));  // huh
-
-    char chars[] = value.toCharArray();
-    int splitCount = 0; //1;
-    for (int i = 0; i < chars.length; i++) {
-      if (chars[i] == delim) splitCount++;
-    }
-    // make sure that there is something in the input string
-    //if (chars.length > 0) {
-      // if the last char is a delimeter, get rid of it..
-      //if (chars[chars.length-1] == delim) splitCount--;
-      // on second thought, i don't agree with this, will disable
-    //}
+
+    // count the pieces first, then cut them straight out of the String,
+    // rather than making a copy of all the chars
+    int length = value.length();
+    int splitCount = splitCount(value, delim) - 1;
+    String splits[] = new String[splitCount + 1];
     if (splitCount == 0) {
-      String splits[] = new String[1];
       splits[0] = value;
       return splits;
     }
-    //int pieceCount = splitCount + 1;
-    String splits[] = new String[splitCount + 1];
     int splitIndex = 0;
     int startIndex = 0;
-    for (int i = 0; i < chars.length; i++) {
-      if (chars[i] == delim) {
-        splits[splitIndex++] =
-          new String(chars, startIndex, i-startIndex);
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) == delim) {
+        splits[splitIndex++] = value.substring(startIndex, i);
         startIndex = i + 1;
       }
     }
-    //if (startIndex != chars.length) {
-      splits[splitIndex] =
-        new String(chars, startIndex, chars.length-startIndex);
-    //}
+    splits[splitIndex] = value.substring(startIndex);
     return splits;
   }
 
 
-  static public String[] split(String value, String delim) {
-    List<String> items = new ArrayList<>();
+  /**
+   * Split into a list that's passed in, which can be reused for each line
+   * of a file to avoid making a new array every time.
+   *
+   * @param outgoing list to be cleared and filled with the pieces
+   * @return the same list, for convenience
+   */
+  static public StringList split(String value, char delim,
+                                 StringList outgoing) {
+    outgoing.clear();
+    int startIndex = 0;
     int index;
+    while ((index = value.indexOf(delim, startIndex)) != -1) {
+      outgoing.append(value.substring(startIndex, index));
+      startIndex = index + 1;
+    }
+    outgoing.append(value.substring(startIndex));
+    return outgoing;
+  }
+
+
+  /**
+   * Find where the pieces of a split() would start and end, without
+   * creating any Strings. Piece i is value.substring(offsets[i*2],
+   * offsets[i*2+1]). Useful to parse numbers or compare fields in place.
+   *
+   * @param offsets array for the start and end of each piece, grown as
+   * needed when too small (or null)
+   * @return the offsets array, which is larger than needed when the array
+   * passed in was large enough, use splitCount() for the number of pieces
+   */
+  static public int[] splitOffsets(String value, char delim, int[] offsets) {
+    int count = splitCount(value, delim);
+    if (offsets == null || offsets.length < count*2) {
+      offsets = new int[count*2];
+    }
+    int startIndex = 0;
+    int index;
+    int i = 0;
+    while ((index = value.indexOf(delim, startIndex)) != -1) {
+      offsets[i++] = startIndex;
+      offsets[i++] = index;
+      startIndex = index + 1;
+    }
+    offsets[i++] = startIndex;
+    offsets[i] = value.length();
+    return offsets;
+  }
+
+
+  /** Number of pieces split(value, delim) would return. */
+  static public int splitCount(String value, char delim) {
+    int count = 1;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) == delim) count++;
+    }
+    return count;
+  }
+
+
+  static public String[] split(String value, String delim) {
+    if (delim.length() == 1) {
+      return split(value, delim.charAt(0));
+    }
+    if (delim.length() == 0) {
+      // would otherwise match at the same spot forever
+      return new String[] { value };
+    }
+    int count = 1;
+    int index = 0;
+    while ((index = value.indexOf(delim, index)) != -1) {
+      count++;
+      index += delim.length();
+    }
+    String[] outgoing = new String[count];
     int offset = 0;
+    int i = 0;
     while ((index = value.indexOf(delim, offset)) != -1) {
-      items.add(value.substring(offset, index));
+      outgoing[i++] = value.substring(offset, index);
       offset = index + delim.length();
     }
-    items.add(value.substring(offset));
-    String[] outgoing = new String[items.size()];
-    items.toArray(outgoing);
+    outgoing[i] = value.substring(offset);
     return outgoing;
   }
 
 
-  static protected LinkedHashMap<String, Pattern> matchPatterns;
+  // Largest number of compiled patterns kept for match() and matchAll()
+  static final int MATCH_PATTERN_COUNT = 64;
+
+  static protected final Map<String, Pattern> matchPatterns =
+    new ConcurrentHashMap<>();
 
   static Pattern matchPattern(String regexp) {
-    Pattern p = null;
-    if (matchPatterns == null) {
-      matchPatterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
-          // Limit the number of match patterns at 10 most recently used
-          return size() == 10;
-        }
-      };
-    } else {
-      p = matchPatterns.get(regexp);
-    }
+    Pattern p = matchPatterns.get(regexp);
     if (p == null) {
       p = Pattern.compile(regexp, Pattern.MULTILINE | Pattern.DOTALL);
+      if (matchPatterns.size() >= MATCH_PATTERN_COUNT) {
+        // make room by dropping any one of them, cheaper than tracking
+        // which was used least recently on every call
+        Iterator<String> it = matchPatterns.keySet().iterator();
+        if (it.hasNext()) {
+          matchPatterns.remove(it.next());
+        }
+      }
       matchPatterns.put(regexp, p);
     }
     return p;
@@ -9901,14 +10535,6 @@ public class PApplet implements PConstants {
     return outgoing;
   }
 
-  /**
-   * Integer number formatter.
-   */
-
-  static private NumberFormat int_nf;
-  static private int int_nf_digits;
-  static private boolean int_nf_commas;
-
   /**
    * ( begin auto-generated from nf.xml )
    *
@@ -9944,18 +10570,15 @@ public class PApplet implements PConstants {
    * @param num the number to format
    */
   static public String nf(int num, int digits) {
-    if ((int_nf != null) &&
-        (int_nf_digits == digits) &&
-        !int_nf_commas) {
-      return int_nf.format(num);
+    String fast = formatNumber(num < 0, Math.abs((long) num), 0, 0,
+                               Math.max(0, digits), false);
+    if (fast != null) {
+      return fast;
     }
-
-    int_nf = NumberFormat.getInstance();
-    int_nf.setGroupingUsed(false); // no commas
-    int_nf_commas = false;
-    int_nf.setMinimumIntegerDigits(digits);
-    int_nf_digits = digits;
-    return int_nf.format(num);
+    NumberFormat format = NumberFormat.getInstance();
+    format.setGroupingUsed(false); // no commas
+    format.setMinimumIntegerDigits(digits);
+    return format.format(num);
   }
 
   /**
@@ -9989,18 +10612,14 @@ public class PApplet implements PConstants {
    * @param num the number to format
    */
   static public String nfc(int num) {
-    if ((int_nf != null) &&
-        (int_nf_digits == 0) &&
-        int_nf_commas) {
-      return int_nf.format(num);
+    String fast = formatNumber(num < 0, Math.abs((long) num), 0, 0, 0, true);
+    if (fast != null) {
+      return fast;
     }
-
-    int_nf = NumberFormat.getInstance();
-    int_nf.setGroupingUsed(true);
-    int_nf_commas = true;
-    int_nf.setMinimumIntegerDigits(0);
-    int_nf_digits = 0;
-    return int_nf.format(num);
+    NumberFormat format = NumberFormat.getInstance();
+    format.setGroupingUsed(true);
+    format.setMinimumIntegerDigits(0);
+    return format.format(num);
   }
 
 
@@ -10088,10 +10707,6 @@ public class PApplet implements PConstants {
 
   // FLOAT NUMBER FORMATTING
 
-  static private NumberFormat float_nf;
-  static private int float_nf_left, float_nf_right;
-  static private boolean float_nf_commas;
-
   /**
    * @param left number of digits to the left of the decimal point
    * @param right number of digits to the right of the decimal point
@@ -10105,25 +10720,19 @@ public class PApplet implements PConstants {
   }
 
   static public String nf(float num, int left, int right) {
-    if ((float_nf != null) &&
-        (float_nf_left == left) &&
-        (float_nf_right == right) &&
-        !float_nf_commas) {
-      return float_nf.format(num);
-    }
-
-    float_nf = NumberFormat.getInstance();
-    float_nf.setGroupingUsed(false);
-    float_nf_commas = false;
-
-    if (left != 0) float_nf.setMinimumIntegerDigits(left);
+    String fast = formatFloat(num, (left != 0) ? Math.max(0, left) : 1,
+                              right, false);
+    if (fast != null) {
+      return fast;
+    }
+    NumberFormat format = NumberFormat.getInstance();
+    format.setGroupingUsed(false);
+    if (left != 0) format.setMinimumIntegerDigits(left);
     if (right != 0) {
-      float_nf.setMinimumFractionDigits(right);
-      float_nf.setMaximumFractionDigits(right);
+      format.setMinimumFractionDigits(right);
+      format.setMaximumFractionDigits(right);
     }
-    float_nf_left = left;
-    float_nf_right = right;
-    return float_nf.format(num);
+    return format.format(num);
   }
 
   /**
@@ -10138,24 +10747,17 @@ public class PApplet implements PConstants {
   }
 
   static public String nfc(float num, int right) {
-    if ((float_nf != null) &&
-        (float_nf_left == 0) &&
-        (float_nf_right == right) &&
-        float_nf_commas) {
-      return float_nf.format(num);
+    String fast = formatFloat(num, 1, right, true);
+    if (fast != null) {
+      return fast;
     }
-
-    float_nf = NumberFormat.getInstance();
-    float_nf.setGroupingUsed(true);
-    float_nf_commas = true;
-
+    NumberFormat format = NumberFormat.getInstance();
+    format.setGroupingUsed(true);
     if (right != 0) {
-      float_nf.setMinimumFractionDigits(right);
-      float_nf.setMaximumFractionDigits(right);
+      format.setMinimumFractionDigits(right);
+      format.setMaximumFractionDigits(right);
     }
-    float_nf_left = 0;
-    float_nf_right = right;
-    return float_nf.format(num);
+    return format.format(num);
   }
 
 
@@ -10193,6 +10795,154 @@ public class PApplet implements PConstants {
 
 
 
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  // The nf() functions used to keep one NumberFormat around, which was
+  // rebuilt whenever the settings changed and wasn't safe to use from
+  // several threads. The digits are now laid out directly, using the
+  // symbols of the same NumberFormat. Anything unusual (very large
+  // numbers, NaN, a locale with its own grouping) still goes through a
+  // NumberFormat, so the results are exactly the same.
+
+  static private final double[] POW10 = {
+    1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12
+  };
+
+  static private final class NumberSymbols {
+    final Locale locale;
+    final boolean simple;
+    char zero, decimal, grouping;
+    String positivePrefix, positiveSuffix;
+    String negativePrefix, negativeSuffix;
+
+    NumberSymbols(Locale locale) {
+      this.locale = locale;
+      NumberFormat format = NumberFormat.getInstance(locale);
+      if (format instanceof DecimalFormat) {
+        DecimalFormat df = (DecimalFormat) format;
+        DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
+        zero = symbols.getZeroDigit();
+        decimal = symbols.getDecimalSeparator();
+        grouping = symbols.getGroupingSeparator();
+        positivePrefix = df.getPositivePrefix();
+        positiveSuffix = df.getPositiveSuffix();
+        negativePrefix = df.getNegativePrefix();
+        negativeSuffix = df.getNegativeSuffix();
+        simple = (df.getGroupingSize() == 3) && (df.getMultiplier() == 1) &&
+          !df.isDecimalSeparatorAlwaysShown();
+      } else {
+        simple = false;
+      }
+    }
+  }
+
+  static private volatile NumberSymbols numberSymbols;
+
+
+  static private NumberSymbols numberSymbols() {
+    // same locale as NumberFormat.getInstance()
+    Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    NumberSymbols symbols = numberSymbols;
+    if (symbols == null || !symbols.locale.equals(locale)) {
+      symbols = new NumberSymbols(locale);
+      numberSymbols = symbols;
+    }
+    return symbols;
+  }
+
+
+  /**
+   * Format a float the way NumberFormat does with these settings, or
+   * return null if it has to be left to NumberFormat.
+   */
+  static private String formatFloat(float num, int minInteger, int right,
+                                    boolean commas) {
+    // with right == 0 the default of up to 3 decimals is used
+    int decimals = (right == 0) ? 3 : Math.max(0, right);
+    int minDecimals = Math.max(0, right);
+    if (Float.isNaN(num) || Float.isInfinite(num) || decimals >= POW10.length) {
+      return null;
+    }
+    // Exact, since a float has 24 bits and 10^12 fits in 29, and rint()
+    // rounds half to even like NumberFormat does.
+    double scaled = Math.rint(Math.abs((double) num) * POW10[decimals]);
+    if (scaled >= 1e15) {
+      // NumberFormat only looks at the (up to) 17 digits that
+      // Double.toString() gives, so leave the really long ones to it
+      return null;
+    }
+    // NumberFormat keeps the sign of negative numbers that round to zero
+    boolean negative = num < 0 || (num == 0 && 1 / num < 0);
+    return formatNumber(negative, (long) scaled, decimals, minDecimals,
+                        minInteger, commas);
+  }
+
+
+  /**
+   * Lay out a number that has been scaled to a whole number, i.e. 3.14
+   * with 2 decimals is 314. Trailing zeros past minDecimals are dropped.
+   */
+  static private String formatNumber(boolean negative, long scaled,
+                                     int decimals, int minDecimals,
+                                     int minInteger, boolean commas) {
+    NumberSymbols symbols = numberSymbols();
+    if (!symbols.simple) {
+      return null;
+    }
+    String prefix = negative ? symbols.negativePrefix : symbols.positivePrefix;
+    String suffix = negative ? symbols.negativeSuffix : symbols.positiveSuffix;
+    char zero = symbols.zero;
+
+    long whole = scaled;
+    long fraction = 0;
+    if (decimals != 0) {
+      long pow = (long) POW10[decimals];
+      whole = scaled / pow;
+      fraction = scaled % pow;
+    }
+    // drop trailing zeros down to the minimum number of decimals
+    int shown = decimals;
+    while (shown > minDecimals && fraction % 10 == 0) {
+      fraction /= 10;
+      shown--;
+    }
+
+    int integerDigits = Math.max(minInteger, (whole == 0) ? 0 : 19);
+    char[] buffer = new char[prefix.length() + suffix.length() +
+                             integerDigits * 4 / 3 + shown + 2];
+    int index = buffer.length;
+
+    for (int i = suffix.length() - 1; i >= 0; --i) {
+      buffer[--index] = suffix.charAt(i);
+    }
+    if (shown != 0) {
+      for (int i = 0; i < shown; i++) {
+        buffer[--index] = (char) (zero + (int) (fraction % 10));
+        fraction /= 10;
+      }
+      buffer[--index] = symbols.decimal;
+    }
+    int count = 0;
+    while (whole != 0 || count < minInteger) {
+      if (commas && count != 0 && count % 3 == 0) {
+        buffer[--index] = symbols.grouping;
+      }
+      buffer[--index] = (char) (zero + (int) (whole % 10));
+      whole /= 10;
+      count++;
+    }
+    if (count == 0 && shown == 0) {
+      buffer[--index] = zero;  // never leave a number empty
+    }
+    for (int i = prefix.length() - 1; i >= 0; --i) {
+      buffer[--index] = prefix.charAt(i);
+    }
+    return new String(buffer, index, buffer.length - index);
+  }
+
+
+
   //////////////////////////////////////////////////////////////
 
   // HEX/BINARY CONVERSION
@@ -11671,25 +12421,6 @@ public class PApplet implements PConstants {
   }
 
 
-  /**
-   * @webref shape
-   * @param filename name of file to load, can be .svg or .obj
-   * @see PShape
-   * @see PApplet#createShape()
-   */
-  public PShape loadShape(String filename) {
-    return g.loadShape(filename);
-  }
-
-
-  /**
-   * @nowebref
-   */
-  public PShape loadShape(String filename, String options) {
-    return g.loadShape(filename, options);
-  }
-
-
   /**
    * @webref shape
    * @see PShape
@@ -13163,6 +13894,11 @@ public class PApplet implements PConstants {
   }
 
 
+  public PTextCache getTextCache() {
+    return g.getTextCache();
+  }
+
+
   /**
    * @nowebref
    */
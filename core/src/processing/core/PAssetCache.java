@@ -0,0 +1,527 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Keeps decoded images, shapes, and fonts in memory so that loading the
+ * same file again doesn't decode it again. Turned on for a sketch with
+ * setAssetCache(), after which loadImage(), loadShape(), and loadFont()
+ * go through the cache. The same cache can be given to several sketches,
+ * getShared() returns one for everyone to use.
+ * <p/>
+ * Files are identified by their full path, modification time and size, so
+ * a file that changes on disk is loaded again. Files from URLs and from
+ * inside a .jar are identified by name only.
+ * <p/>
+ * When the assets take up more than the memory budget, the least recently
+ * used ones are dropped. They're also held through soft references, so the
+ * garbage collector can take them back when memory runs low.
+ * <p/>
+ * Each loadImage() returns a copy of the cached image, so sketches can
+ * change its pixels without affecting anyone else. Shapes and fonts are
+ * shared instead, changing the style of a cached shape changes it for
+ * everyone who loaded it. OpenGL shapes belong to one renderer, so they
+ * are only shared between loadShape() calls on the same renderer.
+ * <p/>
+ * With setDiskCache(), decoded images are also written to a folder as raw
+ * pixels, which are much faster to read back than a PNG or JPEG is to
+ * decode, for instance when the sketch is restarted.
+ */
+public class PAssetCache {
+  static final int DISK_MAGIC = 0x50494d47;  // "PIMG"
+  static final int DISK_VERSION = 1;
+  static final int DISK_HEADER = 6 * 4;
+
+  static private PAssetCache shared;
+
+  protected long budget;
+  protected long used;
+
+  // least recently used first
+  protected final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<>(16, 0.75f, true);
+  protected final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+
+  protected volatile File diskFolder;
+
+  protected long hits;
+  protected long misses;
+  protected long diskHits;
+  protected long evictions;
+
+
+  static class Entry extends SoftReference<Object> {
+    final String key;
+    final long bytes;
+
+    Entry(String key, Object asset, long bytes, ReferenceQueue<Object> queue) {
+      super(asset, queue);
+      this.key = key;
+      this.bytes = bytes;
+    }
+  }
+
+
+  /**
+   * Create a cache that uses a quarter of the memory available to Java.
+   */
+  public PAssetCache() {
+    this(Runtime.getRuntime().maxMemory() / 4);
+  }
+
+
+  /**
+   * @param budget largest number of bytes used by the cached assets
+   */
+  public PAssetCache(long budget) {
+    this.budget = budget;
+  }
+
+
+  /** A cache shared by all sketches in this virtual machine. */
+  static synchronized public PAssetCache getShared() {
+    if (shared == null) {
+      shared = new PAssetCache();
+    }
+    return shared;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SETTINGS
+
+
+  synchronized public void setMemoryBudget(long bytes) {
+    budget = bytes;
+    trim();
+  }
+
+
+  synchronized public long getMemoryBudget() {
+    return budget;
+  }
+
+
+  /** Estimated number of bytes used by the cached assets. */
+  synchronized public long getMemoryUsed() {
+    purge();
+    return used;
+  }
+
+
+  /**
+   * Also write decoded images to this folder, and read them from there
+   * when they're no longer in memory. Use null (the default) to turn off.
+   */
+  public void setDiskCache(File folder) {
+    if (folder != null) {
+      folder.mkdirs();
+    }
+    diskFolder = folder;
+  }
+
+
+  public File getDiskCache() {
+    return diskFolder;
+  }
+
+
+  /** Remove the images written to the disk cache folder. */
+  public void clearDiskCache() {
+    File folder = diskFolder;
+    if (folder != null) {
+      File[] list = folder.listFiles();
+      if (list != null) {
+        for (File file : list) {
+          if (file.getName().endsWith(".pimg")) {
+            file.delete();
+          }
+        }
+      }
+    }
+  }
+
+
+  /** Drop everything held in memory. */
+  synchronized public void clear() {
+    for (Entry entry : entries.values()) {
+      entry.clear();
+    }
+    entries.clear();
+    used = 0;
+    purge();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // STATS
+
+
+  /** Number of loads that were found in memory. */
+  synchronized public long getHits() {
+    return hits;
+  }
+
+
+  /**
+   * Number of loads that weren't found in memory, including the ones read
+   * back from the disk cache.
+   */
+  synchronized public long getMisses() {
+    return misses;
+  }
+
+
+  /** Number of loads that were read back from the disk cache. */
+  synchronized public long getDiskHits() {
+    return diskHits;
+  }
+
+
+  /**
+   * Number of assets dropped to stay within the memory budget, or taken
+   * back by the garbage collector.
+   */
+  synchronized public long getEvictions() {
+    purge();
+    return evictions;
+  }
+
+
+  synchronized public int getCount() {
+    purge();
+    return entries.size();
+  }
+
+
+  synchronized public void resetStats() {
+    hits = 0;
+    misses = 0;
+    diskHits = 0;
+    evictions = 0;
+  }
+
+
+  @Override
+  synchronized public String toString() {
+    purge();
+    return String.format("%d assets, %.1f of %.1f MB, %d hits, %d misses, " +
+                         "%d from disk, %d evictions",
+                         entries.size(), used / 1048576f, budget / 1048576f,
+                         hits, misses, diskHits, evictions);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // USED BY THE LOAD FUNCTIONS
+
+
+  /**
+   * Identify the file that the sketch would load for this name.
+   * @param kind what's being loaded and how, e.g. "image/png"
+   */
+  public String getKey(PApplet sketch, String filename, String kind) {
+    if (filename.contains(":")) {
+      try {
+        new URL(filename);
+        return kind + " " + filename;
+      } catch (MalformedURLException e) {
+        // not a URL, e.g. a Windows path
+      }
+    }
+    try {
+      // same search order as createInputRaw()
+      File file = sketch.dataFile(filename);
+      if (file == null || !file.exists()) {
+        file = sketch.sketchFile(filename);
+      }
+      if (file.isFile()) {
+        return kind + " " + file.getCanonicalPath() + " " +
+          file.lastModified() + " " + file.length();
+      }
+    } catch (IOException e) {
+    } catch (SecurityException e) { }
+    // loaded from the class path
+    return kind + " " + sketch.getClass().getName() + " " + filename;
+  }
+
+
+  /**
+   * Return the asset for this key, or null if it's not in memory. This
+   * counts a miss when the asset is not found, so put() is expected to
+   * follow.
+   */
+  synchronized public Object get(String key) {
+    purge();
+    Entry entry = entries.get(key);
+    Object asset = (entry == null) ? null : entry.get();
+    if (asset != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return asset;
+  }
+
+
+  synchronized public void put(String key, Object asset, long bytes) {
+    purge();
+    Entry previous = entries.remove(key);
+    if (previous != null) {
+      forget(previous);
+    }
+    if (bytes > budget) {
+      return;  // would only push everything else out
+    }
+    entries.put(key, new Entry(key, asset, bytes, cleared));
+    used += bytes;
+    trim();
+  }
+
+
+  /**
+   * Return a copy of the cached image for this key, from memory or from
+   * the disk cache, or null if it has to be loaded.
+   */
+  public PImage getImage(String key) {
+    PImage image = (PImage) get(key);
+    if (image == null && diskFolder != null) {
+      image = readImage(key);
+      if (image != null) {
+        synchronized (this) {
+          diskHits++;
+        }
+        put(key, image, sizeOf(image));
+      }
+    }
+    return (image == null) ? null : copy(image);
+  }
+
+
+  /**
+   * Keep a freshly loaded image, and return a copy of it for the sketch.
+   */
+  public PImage putImage(String key, PImage image) {
+    put(key, image, sizeOf(image));
+    if (diskFolder != null) {
+      writeImage(key, image);
+    }
+    return copy(image);
+  }
+
+
+  public PShape getShape(String key) {
+    return (PShape) get(key);
+  }
+
+
+  public void putShape(String key, PShape shape) {
+    put(key, shape, sizeOf(shape));
+  }
+
+
+  public PFont getFont(String key) {
+    return (PFont) get(key);
+  }
+
+
+  public void putFont(String key, PFont font) {
+    put(key, font, sizeOf(font));
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // INTERNAL
+
+
+  // drop the entries the garbage collector has taken back
+  protected void purge() {
+    Entry entry;
+    while ((entry = (Entry) cleared.poll()) != null) {
+      if (entries.get(entry.key) == entry) {
+        entries.remove(entry.key);
+        forget(entry);
+        evictions++;
+      }
+    }
+  }
+
+
+  // drop the least recently used entries until within the budget
+  protected void trim() {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (used > budget && it.hasNext()) {
+      Entry entry = it.next().getValue();
+      it.remove();
+      forget(entry);
+      evictions++;
+    }
+  }
+
+
+  protected void forget(Entry entry) {
+    entry.clear();
+    used -= entry.bytes;
+  }
+
+
+  protected PImage copy(PImage image) {
+    return image.copy();
+  }
+
+
+  static protected long sizeOf(PImage image) {
+    return 64 + 4L * image.pixelWidth * image.pixelHeight;
+  }
+
+
+  // rough estimate, the geometry and its style per shape
+  static protected long sizeOf(PShape shape) {
+    long bytes = 256 + 64L * shape.vertexCount;
+    for (int i = 0; i < shape.getChildCount(); i++) {
+      bytes += sizeOf(shape.getChild(i));
+    }
+    return bytes;
+  }
+
+
+  static protected long sizeOf(PFont font) {
+    return 256 + 64L * font.getGlyphCount() + font.getGlyphMemory();
+  }
+
+
+  protected File diskFile(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder();
+      for (byte b : hash) {
+        name.append(PApplet.hex(b));
+      }
+      return new File(diskFolder, name.append(".pimg").toString());
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);  // always available
+    }
+  }
+
+
+  protected PImage readImage(String key) {
+    File file = diskFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(DISK_HEADER);
+      while (header.hasRemaining()) {
+        if (channel.read(header) == -1) return null;
+      }
+      header.flip();
+      if (header.getInt() != DISK_MAGIC ||
+          header.getInt() != DISK_VERSION) {
+        return null;
+      }
+      int pixelWidth = header.getInt();
+      int pixelHeight = header.getInt();
+      int format = header.getInt();
+      int density = header.getInt();
+      if (density < 1 ||
+          channel.size() != DISK_HEADER + 4L * pixelWidth * pixelHeight) {
+        return null;
+      }
+      PImage image = new PImage(pixelWidth / density, pixelHeight / density,
+                                format, density);
+      ByteBuffer data = ByteBuffer.allocate(4 * pixelWidth * pixelHeight);
+      while (data.hasRemaining()) {
+        if (channel.read(data) == -1) return null;
+      }
+      data.flip();
+      data.asIntBuffer().get(image.pixels);
+      return image;
+
+    } catch (IOException e) {
+      return null;  // treated as not cached
+    }
+  }
+
+
+  protected void writeImage(String key, PImage image) {
+    File file = diskFile(key);
+    if (file.exists()) {
+      return;
+    }
+    try {
+      // write somewhere else first, so that a sketch that's quit halfway
+      // or another one reading the same folder never sees half a file
+      File temp = File.createTempFile("write", ".tmp", diskFolder);
+      try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+        ByteBuffer data =
+          ByteBuffer.allocate(DISK_HEADER + 4 * image.pixels.length);
+        data.putInt(DISK_MAGIC);
+        data.putInt(DISK_VERSION);
+        data.putInt(image.pixelWidth);
+        data.putInt(image.pixelHeight);
+        data.putInt(image.format);
+        data.putInt(image.pixelDensity);
+        data.asIntBuffer().put(image.pixels);
+        data.rewind();
+        FileChannel channel = raf.getChannel();
+        while (data.hasRemaining()) {
+          channel.write(data);
+        }
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        temp.delete();
+      }
+    } catch (IOException e) {
+      System.err.println("Could not write to the asset cache in " +
+                         diskFolder + ": " + e.getMessage());
+    }
+  }
+}
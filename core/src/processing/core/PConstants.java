@@ -523,5 +523,8 @@ public interface PConstants {
   static final int DISABLE_ASYNC_SAVEFRAME    =  12;
   static final int ENABLE_ASYNC_SAVEFRAME     = -12;
 
-  static final int HINT_COUNT                 =  13;
+  static final int ENABLE_FAST_PNG_SAVE       =  13;
+  static final int DISABLE_FAST_PNG_SAVE      = -13;
+
+  static final int HINT_COUNT                 =  14;
 }
@@ -0,0 +1,303 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import processing.event.Event;
+import processing.event.MouseEvent;
+
+
+/**
+ * Queue for the mouse and key events posted by the surface, handled by the
+ * animation thread at the start of each frame.
+ * <p/>
+ * Events are kept in a ring buffer that grows when it fills up (so nothing
+ * is ever dropped) and is reused afterwards, so posting an event does not
+ * allocate once the queue has reached its working size. The toolkit thread
+ * only holds the lock long enough to store the event; the animation thread
+ * takes all waiting events in one go and handles them without the lock.
+ * <p/>
+ * With setCoalescing(true), runs of MOVE or DRAG events are reduced to the
+ * last one of each run, so a tablet sending hundreds of events per frame
+ * causes one mouseMoved() or mouseDragged() call per frame instead of
+ * hundreds. Drawing code that wants every point can still get them with
+ * getHistorySize() and getHistory(), which hold all MOVE and DRAG events
+ * from the last time the queue was handled, coalesced or not.
+ */
+public class PEventQueue {
+  static final int DEFAULT_CAPACITY = 256;
+
+  private final Object lock = new Object[0];
+
+  // ring buffer, only touched while holding the lock
+  private Event[] ring = new Event[DEFAULT_CAPACITY];
+  private long[] ringNanos = new long[DEFAULT_CAPACITY];
+  private int head;  // next event to remove
+  private int size;
+
+  // events taken from the ring, only used by the animation thread
+  private Event[] batch = new Event[DEFAULT_CAPACITY];
+  private long[] batchNanos = new long[DEFAULT_CAPACITY];
+
+  private MouseEvent[] history = new MouseEvent[DEFAULT_CAPACITY];
+  private int historySize;
+
+  protected volatile boolean coalescing;
+
+  // stats
+  private long postedCount;
+  private long handledCount;
+  private long coalescedCount;
+  private int maxDepth;
+  private long latencyTotal;
+  private long latencyMax;
+
+
+  /**
+   * Add an event, can be called from any thread.
+   */
+  public void add(Event event) {
+    long now = System.nanoTime();
+    synchronized (lock) {
+      if (size == ring.length) {
+        grow();
+      }
+      int tail = (head + size) & (ring.length - 1);
+      ring[tail] = event;
+      ringNanos[tail] = now;
+      size++;
+      postedCount++;
+      if (size > maxDepth) {
+        maxDepth = size;
+      }
+    }
+  }
+
+
+  private void grow() {
+    int capacity = ring.length << 1;
+    Event[] newRing = new Event[capacity];
+    long[] newNanos = new long[capacity];
+    for (int i = 0; i < size; i++) {
+      int index = (head + i) & (ring.length - 1);
+      newRing[i] = ring[index];
+      newNanos[i] = ringNanos[index];
+    }
+    ring = newRing;
+    ringNanos = newNanos;
+    head = 0;
+  }
+
+
+  public boolean isEmpty() {
+    synchronized (lock) {
+      return size == 0;
+    }
+  }
+
+
+  /** Number of events waiting to be handled. */
+  public int size() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+
+  /**
+   * Move all waiting events to the batch array, oldest first.
+   * @return number of events moved
+   */
+  private int drain() {
+    synchronized (lock) {
+      int count = size;
+      if (count > batch.length) {
+        batch = new Event[ring.length];
+        batchNanos = new long[ring.length];
+      }
+      int mask = ring.length - 1;
+      for (int i = 0; i < count; i++) {
+        int index = (head + i) & mask;
+        batch[i] = ring[index];
+        batchNanos[i] = ringNanos[index];
+        ring[index] = null;
+      }
+      head = (head + count) & mask;
+      size = 0;
+      return count;
+    }
+  }
+
+
+  /**
+   * Hand every waiting event to the sketch, including events that are
+   * posted while doing so. Only called from the animation thread (or
+   * whichever thread is dispatching events when the sketch isn't looping).
+   */
+  protected void handle(PApplet sketch) {
+    historySize = 0;
+    int count;
+    while ((count = drain()) != 0) {
+      boolean coalesce = coalescing;
+      for (int i = 0; i < count; i++) {
+        Event e = batch[i];
+        batch[i] = null;
+
+        if (e.getFlavor() == Event.MOUSE) {
+          int action = e.getAction();
+          if (action == MouseEvent.MOVE || action == MouseEvent.DRAG) {
+            addHistory((MouseEvent) e);
+            if (coalesce && i + 1 < count && sameMotion(e, batch[i + 1])) {
+              coalescedCount++;
+              continue;
+            }
+          }
+        }
+
+        long latency = System.nanoTime() - batchNanos[i];
+        latencyTotal += latency;
+        if (latency > latencyMax) {
+          latencyMax = latency;
+        }
+        handledCount++;
+        sketch.handleEvent(e);
+      }
+    }
+  }
+
+
+  /** True if the next event continues the same move or drag. */
+  static private boolean sameMotion(Event e, Event next) {
+    if (next.getFlavor() != Event.MOUSE ||
+        next.getAction() != e.getAction() ||
+        next.getModifiers() != e.getModifiers()) {
+      return false;
+    }
+    return ((MouseEvent) next).getButton() == ((MouseEvent) e).getButton();
+  }
+
+
+  private void addHistory(MouseEvent e) {
+    if (historySize == history.length) {
+      MouseEvent[] temp = new MouseEvent[historySize << 1];
+      System.arraycopy(history, 0, temp, 0, historySize);
+      history = temp;
+    }
+    history[historySize++] = e;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SETTINGS AND HISTORY
+
+
+  /**
+   * Only deliver the last of several MOVE or DRAG events that arrive in a
+   * row. Off by default.
+   */
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+
+  /**
+   * Number of MOVE and DRAG events received since the previous frame,
+   * including the ones skipped by coalescing. Only valid on the animation
+   * thread, for instance inside draw().
+   */
+  public int getHistorySize() {
+    return historySize;
+  }
+
+
+  /**
+   * One of the MOVE or DRAG events from the previous frame, oldest first.
+   */
+  public MouseEvent getHistory(int index) {
+    if (index < 0 || index >= historySize) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return history[index];
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // STATS
+
+
+  /** Number of events posted so far. */
+  public long getPostedCount() {
+    synchronized (lock) {
+      return postedCount;
+    }
+  }
+
+
+  /** Number of events delivered to the sketch. */
+  public long getHandledCount() {
+    return handledCount;
+  }
+
+
+  /** Number of MOVE and DRAG events skipped by coalescing. */
+  public long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+
+  /** Largest number of events that were waiting at the same time. */
+  public int getMaxDepth() {
+    synchronized (lock) {
+      return maxDepth;
+    }
+  }
+
+
+  /** Average time between posting an event and handing it to the sketch. */
+  public float getAverageLatencyMillis() {
+    return (handledCount == 0) ? 0 : latencyTotal / (handledCount * 1e6f);
+  }
+
+
+  public float getMaxLatencyMillis() {
+    return latencyMax / 1e6f;
+  }
+
+
+  public void resetStats() {
+    synchronized (lock) {
+      postedCount = 0;
+      maxDepth = size;
+    }
+    handledCount = 0;
+    coalescedCount = 0;
+    latencyTotal = 0;
+    latencyMax = 0;
+  }
+}
@@ -31,7 +31,10 @@ import java.awt.geom.PathIterator;
 import java.awt.image.*;
 import java.io.*;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 /**
@@ -108,11 +111,22 @@ public class PFont implements PConstants {
   protected int descent;
 
   /**
-   * A more efficient array lookup for straight ASCII characters. For Unicode
-   * characters, a QuickSort-style search is used.
+   * A more efficient array lookup for straight ASCII characters. Kept up to
+   * date for subclasses, other characters are found through glyphPages.
    */
   protected int[] ascii;
 
+  /**
+   * Index of each glyph by code point, in pages of 256 characters so that
+   * fonts with thousands of (CJK) characters are still a two-step lookup.
+   * Pages are only created for the ranges that are in use, and the glyphs
+   * array is only ever appended to, so an index stays valid once handed out.
+   */
+  protected int[][] glyphPages;
+
+  /** Bytes used by the glyph images, see getGlyphMemory(). */
+  protected long glyphMemory;
+
   /**
    * True if this font is set to load dynamically. This is the default when
    * createFont() method is called without a character set. Bitmap versions of
@@ -261,13 +275,8 @@ public class PFont implements PConstants {
 
       glyphCount = 0;
       for (char c : charset) {
-        if (font.canDisplay(c)) {
-          Glyph glyf = new Glyph(c);
-          if (glyf.value < 128) {
-            ascii[glyf.value] = glyphCount;
-          }
-          glyf.index = glyphCount;
-          glyphs[glyphCount++] = glyf;
+        if (font.canDisplay(c) && indexActual(c) == -1) {
+          storeGlyph(new Glyph(c));
         }
       }
 
@@ -369,14 +378,8 @@ public class PFont implements PConstants {
     Arrays.fill(ascii, -1);
 
     // read the information about the individual characters
-    for (int i = 0; i < glyphCount; i++) {
-      Glyph glyph = new Glyph(is);
-      // cache locations of the ascii charset
-      if (glyph.value < 128) {
-        ascii[glyph.value] = i;
-      }
-      glyph.index = i;
-      glyphs[i] = glyph;
+    for (int i = 0; i < glyphs.length; i++) {
+      glyphs[i] = new Glyph(is);
     }
 
     // not a roman font, so throw an error and ask to re-build.
@@ -386,8 +389,11 @@ public class PFont implements PConstants {
                                  "re-create this font.");
     }
 
-    for (Glyph glyph : glyphs) {
-      glyph.readBitmap(is);
+    int count = glyphCount;
+    glyphCount = 0;
+    for (int i = 0; i < count; i++) {
+      glyphs[i].readBitmap(is);
+      storeGlyph(glyphs[i]);
     }
 
     if (version >= 10) {  // includes the font name at the end of the file
@@ -415,7 +421,19 @@ public class PFont implements PConstants {
   public void save(OutputStream output) throws IOException {
     DataOutputStream os = new DataOutputStream(output);
 
-    os.writeInt(glyphCount);
+    // glyphs added lazily are in the order they were used, but older
+    // versions of Processing expect the characters in a .vlw to be sorted
+    Glyph[] sorted;
+    synchronized (this) {
+      sorted = Arrays.copyOf(glyphs, glyphCount);
+    }
+    Arrays.sort(sorted, new Comparator<Glyph>() {
+      public int compare(Glyph a, Glyph b) {
+        return Integer.compare(a.value, b.value);
+      }
+    });
+
+    os.writeInt(sorted.length);
 
     if ((name == null) || (psname == null)) {
       name = "";
@@ -428,12 +446,12 @@ public class PFont implements PConstants {
     os.writeInt(ascent);  // formerly baseHt (was ignored)
     os.writeInt(descent); // formerly struct padding for c version
 
-    for (int i = 0; i < glyphCount; i++) {
-      glyphs[i].writeHeader(os);
+    for (Glyph glyph : sorted) {
+      glyph.writeHeader(os);
     }
 
-    for (int i = 0; i < glyphCount; i++) {
-      glyphs[i].writeBitmap(os);
+    for (Glyph glyph : sorted) {
+      glyph.writeBitmap(os);
     }
 
     // version 11
@@ -447,45 +465,47 @@ public class PFont implements PConstants {
 
   /**
    * Create a new glyph, and add the character to the current font.
-   * @param c character to create an image for.
+   * @param c character (code point) to create an image for.
+   * @return index of the new glyph
    */
-  protected void addGlyph(char c) {
-    Glyph glyph = new Glyph(c);
+  synchronized protected int addGlyph(int c) {
+    return storeGlyph(new Glyph(c));
+  }
+
 
+  /**
+   * Append a glyph to the glyphs array and index it by its code point.
+   * @return index of the glyph
+   */
+  protected int storeGlyph(Glyph glyph) {
     if (glyphCount == glyphs.length) {
       glyphs = (Glyph[]) PApplet.expand(glyphs);
     }
-    if (glyphCount == 0) {
-      glyph.index = 0;
-      glyphs[glyphCount] = glyph;
-      if (glyph.value < 128) {
-        ascii[glyph.value] = 0;
+    int index = glyphCount;
+    glyph.index = index;
+    glyphs[index] = glyph;
+
+    int c = glyph.value;
+    if (c >= 0 && c <= Character.MAX_CODE_POINT) {
+      if (glyphPages == null) {
+        glyphPages = new int[(Character.MAX_CODE_POINT >> 8) + 1][];
       }
-
-    } else if (glyphs[glyphCount-1].value < glyph.value) {
-      glyphs[glyphCount] = glyph;
-      if (glyph.value < 128) {
-        ascii[glyph.value] = glyphCount;
+      int[] page = glyphPages[c >> 8];
+      if (page == null) {
+        page = new int[256];
+        Arrays.fill(page, -1);
+        glyphPages[c >> 8] = page;
       }
-
-    } else {
-      for (int i = 0; i < glyphCount; i++) {
-        if (glyphs[i].value > c) {
-          for (int j = glyphCount; j > i; --j) {
-            glyphs[j] = glyphs[j-1];
-            if (glyphs[j].value < 128) {
-              ascii[glyphs[j].value] = j;
-            }
-          }
-          glyph.index = i;
-          glyphs[i] = glyph;
-          // cache locations of the ascii charset
-          if (c < 128) ascii[c] = i;
-          break;
-        }
+      page[c & 0xff] = index;
+      if (c < 128 && ascii != null) {
+        ascii[c] = index;
       }
     }
+    if (glyph.image != null) {
+      glyphMemory += glyph.image.pixels.length * 4L;
+    }
     glyphCount++;
+    return index;
   }
 
 
@@ -600,7 +620,24 @@ public class PFont implements PConstants {
 
 
   public Glyph getGlyph(char c) {
-    int index = index(c);
+    return getCodePointGlyph(c);
+  }
+
+
+  /**
+   * Get the glyph for a Unicode code point, including characters outside
+   * the Basic Multilingual Plane that don't fit in a char.
+   * @return the glyph, or null if the font doesn't have the character
+   */
+  public Glyph getCodePointGlyph(int codePoint) {
+    if (lazy) {
+      // another thread may be adding glyphs, see prewarm()
+      synchronized (this) {
+        int index = codePointIndex(codePoint);
+        return (index == -1) ? null : glyphs[index];
+      }
+    }
+    int index = indexActual(codePoint);
     return (index == -1) ? null : glyphs[index];
   }
 
@@ -611,56 +648,83 @@ public class PFont implements PConstants {
    */
   protected int index(char c) {
     if (lazy) {
-      int index = indexActual(c);
-      if (index != -1) {
-        return index;
+      synchronized (this) {
+        return codePointIndex(c);
       }
-      if (font != null && font.canDisplay(c)) {
-        // create the glyph
-        addGlyph(c);
-        // now where did i put that?
-        return indexActual(c);
+    }
+    return indexActual(c);
+  }
 
-      } else {
-        return -1;
-      }
 
-    } else {
-      return indexActual(c);
+  /**
+   * Get index for a code point, creating the glyph if this font is lazy.
+   * Callers need to hold the lock on this font when it's lazy.
+   */
+  protected int codePointIndex(int codePoint) {
+    int index = indexActual(codePoint);
+    if (index == -1 && lazy &&
+        font != null && font.canDisplay(codePoint)) {
+      index = addGlyph(codePoint);
     }
+    return index;
   }
 
 
   protected int indexActual(char c) {
-    // degenerate case, but the find function will have trouble
-    // if there are somehow zero chars in the lookup
-    //if (value.length == 0) return -1;
-    if (glyphCount == 0) return -1;
+    return indexActual((int) c);
+  }
 
-    // quicker lookup for the ascii fellers
-    if (c < 128) return ascii[c];
 
-    // some other unicode char, hunt it out
-    //return index_hunt(c, 0, value.length-1);
-    return indexHunt(c, 0, glyphCount-1);
+  protected int indexActual(int codePoint) {
+    if (glyphPages == null ||
+        codePoint < 0 || codePoint > Character.MAX_CODE_POINT) {
+      return -1;
+    }
+    int[] page = glyphPages[codePoint >> 8];
+    return (page == null) ? -1 : page[codePoint & 0xff];
   }
 
 
-  protected int indexHunt(int c, int start, int stop) {
-    int pivot = (start + stop) / 2;
+  /**
+   * Create the glyphs for all the characters in a String on a background
+   * thread, so that the first frame that shows them doesn't stall. Useful
+   * for CJK text, where creating a few thousand glyphs on the fly can take
+   * a noticeable amount of time. Only works with fonts created with
+   * createFont() and no character set, since other fonts have all of their
+   * glyphs already.
+   * @param charset the characters that will be used
+   * @return use get() to wait for the glyphs, or cancel() to stop early
+   */
+  public Future<?> prewarm(final String charset) {
+    return ForkJoinPool.commonPool().submit(new Runnable() {
+      public void run() {
+        prewarmImpl(charset);
+      }
+    });
+  }
 
-    // if this is the char, then return it
-    if (c == glyphs[pivot].value) return pivot;
 
-    // char doesn't exist, otherwise would have been the pivot
-    //if (start == stop) return -1;
-    if (start >= stop) return -1;
+  protected void prewarmImpl(String charset) {
+    if (!lazy || font == null) return;
+
+    int i = 0;
+    while (i < charset.length() && !Thread.currentThread().isInterrupted()) {
+      int c = charset.codePointAt(i);
+      i += Character.charCount(c);
+      // lock for each glyph, so drawing isn't held up for the whole string
+      synchronized (this) {
+        codePointIndex(c);
+      }
+    }
+  }
 
-    // if it's in the lower half, continue searching that
-    if (c < glyphs[pivot].value) return indexHunt(c, start, pivot-1);
 
-    // if it's in the upper half, continue there
-    return indexHunt(c, pivot+1, stop);
+  /**
+   * Number of bytes used by the images of the glyphs in this font.
+   * Grows as characters are used for the first time with lazy fonts.
+   */
+  synchronized public long getGlyphMemory() {
+    return glyphMemory;
   }
 
 
@@ -697,22 +761,22 @@ public class PFont implements PConstants {
   public float width(char c) {
     if (c == 32) return width('i');
 
-    int cc = index(c);
-    if (cc == -1) return 0;
+    Glyph glyph = getGlyph(c);
+    if (glyph == null) return 0;
 
-    return ((float) glyphs[cc].setWidth / (float) size);
+    return ((float) glyph.setWidth / (float) size);
   }
 
 
   //////////////////////////////////////////////////////////////
 
 
-  public int getGlyphCount()  {
+  synchronized public int getGlyphCount()  {
     return glyphCount;
   }
 
 
-  public Glyph getGlyph(int i)  {
+  synchronized public Glyph getGlyph(int i)  {
     return glyphs[i];
   }
 
@@ -1057,12 +1121,12 @@ public class PFont implements PConstants {
     }
 
 
-    protected Glyph(char c) {
+    protected Glyph(int c) {
       int mbox3 = size * 3;
       lazyGraphics.setColor(Color.white);
       lazyGraphics.fillRect(0, 0, mbox3, mbox3);
       lazyGraphics.setColor(Color.black);
-      lazyGraphics.drawString(String.valueOf(c), size, size * 2);
+      lazyGraphics.drawString(new String(Character.toChars(c)), size, size * 2);
 
       WritableRaster raster = lazyImage.getRaster();
       raster.getDataElements(0, 0, mbox3, mbox3, lazySamples);
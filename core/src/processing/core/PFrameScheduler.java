@@ -0,0 +1,302 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+
+/**
+ * Decides when the animation thread of PSurfaceNone (and the surfaces
+ * based on it) runs the next frame.
+ * <p/>
+ * The default SLEEP strategy is the loop Processing has always used: sleep
+ * for what's left of the frame, corrected by how much the previous sleep
+ * overshot. Sleeping is only accurate to a millisecond or two on most
+ * systems, which shows at high frame rates. The HYBRID strategy sleeps
+ * until shortly before the frame is due, then spins (yielding) for the
+ * remainder, trading some CPU time for accurate frame timing.
+ * <p/>
+ * With setFixedTimestep(true) frames are placed on a fixed grid of
+ * 1/frameRate intervals. When a frame runs late, the CATCH_UP policy runs
+ * the following frames back to back until the sketch is back on the grid
+ * (unless it's more than getMaxCatchUp() frames behind), and SKIP moves
+ * the grid so that the missed frames are dropped. Updates follow the same
+ * policy, except that CATCH_UP keeps any backlog past the limit for the
+ * following frames.
+ * <p/>
+ * setUpdateRate() calls the sketch's fixedUpdate() method at its own rate,
+ * independent of the frame rate. For instance, physics can be updated 240
+ * times a second while draw() runs 60 times a second. The updates due
+ * are run on the animation thread just before each frame.
+ * <p/>
+ * The time between the start of successive frames is kept in the
+ * histogram returned by getFrameTimes(), also available from the surface.
+ */
+public class PFrameScheduler {
+  /** Sleep the rest of the frame, the classic behavior. */
+  static public final int SLEEP = 0;
+  /** Sleep until shortly before the frame is due, then spin. */
+  static public final int HYBRID = 1;
+
+  /** Run late frames (or updates) back to back to catch up. */
+  static public final int CATCH_UP = 0;
+  /** Drop late frames (or updates) and carry on from now. */
+  static public final int SKIP = 1;
+
+  // Number of frames with a delay of 0 ms before the
+  // animation thread yields to other running threads.
+  static final int NO_DELAYS_PER_YIELD = 15;
+
+  protected int strategy = SLEEP;
+  protected long spinNanos = 2000000;
+
+  protected boolean fixedTimestep;
+  protected int policy = SKIP;
+  protected int maxCatchUp = 5;
+
+  protected long framePeriod = 1000000000L / 60L;
+  protected long updatePeriod;  // 0 for no fixedUpdate() calls
+
+  protected PHistogram frameTimes = new PHistogram();
+
+  // state of the loop
+  protected long beforeTime;
+  protected long overSleepTime;
+  protected int noDelays;
+  protected long nextFrame;
+  protected long nextUpdate;
+  protected long lastFrameStart;
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SETTINGS
+
+
+  public void setFrameRate(float fps) {
+    framePeriod = (long) (1000000000.0 / fps);
+  }
+
+
+  /**
+   * @param strategy either SLEEP or HYBRID
+   */
+  public void setStrategy(int strategy) {
+    if (strategy != SLEEP && strategy != HYBRID) {
+      throw new IllegalArgumentException("Use SLEEP or HYBRID");
+    }
+    this.strategy = strategy;
+  }
+
+
+  public int getStrategy() {
+    return strategy;
+  }
+
+
+  /**
+   * How long before the frame is due HYBRID stops sleeping and starts
+   * spinning. Default is 2 ms, use more on systems with coarse timers.
+   */
+  public void setSpinMillis(float millis) {
+    spinNanos = (long) (millis * 1000000);
+  }
+
+
+  public void setFixedTimestep(boolean fixed) {
+    fixedTimestep = fixed;
+  }
+
+
+  /**
+   * What to do about late frames and updates, either CATCH_UP or SKIP.
+   */
+  public void setPolicy(int policy) {
+    if (policy != CATCH_UP && policy != SKIP) {
+      throw new IllegalArgumentException("Use CATCH_UP or SKIP");
+    }
+    this.policy = policy;
+  }
+
+
+  /**
+   * Largest number of late frames or updates run back to back before the
+   * rest are dropped, so that a sketch that can't keep up doesn't fall
+   * further and further behind.
+   */
+  public void setMaxCatchUp(int count) {
+    maxCatchUp = Math.max(1, count);
+  }
+
+
+  public int getMaxCatchUp() {
+    return maxCatchUp;
+  }
+
+
+  /**
+   * Call fixedUpdate() on the sketch this many times a second, or 0 (the
+   * default) to not call it at all.
+   */
+  public void setUpdateRate(float hz) {
+    updatePeriod = (hz > 0) ? (long) (1000000000.0 / hz) : 0;
+    nextUpdate = System.nanoTime();
+  }
+
+
+  /** Time between the starts of successive frames. */
+  public PHistogram getFrameTimes() {
+    return frameTimes;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // LOOP
+
+
+  /** Called once before the first frame. */
+  public void start() {
+    beforeTime = System.nanoTime();
+    overSleepTime = 0;
+    noDelays = 0;
+    nextFrame = beforeTime;
+    nextUpdate = beforeTime;
+    lastFrameStart = 0;
+  }
+
+
+  /**
+   * Called right before each frame is drawn. Records the frame time, and
+   * runs the updates that are due.
+   */
+  public void beforeFrame(PApplet sketch) {
+    long now = System.nanoTime();
+    if (lastFrameStart != 0) {
+      frameTimes.add(now - lastFrameStart);
+    }
+    lastFrameStart = now;
+
+    if (updatePeriod != 0) {
+      // updates only make sense once setup() has run, and while looping
+      if (sketch.frameCount == 0 || !sketch.looping) {
+        nextUpdate = now;
+        return;
+      }
+      // several updates per frame are normal when the update rate is
+      // higher than the frame rate, maxCatchUp more are allowed when late
+      long perFrame = (framePeriod + updatePeriod - 1) / updatePeriod;
+      long limit = perFrame + maxCatchUp;
+      int count = 0;
+      while (now - nextUpdate >= 0 && count < limit) {
+        sketch.handleFixedUpdate();
+        nextUpdate += updatePeriod;
+        count++;
+      }
+      if (now - nextUpdate >= 0 && policy == SKIP) {
+        // too far behind, drop the missed updates
+        nextUpdate = now + updatePeriod;
+      }
+    }
+  }
+
+
+  /**
+   * Called after each frame, waits until the next one is due.
+   */
+  public void afterFrame() {
+    if (strategy == SLEEP && !fixedTimestep) {
+      sleepRemaining();
+      return;
+    }
+
+    long now = System.nanoTime();
+    if (fixedTimestep) {
+      nextFrame += framePeriod;
+      long late = now - nextFrame;
+      if (late > 0 &&
+          (policy == SKIP || late > maxCatchUp * framePeriod)) {
+        nextFrame = now;  // give up on the missed frames
+      }
+    } else {
+      nextFrame = beforeTime + framePeriod;
+      if (now - nextFrame > 0) {
+        nextFrame = now;
+      }
+    }
+    waitUntil(nextFrame);
+    beforeTime = System.nanoTime();
+  }
+
+
+  /** The original pacing code from PSurfaceNone.AnimationThread. */
+  protected void sleepRemaining() {
+    long afterTime = System.nanoTime();
+    long timeDiff = afterTime - beforeTime;
+    long sleepTime = (framePeriod - timeDiff) - overSleepTime;
+
+    if (sleepTime > 0) {  // some time left in this cycle
+      try {
+        Thread.sleep(sleepTime / 1000000L, (int) (sleepTime % 1000000L));
+        noDelays = 0;  // Got some sleep, not delaying anymore
+      } catch (InterruptedException ex) { }
+
+      overSleepTime = (System.nanoTime() - afterTime) - sleepTime;
+
+    } else {    // sleepTime <= 0; the frame took longer than the period
+      overSleepTime = 0L;
+      noDelays++;
+
+      if (noDelays > NO_DELAYS_PER_YIELD) {
+        Thread.yield();   // give another thread a chance to run
+        noDelays = 0;
+      }
+    }
+
+    beforeTime = System.nanoTime();
+  }
+
+
+  protected void waitUntil(long deadline) {
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) {
+      // no time left, still give other threads a chance now and then
+      if (++noDelays > NO_DELAYS_PER_YIELD) {
+        Thread.yield();
+        noDelays = 0;
+      }
+      return;
+    }
+    noDelays = 0;
+
+    long sleepTime = (strategy == HYBRID) ? remaining - spinNanos : remaining;
+    if (sleepTime > 0) {
+      try {
+        Thread.sleep(sleepTime / 1000000L, (int) (sleepTime % 1000000L));
+      } catch (InterruptedException e) { }
+    }
+    if (strategy == HYBRID) {
+      while (deadline - System.nanoTime() > 0) {
+        Thread.yield();
+      }
+    }
+  }
+}
@@ -653,6 +653,9 @@ public class PGraphics extends PImage implements PConstants {
   protected int[] textBreakStart;
   protected int[] textBreakStop;
 
+  /** Measurements and line breaks of recent strings, null to turn off. */
+  protected PTextCache textCache = new PTextCache();
+
   // ........................................................
 
   public boolean edge = true;
@@ -1172,6 +1175,13 @@ public class PGraphics extends PImage implements PConstants {
     } else if (which == DISABLE_KEY_REPEAT) {
       parent.keyRepeatEnabled = false;
     }
+    if (which == ENABLE_FAST_PNG_SAVE) {
+      pngEncoder = true;
+      pngCompression = PNGEncoder.LEVEL_FAST;
+    } else if (which == DISABLE_FAST_PNG_SAVE) {
+      pngEncoder = false;
+      pngCompression = PNGEncoder.LEVEL_DEFAULT;
+    }
     if (which > 0) {
       hints[which] = true;
     } else {
@@ -1740,7 +1750,7 @@ public class PGraphics extends PImage implements PConstants {
    * @see PShape
    * @see PApplet#createShape()
    */
-  public PShape loadShape(String filename) {
+  public PShape loadShape(String filename) {  // ignore
     return loadShape(filename, null);
   }
 
@@ -1748,7 +1758,7 @@ public class PGraphics extends PImage implements PConstants {
   /**
    * @nowebref
    */
-  public PShape loadShape(String filename, String options) {
+  public PShape loadShape(String filename, String options) {  // ignore
     showMissingWarning("loadShape");
     return null;
   }
@@ -4513,6 +4523,14 @@ public class PGraphics extends PImage implements PConstants {
       defaultFontOrDeath("textWidth");
     }
 
+    PTextCache cache = textCache;
+    if (cache != null) {
+      PTextCache.Layout layout = cache.get(textFont, textSize, str);
+      if (layout != null) {
+        return layout.width;
+      }
+    }
+
     int length = str.length();
     if (length > textWidthBuffer.length) {
       textWidthBuffer = new char[length + 10];
@@ -4533,10 +4551,30 @@ public class PGraphics extends PImage implements PConstants {
     if (start < length) {
       wide = Math.max(wide, textWidthImpl(textWidthBuffer, start, index));
     }
+    if (cache != null) {
+      PTextCache.Layout layout = new PTextCache.Layout();
+      layout.width = wide;
+      cache.put(textFont, textSize, str, layout);
+    }
     return wide;
   }
 
 
+  /**
+   * Set the cache used to remember the width of strings and where text
+   * in a box breaks into lines. Pass null to measure everything each time.
+   * @see PTextCache
+   */
+  public void setTextCache(PTextCache cache) {  // ignore
+    textCache = cache;
+  }
+
+
+  public PTextCache getTextCache() {
+    return textCache;
+  }
+
+
   /**
    * @nowebref
    */
@@ -4800,14 +4838,6 @@ public class PGraphics extends PImage implements PConstants {
 //    // if the box is already too small, tell em to f off
 //    if (currentY > y2) return;
 
-    float spaceWidth = textWidth(' ');
-
-    if (textBreakStart == null) {
-      textBreakStart = new int[20];
-      textBreakStop = new int[20];
-    }
-    textBreakCount = 0;
-
     int length = str.length();
     if (length + 1 > textBuffer.length) {
       textBuffer = new char[length + 1];
@@ -4816,17 +4846,40 @@ public class PGraphics extends PImage implements PConstants {
     // add a fake newline to simplify calculations
     textBuffer[length++] = '\n';
 
-    int sentenceStart = 0;
-    for (int i = 0; i < length; i++) {
-      if (textBuffer[i] == '\n') {
-//        currentY = textSentence(textBuffer, sentenceStart, i,
-//                                lineX, boxWidth, currentY, y2, spaceWidth);
-        boolean legit =
-          textSentence(textBuffer, sentenceStart, i, boxWidth, spaceWidth);
-        if (!legit) break;
-//      if (Float.isNaN(currentY)) break;  // word too big (or error)
-//      if (currentY > y2) break;  // past the box
-        sentenceStart = i + 1;
+    PTextCache cache = textCache;
+    PTextCache.Layout layout = null;
+    if (cache != null) {
+      layout = cache.get(textFont, textSize, boxWidth, str);
+    }
+    if (layout == null) {
+      float spaceWidth = textWidth(' ');
+
+      if (textBreakStart == null) {
+        textBreakStart = new int[20];
+        textBreakStop = new int[20];
+      }
+      textBreakCount = 0;
+
+      int sentenceStart = 0;
+      for (int i = 0; i < length; i++) {
+        if (textBuffer[i] == '\n') {
+//          currentY = textSentence(textBuffer, sentenceStart, i,
+//                                  lineX, boxWidth, currentY, y2, spaceWidth);
+          boolean legit =
+            textSentence(textBuffer, sentenceStart, i, boxWidth, spaceWidth);
+          if (!legit) break;
+//        if (Float.isNaN(currentY)) break;  // word too big (or error)
+//        if (currentY > y2) break;  // past the box
+          sentenceStart = i + 1;
+        }
+      }
+
+      layout = new PTextCache.Layout();
+      layout.count = textBreakCount;
+      layout.start = PApplet.subset(textBreakStart, 0, textBreakCount);
+      layout.stop = PApplet.subset(textBreakStop, 0, textBreakCount);
+      if (cache != null) {
+        cache.put(textFont, textSize, boxWidth, str, layout);
       }
     }
 
@@ -4846,30 +4899,49 @@ public class PGraphics extends PImage implements PConstants {
     // outside the box. [0151]
     float topAndBottom = textAscent() + textDescent();
     int lineFitCount = 1 + PApplet.floor((boxHeight - topAndBottom) / textLeading);
-    int lineCount = Math.min(textBreakCount, lineFitCount);
+    int lineCount = Math.min(layout.count, lineFitCount);
 
+    float y;
     if (textAlignY == CENTER) {
       float lineHigh = textAscent() + textLeading * (lineCount - 1);
-      float y = y1 + textAscent() + (boxHeight - lineHigh) / 2;
-      for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
-        y += textLeading;
-      }
+      y = y1 + textAscent() + (boxHeight - lineHigh) / 2;
 
     } else if (textAlignY == BOTTOM) {
-      float y = y2 - textDescent() - textLeading * (lineCount - 1);
-      for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
-        y += textLeading;
-      }
+      y = y2 - textDescent() - textLeading * (lineCount - 1);
 
     } else {  // TOP or BASELINE just go to the default
-      float y = y1 + textAscent();
-      for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
-        y += textLeading;
+      y = y1 + textAscent();
+    }
+    for (int i = 0; i < lineCount; i++) {
+      textBoxLine(layout, i, lineX, y);
+      y += textLeading;
+    }
+  }
+
+
+  /**
+   * Same as textLineAlignImpl() for a line of text in a box, but uses the
+   * width of the line from the layout, measuring it only the first time.
+   */
+  protected void textBoxLine(PTextCache.Layout layout, int line,
+                             float x, float y) {
+    int start = layout.start[line];
+    int stop = layout.stop[line];
+    if (textAlign == CENTER || textAlign == RIGHT) {
+      if (layout.widths == null) {
+        layout.widths = new float[layout.count];
+        for (int i = 0; i < layout.count; i++) {
+          layout.widths[i] =
+            textWidthImpl(textBuffer, layout.start[i], layout.stop[i]);
+        }
+      }
+      if (textAlign == CENTER) {
+        x -= layout.widths[line] / 2f;
+      } else {
+        x -= layout.widths[line];
       }
     }
+    textLineImpl(textBuffer, start, stop, x, y);
   }
 
 
@@ -4924,16 +4996,19 @@ public class PGraphics extends PImage implements PConstants {
               // start from the beginning of the text rather than shaving from
               // the end of it, which is super slow if it's 1000s of letters.
               // https://github.com/processing/processing/issues/211
-              int lastIndex = index;
-              index = wordStart + 1;
-              // walk to the right while things fit
-              while ((wordWidth = textWidthImpl(buffer, wordStart, index)) < boxWidth) {
-                index++;
-                if (index > lastIndex) {  // Unreachable?
-                  break;
+              // Widths only grow as letters are added, so search for the
+              // last letter that still fits instead of walking to it.
+              int lo = wordStart;  // known to fit (nothing at all)
+              int hi = index;      // known not to fit
+              while (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                if (textWidthImpl(buffer, wordStart, mid) < boxWidth) {
+                  lo = mid;
+                } else {
+                  hi = mid;
                 }
               }
-              index--;
+              index = lo;
               if (index == wordStart) {
                 return false;  // nothing fits
               }
@@ -8507,6 +8582,8 @@ public class PGraphics extends PImage implements PConstants {
     public void saveTargetAsync(final PGraphics renderer, final PImage target, // ignore
                                 final File file) {
       target.parent = renderer.parent;
+      target.pngEncoder = renderer.pngEncoder;
+      target.pngCompression = renderer.pngCompression;
 
       // if running every frame, smooth the framerate
       if (target.parent.frameCount - 1 == lastFrameCount && TARGET_COUNT > 1) {
@@ -0,0 +1,142 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Histogram of durations, used for frame times and profiling. Values are
+ * counted in fixed size buckets (10 microseconds by default, up to 250 ms),
+ * so adding a value never allocates and percentiles can be read at any time
+ * without sorting. Values past the last bucket are counted in the last one,
+ * the exact maximum is kept separately.
+ * <p/>
+ * Recording is meant to happen on a single thread (the animation thread),
+ * reading from other threads gives approximate results.
+ */
+public class PHistogram {
+  static final long DEFAULT_BUCKET_NANOS = 10000;
+  static final long DEFAULT_RANGE_NANOS = 250000000;
+
+  protected final long bucketNanos;
+  protected final int[] buckets;
+
+  protected long count;
+  protected long total;
+  protected long min = Long.MAX_VALUE;
+  protected long max;
+
+
+  public PHistogram() {
+    this(DEFAULT_BUCKET_NANOS, DEFAULT_RANGE_NANOS);
+  }
+
+
+  /**
+   * @param bucketNanos width of each bucket in nanoseconds
+   * @param rangeNanos largest duration counted precisely
+   */
+  public PHistogram(long bucketNanos, long rangeNanos) {
+    this.bucketNanos = bucketNanos;
+    buckets = new int[(int) (rangeNanos / bucketNanos) + 1];
+  }
+
+
+  public void add(long nanos) {
+    if (nanos < 0) nanos = 0;
+    long index = nanos / bucketNanos;
+    buckets[(index < buckets.length) ? (int) index : buckets.length - 1]++;
+    count++;
+    total += nanos;
+    if (nanos < min) min = nanos;
+    if (nanos > max) max = nanos;
+  }
+
+
+  public void reset() {
+    Arrays.fill(buckets, 0);
+    count = 0;
+    total = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+
+  public long getCount() {
+    return count;
+  }
+
+
+  public float getMeanMillis() {
+    return (count == 0) ? 0 : total / (count * 1e6f);
+  }
+
+
+  public float getMinMillis() {
+    return (count == 0) ? 0 : min / 1e6f;
+  }
+
+
+  public float getMaxMillis() {
+    return max / 1e6f;
+  }
+
+
+  /**
+   * Duration below which the given fraction of the values fall, to the
+   * nearest bucket. For instance getPercentileMillis(0.99f) for the 99th
+   * percentile.
+   */
+  public float getPercentileMillis(float fraction) {
+    if (count == 0) return 0;
+    long wanted = (long) Math.ceil(fraction * count);
+    if (wanted < 1) wanted = 1;
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= wanted) {
+        if (i == buckets.length - 1) {
+          return max / 1e6f;
+        }
+        // middle of the bucket, but never outside the values seen
+        long nanos = i * bucketNanos + bucketNanos / 2;
+        nanos = Math.max(min, Math.min(max, nanos));
+        return nanos / 1e6f;
+      }
+    }
+    return max / 1e6f;
+  }
+
+
+  @Override
+  public String toString() {
+    return String.format("count %d, mean %.2f ms, p50 %.2f ms, " +
+                         "p95 %.2f ms, p99 %.2f ms, max %.2f ms",
+                         count, getMeanMillis(),
+                         getPercentileMillis(0.5f),
+                         getPercentileMillis(0.95f),
+                         getPercentileMillis(0.99f),
+                         getMaxMillis());
+  }
+}
@@ -139,9 +139,25 @@ public class PImage implements PConstants, Cloneable {
   protected boolean modified;
   protected int mx1, my1, mx2, my2;
 
+  /**
+   * Up to MAX_MODIFIED_RECTS separate modified areas, stored as x1, y1,
+   * x2, y2 (exclusive) in a single array. mx1/my1/mx2/my2 remain the
+   * bounding box of all of them.
+   */
+  protected int[] modifiedRects = new int[4 * MAX_MODIFIED_RECTS];
+  protected int modifiedRectCount;
+  static final int MAX_MODIFIED_RECTS = 8;
+
   /** Loaded pixels flag */
   public boolean loaded = false;
 
+  /**
+   * Write .png files with PNGEncoder at pngCompression instead of ImageIO,
+   * set by hint(ENABLE_FAST_PNG_SAVE).
+   */
+  protected boolean pngEncoder;
+  protected int pngCompression = PNGEncoder.LEVEL_DEFAULT;
+
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
@@ -382,11 +398,50 @@ public class PImage implements PConstants, Cloneable {
     my1 = 0;
     mx2 = pixelWidth;
     my2 = pixelHeight;
+    modifiedRects[0] = 0;
+    modifiedRects[1] = 0;
+    modifiedRects[2] = pixelWidth;
+    modifiedRects[3] = pixelHeight;
+    modifiedRectCount = 1;
   }
 
 
   public void setModified(boolean m) {  // ignore
     modified = m;
+    if (!m) {
+      modifiedRectCount = 0;
+    } else if (modifiedRectCount == 0) {
+      // no region given, so fall back to the bounding box
+      modifiedRects[0] = mx1;
+      modifiedRects[1] = my1;
+      modifiedRects[2] = mx2;
+      modifiedRects[3] = my2;
+      modifiedRectCount = 1;
+    }
+  }
+
+
+  /**
+   * Number of separate modified areas. Renderers can update only these
+   * areas rather than the bounding box from getModifiedX1() and friends.
+   */
+  public int getModifiedRectCount() {  // ignore
+    if (!modified) return 0;
+    if (modifiedRectCount == 0) {
+      // 'modified' was set directly, use the bounding box
+      setModified(true);
+    }
+    return modifiedRectCount;
+  }
+
+
+  /**
+   * The modified areas, four values per area: x1, y1, x2, y2, where x2
+   * and y2 are exclusive. Only the first getModifiedRectCount() areas are
+   * valid. The array is owned by the image, do not modify it.
+   */
+  public int[] getModifiedRects() {  // ignore
+    return modifiedRects;
   }
 
 
@@ -468,9 +523,8 @@ public class PImage implements PConstants, Cloneable {
    * ( end auto-generated )
    * <h3>Advanced</h3>
    * Mark the pixels in this region as needing an update.
-   * This is not currently used by any of the renderers, however the api
-   * is structured this way in the hope of being able to use this to
-   * speed things up in the future.
+   * Separate regions are tracked individually (up to a handful), so that
+   * renderers only have to convert and upload the parts that changed.
    * @webref pimage:pixels
    * @brief Updates the image with the data in its pixels[] array
    * @usage web_application
@@ -480,27 +534,77 @@ public class PImage implements PConstants, Cloneable {
    * @param h height
    */
   public void updatePixels(int x, int y, int w, int h) {  // ignore
-    int x2 = x + w;
-    int y2 = y + h;
+    int x1 = PApplet.max(0, x);
+    int y1 = PApplet.max(0, y);
+    int x2 = PApplet.min(pixelWidth, x + w);
+    int y2 = PApplet.min(pixelHeight, y + h);
+    if (x1 >= x2 || y1 >= y2) return;
 
     if (!modified) {
-      mx1 = PApplet.max(0, x);
-      mx2 = PApplet.min(pixelWidth, x2);
-      my1 = PApplet.max(0, y);
-      my2 = PApplet.min(pixelHeight, y2);
+      mx1 = x1;
+      mx2 = x2;
+      my1 = y1;
+      my2 = y2;
       modified = true;
+      modifiedRectCount = 0;
 
     } else {
-      if (x < mx1) mx1 = PApplet.max(0, x);
-      if (x > mx2) mx2 = PApplet.min(pixelWidth, x);
-      if (y < my1) my1 = PApplet.max(0, y);
-      if (y > my2) my2 = PApplet.min(pixelHeight, y);
-
-      if (x2 < mx1) mx1 = PApplet.max(0, x2);
-      if (x2 > mx2) mx2 = PApplet.min(pixelWidth, x2);
-      if (y2 < my1) my1 = PApplet.max(0, y2);
-      if (y2 > my2) my2 = PApplet.min(pixelHeight, y2);
+      if (modifiedRectCount == 0) {
+        // marked with setModified(true), keep the area given at the time
+        addModifiedRect(mx1, my1, mx2, my2);
+      }
+      mx1 = PApplet.min(mx1, x1);
+      mx2 = PApplet.max(mx2, x2);
+      my1 = PApplet.min(my1, y1);
+      my2 = PApplet.max(my2, y2);
     }
+    addModifiedRect(x1, y1, x2, y2);
+  }
+
+
+  /**
+   * Add an area to the list of modified rectangles. Areas that touch or
+   * overlap an existing one are merged with it. Once the list is full, the
+   * new area is merged with whichever rectangle grows the least.
+   */
+  protected void addModifiedRect(int x1, int y1, int x2, int y2) {
+    int[] r = modifiedRects;
+    int merge = -1;
+    int smallest = -1;
+    long smallestGrowth = Long.MAX_VALUE;
+    for (int i = 0; i < modifiedRectCount; i++) {
+      int k = i * 4;
+      if (x1 <= r[k+2] && x2 >= r[k] && y1 <= r[k+3] && y2 >= r[k+1]) {
+        merge = i;
+        break;
+      }
+      long growth =
+        (long) (PApplet.max(r[k+2], x2) - PApplet.min(r[k], x1)) *
+        (PApplet.max(r[k+3], y2) - PApplet.min(r[k+1], y1)) -
+        (long) (r[k+2] - r[k]) * (r[k+3] - r[k+1]);
+      if (growth < smallestGrowth) {
+        smallestGrowth = growth;
+        smallest = i;
+      }
+    }
+
+    if (merge == -1) {
+      if (modifiedRectCount < MAX_MODIFIED_RECTS) {
+        int k = modifiedRectCount * 4;
+        r[k] = x1;
+        r[k+1] = y1;
+        r[k+2] = x2;
+        r[k+3] = y2;
+        modifiedRectCount++;
+        return;
+      }
+      merge = smallest;
+    }
+    int k = merge * 4;
+    r[k] = PApplet.min(r[k], x1);
+    r[k+1] = PApplet.min(r[k+1], y1);
+    r[k+2] = PApplet.max(r[k+2], x2);
+    r[k+3] = PApplet.max(r[k+3], y2);
   }
 
 
@@ -3397,6 +3501,16 @@ int testFunction(int dst, int src) {
     try {
       OutputStream os = null;
 
+      // With hint(ENABLE_FAST_PNG_SAVE), PNG is written directly from the
+      // pixels, skipping ImageIO and its BufferedImage copy of the pixels.
+      if (pngEncoder && filename.toLowerCase().endsWith(".png")) {
+        try (OutputStream png =
+             new BufferedOutputStream(new FileOutputStream(filename), 65536)) {
+          new PNGEncoder(pngCompression, PNGEncoder.FILTER_ADAPTIVE).write(png, this);
+        }
+        return true;
+      }
+
       if (saveImageFormats == null) {
         saveImageFormats = javax.imageio.ImageIO.getWriterFormatNames();
       }
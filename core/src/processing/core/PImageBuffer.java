@@ -0,0 +1,461 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+
+/**
+ * Image that keeps its data in a more compact form than one int per pixel:
+ * 8-bit gray, 16-bit gray, 16-bit RGB565, or planes of floats (one to four
+ * channels) for HDR and depth data. A 16 megapixel GRAY8 image takes 16 MB
+ * instead of the 64 MB of a regular PImage.
+ * <p/>
+ * The compact data (bytes[], shorts[], or planes[]) is what the image
+ * really holds. The pixels[] array is only filled when loadPixels() is
+ * called, either from a sketch or by a renderer that needs ARGB data to
+ * draw the image, and changes to it are copied back by updatePixels().
+ * get() and set() work on the compact data directly, and operations like
+ * filter() and blend() that need ARGB data release it again afterwards.
+ * Use releasePixels() to drop the ARGB copy after working with pixels[].
+ * <p/>
+ * Float images are shown by mapping the range low..high to 0..255, for
+ * instance a depth map in meters can be shown with setRange(0, 10).
+ */
+public class PImageBuffer extends PImage {
+  /** One unsigned byte per pixel. */
+  static public final int GRAY8 = 0;
+  /** One unsigned short per pixel. */
+  static public final int GRAY16 = 1;
+  /** 5 bits red, 6 bits green, 5 bits blue in one short per pixel. */
+  static public final int RGB565 = 2;
+  /** One float[] plane per channel: gray, RGB, or RGBA. */
+  static public final int FLOAT = 3;
+
+  /** One of GRAY8, GRAY16, RGB565, or FLOAT. */
+  public int storage;
+  /** Number of channels, only varies (1, 3, or 4) for FLOAT images. */
+  public int channels = 1;
+
+  /** Pixel data for GRAY8 images. */
+  public byte[] bytes;
+  /** Pixel data for GRAY16 and RGB565 images. */
+  public short[] shorts;
+  /** Pixel data for FLOAT images, planes[channel][y*pixelWidth + x]. */
+  public float[][] planes;
+
+  /** Values mapped to 0 and 255 when converting FLOAT images to ARGB. */
+  protected float rangeLow = 0;
+  protected float rangeHigh = 1;
+
+
+  /**
+   * Create a GRAY8, GRAY16, or RGB565 image, or a single channel FLOAT one.
+   */
+  public PImageBuffer(int width, int height, int storage) {
+    this(width, height, storage, (storage == RGB565) ? 3 : 1);
+  }
+
+
+  /**
+   * @param channels 1 for gray, 3 for RGB, 4 for RGBA (FLOAT storage only)
+   */
+  public PImageBuffer(int width, int height, int storage, int channels) {
+    if (storage < GRAY8 || storage > FLOAT) {
+      throw new IllegalArgumentException("Unknown storage type " + storage);
+    }
+    if (storage == FLOAT &&
+        channels != 1 && channels != 3 && channels != 4) {
+      throw new IllegalArgumentException("FLOAT images need 1, 3, or 4 channels");
+    }
+    this.width = this.pixelWidth = width;
+    this.height = this.pixelHeight = height;
+    this.pixelDensity = 1;
+    this.storage = storage;
+    this.channels = (storage == FLOAT) ? channels : (storage == RGB565 ? 3 : 1);
+    this.format = (this.channels == 4) ? ARGB : RGB;
+    allocate();
+  }
+
+
+  /**
+   * Make a compact copy of a regular image.
+   */
+  public PImageBuffer(PImage source, int storage) {
+    this(source.pixelWidth, source.pixelHeight, storage,
+         (storage == FLOAT && source.format == ARGB) ? 4 :
+         (storage == FLOAT || storage == RGB565) ? 3 : 1);
+    parent = source.parent;
+    source.loadPixels();
+    pack(source.pixels, 0, 0, pixelWidth, pixelHeight);
+  }
+
+
+  protected void allocate() {
+    int count = pixelWidth * pixelHeight;
+    bytes = null;
+    shorts = null;
+    planes = null;
+    if (storage == GRAY8) {
+      bytes = new byte[count];
+    } else if (storage == GRAY16 || storage == RGB565) {
+      shorts = new short[count];
+    } else {
+      planes = new float[channels][count];
+    }
+  }
+
+
+  /** Number of bytes used by the compact data (not counting pixels[]). */
+  public long getStorageBytes() {
+    long count = (long) pixelWidth * pixelHeight;
+    if (storage == GRAY8) return count;
+    if (storage == FLOAT) return 4 * count * channels;
+    return 2 * count;
+  }
+
+
+  public void setRange(float low, float high) {
+    rangeLow = low;
+    rangeHigh = high;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // CONVERSION
+
+
+  /**
+   * Fill pixels[] with the ARGB version of the compact data.
+   */
+  @Override
+  public void loadPixels() {  // ignore
+    if (pixels == null || pixels.length != pixelWidth*pixelHeight) {
+      pixels = new int[pixelWidth*pixelHeight];
+      unpack(pixels, 0, 0, pixelWidth, pixelHeight);
+    }
+    setLoaded();
+  }
+
+
+  /**
+   * Copy an area of pixels[] back into the compact data.
+   */
+  @Override
+  public void updatePixels(int x, int y, int w, int h) {  // ignore
+    if (pixels != null) {
+      if (pixels.length != storageLength()) {
+        // resize() replaced pixels[] with a new size
+        allocate();
+        x = 0;
+        y = 0;
+        w = pixelWidth;
+        h = pixelHeight;
+      }
+      int x1 = Math.max(0, x);
+      int y1 = Math.max(0, y);
+      int x2 = Math.min(pixelWidth, x + w);
+      int y2 = Math.min(pixelHeight, y + h);
+      if (x1 < x2 && y1 < y2) {
+        pack(pixels, x1, y1, x2, y2);
+      }
+      // operations like mask() change the format of the ARGB version
+      format = (channels == 4) ? ARGB : RGB;
+    }
+    super.updatePixels(x, y, w, h);
+  }
+
+
+  /**
+   * Drop the ARGB copy of the data made by loadPixels(). It will be made
+   * again by the next call to loadPixels().
+   */
+  public void releasePixels() {
+    pixels = null;
+    loaded = false;
+  }
+
+
+  protected int storageLength() {
+    if (bytes != null) return bytes.length;
+    if (shorts != null) return shorts.length;
+    return planes[0].length;
+  }
+
+
+  /** Convert the area x1, y1 to x2, y2 (exclusive) to ARGB. */
+  protected void unpack(int[] argb, int x1, int y1, int x2, int y2) {
+    for (int y = y1; y < y2; y++) {
+      int index = y * pixelWidth + x1;
+      for (int x = x1; x < x2; x++) {
+        argb[index] = toARGB(index);
+        index++;
+      }
+    }
+  }
+
+
+  /** Convert the area x1, y1 to x2, y2 (exclusive) from ARGB. */
+  protected void pack(int[] argb, int x1, int y1, int x2, int y2) {
+    for (int y = y1; y < y2; y++) {
+      int index = y * pixelWidth + x1;
+      for (int x = x1; x < x2; x++) {
+        fromARGB(index, argb[index]);
+        index++;
+      }
+    }
+  }
+
+
+  protected int toARGB(int index) {
+    switch (storage) {
+    case GRAY8: {
+      int v = bytes[index] & 0xff;
+      return 0xff000000 | (v << 16) | (v << 8) | v;
+    }
+    case GRAY16: {
+      int v = (shorts[index] & 0xffff) >> 8;
+      return 0xff000000 | (v << 16) | (v << 8) | v;
+    }
+    case RGB565: {
+      int v = shorts[index] & 0xffff;
+      int r = (v >> 11) & 0x1f;
+      int g = (v >> 5) & 0x3f;
+      int b = v & 0x1f;
+      // replicate the high bits so that white stays white
+      r = (r << 3) | (r >> 2);
+      g = (g << 2) | (g >> 4);
+      b = (b << 3) | (b >> 2);
+      return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+    default: {
+      if (channels == 1) {
+        int v = toByte(planes[0][index]);
+        return 0xff000000 | (v << 16) | (v << 8) | v;
+      }
+      int a = (channels == 4) ? toByte(planes[3][index]) : 0xff;
+      return (a << 24) |
+        (toByte(planes[0][index]) << 16) |
+        (toByte(planes[1][index]) << 8) |
+        toByte(planes[2][index]);
+    }
+    }
+  }
+
+
+  protected void fromARGB(int index, int argb) {
+    int r = (argb >> 16) & 0xff;
+    int g = (argb >> 8) & 0xff;
+    int b = argb & 0xff;
+    switch (storage) {
+    case GRAY8:
+      bytes[index] = (byte) luminance(r, g, b);
+      break;
+    case GRAY16:
+      shorts[index] = (short) (luminance(r, g, b) * 257);
+      break;
+    case RGB565:
+      shorts[index] = (short) (((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3));
+      break;
+    default:
+      if (channels == 1) {
+        planes[0][index] = fromByte(luminance(r, g, b));
+      } else {
+        planes[0][index] = fromByte(r);
+        planes[1][index] = fromByte(g);
+        planes[2][index] = fromByte(b);
+        if (channels == 4) {
+          planes[3][index] = fromByte((argb >>> 24));
+        }
+      }
+    }
+  }
+
+
+  /** Same weights as filter(GRAY). */
+  static protected int luminance(int r, int g, int b) {
+    return (r*77 + g*151 + b*28) >> 8;
+  }
+
+
+  protected int toByte(float value) {
+    int v = (int) ((value - rangeLow) / (rangeHigh - rangeLow) * 255 + 0.5f);
+    return (v < 0) ? 0 : ((v > 255) ? 255 : v);
+  }
+
+
+  protected float fromByte(int value) {
+    return rangeLow + value / 255f * (rangeHigh - rangeLow);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // GET/SET
+
+
+  @Override
+  public int get(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return 0;
+    return toARGB(y*pixelWidth + x);
+  }
+
+
+  @Override
+  public void set(int x, int y, int c) {
+    if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return;
+    int index = y*pixelWidth + x;
+    fromARGB(index, c);
+    if (pixels != null) {
+      pixels[index] = toARGB(index);
+    }
+    // mark the area, but skip copying back from pixels[]
+    super.updatePixels(x, y, 1, 1);
+  }
+
+
+  /**
+   * Raw value at x, y: 0..255 for GRAY8, 0..65535 for GRAY16, the packed
+   * 16-bit value for RGB565, or the first channel scaled by 255 for FLOAT.
+   */
+  public int getRaw(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return 0;
+    int index = y*pixelWidth + x;
+    switch (storage) {
+    case GRAY8: return bytes[index] & 0xff;
+    case GRAY16:
+    case RGB565: return shorts[index] & 0xffff;
+    default: return (int) (planes[0][index] * 255);
+    }
+  }
+
+
+  public void setRaw(int x, int y, int value) {
+    if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return;
+    int index = y*pixelWidth + x;
+    switch (storage) {
+    case GRAY8: bytes[index] = (byte) value; break;
+    case GRAY16:
+    case RGB565: shorts[index] = (short) value; break;
+    default: planes[0][index] = value / 255f;
+    }
+    dataChanged(x, y, 1, 1);
+  }
+
+
+  /** Value of one channel of a FLOAT image. */
+  public float getFloat(int x, int y, int channel) {
+    if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return 0;
+    return planes[channel][y*pixelWidth + x];
+  }
+
+
+  public void setFloat(int x, int y, int channel, float value) {
+    if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return;
+    planes[channel][y*pixelWidth + x] = value;
+    dataChanged(x, y, 1, 1);
+  }
+
+
+  /**
+   * Call after writing to bytes[], shorts[], or planes[] directly, so that
+   * pixels[] (if loaded) and the renderers pick up the change.
+   */
+  public void dataChanged(int x, int y, int w, int h) {
+    int x1 = Math.max(0, x);
+    int y1 = Math.max(0, y);
+    int x2 = Math.min(pixelWidth, x + w);
+    int y2 = Math.min(pixelHeight, y + h);
+    if (x1 >= x2 || y1 >= y2) return;
+    if (pixels != null) {
+      unpack(pixels, x1, y1, x2, y2);
+    }
+    super.updatePixels(x1, y1, x2 - x1, y2 - y1);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // OPERATIONS THAT NEED ARGB DATA
+
+
+  @Override
+  public void filter(int kind) {
+    boolean temporary = (pixels == null);
+    super.filter(kind);
+    if (temporary) releasePixels();
+  }
+
+
+  @Override
+  public void filter(int kind, float param) {
+    boolean temporary = (pixels == null);
+    super.filter(kind, param);
+    if (temporary) releasePixels();
+  }
+
+
+  @Override
+  public void blend(PImage src,
+                    int sx, int sy, int sw, int sh,
+                    int dx, int dy, int dw, int dh, int mode) {
+    boolean temporary = (pixels == null);
+    super.blend(src, sx, sy, sw, sh, dx, dy, dw, dh, mode);
+    if (temporary) releasePixels();
+  }
+
+
+  @Override
+  public void mask(int maskArray[]) {  // ignore
+    boolean temporary = (pixels == null);
+    super.mask(maskArray);
+    if (temporary) releasePixels();
+  }
+
+
+  @Override
+  public void resize(int w, int h) {  // ignore
+    boolean temporary = (pixels == null);
+    loadPixels();
+    super.resize(w, h);
+    if (temporary) releasePixels();
+  }
+
+
+  @Override
+  public void set(int x, int y, PImage img) {
+    boolean temporary = (pixels == null);
+    loadPixels();
+    super.set(x, y, img);
+    if (temporary) releasePixels();
+  }
+
+
+  @Override
+  public PImage get(int x, int y, int w, int h) {
+    boolean temporary = (pixels == null);
+    loadPixels();
+    PImage outgoing = super.get(x, y, w, h);
+    if (temporary) releasePixels();
+    return outgoing;
+  }
+}
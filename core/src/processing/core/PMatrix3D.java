@@ -526,6 +526,40 @@ public final class PMatrix3D implements PMatrix /*, PConstants*/ {
   }
 
 
+  /**
+   * Multiply a batch of points against this matrix, much faster than
+   * calling mult() for each of them. Points are read as x, y, z from
+   * source starting at sourceOffset, and each is stride values after the
+   * previous one (3 for points packed one after the other, more when they
+   * are mixed with other data). The results are written to target the same
+   * way, target can be the same array as source if the offsets match.
+   * Like mult(PVector, PVector), the points are treated as having w = 1
+   * and the result is not divided by w.
+   */
+  public void mult(float[] source, int sourceOffset,
+                   float[] target, int targetOffset, int count, int stride) {
+    if (stride < 3) {
+      throw new IllegalArgumentException("stride must be at least 3");
+    }
+    // locals, so the compiler knows they can't change during the loop
+    float n00 = m00, n01 = m01, n02 = m02, n03 = m03;
+    float n10 = m10, n11 = m11, n12 = m12, n13 = m13;
+    float n20 = m20, n21 = m21, n22 = m22, n23 = m23;
+    int s = sourceOffset;
+    int t = targetOffset;
+    for (int i = 0; i < count; i++) {
+      float x = source[s];
+      float y = source[s+1];
+      float z = source[s+2];
+      target[t]   = n00*x + n01*y + n02*z + n03;
+      target[t+1] = n10*x + n11*y + n12*z + n13;
+      target[t+2] = n20*x + n21*y + n22*z + n23;
+      s += stride;
+      t += stride;
+    }
+  }
+
+
   /**
    * Returns the x-coordinate of the result of multiplying the point (x, y)
    * by this matrix.
@@ -0,0 +1,459 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes PNG files straight from a pixels[] array, with a choice of deflate
+ * compression level and scanline filter. Unlike the ImageIO writer, no
+ * BufferedImage copy of the pixels is made.
+ * <p/>
+ * Large images are split into bands of rows that are filtered and
+ * compressed in parallel, the same way pigz does it: every band is a
+ * separate run of deflate blocks, primed with the last 32K of the band
+ * before it so that little compression is lost, and the pieces are stitched
+ * back into a single zlib stream.
+ */
+public class PNGEncoder {
+  /** Scanline filter types, as numbered by the PNG specification. */
+  static public final int FILTER_NONE = 0;
+  static public final int FILTER_SUB = 1;
+  static public final int FILTER_UP = 2;
+  static public final int FILTER_AVERAGE = 3;
+  static public final int FILTER_PAETH = 4;
+  /** Pick the best of the five filters separately for each row. */
+  static public final int FILTER_ADAPTIVE = 5;
+
+  /** Fastest compression, still a lot smaller than no compression. */
+  static public final int LEVEL_FAST = 1;
+  static public final int LEVEL_DEFAULT = 6;
+  static public final int LEVEL_BEST = 9;
+
+  static final byte[] SIGNATURE = {
+    (byte) 137, 80, 78, 71, 13, 10, 26, 10
+  };
+
+  /** Minimum number of (filtered) bytes compressed by a single task. */
+  static final int BAND_SIZE = 512 * 1024;
+  /** Deflate window, the most that can be used as a preset dictionary. */
+  static final int WINDOW_SIZE = 32 * 1024;
+
+  /** Deflate level, from 0 (store only) to 9 (smallest file). */
+  protected int level = LEVEL_DEFAULT;
+  protected int filter = FILTER_ADAPTIVE;
+  protected boolean parallel = true;
+
+
+  public PNGEncoder() { }
+
+
+  public PNGEncoder(int level, int filter) {
+    setLevel(level);
+    setFilter(filter);
+  }
+
+
+  public void setLevel(int level) {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("PNG compression level must be " +
+                                         "between 0 and 9");
+    }
+    this.level = level;
+  }
+
+
+  public int getLevel() {
+    return level;
+  }
+
+
+  public void setFilter(int filter) {
+    if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+      throw new IllegalArgumentException("Unknown PNG filter type " + filter);
+    }
+    this.filter = filter;
+  }
+
+
+  public int getFilter() {
+    return filter;
+  }
+
+
+  /**
+   * Whether large images are compressed on several threads at once.
+   * Defaults to true.
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+
+  /**
+   * Write the pixels of an image as PNG. RGB (and ALPHA) images are written
+   * without an alpha channel, same as the ImageIO-based save().
+   */
+  public void write(OutputStream output, PImage image) throws IOException {
+    write(output, image.pixels, image.pixelWidth, image.pixelHeight,
+          image.format == PConstants.ARGB);
+  }
+
+
+  public void write(OutputStream output, int[] pixels, int width, int height,
+                    boolean alpha) throws IOException {
+    output.write(SIGNATURE);
+
+    byte[] header = new byte[13];
+    writeInt(header, 0, width);
+    writeInt(header, 4, height);
+    header[8] = 8;  // bits per sample
+    header[9] = (byte) (alpha ? 6 : 2);  // truecolor, with or without alpha
+    header[10] = 0;  // deflate
+    header[11] = 0;  // adaptive filtering, one filter type per line
+    header[12] = 0;  // no interlace
+    writeChunk(output, "IHDR", header, header.length);
+
+    int lineLength = width * (alpha ? 4 : 3) + 1;
+    int bandRows = Math.max(1, BAND_SIZE / lineLength);
+    int bandCount = (height + bandRows - 1) / bandRows;
+
+    ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bandCount];
+    for (int i = 0; i < bandCount; i++) {
+      final int start = i * bandRows;
+      final int stop = Math.min(height, start + bandRows);
+      final boolean last = (i == bandCount - 1);
+      tasks[i] = ForkJoinTask.adapt(() ->
+        compressBand(pixels, width, alpha, start, stop, last));
+      if (parallel && bandCount > 1) {
+        ForkJoinPool.commonPool().execute(tasks[i]);
+      }
+    }
+
+    // Stitch the bands together, in order, into one zlib stream
+    long adler = 1;
+    for (int i = 0; i < bandCount; i++) {
+      Band band = (Band) ((parallel && bandCount > 1) ?
+        tasks[i].join() : tasks[i].invoke());
+      adler = adler32Combine(adler, band.adler, band.rawLength);
+
+      ByteArrayOutputStream idat = band.data;
+      if (i == 0) {
+        byte[] data = idat.toByteArray();
+        idat = new ByteArrayOutputStream(data.length + 6);
+        idat.write(0x78);
+        idat.write(zlibFlags(level));
+        idat.write(data, 0, data.length);
+      }
+      if (i == bandCount - 1) {
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) adler);
+        idat.write(trailer, 0, 4);
+      }
+      writeChunk(output, "IDAT", idat.toByteArray(), idat.size());
+    }
+    writeChunk(output, "IEND", new byte[0], 0);
+    output.flush();
+  }
+
+
+  static protected class Band {
+    ByteArrayOutputStream data;
+    long adler;
+    long rawLength;
+  }
+
+
+  /**
+   * Filter and compress rows start (inclusive) to stop (exclusive). Each
+   * band ends on a byte boundary with a sync flush, except for the last one
+   * which finishes the deflate stream.
+   */
+  protected Band compressBand(int[] pixels, int width, boolean alpha,
+                              int start, int stop, boolean last) {
+    byte[] raw = filterRows(pixels, width, alpha, start, stop);
+
+    Deflater deflater = new Deflater(level, true);
+    if (start > 0) {
+      // Use the end of the previous band as a dictionary
+      int lineLength = width * (alpha ? 4 : 3) + 1;
+      int dictRows = (WINDOW_SIZE + lineLength - 1) / lineLength;
+      byte[] dict =
+        filterRows(pixels, width, alpha, Math.max(0, start - dictRows), start);
+      int dictLength = Math.min(WINDOW_SIZE, dict.length);
+      deflater.setDictionary(dict, dict.length - dictLength, dictLength);
+    }
+    deflater.setInput(raw);
+
+    Band band = new Band();
+    band.data = new ByteArrayOutputStream(raw.length / 4 + 64);
+    byte[] buffer = new byte[65536];
+    if (last) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        int count = deflater.deflate(buffer);
+        band.data.write(buffer, 0, count);
+      }
+    } else {
+      int count;
+      do {
+        count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        band.data.write(buffer, 0, count);
+      } while (count == buffer.length);
+    }
+    deflater.end();
+
+    Adler32 adler = new Adler32();
+    adler.update(raw, 0, raw.length);
+    band.adler = adler.getValue();
+    band.rawLength = raw.length;
+    return band;
+  }
+
+
+  /**
+   * Pack and filter a range of rows, each one prefixed by its filter type.
+   * The row before start (if any) is used as the previous row, so the
+   * output is the same no matter how the image is split into bands.
+   */
+  protected byte[] filterRows(int[] pixels, int width, boolean alpha,
+                              int start, int stop) {
+    int bpp = alpha ? 4 : 3;
+    int stride = width * bpp;
+    byte[] out = new byte[(stride + 1) * (stop - start)];
+    byte[] prev = new byte[stride];
+    byte[] curr = new byte[stride];
+    if (start > 0) {
+      packRow(pixels, (start - 1) * width, width, alpha, prev);
+    }
+
+    int offset = 0;
+    for (int y = start; y < stop; y++) {
+      packRow(pixels, y * width, width, alpha, curr);
+      if (filter == FILTER_ADAPTIVE) {
+        int best = pickFilter(curr, prev, bpp);
+        out[offset] = (byte) best;
+        filterRow(best, curr, prev, bpp, out, offset + 1);
+      } else {
+        out[offset] = (byte) filter;
+        filterRow(filter, curr, prev, bpp, out, offset + 1);
+      }
+      offset += stride + 1;
+
+      byte[] temp = prev;
+      prev = curr;
+      curr = temp;
+    }
+    return out;
+  }
+
+
+  /**
+   * Choose the filter with the smallest sum of absolute differences, the
+   * heuristic suggested by the PNG spec. All five filters are scored in a
+   * single pass over the row, without writing out the filtered bytes.
+   */
+  static protected int pickFilter(byte[] curr, byte[] prev, int bpp) {
+    int n = curr.length;
+    long sumNone = 0, sumSub = 0, sumUp = 0, sumAvg = 0, sumPaeth = 0;
+    for (int i = 0; i < n; i++) {
+      int x = curr[i] & 0xff;
+      int a = (i >= bpp) ? (curr[i - bpp] & 0xff) : 0;
+      int b = prev[i] & 0xff;
+      int c = (i >= bpp) ? (prev[i - bpp] & 0xff) : 0;
+      sumNone += Math.abs((byte) x);
+      sumSub += Math.abs((byte) (x - a));
+      sumUp += Math.abs((byte) (x - b));
+      sumAvg += Math.abs((byte) (x - ((a + b) >> 1)));
+      sumPaeth += Math.abs((byte) (x - paeth(a, b, c)));
+    }
+    int best = FILTER_NONE;
+    long bestSum = sumNone;
+    if (sumSub < bestSum) { best = FILTER_SUB; bestSum = sumSub; }
+    if (sumUp < bestSum) { best = FILTER_UP; bestSum = sumUp; }
+    if (sumAvg < bestSum) { best = FILTER_AVERAGE; bestSum = sumAvg; }
+    if (sumPaeth < bestSum) { best = FILTER_PAETH; }
+    return best;
+  }
+
+
+  /** Second byte of the zlib header, which records the compression level. */
+  static protected int zlibFlags(int level) {
+    int flags;
+    if (level <= 1) {
+      flags = 0;
+    } else if (level <= 5) {
+      flags = 1;
+    } else if (level == 6) {
+      flags = 2;
+    } else {
+      flags = 3;
+    }
+    flags <<= 6;
+    int remainder = (0x78 * 256 + flags) % 31;
+    if (remainder != 0) {
+      flags += 31 - remainder;
+    }
+    return flags;
+  }
+
+
+  /**
+   * Checksum of two pieces of data stuck together, from their separate
+   * checksums. Same as adler32_combine() in zlib.
+   */
+  static protected long adler32Combine(long adler1, long adler2, long length2) {
+    final long BASE = 65521;
+    long rem = length2 % BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % BASE;
+    sum1 += (adler2 & 0xffff) + BASE - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - rem;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum2 >= (BASE << 1)) sum2 -= (BASE << 1);
+    if (sum2 >= BASE) sum2 -= BASE;
+    return sum1 | (sum2 << 16);
+  }
+
+
+  /** Convert one row of ARGB ints to RGB or RGBA bytes. */
+  static protected void packRow(int[] pixels, int offset, int width,
+                                boolean alpha, byte[] row) {
+    int i = 0;
+    if (alpha) {
+      for (int x = 0; x < width; x++) {
+        int argb = pixels[offset + x];
+        row[i++] = (byte) (argb >> 16);
+        row[i++] = (byte) (argb >> 8);
+        row[i++] = (byte) argb;
+        row[i++] = (byte) (argb >>> 24);
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        int argb = pixels[offset + x];
+        row[i++] = (byte) (argb >> 16);
+        row[i++] = (byte) (argb >> 8);
+        row[i++] = (byte) argb;
+      }
+    }
+  }
+
+
+  /**
+   * Apply a filter to a packed row, writing the result to out[] starting
+   * at offset. The previous row is all zeros for the first line.
+   */
+  static protected void filterRow(int filter, byte[] curr, byte[] prev,
+                                  int bpp, byte[] out, int offset) {
+    int n = curr.length;
+    switch (filter) {
+    case FILTER_NONE:
+      System.arraycopy(curr, 0, out, offset, n);
+      break;
+
+    case FILTER_SUB:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = curr[i];
+      }
+      for (int i = bpp; i < n; i++) {
+        out[offset + i] = (byte) (curr[i] - curr[i - bpp]);
+      }
+      break;
+
+    case FILTER_UP:
+      for (int i = 0; i < n; i++) {
+        out[offset + i] = (byte) (curr[i] - prev[i]);
+      }
+      break;
+
+    case FILTER_AVERAGE:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = (byte) (curr[i] - ((prev[i] & 0xff) >> 1));
+      }
+      for (int i = bpp; i < n; i++) {
+        int avg = ((curr[i - bpp] & 0xff) + (prev[i] & 0xff)) >> 1;
+        out[offset + i] = (byte) (curr[i] - avg);
+      }
+      break;
+
+    case FILTER_PAETH:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = (byte) (curr[i] - prev[i]);
+      }
+      for (int i = bpp; i < n; i++) {
+        int a = curr[i - bpp] & 0xff;
+        int b = prev[i] & 0xff;
+        int c = prev[i - bpp] & 0xff;
+        out[offset + i] = (byte) (curr[i] - paeth(a, b, c));
+      }
+      break;
+    }
+  }
+
+
+  static protected int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) return a;
+    if (pb <= pc) return b;
+    return c;
+  }
+
+
+  static protected void writeChunk(OutputStream output, String type,
+                                   byte[] data, int length) throws IOException {
+    byte[] header = new byte[8];
+    writeInt(header, 0, length);
+    for (int i = 0; i < 4; i++) {
+      header[4 + i] = (byte) type.charAt(i);
+    }
+    output.write(header);
+    output.write(data, 0, length);
+
+    CRC32 crc = new CRC32();
+    crc.update(header, 4, 4);
+    crc.update(data, 0, length);
+    byte[] footer = new byte[4];
+    writeInt(footer, 0, (int) crc.getValue());
+    output.write(footer);
+  }
+
+
+  static protected void writeInt(byte[] b, int offset, int value) {
+    b[offset] = (byte) (value >>> 24);
+    b[offset + 1] = (byte) (value >>> 16);
+    b[offset + 2] = (byte) (value >>> 8);
+    b[offset + 3] = (byte) value;
+  }
+}
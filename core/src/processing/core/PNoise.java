@@ -0,0 +1,379 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * Perlin noise generator, the same one used by PApplet.noise().
+ * <p/>
+ * Each PNoise has its own seed and detail settings, so a sketch can use
+ * several of them (one per thread, or one per layer) without affecting
+ * each other. Changing the seed or the detail of an instance is not
+ * thread-safe, but once set up, any number of threads can read noise from
+ * the same instance.
+ * <p/>
+ * The noiseField() methods fill a whole grid of values in one call. They
+ * are much faster than calling noise() for every point, because the parts
+ * of the computation shared by a row are only done once, and the rows can
+ * be split across the available processors with setParallel(true).
+ */
+public class PNoise {
+  static final int PERLIN_YWRAPB = 4;
+  static final int PERLIN_YWRAP = 1<<PERLIN_YWRAPB;
+  static final int PERLIN_ZWRAPB = 8;
+  static final int PERLIN_ZWRAP = 1<<PERLIN_ZWRAPB;
+  static final int PERLIN_SIZE = 4095;
+
+  /** Fields smaller than this many values are always filled in one go. */
+  static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+  protected int octaves = 4; // default to medium smooth
+  protected float falloff = 0.5f; // 50% reduction/octave
+
+  protected float[] perlin;
+  protected float[] cosTable;
+  protected int cosTwoPi, cosPi;
+
+  protected boolean parallel;
+
+
+  /**
+   * Create a noise generator with a random seed.
+   */
+  public PNoise() {
+    this(new Random());
+  }
+
+
+  public PNoise(long seed) {
+    this(new Random(seed));
+  }
+
+
+  protected PNoise(Random random) {
+    // noise broke due to the change of cos table in PGraphics,
+    // so use the table and its size directly [toxi 031112]
+    cosTable = PGraphics.cosLUT;
+    cosTwoPi = cosPi = PGraphics.SINCOS_LENGTH;
+    cosPi >>= 1;
+    fill(random);
+  }
+
+
+  protected void fill(Random random) {
+    float[] table = new float[PERLIN_SIZE + 1];
+    for (int i = 0; i < PERLIN_SIZE + 1; i++) {
+      table[i] = random.nextFloat();
+    }
+    perlin = table;
+  }
+
+
+  /**
+   * Make the same noise as another generator seeded with the same value.
+   */
+  public void noiseSeed(long seed) {
+    fill(new Random(seed));
+  }
+
+
+  /**
+   * @see PApplet#noiseDetail(int)
+   */
+  public void noiseDetail(int lod) {
+    if (lod > 0) octaves = lod;
+  }
+
+
+  /**
+   * @see PApplet#noiseDetail(int, float)
+   */
+  public void noiseDetail(int lod, float falloff) {
+    if (lod > 0) octaves = lod;
+    if (falloff > 0) this.falloff = falloff;
+  }
+
+
+  /**
+   * Split the rows of large noise fields across the common ForkJoinPool.
+   * Off by default.
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SINGLE VALUES
+
+
+  public float noise(float x) {
+    return noise(x, 0f, 0f);
+  }
+
+
+  public float noise(float x, float y) {
+    return noise(x, y, 0f);
+  }
+
+
+  public float noise(float x, float y, float z) {
+    if (x<0) x=-x;
+    if (y<0) y=-y;
+    if (z<0) z=-z;
+
+    int xi=(int)x, yi=(int)y, zi=(int)z;
+    float xf = x - xi;
+    float yf = y - yi;
+    float zf = z - zi;
+    float rxf, ryf;
+
+    float r=0;
+    float ampl=0.5f;
+
+    float n1,n2,n3;
+
+    for (int i=0; i<octaves; i++) {
+      int of=xi+(yi<<PERLIN_YWRAPB)+(zi<<PERLIN_ZWRAPB);
+
+      rxf=fsc(xf);
+      ryf=fsc(yf);
+
+      n1  = perlin[of&PERLIN_SIZE];
+      n1 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n1);
+      n2  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+      n2 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n2);
+      n1 += ryf*(n2-n1);
+
+      of += PERLIN_ZWRAP;
+      n2  = perlin[of&PERLIN_SIZE];
+      n2 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n2);
+      n3  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+      n3 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n3);
+      n2 += ryf*(n3-n2);
+
+      n1 += fsc(zf)*(n2-n1);
+
+      r += n1*ampl;
+      ampl *= falloff;
+      xi<<=1; xf*=2;
+      yi<<=1; yf*=2;
+      zi<<=1; zf*=2;
+
+      if (xf>=1.0f) { xi++; xf--; }
+      if (yf>=1.0f) { yi++; yf--; }
+      if (zf>=1.0f) { zi++; zf--; }
+    }
+    return r;
+  }
+
+
+  // uses bagel's cosine table instead of calling cos() [toxi 031112]
+  private float fsc(float i) {
+    return 0.5f*(1.0f-cosTable[(int)(i*cosPi)%cosTwoPi]);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // MANY VALUES
+
+
+  /**
+   * Noise for a list of points. Any of ys or zs may be null to use 0.
+   *
+   * @param out array for the results, or null to create one
+   * @return the array holding the results
+   */
+  public float[] noise(float[] xs, float[] ys, float[] zs, float[] out) {
+    int count = xs.length;
+    if (out == null) out = new float[count];
+    for (int i = 0; i < count; i++) {
+      out[i] = noise(xs[i],
+                     (ys == null) ? 0 : ys[i],
+                     (zs == null) ? 0 : zs[i]);
+    }
+    return out;
+  }
+
+
+  /**
+   * Fill out[] with a w by h grid of noise values, row by row, with the
+   * first value at (x0, y0) and the following ones dx and dy apart. Each
+   * value is the same as noise(x0 + col*dx, y0 + row*dy).
+   *
+   * @param out array for the results, or null to create one
+   * @return the array holding the results
+   */
+  public float[] noiseField(float x0, float y0, float dx, float dy,
+                            int w, int h, float[] out) {
+    return noiseField(x0, y0, 0, dx, dy, w, h, out);
+  }
+
+
+  /**
+   * Same as above, for a slice of 3D noise at z. Moving z a little each
+   * frame animates the field.
+   */
+  public float[] noiseField(float x0, float y0, float z,
+                            float dx, float dy,
+                            int w, int h, float[] out) {
+    if (out == null) out = new float[w * h];
+    if (out.length < w * h) {
+      throw new IllegalArgumentException("The output array needs at least " +
+                                         (w * h) + " elements");
+    }
+    fillRows(x0, y0, z, dx, dy, w, h, out);
+    return out;
+  }
+
+
+  /**
+   * Fill the pixels of an image with gray values from the noise field
+   * starting at (x0, y0) with values dx and dy apart.
+   */
+  public void noiseField(PImage img, float x0, float y0, float z,
+                         float dx, float dy) {
+    int w = img.pixelWidth;
+    int h = img.pixelHeight;
+    float[] field = noiseField(x0, y0, z, dx, dy, w, h, null);
+    img.loadPixels();
+    int[] pixels = img.pixels;
+    for (int i = 0; i < field.length; i++) {
+      int v = (int) (field[i] * 255);
+      v = (v < 0) ? 0 : ((v > 255) ? 255 : v);
+      pixels[i] = 0xff000000 | (v << 16) | (v << 8) | v;
+    }
+    img.updatePixels();
+  }
+
+
+  protected void fillRows(final float x0, final float y0, final float z,
+                          final float dx, final float dy,
+                          final int w, final int h, final float[] out) {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    if (!parallel || cpus == 1 || (long) w * h < PARALLEL_THRESHOLD) {
+      fillRows(x0, y0, z, dx, dy, w, 0, h, out);
+      return;
+    }
+    int bands = Math.min(h, cpus * 4);
+    List<ForkJoinTask<?>> tasks = new ArrayList<>(bands);
+    for (int i = 0; i < bands; i++) {
+      final int start = h * i / bands;
+      final int stop = h * (i+1) / bands;
+      tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+        public void run() {
+          fillRows(x0, y0, z, dx, dy, w, start, stop, out);
+        }
+      }));
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+  }
+
+
+  /**
+   * Fill rows start..stop of the field. The y and z terms of each octave
+   * are the same along a row, so they're worked out once per row and only
+   * the x terms are done for every value. The operations are the same as
+   * in noise(x, y, z), so are the results.
+   */
+  protected void fillRows(float x0, float y0, float z,
+                          float dx, float dy,
+                          int w, int start, int stop, float[] out) {
+    final float[] perlin = this.perlin;
+    final int octaves = this.octaves;
+    final float falloff = this.falloff;
+
+    int[] yzOffset = new int[octaves];
+    float[] ryfs = new float[octaves];
+    float[] rzfs = new float[octaves];
+
+    if (z<0) z=-z;
+    int zi0 = (int)z;
+    float zf0 = z - zi0;
+
+    for (int row = start; row < stop; row++) {
+      float y = y0 + row*dy;
+      if (y<0) y=-y;
+      int yi = (int)y, zi = zi0;
+      float yf = y - yi, zf = zf0;
+      for (int i = 0; i < octaves; i++) {
+        yzOffset[i] = (yi<<PERLIN_YWRAPB)+(zi<<PERLIN_ZWRAPB);
+        ryfs[i] = fsc(yf);
+        rzfs[i] = fsc(zf);
+        yi<<=1; yf*=2;
+        zi<<=1; zf*=2;
+        if (yf>=1.0f) { yi++; yf--; }
+        if (zf>=1.0f) { zi++; zf--; }
+      }
+
+      int index = row * w;
+      for (int col = 0; col < w; col++) {
+        float x = x0 + col*dx;
+        if (x<0) x=-x;
+        int xi = (int)x;
+        float xf = x - xi;
+
+        float r = 0;
+        float ampl = 0.5f;
+        float n1, n2, n3;
+
+        for (int i = 0; i < octaves; i++) {
+          int of = xi + yzOffset[i];
+          float rxf = fsc(xf);
+          float ryf = ryfs[i];
+
+          n1  = perlin[of&PERLIN_SIZE];
+          n1 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n1);
+          n2  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+          n2 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n2);
+          n1 += ryf*(n2-n1);
+
+          of += PERLIN_ZWRAP;
+          n2  = perlin[of&PERLIN_SIZE];
+          n2 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n2);
+          n3  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+          n3 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n3);
+          n2 += ryf*(n3-n2);
+
+          n1 += rzfs[i]*(n2-n1);
+
+          r += n1*ampl;
+          ampl *= falloff;
+          xi<<=1; xf*=2;
+          if (xf>=1.0f) { xi++; xf--; }
+        }
+        out[index++] = r;
+      }
+    }
+  }
+}
@@ -0,0 +1,410 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.data.JSONObject;
+import processing.data.Table;
+import processing.data.TableRow;
+
+
+/**
+ * Measures where the time of each frame goes. Started with profile() and
+ * stopped with noProfile() from PApplet.
+ * <p/>
+ * Each frame is split into phases (beginDraw, pre, draw, events, library
+ * draw methods, recording, endDraw, post, and copying to the screen where
+ * the surface reports it). Every registered library method is also timed
+ * on its own. For each phase the profiler keeps a PHistogram, so that the
+ * median and the 95th and 99th percentiles can be read at any time, and a
+ * record of the last few hundred frames that includes the garbage
+ * collections and the bytes allocated by the animation thread during the
+ * frame.
+ * <p/>
+ * Results are available as Tables (getSummary() and getFrames()), as JSON,
+ * or written as one JSON object per line for every frame with setOutput()
+ * for analysis outside the sketch.
+ */
+public class PProfiler {
+  static public final int BEGIN_DRAW = 0;
+  static public final int PRE = 1;
+  static public final int DRAW = 2;
+  static public final int EVENTS = 3;
+  static public final int LIBRARY_DRAW = 4;
+  static public final int RECORDING = 5;
+  static public final int END_DRAW = 6;
+  static public final int POST = 7;
+  static public final int BLIT = 8;
+  static final int PHASE_COUNT = 9;
+
+  static final String[] PHASE_NAMES = {
+    "beginDraw", "pre", "draw", "events", "libraryDraw",
+    "recording", "endDraw", "post", "blit"
+  };
+
+  /** Number of frames kept for getFrames(). */
+  static final int HISTORY = 600;
+
+  protected PApplet parent;
+
+  protected PHistogram[] phases = new PHistogram[PHASE_COUNT];
+  protected PHistogram total = new PHistogram();
+  protected Map<String, PHistogram> methods = new LinkedHashMap<>();
+
+  // the frame being measured
+  protected boolean inFrame;
+  protected int frameNumber;
+  protected long lastMark;
+  protected long[] current = new long[PHASE_COUNT];
+
+  // last frames, as a ring
+  protected int[] historyFrame = new int[HISTORY];
+  protected long[][] historyPhases = new long[HISTORY][PHASE_COUNT];
+  protected long[] historyGCCount = new long[HISTORY];
+  protected long[] historyGCTime = new long[HISTORY];
+  protected long[] historyAllocated = new long[HISTORY];
+  protected int historyCount;
+
+  // garbage collection and allocation at the start of the frame
+  protected List<GarbageCollectorMXBean> collectors;
+  protected ThreadMXBean threadBean;
+  protected boolean allocationSupported;
+  protected long gcCount, gcTime, allocated;
+
+  protected int gcFrames;
+  protected long gcFrameTotal;
+
+  protected PrintWriter output;
+  protected StringBuilder line = new StringBuilder();
+
+
+  public PProfiler(PApplet parent) {
+    this.parent = parent;
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      phases[i] = new PHistogram();
+    }
+    collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    threadBean = ManagementFactory.getThreadMXBean();
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean bean =
+        (com.sun.management.ThreadMXBean) threadBean;
+      allocationSupported = bean.isThreadAllocatedMemorySupported();
+      if (allocationSupported && !bean.isThreadAllocatedMemoryEnabled()) {
+        bean.setThreadAllocatedMemoryEnabled(true);
+      }
+    }
+  }
+
+
+  /**
+   * Write a line of JSON with the timings of every frame (in nanoseconds)
+   * to a file, or null to stop writing.
+   */
+  public void setOutput(String path) {
+    if (output != null) {
+      output.flush();
+      output.close();
+      output = null;
+    }
+    if (path != null) {
+      output = parent.createWriter(path);
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // MEASURING
+
+
+  /**
+   * Called by PApplet at the start of each frame. Also completes the
+   * previous frame, since the surface may still add to it after draw.
+   */
+  public void beginFrame(int frameNumber) {
+    long now = System.nanoTime();
+    if (inFrame) {
+      endFrame();
+    }
+    inFrame = true;
+    this.frameNumber = frameNumber;
+    lastMark = now;
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      current[i] = 0;
+    }
+    gcCount = collectionCount();
+    gcTime = collectionTime();
+    allocated = allocatedBytes();
+  }
+
+
+  /**
+   * Add the time since the previous mark to a phase of the current frame.
+   */
+  public void mark(int phase) {
+    if (inFrame) {
+      long now = System.nanoTime();
+      current[phase] += now - lastMark;
+      lastMark = now;
+    }
+  }
+
+
+  protected void endFrame() {
+    inFrame = false;
+
+    long frameTotal = 0;
+    int slot = historyCount % HISTORY;
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      long nanos = current[i];
+      phases[i].add(nanos);
+      historyPhases[slot][i] = nanos;
+      frameTotal += nanos;
+    }
+    total.add(frameTotal);
+
+    long gcCountDiff = collectionCount() - gcCount;
+    long gcTimeDiff = collectionTime() - gcTime;
+    long allocatedDiff = allocationSupported ? allocatedBytes() - allocated : -1;
+    historyFrame[slot] = frameNumber;
+    historyGCCount[slot] = gcCountDiff;
+    historyGCTime[slot] = gcTimeDiff;
+    historyAllocated[slot] = allocatedDiff;
+    historyCount++;
+
+    if (gcCountDiff > 0) {
+      gcFrames++;
+      gcFrameTotal += frameTotal;
+    }
+
+    if (output != null) {
+      writeFrame(slot);
+    }
+  }
+
+
+  /** Histogram for a registered library method, see PApplet.handleMethods(). */
+  synchronized protected PHistogram getMethodHistogram(String name,
+                                                      Object target) {
+    String key = name + " " + target.getClass().getName();
+    PHistogram h = methods.get(key);
+    if (h == null) {
+      h = new PHistogram();
+      methods.put(key, h);
+    }
+    return h;
+  }
+
+
+  protected long collectionCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : collectors) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+
+  protected long collectionTime() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : collectors) {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+
+
+  protected long allocatedBytes() {
+    if (!allocationSupported) return 0;
+    return ((com.sun.management.ThreadMXBean) threadBean).
+      getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+
+  /** Stop measuring and close the output file, if any. */
+  public void dispose() {
+    if (inFrame) {
+      endFrame();
+    }
+    setOutput(null);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // RESULTS
+
+
+  /** Histogram for one of the phases, e.g. PProfiler.DRAW. */
+  public PHistogram getPhase(int phase) {
+    return phases[phase];
+  }
+
+
+  /** Histogram of the total measured time of each frame. */
+  public PHistogram getTotal() {
+    return total;
+  }
+
+
+  /** Number of frames that had at least one garbage collection. */
+  public int getGCFrameCount() {
+    return gcFrames;
+  }
+
+
+  /** Average time of the frames that had a garbage collection. */
+  public float getGCFrameMeanMillis() {
+    return (gcFrames == 0) ? 0 : gcFrameTotal / (gcFrames * 1e6f);
+  }
+
+
+  /**
+   * One row per phase and per registered library method, with the count,
+   * mean, median, 95th and 99th percentile, and maximum in milliseconds.
+   */
+  synchronized public Table getSummary() {
+    Table table = new Table();
+    table.addColumn("name", Table.STRING);
+    table.addColumn("count", Table.LONG);
+    table.addColumn("mean", Table.FLOAT);
+    table.addColumn("p50", Table.FLOAT);
+    table.addColumn("p95", Table.FLOAT);
+    table.addColumn("p99", Table.FLOAT);
+    table.addColumn("max", Table.FLOAT);
+
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      addSummaryRow(table, PHASE_NAMES[i], phases[i]);
+    }
+    addSummaryRow(table, "frame", total);
+    for (Map.Entry<String, PHistogram> entry : methods.entrySet()) {
+      addSummaryRow(table, entry.getKey(), entry.getValue());
+    }
+    return table;
+  }
+
+
+  private void addSummaryRow(Table table, String name, PHistogram h) {
+    TableRow row = table.addRow();
+    row.setString("name", name);
+    row.setLong("count", h.getCount());
+    row.setFloat("mean", h.getMeanMillis());
+    row.setFloat("p50", h.getPercentileMillis(0.5f));
+    row.setFloat("p95", h.getPercentileMillis(0.95f));
+    row.setFloat("p99", h.getPercentileMillis(0.99f));
+    row.setFloat("max", h.getMaxMillis());
+  }
+
+
+  /**
+   * One row for each of the last frames (up to 600), with the time of
+   * each phase in milliseconds, the garbage collections that happened
+   * during the frame, and the bytes allocated by the animation thread
+   * (-1 where the JVM can't report it).
+   */
+  public Table getFrames() {
+    Table table = new Table();
+    table.addColumn("frame", Table.INT);
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      table.addColumn(PHASE_NAMES[i], Table.FLOAT);
+    }
+    table.addColumn("total", Table.FLOAT);
+    table.addColumn("gcCount", Table.LONG);
+    table.addColumn("gcMillis", Table.LONG);
+    table.addColumn("allocated", Table.LONG);
+
+    int count = Math.min(historyCount, HISTORY);
+    int first = historyCount - count;
+    for (int f = first; f < historyCount; f++) {
+      int slot = f % HISTORY;
+      TableRow row = table.addRow();
+      row.setInt("frame", historyFrame[slot]);
+      long frameTotal = 0;
+      for (int i = 0; i < PHASE_COUNT; i++) {
+        row.setFloat(PHASE_NAMES[i], historyPhases[slot][i] / 1e6f);
+        frameTotal += historyPhases[slot][i];
+      }
+      row.setFloat("total", frameTotal / 1e6f);
+      row.setLong("gcCount", historyGCCount[slot]);
+      row.setLong("gcMillis", historyGCTime[slot]);
+      row.setLong("allocated", historyAllocated[slot]);
+    }
+    return table;
+  }
+
+
+  /** The same numbers as getSummary(), as a JSONObject keyed by name. */
+  synchronized public JSONObject getSummaryJSON() {
+    JSONObject json = new JSONObject();
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      json.setJSONObject(PHASE_NAMES[i], toJSON(phases[i]));
+    }
+    json.setJSONObject("frame", toJSON(total));
+    JSONObject libraries = new JSONObject();
+    for (Map.Entry<String, PHistogram> entry : methods.entrySet()) {
+      libraries.setJSONObject(entry.getKey(), toJSON(entry.getValue()));
+    }
+    json.setJSONObject("methods", libraries);
+    json.setInt("gcFrames", gcFrames);
+    json.setFloat("gcFrameMean", getGCFrameMeanMillis());
+    return json;
+  }
+
+
+  private JSONObject toJSON(PHistogram h) {
+    JSONObject json = new JSONObject();
+    json.setLong("count", h.getCount());
+    json.setFloat("mean", h.getMeanMillis());
+    json.setFloat("p50", h.getPercentileMillis(0.5f));
+    json.setFloat("p95", h.getPercentileMillis(0.95f));
+    json.setFloat("p99", h.getPercentileMillis(0.99f));
+    json.setFloat("max", h.getMaxMillis());
+    return json;
+  }
+
+
+  // written by hand instead of through JSONObject to keep it cheap
+  private void writeFrame(int slot) {
+    line.setLength(0);
+    line.append("{\"frame\":").append(historyFrame[slot]);
+    long frameTotal = 0;
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      long nanos = historyPhases[slot][i];
+      frameTotal += nanos;
+      line.append(",\"").append(PHASE_NAMES[i]).append("\":").append(nanos);
+    }
+    line.append(",\"total\":").append(frameTotal);
+    line.append(",\"gcCount\":").append(historyGCCount[slot]);
+    line.append(",\"gcMillis\":").append(historyGCTime[slot]);
+    line.append(",\"allocated\":").append(historyAllocated[slot]);
+    line.append('}');
+    output.println(line);
+  }
+}
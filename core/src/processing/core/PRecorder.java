@@ -0,0 +1,484 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Records every frame of the sketch to a numbered sequence of images, on a
+ * set of background encoder threads. Set the public options, then pass
+ * the recorder to startRecording():
+ * <pre>
+ * PRecorder rec = new PRecorder();
+ * rec.queueDepth = 8;
+ * rec.policy = PRecorder.DROP;
+ * rec.compression = 1;
+ * startRecording("frames/####.png", rec);
+ * </pre>
+ * Only a fixed number of frames (the queue depth) can be waiting to be
+ * written at once. When the encoders fall behind, the policy decides
+ * whether the animation thread waits (BLOCK), the frame is skipped (DROP),
+ * or the PNG compression level is lowered while the queue is filling up
+ * (ADAPTIVE, which blocks only once the queue is completely full).
+ * <p/>
+ * If rawPath is set, frames are not encoded at all. Instead the pixels are
+ * copied to a single memory-mapped file, which is as fast as recording
+ * gets; use transcode() afterwards to turn it into images.
+ */
+public class PRecorder implements PConstants {
+  /** Wait for a free slot when the queue is full. */
+  static public final int BLOCK = 0;
+  /** Skip frames when the queue is full. */
+  static public final int DROP = 1;
+  /** Lower PNG compression as the queue fills, block when it's full. */
+  static public final int ADAPTIVE = 2;
+
+  static final int RAW_MAGIC = 0x50524157;  // "PRAW"
+  static final int RAW_HEADER_SIZE = 5 * 4;
+
+  static final int LATENCY_COUNT = 1024;
+
+  static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  // Options, read once when recording starts
+
+  /** Maximum number of frames waiting to be written. */
+  public int queueDepth = Math.max(2, CPU_COUNT);
+  /** Number of encoder threads. */
+  public int threads = Math.max(1, CPU_COUNT - 1);
+  /** One of BLOCK, DROP, or ADAPTIVE. */
+  public int policy = BLOCK;
+  /** Deflate level used for PNG files, from 0 (none) to 9 (smallest). */
+  public int compression = 6;
+  /** PNG scanline filter, one of the PNGEncoder.FILTER_XXX constants. */
+  public int filter = PNGEncoder.FILTER_SUB;
+  /** If not null, dump raw frames to this file instead of encoding them. */
+  public String rawPath;
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  protected PApplet parent;
+  protected String pattern;
+  protected boolean png;
+
+  protected BlockingQueue<Frame> queue;
+  protected BlockingQueue<Frame> free;
+  protected int depth;
+  protected int framesCreated;
+  protected Thread[] encoders;
+  protected volatile boolean recording;
+
+  protected FileChannel rawChannel;
+  protected long rawPosition;
+
+  // Statistics, updated by the encoder threads
+  protected int framesAdded;
+  protected int framesWritten;
+  protected int framesDropped;
+  protected int framesBlocked;
+  protected long blockedNanos;
+  protected long[] encodeNanos = new long[LATENCY_COUNT];
+  protected long maxEncodeNanos;
+  protected long totalEncodeNanos;
+
+
+  static protected class Frame {
+    PImage image;
+    String path;
+    int frameNumber;
+    int level;
+    long rawOffset;
+    boolean last;  // tells an encoder thread to quit
+  }
+
+
+  public PRecorder() { }
+
+
+  /**
+   * Called by PApplet.startRecording(), starts the encoder threads.
+   *
+   * @param pattern file name for the frames, with #### marks that are
+   * replaced by the frame number
+   */
+  protected void start(PApplet parent, String pattern) {
+    this.parent = parent;
+    this.pattern = pattern;
+    png = pattern.toLowerCase().endsWith(".png");
+
+    depth = Math.max(1, queueDepth);
+    queue = new ArrayBlockingQueue<Frame>(depth + threads);
+    free = new ArrayBlockingQueue<Frame>(depth);
+    framesCreated = 0;
+
+    if (rawPath != null) {
+      try {
+        File file = parent.saveFile(rawPath);
+        @SuppressWarnings("resource")
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        rawChannel = raf.getChannel();
+        rawPosition = 0;
+      } catch (IOException e) {
+        throw new RuntimeException("Could not create " + rawPath, e);
+      }
+    }
+
+    recording = true;
+    encoders = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      encoders[i] = new Thread(new Runnable() {
+        public void run() {
+          encodeFrames();
+        }
+      }, "PRecorder Encoder " + i);
+      encoders[i].setDaemon(true);
+      encoders[i].start();
+    }
+  }
+
+
+  /**
+   * Called by PApplet.stopRecording(). Waits for the queued frames to be
+   * written, then shuts down the encoder threads.
+   */
+  protected void stop() {
+    if (!recording) return;
+    recording = false;
+
+    for (int i = 0; i < encoders.length; i++) {
+      Frame last = new Frame();
+      last.last = true;
+      try {
+        queue.put(last);
+      } catch (InterruptedException e) { }
+    }
+    for (Thread encoder : encoders) {
+      try {
+        encoder.join();
+      } catch (InterruptedException e) { }
+    }
+    encoders = null;
+
+    if (rawChannel != null) {
+      try {
+        rawChannel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      rawChannel = null;
+    }
+  }
+
+
+  public boolean isRecording() {
+    return recording;
+  }
+
+
+  /**
+   * Copy the current contents of the renderer into the queue. Called from
+   * the animation thread at the end of draw().
+   */
+  protected void addFrame(PGraphics g) {
+    if (!recording) return;
+
+    Frame frame = free.poll();
+    if (frame == null) {
+      synchronized (this) {
+        if (framesCreated < depth) {
+          frame = new Frame();
+          framesCreated++;
+        }
+      }
+    }
+    if (frame == null) {
+      if (policy == DROP) {
+        synchronized (this) {
+          framesDropped++;
+        }
+        return;
+      }
+      long t = System.nanoTime();
+      try {
+        frame = free.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      synchronized (this) {
+        framesBlocked++;
+        blockedNanos += System.nanoTime() - t;
+      }
+    }
+
+    g.loadPixels();
+    if (frame.image == null ||
+        frame.image.pixelWidth != g.pixelWidth ||
+        frame.image.pixelHeight != g.pixelHeight) {
+      frame.image = new PImage(g.pixelWidth, g.pixelHeight, g.format);
+    }
+    frame.image.format = g.format;
+    System.arraycopy(g.pixels, 0, frame.image.pixels, 0,
+                     Math.min(g.pixels.length, frame.image.pixels.length));
+
+    frame.frameNumber = parent.frameCount;
+    frame.path = parent.sketchPath(parent.insertFrame(pattern));
+    frame.level = compression;
+    if (policy == ADAPTIVE) {
+      // Trade file size for speed while frames are piling up
+      int waiting = queue.size();
+      frame.level = compression * (depth - waiting) / depth;
+      frame.level = Math.max(1, Math.min(compression, frame.level));
+    }
+    if (rawChannel != null) {
+      frame.rawOffset = rawPosition;
+      rawPosition += RAW_HEADER_SIZE + 4L * frame.image.pixels.length;
+    }
+
+    synchronized (this) {
+      framesAdded++;
+    }
+    queue.add(frame);
+  }
+
+
+  protected void encodeFrames() {
+    PNGEncoder encoder = new PNGEncoder(compression, filter);
+    // frames are already spread across the encoder threads
+    encoder.setParallel(false);
+    while (true) {
+      Frame frame;
+      try {
+        frame = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (frame.last) return;
+
+      long t = System.nanoTime();
+      try {
+        if (rawChannel != null) {
+          writeRaw(frame);
+        } else {
+          writeImage(frame, encoder);
+        }
+      } catch (IOException e) {
+        System.err.println("Could not write frame " + frame.frameNumber);
+        e.printStackTrace();
+      } catch (RuntimeException e) {
+        // keep the thread going, or the frame is lost and add() can
+        // end up waiting forever for a free one
+        System.err.println("Could not write frame " + frame.frameNumber);
+        e.printStackTrace();
+      } finally {
+        long elapsed = System.nanoTime() - t;
+
+        synchronized (this) {
+          encodeNanos[framesWritten % LATENCY_COUNT] = elapsed;
+          totalEncodeNanos += elapsed;
+          maxEncodeNanos = Math.max(maxEncodeNanos, elapsed);
+          framesWritten++;
+        }
+        free.offer(frame);
+      }
+    }
+  }
+
+
+  protected void writeImage(Frame frame, PNGEncoder encoder) throws IOException {
+    PApplet.createPath(frame.path);
+    if (png) {
+      encoder.setLevel(frame.level);
+      OutputStream output =
+        new BufferedOutputStream(new FileOutputStream(frame.path), 65536);
+      try {
+        encoder.write(output, frame.image);
+      } finally {
+        output.close();
+      }
+    } else {
+      frame.image.save(frame.path);
+    }
+  }
+
+
+  protected void writeRaw(Frame frame) throws IOException {
+    PImage image = frame.image;
+    MappedByteBuffer buffer =
+      rawChannel.map(FileChannel.MapMode.READ_WRITE, frame.rawOffset,
+                     RAW_HEADER_SIZE + 4L * image.pixels.length);
+    buffer.order(ByteOrder.nativeOrder());
+    IntBuffer ints = buffer.asIntBuffer();
+    ints.put(RAW_MAGIC);
+    ints.put(frame.frameNumber);
+    ints.put(image.pixelWidth);
+    ints.put(image.pixelHeight);
+    ints.put(image.format);
+    ints.put(image.pixels);
+  }
+
+
+  /**
+   * Convert a file written with rawPath into a sequence of images.
+   *
+   * @param rawPath absolute path to the raw frame file
+   * @param pattern absolute path for the images, with #### marks for the
+   * frame number
+   * @return number of frames written
+   */
+  static public int transcode(String rawPath, String pattern) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(rawPath, "r");
+    FileChannel channel = raf.getChannel();
+    int count = 0;
+    try {
+      long position = 0;
+      long length = channel.size();
+      while (position + RAW_HEADER_SIZE <= length) {
+        MappedByteBuffer header =
+          channel.map(FileChannel.MapMode.READ_ONLY, position, RAW_HEADER_SIZE);
+        header.order(ByteOrder.nativeOrder());
+        if (header.getInt(0) != RAW_MAGIC) {
+          // written on a machine with the other byte order
+          header.order(header.order() == ByteOrder.BIG_ENDIAN ?
+                       ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+          if (header.getInt(0) != RAW_MAGIC) {
+            throw new IOException(rawPath + " is not a raw frame file");
+          }
+        }
+        int frameNumber = header.getInt(4);
+        int w = header.getInt(8);
+        int h = header.getInt(12);
+        int format = header.getInt(16);
+        if (w == 0 || h == 0) break;  // frame never got written
+
+        MappedByteBuffer data =
+          channel.map(FileChannel.MapMode.READ_ONLY,
+                      position + RAW_HEADER_SIZE, 4L * w * h);
+        data.order(header.order());
+        PImage image = new PImage(w, h, format);
+        data.asIntBuffer().get(image.pixels);
+        image.save(insertFrame(pattern, frameNumber));
+
+        position += RAW_HEADER_SIZE + 4L * w * h;
+        count++;
+      }
+    } finally {
+      raf.close();
+    }
+    return count;
+  }
+
+
+  static protected String insertFrame(String what, int frameNumber) {
+    int first = what.indexOf('#');
+    int last = what.lastIndexOf('#');
+    if ((first != -1) && (last - first > 0)) {
+      return what.substring(0, first) +
+        PApplet.nf(frameNumber, last - first + 1) +
+        what.substring(last + 1);
+    }
+    return what;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // STATISTICS
+
+
+  /** Number of frames handed to the recorder and not dropped. */
+  public synchronized int getFrameCount() {
+    return framesAdded;
+  }
+
+
+  /** Number of frames that have been written to disk. */
+  public synchronized int getWrittenCount() {
+    return framesWritten;
+  }
+
+
+  /** Number of frames skipped because of the DROP policy. */
+  public synchronized int getDroppedCount() {
+    return framesDropped;
+  }
+
+
+  /** Number of frames where the animation thread had to wait. */
+  public synchronized int getBlockedCount() {
+    return framesBlocked;
+  }
+
+
+  /** Total time the animation thread spent waiting, in milliseconds. */
+  public synchronized float getBlockedMillis() {
+    return blockedNanos / 1e6f;
+  }
+
+
+  /** Number of frames waiting to be encoded. */
+  public int getQueueSize() {
+    return (queue == null) ? 0 : queue.size();
+  }
+
+
+  public synchronized float getAverageEncodeMillis() {
+    return (framesWritten == 0) ? 0 : totalEncodeNanos / 1e6f / framesWritten;
+  }
+
+
+  public synchronized float getMaxEncodeMillis() {
+    return maxEncodeNanos / 1e6f;
+  }
+
+
+  /**
+   * Encode time for a percentile (0..100) of the most recent frames,
+   * for instance 50 for the median or 99 for the worst one in a hundred.
+   */
+  public synchronized float getEncodeMillis(float percentile) {
+    int count = Math.min(framesWritten, LATENCY_COUNT);
+    if (count == 0) return 0;
+    long[] sorted = new long[count];
+    System.arraycopy(encodeNanos, 0, sorted, 0, count);
+    Arrays.sort(sorted);
+    int index = Math.round(percentile / 100f * (count - 1));
+    index = Math.max(0, Math.min(count - 1, index));
+    return sorted[index] / 1e6f;
+  }
+}
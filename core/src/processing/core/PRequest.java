@@ -0,0 +1,296 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * A file being loaded in the background by one of the request functions
+ * of PApplet, such as requestTable() or requestJSONObject().
+ * <p/>
+ * get() returns null until the file has loaded. Callbacks added with
+ * then() are run on the animation thread before the next draw() once the
+ * file is loaded, so they can safely use the result for drawing. If the
+ * file could not be loaded, the callbacks receive null, the same as the
+ * load functions return null.
+ * <p/>
+ * Requests with a higher priority are started first. Requesting a file
+ * that is already waiting or loading returns the same PRequest, so the
+ * file is only read once, but also means that cancel() cancels it for
+ * everyone who asked for it.
+ */
+public class PRequest<T> {
+  static public final int WAITING = 0;
+  static public final int LOADING = 1;
+  static public final int DONE = 2;
+  static public final int FAILED = 3;
+  static public final int CANCELED = 4;
+
+  /** Does the actual work for a type of file, on a background thread. */
+  public interface Loader<T> {
+    T load(PRequest<T> request) throws IOException;
+  }
+
+  protected final PRequestQueue queue;
+  protected final String key;
+  protected final String path;
+  protected final Loader<T> loader;
+  protected final long sequence;
+  protected volatile int priority;
+
+  protected volatile int state = WAITING;
+  protected volatile boolean canceled;
+  protected volatile long bytesRead;
+  protected volatile long bytesTotal = -1;
+  protected T result;
+
+  protected List<Consumer<? super T>> callbacks = new ArrayList<>();
+
+
+  protected PRequest(PRequestQueue queue, String key, String path,
+                     Loader<T> loader, long sequence) {
+    this.queue = queue;
+    this.key = key;
+    this.path = path;
+    this.loader = loader;
+    this.sequence = sequence;
+  }
+
+
+  public String getPath() {
+    return path;
+  }
+
+
+  /** The result, or null while loading or if loading failed. */
+  public T get() {
+    return result;
+  }
+
+
+  /** One of WAITING, LOADING, DONE, FAILED, or CANCELED. */
+  public int getState() {
+    return state;
+  }
+
+
+  /** True once the request is DONE, FAILED, or CANCELED. */
+  public boolean isDone() {
+    return state >= DONE;
+  }
+
+
+  public boolean isFailed() {
+    return state == FAILED;
+  }
+
+
+  public boolean isCanceled() {
+    return state == CANCELED;
+  }
+
+
+  /**
+   * How much of the file has been read, from 0 to 1. For files of unknown
+   * size (e.g. most URLs) this stays at 0 until the file has loaded.
+   */
+  public float getProgress() {
+    if (state >= DONE) return 1;
+    if (bytesTotal <= 0) return 0;
+    // compressed (.gz) files read more bytes than their size
+    return Math.min(0.99f, (float) bytesRead / bytesTotal);
+  }
+
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+
+  public int getPriority() {
+    return priority;
+  }
+
+
+  /**
+   * Requests with a higher priority are loaded first. The default is 0.
+   * Only makes a difference while the request is still waiting.
+   */
+  public PRequest<T> setPriority(int priority) {
+    queue.setPriority(this, priority);
+    return this;
+  }
+
+
+  /**
+   * Stop loading. A request that hasn't started is taken out of the queue,
+   * one that is loading stops at its next read. Callbacks are not called.
+   * @return false if the request had already finished
+   */
+  public boolean cancel() {
+    return queue.cancel(this);
+  }
+
+
+  /**
+   * Call a function with the result on the animation thread, before the
+   * next draw(). Called right away (at the next frame) if the request has
+   * already finished.
+   */
+  public PRequest<T> then(Consumer<? super T> callback) {
+    boolean finished;
+    synchronized (this) {
+      finished = isDone();
+      if (!finished) {
+        callbacks.add(callback);
+      }
+    }
+    if (finished && state != CANCELED) {
+      deliver(callback);
+    }
+    return this;
+  }
+
+
+  /**
+   * Wait for the request to finish and return the result. Don't use this
+   * on the animation thread, since it'll freeze the sketch like the load
+   * functions would.
+   */
+  public T join() throws InterruptedException {
+    synchronized (this) {
+      while (!isDone()) {
+        wait();
+      }
+    }
+    return result;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // USED BY THE LOADERS
+
+
+  /**
+   * Open the file for reading, through a stream that keeps track of the
+   * progress and stops (returns end of file) when the request is canceled.
+   * @return null if the file could not be found
+   */
+  public InputStream createInput() {
+    PApplet parent = queue.parent;
+    if (!path.contains(":/")) {  // not a URL
+      File file = parent.dataFile(path);
+      if (file == null || !file.exists()) {
+        file = parent.sketchFile(path);
+      }
+      if (file != null && file.exists()) {
+        bytesTotal = file.length();
+      }
+    }
+    InputStream input = parent.createInput(path);
+    if (input == null) {
+      return null;
+    }
+    return new FilterInputStream(input) {
+      @Override
+      public int read() throws IOException {
+        if (canceled) return -1;
+        int c = super.read();
+        if (c != -1) bytesRead++;
+        return c;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (canceled) return -1;
+        int count = super.read(b, off, len);
+        if (count > 0) bytesRead += count;
+        return count;
+      }
+    };
+  }
+
+
+  /** Called on a pool thread by PRequestQueue. */
+  protected void run() {
+    T outgoing = null;
+    if (!canceled) {
+      state = LOADING;
+      try {
+        outgoing = loader.load(this);
+      } catch (Throwable t) {
+        // a canceled request may fail while parsing half a file
+        if (!canceled) {
+          queue.parent.printStackTrace(t);
+        }
+      }
+    }
+    synchronized (this) {
+      if (canceled) {
+        state = CANCELED;
+      } else {
+        result = outgoing;
+        state = (outgoing == null) ? FAILED : DONE;
+        // queued before waking join(), so the callbacks are ready for
+        // the next frame of a sketch that waited for the result
+        for (Consumer<? super T> callback : callbacks) {
+          deliver(callback);
+        }
+      }
+      callbacks = null;
+      notifyAll();
+    }
+  }
+
+
+  /** Called by PRequestQueue when canceled before it started. */
+  protected synchronized void finishCanceled() {
+    state = CANCELED;
+    callbacks = null;
+    notifyAll();
+  }
+
+
+  protected void deliver(final Consumer<? super T> callback) {
+    queue.parent.runOnDrawThread(new Runnable() {
+      public void run() {
+        callback.accept(result);
+      }
+    });
+  }
+
+
+  @Override
+  public String toString() {
+    final String[] states = { "waiting", "loading", "done", "failed", "canceled" };
+    return "PRequest " + key + " (" + states[state] + ")";
+  }
+}
@@ -0,0 +1,176 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * Keeps the files requested by a sketch in order of priority, and loads
+ * a few of them at a time on the sketch's task pool (see
+ * PApplet.getTaskPool()). Each sketch has one, from getRequestQueue().
+ */
+public class PRequestQueue {
+  protected final PApplet parent;
+
+  // highest priority first, then in the order requested
+  protected final PriorityQueue<PRequest<?>> waiting =
+    new PriorityQueue<>(16, new Comparator<PRequest<?>>() {
+      public int compare(PRequest<?> a, PRequest<?> b) {
+        if (a.priority != b.priority) {
+          return (a.priority > b.priority) ? -1 : 1;
+        }
+        return Long.compare(a.sequence, b.sequence);
+      }
+    });
+
+  // waiting and loading requests, by key, to share duplicates
+  protected final Map<String, PRequest<?>> pending = new HashMap<>();
+
+  protected int maxLoading = 4;
+  protected int loading;
+  protected long sequence;
+
+
+  protected PRequestQueue(PApplet parent) {
+    this.parent = parent;
+  }
+
+
+  /**
+   * Number of files loaded at the same time, default is 4. The rest wait
+   * in the queue, so that a lot of small files don't hold up a large one
+   * with a higher priority, and the task pool has room for other work.
+   */
+  synchronized public void setMaxLoading(int count) {
+    maxLoading = Math.max(1, count);
+    pump();
+  }
+
+
+  /** Number of requests that haven't started loading yet. */
+  synchronized public int getWaitingCount() {
+    return waiting.size();
+  }
+
+
+  /** Number of requests being loaded right now. */
+  synchronized public int getLoadingCount() {
+    return pending.size() - waiting.size();
+  }
+
+
+  /**
+   * Add a request to the queue, or return the one that's already waiting
+   * or loading with the same key.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized public <T> PRequest<T> request(String key, String path,
+                                              PRequest.Loader<T> loader) {
+    PRequest<?> existing = pending.get(key);
+    if (existing != null) {
+      return (PRequest<T>) existing;
+    }
+    PRequest<T> request = new PRequest<>(this, key, path, loader, sequence++);
+    pending.put(key, request);
+    waiting.add(request);
+    pump();
+    return request;
+  }
+
+
+  synchronized void setPriority(PRequest<?> request, int priority) {
+    if (waiting.remove(request)) {
+      request.priority = priority;
+      waiting.add(request);
+    } else {
+      request.priority = priority;
+    }
+  }
+
+
+  boolean cancel(PRequest<?> request) {
+    boolean wasWaiting;
+    synchronized (this) {
+      if (request.isDone()) {
+        return false;
+      }
+      request.canceled = true;
+      wasWaiting = waiting.remove(request);
+      pending.remove(request.key, request);
+    }
+    if (wasWaiting) {
+      request.finishCanceled();
+    }
+    return true;
+  }
+
+
+  /** Cancel everything, used when the sketch shuts down. */
+  void cancelAll() {
+    PRequest<?>[] all;
+    synchronized (this) {
+      all = pending.values().toArray(new PRequest<?>[0]);
+    }
+    for (PRequest<?> request : all) {
+      cancel(request);
+    }
+  }
+
+
+  // start workers until there are maxLoading of them or nothing to load
+  private void pump() {
+    while (loading < maxLoading && !waiting.isEmpty()) {
+      loading++;
+      parent.getTaskPool().execute(new Runnable() {
+        public void run() {
+          work();
+        }
+      });
+    }
+  }
+
+
+  private void work() {
+    while (true) {
+      PRequest<?> request;
+      synchronized (this) {
+        if (loading > maxLoading || waiting.isEmpty()) {
+          loading--;
+          return;
+        }
+        request = waiting.poll();
+      }
+      try {
+        request.run();
+      } finally {
+        synchronized (this) {
+          pending.remove(request.key, request);
+        }
+      }
+    }
+  }
+}
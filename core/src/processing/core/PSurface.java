@@ -120,6 +120,15 @@ public interface PSurface {
 
   public void setFrameRate(float fps);
 
+  /**
+   * Time between the starts of successive frames, as measured by the
+   * animation thread of this surface, or null for surfaces that don't
+   * measure them.
+   */
+  default public PHistogram getFrameTimes() {
+    return null;
+  }
+
 //  // called on the first frame so that the now-visible drawing surface can
 //  // receive key and mouse events
 //  public void requestFocus();
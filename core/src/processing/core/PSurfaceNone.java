@@ -38,6 +38,8 @@ public class PSurfaceNone implements PSurface {
   protected float frameRateTarget = 60;
   protected long frameRatePeriod = 1000000000L / 60L;
 
+  protected PFrameScheduler scheduler = new PFrameScheduler();
+
 
   public PSurfaceNone(PGraphics graphics) {
     this.graphics = graphics;
@@ -242,10 +244,33 @@ public class PSurfaceNone implements PSurface {
   public void setFrameRate(float fps) {
     frameRateTarget = fps;
     frameRatePeriod = (long) (1000000000.0 / frameRateTarget);
+    scheduler.setFrameRate(fps);
     //g.setFrameRate(fps);
   }
 
 
+  /**
+   * Replace the object that paces the animation thread, for instance with
+   * a subclass that times frames differently.
+   */
+  public void setScheduler(PFrameScheduler scheduler) {
+    scheduler.setFrameRate(frameRateTarget);
+    scheduler.start();
+    this.scheduler = scheduler;
+  }
+
+
+  public PFrameScheduler getScheduler() {
+    return scheduler;
+  }
+
+
+  @Override
+  public PHistogram getFrameTimes() {
+    return scheduler.getFrameTimes();
+  }
+
+
   public class AnimationThread extends Thread {
 
     public AnimationThread() {
@@ -263,13 +288,7 @@ public class PSurfaceNone implements PSurface {
      */
     @Override
     public void run() {  // not good to make this synchronized, locks things up
-      long beforeTime = System.nanoTime();
-      long overSleepTime = 0L;
-
-      int noDelays = 0;
-      // Number of frames with a delay of 0 ms before the
-      // animation thread yields to other running threads.
-      final int NO_DELAYS_PER_YIELD = 15;
+      scheduler.start();
 
       /*
       // If size un-initialized, might be a Canvas. Call setSize() here since
@@ -310,6 +329,7 @@ public class PSurfaceNone implements PSurface {
 //            public void run() {
 //        System.out.println("calling draw, finished = " + sketch.finished);
         //System.out.println("calling draw, looping = " + sketch.looping + ", frameCount = " + sketch.frameCount);
+        scheduler.beforeFrame(sketch);
         callDraw();
 
 //        EventQueue.invokeLater(new Runnable() {
@@ -332,31 +352,7 @@ public class PSurfaceNone implements PSurface {
         // this is necessary since the drawing is sometimes in a
         // separate thread, meaning that the next frame will start
         // before the update/paint is completed
-
-        long afterTime = System.nanoTime();
-        long timeDiff = afterTime - beforeTime;
-        //System.out.println("time diff is " + timeDiff);
-        long sleepTime = (frameRatePeriod - timeDiff) - overSleepTime;
-
-        if (sleepTime > 0) {  // some time left in this cycle
-          try {
-            Thread.sleep(sleepTime / 1000000L, (int) (sleepTime % 1000000L));
-            noDelays = 0;  // Got some sleep, not delaying anymore
-          } catch (InterruptedException ex) { }
-
-          overSleepTime = (System.nanoTime() - afterTime) - sleepTime;
-
-        } else {    // sleepTime <= 0; the frame took longer than the period
-          overSleepTime = 0L;
-          noDelays++;
-
-          if (noDelays > NO_DELAYS_PER_YIELD) {
-            Thread.yield();   // give another thread a chance to run
-            noDelays = 0;
-          }
-        }
-
-        beforeTime = System.nanoTime();
+        scheduler.afterFrame();
       }
 
       sketch.dispose();  // call to shutdown libs?
@@ -0,0 +1,272 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Remembers the measurements made by textWidth(String) and the line breaks
+ * made by text(str, x1, y1, x2, y2), so that drawing the same labels every
+ * frame doesn't measure them again. Each renderer has one, see
+ * PGraphics.getTextCache().
+ * <p/>
+ * Entries are found by font, text size, string, and box width, and the
+ * least recently used ones are dropped once there are more than the
+ * capacity. The cache can't tell when the native font of a PFont is
+ * swapped out from under it, so call clear() after doing that.
+ */
+public class PTextCache {
+  static public final int DEFAULT_CAPACITY = 512;
+
+
+  /** Measurements for a string, and its line breaks when set in a box. */
+  static public class Layout {
+    /** Width of the widest line. Only set by textWidth(String). */
+    public float width;
+
+    /** Number of lines that fit in the box width. */
+    public int count;
+    /** Start and stop (non-inclusive) of each line in the string. */
+    public int[] start;
+    public int[] stop;
+
+    /** Width of each line, measured when first needed for alignment. */
+    public float[] widths;
+  }
+
+
+  static class Key {
+    PFont font;
+    Object nativeFont;
+    float size;
+    // false for the entries made by textWidth(String), which have no box
+    boolean boxed;
+    float box;
+    String text;
+    int hash;
+
+    Key set(PFont font, float size, boolean boxed, float box, String text) {
+      this.font = font;
+      this.nativeFont = font.getNative();
+      this.size = size;
+      this.boxed = boxed;
+      this.box = boxed ? box : 0;
+      this.text = text;
+      hash = ((System.identityHashCode(font) * 31 +
+               Float.floatToIntBits(size)) * 31 +
+              (boxed ? Float.floatToIntBits(this.box) : -1)) * 31 +
+             text.hashCode();
+      return this;
+    }
+
+    Key copy() {
+      Key outgoing = new Key();
+      outgoing.font = font;
+      outgoing.nativeFont = nativeFont;
+      outgoing.size = size;
+      outgoing.boxed = boxed;
+      outgoing.box = box;
+      outgoing.text = text;
+      outgoing.hash = hash;
+      return outgoing;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key) o;
+      return font == k.font && nativeFont == k.nativeFont &&
+        Float.floatToIntBits(size) == Float.floatToIntBits(k.size) &&
+        boxed == k.boxed &&
+        Float.floatToIntBits(box) == Float.floatToIntBits(k.box) &&
+        text.equals(k.text);
+    }
+  }
+
+
+  // Least recently used first, drops the eldest entry when the cache
+  // goes over capacity.
+  static class Entries extends LinkedHashMap<Key, Layout> {
+    private static final long serialVersionUID = 1L;
+
+    transient final PTextCache cache;
+
+    Entries(PTextCache cache) {
+      super(64, 0.75f, true);
+      this.cache = cache;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+      if (size() > cache.capacity) {
+        cache.evictions++;
+        return true;
+      }
+      return false;
+    }
+  }
+
+
+  protected int capacity;
+
+  protected final Entries entries = new Entries(this);
+
+  // reused for lookups, so that a hit doesn't allocate
+  protected final Key probe = new Key();
+
+  protected long hits;
+  protected long misses;
+  protected long evictions;
+
+
+  public PTextCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+
+  public PTextCache(int capacity) {
+    setCapacity(capacity);
+  }
+
+
+  /** Maximum number of strings to remember. */
+  public void setCapacity(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    while (entries.size() > this.capacity) {
+      entries.remove(entries.keySet().iterator().next());
+      evictions++;
+    }
+  }
+
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+
+  /** Forget all measurements, but keep the stats. */
+  public void clear() {
+    entries.clear();
+  }
+
+
+  public int getCount() {
+    return entries.size();
+  }
+
+
+  public long getHits() {
+    return hits;
+  }
+
+
+  public long getMisses() {
+    return misses;
+  }
+
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+
+  /** Fraction of lookups that were found, from 0 to 1. */
+  public float getHitRate() {
+    long total = hits + misses;
+    return (total == 0) ? 0 : (float) hits / total;
+  }
+
+
+  public void resetStats() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+
+  @Override
+  public String toString() {
+    return "PTextCache " + entries.size() + "/" + capacity + " entries, " +
+      hits + " hits, " + misses + " misses, " + evictions + " evictions";
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Find the width of a string, as measured by textWidth(String).
+   * @return null if the string hasn't been measured with these settings
+   */
+  public Layout get(PFont font, float size, String text) {
+    return get(font, size, false, 0, text);
+  }
+
+
+  /**
+   * Find the line breaks of a string set in a box.
+   * @param box width of the text box
+   * @return null if the string hasn't been set with these settings
+   */
+  public Layout get(PFont font, float size, float box, String text) {
+    return get(font, size, true, box, text);
+  }
+
+
+  public void put(PFont font, float size, String text, Layout layout) {
+    put(font, size, false, 0, text, layout);
+  }
+
+
+  public void put(PFont font, float size, float box, String text,
+                  Layout layout) {
+    put(font, size, true, box, text, layout);
+  }
+
+
+  protected Layout get(PFont font, float size,
+                       boolean boxed, float box, String text) {
+    Layout layout = entries.get(probe.set(font, size, boxed, box, text));
+    probe.text = null;  // don't hold on to the string
+    if (layout == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return layout;
+  }
+
+
+  protected void put(PFont font, float size,
+                     boolean boxed, float box, String text, Layout layout) {
+    entries.put(probe.set(font, size, boxed, box, text).copy(), layout);
+    probe.text = null;
+  }
+}
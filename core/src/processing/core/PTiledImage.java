@@ -0,0 +1,475 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import processing.data.JSONObject;
+
+
+/**
+ * Very large image stored as a pyramid of tiles on disk. Level 0 holds the
+ * image at full resolution, and every following level is half the size of
+ * the previous one, until the whole image fits inside a single tile.
+ * <p/>
+ * Tiles are only loaded when they become visible, on a small pool of
+ * background threads, and recently used tiles are kept in memory up to
+ * a fixed budget (in bytes). When drawn, the level of detail is picked
+ * from the current scale on screen, so that zooming out of a huge mosaic
+ * only touches a handful of small tiles. While a tile is still loading,
+ * the matching region of a coarser tile is drawn in its place.
+ * <p/>
+ * The folder contains a <tt>pyramid.json</tt> file with the dimensions of
+ * the image, and one subfolder per level with files named
+ * <tt>column_row.png</tt>. Use create() to build one from a PImage, or
+ * produce the same layout with an external tool for images that are too
+ * large to be loaded at once.
+ */
+public class PTiledImage implements PConstants {
+  static final String PYRAMID_FILE = "pyramid.json";
+
+  static final int DEFAULT_TILE_SIZE = 256;
+  static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+  static final int LOADER_COUNT = 2;
+
+  protected PApplet parent;
+  protected File folder;
+
+  /** Full resolution width of the image. */
+  public int width;
+  /** Full resolution height of the image. */
+  public int height;
+  /** RGB or ARGB */
+  public int format;
+
+  protected int tileSize;
+  protected int levels;
+  protected String extension;
+
+  protected long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  protected long memoryUsed;
+
+  // Tiles that are in memory, in least-recently-used order
+  protected LinkedHashMap<Long, PImage> tiles =
+    new LinkedHashMap<Long, PImage>(64, 0.75f, true);
+  // Tiles that have been requested but haven't finished loading
+  protected HashSet<Long> pending = new HashSet<Long>();
+  // Tiles that couldn't be loaded, so they aren't requested again
+  protected HashSet<Long> failed = new HashSet<Long>();
+  // Tiles pushed out of memory, whose renderer caches are still around
+  protected ArrayList<PImage> evicted = new ArrayList<PImage>();
+
+  protected ExecutorService loader;
+
+  // The renderer used by the last call to draw(), for releasing caches
+  protected PGraphics lastRenderer;
+
+
+  /**
+   * Open a pyramid that was previously written to disk.
+   *
+   * @param folder folder containing the pyramid, relative to the sketch
+   */
+  public PTiledImage(PApplet parent, String folder) {
+    this.parent = parent;
+    this.folder = parent.sketchFile(folder);
+
+    JSONObject json =
+      PApplet.loadJSONObject(new File(this.folder, PYRAMID_FILE));
+    width = json.getInt("width");
+    height = json.getInt("height");
+    format = json.getInt("format", ARGB);
+    tileSize = json.getInt("tileSize", DEFAULT_TILE_SIZE);
+    levels = json.getInt("levels", countLevels(width, height, tileSize));
+    extension = json.getString("extension", "png");
+  }
+
+
+  /**
+   * Write a tile pyramid for an image to disk, and return it ready to draw.
+   *
+   * @param source image to split into tiles
+   * @param folder folder to write the pyramid into, relative to the sketch
+   */
+  static public PTiledImage create(PApplet parent, PImage source,
+                                   String folder) {
+    return create(parent, source, folder, DEFAULT_TILE_SIZE, "png");
+  }
+
+
+  /**
+   * @param tileSize width and height of each tile, in pixels
+   * @param extension image format for the tiles, for example "png" or "tga"
+   */
+  static public PTiledImage create(PApplet parent, PImage source,
+                                   String folder, int tileSize,
+                                   String extension) {
+    File dir = parent.sketchFile(folder);
+    source.loadPixels();
+
+    int levels = countLevels(source.pixelWidth, source.pixelHeight, tileSize);
+    PImage level = source;
+    for (int l = 0; l < levels; l++) {
+      if (l != 0) {
+        level = downsample(level);
+      }
+      int cols = (level.pixelWidth + tileSize - 1) / tileSize;
+      int rows = (level.pixelHeight + tileSize - 1) / tileSize;
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < cols; col++) {
+          PImage tile = level.get(col * tileSize, row * tileSize,
+                                  Math.min(tileSize, level.pixelWidth - col * tileSize),
+                                  Math.min(tileSize, level.pixelHeight - row * tileSize));
+          tile.save(tilePath(dir, l, col, row, extension));
+        }
+      }
+    }
+
+    JSONObject json = new JSONObject();
+    json.setInt("width", source.pixelWidth);
+    json.setInt("height", source.pixelHeight);
+    json.setInt("format", source.format);
+    json.setInt("tileSize", tileSize);
+    json.setInt("levels", levels);
+    json.setString("extension", extension);
+    json.save(new File(dir, PYRAMID_FILE), null);
+
+    return new PTiledImage(parent, dir.getAbsolutePath());
+  }
+
+
+  static protected int countLevels(int w, int h, int tileSize) {
+    int levels = 1;
+    while (w > tileSize || h > tileSize) {
+      w = (w + 1) / 2;
+      h = (h + 1) / 2;
+      levels++;
+    }
+    return levels;
+  }
+
+
+  /**
+   * Average each 2x2 block of pixels to build the next level down.
+   * Odd rows and columns at the edge are averaged with themselves.
+   */
+  static protected PImage downsample(PImage src) {
+    int sw = src.pixelWidth;
+    int sh = src.pixelHeight;
+    int dw = (sw + 1) / 2;
+    int dh = (sh + 1) / 2;
+    PImage dst = new PImage(dw, dh, src.format);
+    dst.parent = src.parent;
+
+    int[] in = src.pixels;
+    int[] out = dst.pixels;
+    int index = 0;
+    for (int y = 0; y < dh; y++) {
+      int row0 = (2*y) * sw;
+      int row1 = Math.min(2*y + 1, sh - 1) * sw;
+      for (int x = 0; x < dw; x++) {
+        int x0 = 2*x;
+        int x1 = Math.min(2*x + 1, sw - 1);
+        int p0 = in[row0 + x0];
+        int p1 = in[row0 + x1];
+        int p2 = in[row1 + x0];
+        int p3 = in[row1 + x1];
+        int a = ((p0 >>> 24) + (p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + 2) >> 2;
+        int r = (((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff) +
+                 ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff) + 2) >> 2;
+        int g = (((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff) +
+                 ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff) + 2) >> 2;
+        int b = ((p0 & 0xff) + (p1 & 0xff) +
+                 (p2 & 0xff) + (p3 & 0xff) + 2) >> 2;
+        out[index++] = (a << 24) | (r << 16) | (g << 8) | b;
+      }
+    }
+    return dst;
+  }
+
+
+  static protected String tilePath(File dir, int level, int col, int row,
+                                   String extension) {
+    return dir.getAbsolutePath() + File.separator + level + File.separator +
+      col + "_" + row + "." + extension;
+  }
+
+
+  static protected long tileKey(int level, int col, int row) {
+    return ((long) level << 48) | ((long) row << 24) | col;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  public int getLevelCount() {
+    return levels;
+  }
+
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+
+  /**
+   * Set the maximum number of bytes used by tiles held in memory.
+   * Least recently drawn tiles are released first.
+   */
+  public void setMemoryBudget(long bytes) {
+    synchronized (tiles) {
+      memoryBudget = bytes;
+      trim();
+    }
+  }
+
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+
+  /** Number of bytes currently used by tiles held in memory. */
+  public long getMemoryUsed() {
+    synchronized (tiles) {
+      return memoryUsed;
+    }
+  }
+
+
+  /**
+   * Draw the image at full size.
+   */
+  public void draw(PGraphics g, float x, float y) {
+    draw(g, x, y, width, height);
+  }
+
+
+  /**
+   * Draw the image inside the rectangle x, y, w, h (in the current
+   * coordinate system) using the tiles of the level that best match the
+   * size of the rectangle on screen. Only tiles that are inside the window
+   * are drawn or loaded. Rotations are not taken into account.
+   */
+  public void draw(PGraphics g, float x, float y, float w, float h) {
+    releaseEvicted(g);
+    lastRenderer = g;
+
+    float sx1 = g.screenX(x, y);
+    float sy1 = g.screenY(x, y);
+    float sx2 = g.screenX(x + w, y + h);
+    float sy2 = g.screenY(x + w, y + h);
+    float screenW = Math.abs(sx2 - sx1);
+    float screenH = Math.abs(sy2 - sy1);
+    if (screenW < 1 || screenH < 1) return;
+
+    // Portion of the full size image that falls inside the window
+    float u1 = (Math.min(sx1, sx2) < 0) ?
+      -Math.min(sx1, sx2) / screenW * width : 0;
+    float u2 = (Math.max(sx1, sx2) > g.width) ?
+      width - (Math.max(sx1, sx2) - g.width) / screenW * width : width;
+    float v1 = (Math.min(sy1, sy2) < 0) ?
+      -Math.min(sy1, sy2) / screenH * height : 0;
+    float v2 = (Math.max(sy1, sy2) > g.height) ?
+      height - (Math.max(sy1, sy2) - g.height) / screenH * height : height;
+    if (u1 >= u2 || v1 >= v2) return;
+
+    // Pick the level where one tile pixel is closest to one screen pixel
+    float scale = screenW * g.pixelDensity / width;
+    int level = 0;
+    while (level < levels - 1 && scale <= 0.5f) {
+      scale *= 2;
+      level++;
+    }
+
+    int span = tileSize << level;  // full size pixels covered by a tile
+    int col1 = (int) (u1 / span);
+    int col2 = Math.min((int) ((u2 - 1) / span), (width - 1) / span);
+    int row1 = (int) (v1 / span);
+    int row2 = Math.min((int) ((v2 - 1) / span), (height - 1) / span);
+
+    int savedImageMode = g.imageMode;
+    g.imageMode(CORNER);
+    float kx = w / width;
+    float ky = h / height;
+    for (int row = row1; row <= row2; row++) {
+      for (int col = col1; col <= col2; col++) {
+        int fx = col * span;
+        int fy = row * span;
+        int fw = Math.min(span, width - fx);
+        int fh = Math.min(span, height - fy);
+        drawTile(g, level, col, row,
+                 x + fx * kx, y + fy * ky, fw * kx, fh * ky);
+      }
+    }
+    g.imageMode(savedImageMode);
+  }
+
+
+  /**
+   * Draw a single tile, or if it's not loaded yet, the part of the nearest
+   * coarser tile that is already in memory.
+   */
+  protected void drawTile(PGraphics g, int level, int col, int row,
+                          float x, float y, float w, float h) {
+    PImage tile = getTile(level, col, row, true);
+    if (tile != null) {
+      g.image(tile, x, y, w, h);
+      return;
+    }
+    for (int l = level + 1; l < levels; l++) {
+      int shift = l - level;
+      PImage coarse = getTile(l, col >> shift, row >> shift, false);
+      if (coarse != null) {
+        // Location of this tile inside the coarser one
+        int size = Math.max(1, tileSize >> shift);
+        int cu = (col - ((col >> shift) << shift)) * size;
+        int cv = (row - ((row >> shift) << shift)) * size;
+        if (cu >= coarse.width || cv >= coarse.height) return;
+        int cw = Math.max(1, Math.min(size, coarse.width - cu));
+        int ch = Math.max(1, Math.min(size, coarse.height - cv));
+        g.image(coarse, x, y, w, h, cu, cv, cu + cw, cv + ch);
+        return;
+      }
+    }
+  }
+
+
+  /**
+   * Return a tile if it's in memory, otherwise returns null and (if
+   * requested) starts loading it in the background.
+   */
+  protected PImage getTile(int level, int col, int row, boolean request) {
+    long key = tileKey(level, col, row);
+    synchronized (tiles) {
+      PImage tile = tiles.get(key);
+      if (tile != null || !request ||
+          pending.contains(key) || failed.contains(key)) {
+        return tile;
+      }
+      pending.add(key);
+    }
+    if (loader == null) {
+      ThreadFactory factory = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "PTiledImage loader");
+          t.setDaemon(true);
+          return t;
+        }
+      };
+      loader = Executors.newFixedThreadPool(LOADER_COUNT, factory);
+    }
+    loader.execute(() -> loadTile(key, level, col, row));
+    return null;
+  }
+
+
+  protected void loadTile(long key, int level, int col, int row) {
+    PImage tile = null;
+    try {
+      // Not loadImage(), which would wait for saves on the animation thread
+      tile = parent.loadImageImpl(tilePath(folder, level, col, row, extension), null);
+    } finally {
+      synchronized (tiles) {
+        pending.remove(key);
+        if (tile != null && tile.width > 0) {
+          tiles.put(key, tile);
+          memoryUsed += tileBytes(tile);
+          trim();
+        } else {
+          failed.add(key);
+        }
+      }
+    }
+  }
+
+
+  static protected long tileBytes(PImage tile) {
+    return 4L * tile.pixelWidth * tile.pixelHeight;
+  }
+
+
+  /**
+   * Release least recently used tiles until back under the memory budget.
+   * Always keeps the most recent tile, so that progress is made even if
+   * the budget is smaller than a single tile.
+   */
+  protected void trim() {
+    Iterator<Map.Entry<Long, PImage>> it = tiles.entrySet().iterator();
+    while (memoryUsed > memoryBudget && tiles.size() > 1 && it.hasNext()) {
+      PImage tile = it.next().getValue();
+      it.remove();
+      memoryUsed -= tileBytes(tile);
+      evicted.add(tile);
+    }
+  }
+
+
+  /**
+   * Renderer caches (textures for OpenGL, BufferedImage copies for Java2D)
+   * can only be released from the animation thread, so evicted tiles are
+   * queued and cleaned up on the next draw.
+   */
+  protected void releaseEvicted(PGraphics g) {
+    synchronized (tiles) {
+      if (evicted.isEmpty()) return;
+      for (PImage tile : evicted) {
+        g.removeCache(tile);
+        if (lastRenderer != null && lastRenderer != g) {
+          lastRenderer.removeCache(tile);
+        }
+      }
+      evicted.clear();
+    }
+  }
+
+
+  /**
+   * Stop the loader threads and release all tiles held in memory.
+   */
+  public void dispose() {
+    if (loader != null) {
+      loader.shutdownNow();
+      loader = null;
+    }
+    synchronized (tiles) {
+      evicted.addAll(tiles.values());
+      tiles.clear();
+      pending.clear();
+      failed.clear();
+      memoryUsed = 0;
+    }
+    if (lastRenderer != null) {
+      releaseEvicted(lastRenderer);
+    }
+  }
+}
@@ -0,0 +1,601 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * A list of vectors, stored as three arrays of x, y, and z values rather
+ * than as separate PVector objects. Meant for particle systems and the
+ * like, where thousands of positions and velocities are updated every
+ * frame: there are no objects to create or collect, the values are next to
+ * each other in memory, and each operation is a simple loop over all of
+ * them that the JIT compiler can optimize well.
+ * <p/>
+ * The operations mirror those of PVector, but apply to every vector in the
+ * list at once. For instance, to move every particle by its velocity:
+ * <pre>
+ * position.add(velocity);
+ * velocity.limit(maxSpeed);
+ * </pre>
+ * The x, y, and z arrays can also be used directly, they hold size()
+ * values, and may be longer. They're replaced when the list grows, so
+ * don't hold on to them across calls to append() or resize().
+ * <p/>
+ * With setParallel(true), operations on large lists are split across the
+ * common ForkJoinPool.
+ */
+public class PVectorArray {
+  /** Lists shorter than this are always done on the calling thread. */
+  static final int PARALLEL_THRESHOLD = 32 * 1024;
+
+  public float[] x;
+  public float[] y;
+  public float[] z;
+
+  protected int count;
+  protected boolean parallel;
+
+
+  /** Work on vectors start (inclusive) to stop (exclusive). */
+  protected interface Range {
+    void run(int start, int stop);
+  }
+
+
+  public PVectorArray() {
+    this(10);
+  }
+
+
+  /**
+   * @param capacity number of vectors to make room for
+   */
+  public PVectorArray(int capacity) {
+    x = new float[capacity];
+    y = new float[capacity];
+    z = new float[capacity];
+  }
+
+
+  /**
+   * Use these arrays (without copying them) as the first count vectors.
+   */
+  public PVectorArray(float[] x, float[] y, float[] z, int count) {
+    if (x.length < count || y.length < count || z.length < count) {
+      throw new IllegalArgumentException("The arrays must hold at least " +
+                                         count + " values");
+    }
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.count = count;
+  }
+
+
+  /**
+   * Split operations on large lists across the common ForkJoinPool.
+   * Off by default.
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // LIST
+
+
+  public int size() {
+    return count;
+  }
+
+
+  /**
+   * Change the number of vectors, new ones are set to zero.
+   */
+  public void resize(int length) {
+    if (length > x.length) {
+      int capacity = Math.max(length, x.length << 1);
+      x = Arrays.copyOf(x, capacity);
+      y = Arrays.copyOf(y, capacity);
+      z = Arrays.copyOf(z, capacity);
+    }
+    if (length > count) {
+      Arrays.fill(x, count, length, 0);
+      Arrays.fill(y, count, length, 0);
+      Arrays.fill(z, count, length, 0);
+    }
+    count = length;
+  }
+
+
+  public void clear() {
+    count = 0;
+  }
+
+
+  public void append(float vx, float vy) {
+    append(vx, vy, 0);
+  }
+
+
+  public void append(float vx, float vy, float vz) {
+    if (count == x.length) {
+      int capacity = Math.max(16, count << 1);
+      x = Arrays.copyOf(x, capacity);
+      y = Arrays.copyOf(y, capacity);
+      z = Arrays.copyOf(z, capacity);
+    }
+    x[count] = vx;
+    y[count] = vy;
+    z[count] = vz;
+    count++;
+  }
+
+
+  public void append(PVector v) {
+    append(v.x, v.y, v.z);
+  }
+
+
+  /**
+   * Remove a vector by moving the last one into its place. The order of
+   * the list changes, but nothing has to be shifted, so removing dead
+   * particles in a loop stays fast. Loop backwards when doing this, or
+   * the vector moved into place will be skipped.
+   */
+  public void remove(int index) {
+    checkIndex(index);
+    int last = --count;
+    x[index] = x[last];
+    y[index] = y[last];
+    z[index] = z[last];
+  }
+
+
+  public void set(int index, float vx, float vy, float vz) {
+    checkIndex(index);
+    x[index] = vx;
+    y[index] = vy;
+    z[index] = vz;
+  }
+
+
+  public void set(int index, PVector v) {
+    set(index, v.x, v.y, v.z);
+  }
+
+
+  /** Copy a vector out of the list, into a new PVector. */
+  public PVector get(int index) {
+    return get(index, null);
+  }
+
+
+  /**
+   * @param target Set to null to create a new vector
+   * @return a new vector (if target was null), or target
+   */
+  public PVector get(int index, PVector target) {
+    checkIndex(index);
+    if (target == null) {
+      return new PVector(x[index], y[index], z[index]);
+    }
+    return target.set(x[index], y[index], z[index]);
+  }
+
+
+  /** Set this list to a copy of another one. */
+  public PVectorArray set(PVectorArray source) {
+    resize(source.count);
+    System.arraycopy(source.x, 0, x, 0, count);
+    System.arraycopy(source.y, 0, y, 0, count);
+    System.arraycopy(source.z, 0, z, 0, count);
+    return this;
+  }
+
+
+  public PVectorArray copy() {
+    PVectorArray outgoing = new PVectorArray(count);
+    outgoing.parallel = parallel;
+    return outgoing.set(this);
+  }
+
+
+  protected void checkIndex(int index) {
+    if (index < 0 || index >= count) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+  }
+
+
+  protected void checkSize(PVectorArray other) {
+    if (other.count != count) {
+      throw new IllegalArgumentException("The lists have different sizes, " +
+                                         count + " and " + other.count);
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // MATH
+
+
+  /** Add the vectors of another list of the same size, one by one. */
+  public PVectorArray add(PVectorArray v) {
+    checkSize(v);
+    final float[] vx = v.x, vy = v.y, vz = v.z;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] += vx[i];
+        py[i] += vy[i];
+        pz[i] += vz[i];
+      }
+    });
+    return this;
+  }
+
+
+  /**
+   * Add the vectors of another list times a scale, the usual way to update
+   * positions from velocities, e.g. position.add(velocity, elapsed).
+   */
+  public PVectorArray add(PVectorArray v, final float scale) {
+    checkSize(v);
+    final float[] vx = v.x, vy = v.y, vz = v.z;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] += vx[i] * scale;
+        py[i] += vy[i] * scale;
+        pz[i] += vz[i] * scale;
+      }
+    });
+    return this;
+  }
+
+
+  /** Add the same values to every vector, e.g. for gravity. */
+  public PVectorArray add(final float ax, final float ay, final float az) {
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] += ax;
+        py[i] += ay;
+        pz[i] += az;
+      }
+    });
+    return this;
+  }
+
+
+  public PVectorArray add(PVector v) {
+    return add(v.x, v.y, v.z);
+  }
+
+
+  public PVectorArray sub(PVectorArray v) {
+    checkSize(v);
+    final float[] vx = v.x, vy = v.y, vz = v.z;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] -= vx[i];
+        py[i] -= vy[i];
+        pz[i] -= vz[i];
+      }
+    });
+    return this;
+  }
+
+
+  public PVectorArray sub(float ax, float ay, float az) {
+    return add(-ax, -ay, -az);
+  }
+
+
+  public PVectorArray sub(PVector v) {
+    return add(-v.x, -v.y, -v.z);
+  }
+
+
+  public PVectorArray mult(final float n) {
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] *= n;
+        py[i] *= n;
+        pz[i] *= n;
+      }
+    });
+    return this;
+  }
+
+
+  /** Multiply each vector by its own value, e.g. per particle damping. */
+  public PVectorArray mult(final float[] n) {
+    if (n.length < count) {
+      throw new IllegalArgumentException("Need at least " + count + " values");
+    }
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] *= n[i];
+        py[i] *= n[i];
+        pz[i] *= n[i];
+      }
+    });
+    return this;
+  }
+
+
+  public PVectorArray div(float n) {
+    return mult(1 / n);
+  }
+
+
+  /**
+   * Magnitude of each vector.
+   * @param target Set to null to create a new array
+   */
+  public float[] mag(float[] target) {
+    final float[] outgoing = checkTarget(target);
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        outgoing[i] = (float) Math.sqrt(px[i]*px[i] + py[i]*py[i] + pz[i]*pz[i]);
+      }
+    });
+    return outgoing;
+  }
+
+
+  /** Set the length of every vector to 1, same as PVector.normalize(). */
+  public PVectorArray normalize() {
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float m = (float) Math.sqrt(px[i]*px[i] + py[i]*py[i] + pz[i]*pz[i]);
+        if (m != 0 && m != 1) {
+          float s = 1 / m;
+          px[i] *= s;
+          py[i] *= s;
+          pz[i] *= s;
+        }
+      }
+    });
+    return this;
+  }
+
+
+  /** Limit the length of every vector, same as PVector.limit(). */
+  public PVectorArray limit(final float max) {
+    final float maxSq = max*max;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float magSq = px[i]*px[i] + py[i]*py[i] + pz[i]*pz[i];
+        if (magSq > maxSq) {
+          float s = max / (float) Math.sqrt(magSq);
+          px[i] *= s;
+          py[i] *= s;
+          pz[i] *= s;
+        }
+      }
+    });
+    return this;
+  }
+
+
+  /** Set the length of every vector, same as PVector.setMag(). */
+  public PVectorArray setMag(final float len) {
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float m = (float) Math.sqrt(px[i]*px[i] + py[i]*py[i] + pz[i]*pz[i]);
+        if (m != 0) {
+          float s = len / m;
+          px[i] *= s;
+          py[i] *= s;
+          pz[i] *= s;
+        }
+      }
+    });
+    return this;
+  }
+
+
+  /** Move every vector toward its counterpart in another list. */
+  public PVectorArray lerp(PVectorArray v, final float amt) {
+    checkSize(v);
+    final float[] vx = v.x, vy = v.y, vz = v.z;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] += (vx[i] - px[i]) * amt;
+        py[i] += (vy[i] - py[i]) * amt;
+        pz[i] += (vz[i] - pz[i]) * amt;
+      }
+    });
+    return this;
+  }
+
+
+  /** Move every vector toward the same point. */
+  public PVectorArray lerp(final PVector v, final float amt) {
+    final float tx = v.x, ty = v.y, tz = v.z;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        px[i] += (tx - px[i]) * amt;
+        py[i] += (ty - py[i]) * amt;
+        pz[i] += (tz - pz[i]) * amt;
+      }
+    });
+    return this;
+  }
+
+
+  /**
+   * Distance from each vector to a point.
+   * @param target Set to null to create a new array
+   */
+  public float[] dist(PVector v, float[] target) {
+    final float[] outgoing = checkTarget(target);
+    final float ox = v.x, oy = v.y, oz = v.z;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float dx = px[i] - ox;
+        float dy = py[i] - oy;
+        float dz = pz[i] - oz;
+        outgoing[i] = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+      }
+    });
+    return outgoing;
+  }
+
+
+  /**
+   * Transform every vector by a matrix, same as PMatrix3D.mult() on each.
+   */
+  public PVectorArray applyMatrix(PMatrix3D m) {
+    final float m00 = m.m00, m01 = m.m01, m02 = m.m02, m03 = m.m03;
+    final float m10 = m.m10, m11 = m.m11, m12 = m.m12, m13 = m.m13;
+    final float m20 = m.m20, m21 = m.m21, m22 = m.m22, m23 = m.m23;
+    final float[] px = x, py = y, pz = z;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float vx = px[i], vy = py[i], vz = pz[i];
+        px[i] = m00*vx + m01*vy + m02*vz + m03;
+        py[i] = m10*vx + m11*vy + m12*vz + m13;
+        pz[i] = m20*vx + m21*vy + m22*vz + m23;
+      }
+    });
+    return this;
+  }
+
+
+  /**
+   * Transform every vector by a 2D matrix, leaving z alone.
+   */
+  public PVectorArray applyMatrix(PMatrix2D m) {
+    final float m00 = m.m00, m01 = m.m01, m02 = m.m02;
+    final float m10 = m.m10, m11 = m.m11, m12 = m.m12;
+    final float[] px = x, py = y;
+    run((start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float vx = px[i], vy = py[i];
+        px[i] = m00*vx + m01*vy + m02;
+        py[i] = m10*vx + m11*vy + m12;
+      }
+    });
+    return this;
+  }
+
+
+  protected float[] checkTarget(float[] target) {
+    if (target == null || target.length < count) {
+      return new float[count];
+    }
+    return target;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // DRAWING
+
+
+  /**
+   * Add every vector as a vertex of the shape being drawn, straight from
+   * the arrays. Only x and y are used with 2D renderers.
+   */
+  public void vertices(PGraphics g) {
+    if (g.is3D()) {
+      for (int i = 0; i < count; i++) {
+        g.vertex(x[i], y[i], z[i]);
+      }
+    } else {
+      for (int i = 0; i < count; i++) {
+        g.vertex(x[i], y[i]);
+      }
+    }
+  }
+
+
+  /** Draw every vector as a point, with one beginShape(POINTS). */
+  public void points(PGraphics g) {
+    g.beginShape(PConstants.POINTS);
+    vertices(g);
+    g.endShape();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // PARALLEL
+
+
+  protected void run(Range range) {
+    int length = count;
+    int cpus = Runtime.getRuntime().availableProcessors();
+    if (!parallel || cpus == 1 || length < PARALLEL_THRESHOLD) {
+      range.run(0, length);
+      return;
+    }
+    int bands = cpus * 2;
+    List<ForkJoinTask<?>> tasks = new ArrayList<>(bands);
+    for (int i = 0; i < bands; i++) {
+      final int start = (int) ((long) length * i / bands);
+      final int stop = (int) ((long) length * (i+1) / bands);
+      tasks.add(ForkJoinPool.commonPool().submit(() -> range.run(start, stop)));
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+  }
+
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("PVectorArray size=" + count + " [ ");
+    for (int i = 0; i < Math.min(count, 10); i++) {
+      if (i != 0) sb.append(", ");
+      sb.append("[ " + x[i] + ", " + y[i] + ", " + z[i] + " ]");
+    }
+    if (count > 10) sb.append(", ...");
+    sb.append(" ]");
+    return sb.toString();
+  }
+}
@@ -74,6 +74,10 @@ public class PSurfaceFX implements PSurface {
   final Animation animation;
   float frameRate = 60;
 
+  // time between frames, see getFrameTimes()
+  PHistogram frameTimes = new PHistogram();
+  long lastFrameStart;
+
   private SynchronousQueue<Throwable> drawExceptionQueue = new SynchronousQueue<>();
 
   public PSurfaceFX(PGraphicsFX2D graphics) {
@@ -85,6 +89,10 @@ public class PSurfaceFX implements PSurface {
                                      new EventHandler<ActionEvent>() {
       public void handle(ActionEvent event) {
         long startNanoTime = System.nanoTime();
+        if (lastFrameStart != 0) {
+          frameTimes.add(startNanoTime - lastFrameStart);
+        }
+        lastFrameStart = startNanoTime;
         try {
           sketch.handleDraw();
         } catch (Throwable e) {
@@ -648,6 +656,11 @@ public class PSurfaceFX implements PSurface {
   }
 
 
+  public PHistogram getFrameTimes() {
+    return frameTimes;
+  }
+
+
   public void setFrameRate(float fps) {
     // setting rate to negative so that event fires at the start of
     // the key frame and first frame is drawn immediately
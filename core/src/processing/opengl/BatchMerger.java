@@ -0,0 +1,263 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.util.Arrays;
+
+
+/**
+ * Reorders the triangles of a batch so that runs drawn with the same
+ * texture end up next to each other, and can be drawn with a single call.
+ * A run is only moved back to an earlier one with the same texture when
+ * its bounds don't overlap any of the runs it's moved past, so the image
+ * is the same as when drawing in the original order, whatever the blend
+ * mode. Runs are never moved between groups, which are the blocks of
+ * vertices that the indices refer to.
+ * <p/>
+ * Doesn't need an OpenGL context: the runs are added with their key, the
+ * vertices and the indices, and merge() rewrites the indices in place.
+ */
+public class BatchMerger {
+  /** How many runs back to look for one with the same key. */
+  static public final int MAX_LOOKBACK = 64;
+
+  // Bounds are grown by this much, so that antialiased edges of runs
+  // that only touch are not reordered either.
+  static protected final float BOUNDS_PADDING = 1;
+
+  // runs, in the order they were added
+  protected int count;
+  protected Object[] keys = new Object[16];
+  protected int[] groups = new int[16];
+  protected int[] firstIndex = new int[16];
+  protected int[] indexCount = new int[16];
+  protected float[] bounds = new float[4 * 16];
+
+  // runs in merged order
+  protected int[] order = new int[16];
+
+  // batches of consecutive runs with the same key and group
+  protected int batchCount;
+  protected Object[] batchKeys = new Object[16];
+  protected int[] batchGroups = new int[16];
+  protected int[] batchFirst = new int[16];
+  protected int[] batchLast = new int[16];
+
+  protected short[] temp = new short[64];
+
+
+  public void clear() {
+    Arrays.fill(keys, 0, count, null);
+    Arrays.fill(batchKeys, 0, batchCount, null);
+    count = 0;
+    batchCount = 0;
+  }
+
+
+  public int getRunCount() {
+    return count;
+  }
+
+
+  /**
+   * Add the run of icount indices starting at ioffset, drawn with key.
+   * The indices are relative to voffset in vertices, which has four
+   * coordinates per vertex, of which the first two are used for bounds.
+   */
+  public void add(Object key, int group, int ioffset, int icount,
+                  float[] vertices, int voffset, short[] indices) {
+    float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE;
+    float x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+    for (int i = ioffset; i < ioffset + icount; i++) {
+      int v = 4 * (voffset + indices[i]);
+      float x = vertices[v++];
+      float y = vertices[v  ];
+      if (x < x0) x0 = x;
+      if (x1 < x) x1 = x;
+      if (y < y0) y0 = y;
+      if (y1 < y) y1 = y;
+    }
+    add(key, group, ioffset, icount, x0, y0, x1, y1);
+  }
+
+
+  public void add(Object key, int group, int ioffset, int icount,
+                  float x0, float y0, float x1, float y1) {
+    if (count == keys.length) {
+      int n = count << 1;
+      keys = Arrays.copyOf(keys, n);
+      groups = Arrays.copyOf(groups, n);
+      firstIndex = Arrays.copyOf(firstIndex, n);
+      indexCount = Arrays.copyOf(indexCount, n);
+      bounds = Arrays.copyOf(bounds, 4 * n);
+      order = new int[n];
+    }
+    keys[count] = key;
+    groups[count] = group;
+    firstIndex[count] = ioffset;
+    indexCount[count] = icount;
+    bounds[4 * count + 0] = x0 - BOUNDS_PADDING;
+    bounds[4 * count + 1] = y0 - BOUNDS_PADDING;
+    bounds[4 * count + 2] = x1 + BOUNDS_PADDING;
+    bounds[4 * count + 3] = y1 + BOUNDS_PADDING;
+    count++;
+  }
+
+
+  /**
+   * Reorder the runs, rewrite their indices in the new order, and collect
+   * the batches of runs that can be drawn together.
+   * @return the number of draw calls saved, that is, runs minus batches
+   */
+  public int merge(short[] indices) {
+    int size = 0;
+    int group0 = 0;
+    for (int j = 0; j < count; j++) {
+      if (j == 0 || groups[j] != groups[j - 1]) {
+        // only the runs of the same group can be merged
+        group0 = size;
+      }
+      int target = -1;
+      int stop = Math.max(group0, size - MAX_LOOKBACK);
+      for (int k = size - 1; stop <= k; k--) {
+        int r = order[k];
+        if (keys[r] == keys[j]) {
+          target = k;
+          break;
+        }
+        if (overlap(r, j)) break;
+      }
+      if (target == -1 || target == size - 1) {
+        order[size++] = j;
+      } else {
+        System.arraycopy(order, target + 1, order, target + 2,
+                         size - target - 1);
+        order[target + 1] = j;
+        size++;
+      }
+    }
+
+    rewriteIndices(indices);
+    collectBatches();
+    return count - batchCount;
+  }
+
+
+  protected boolean overlap(int a, int b) {
+    int ia = 4 * a, ib = 4 * b;
+    return bounds[ia + 0] <= bounds[ib + 2] && bounds[ib + 0] <= bounds[ia + 2] &&
+           bounds[ia + 1] <= bounds[ib + 3] && bounds[ib + 1] <= bounds[ia + 3];
+  }
+
+
+  // Copies the indices of each group in the new order of its runs, which
+  // fill the same range of the index array as before.
+  protected void rewriteIndices(short[] indices) {
+    int j0 = 0;
+    while (j0 < count) {
+      int j1 = j0;
+      while (j1 + 1 < count && groups[order[j1 + 1]] == groups[order[j0]]) j1++;
+
+      boolean moved = false;
+      int first = Integer.MAX_VALUE, last = Integer.MIN_VALUE, total = 0;
+      for (int j = j0; j <= j1; j++) {
+        int r = order[j];
+        moved |= r != j;
+        first = Math.min(first, firstIndex[r]);
+        last = Math.max(last, firstIndex[r] + indexCount[r] - 1);
+        total += indexCount[r];
+      }
+      // runs that don't cover the range exactly are left where they are
+      if (moved && last - first + 1 == total) {
+        if (temp.length < total) temp = new short[total];
+        int pos = 0;
+        for (int j = j0; j <= j1; j++) {
+          int r = order[j];
+          System.arraycopy(indices, firstIndex[r], temp, pos, indexCount[r]);
+          pos += indexCount[r];
+        }
+        System.arraycopy(temp, 0, indices, first, total);
+        pos = first;
+        for (int j = j0; j <= j1; j++) {
+          int r = order[j];
+          firstIndex[r] = pos;
+          pos += indexCount[r];
+        }
+      }
+      j0 = j1 + 1;
+    }
+  }
+
+
+  protected void collectBatches() {
+    batchCount = 0;
+    for (int j = 0; j < count; j++) {
+      int r = order[j];
+      if (0 < batchCount && batchKeys[batchCount - 1] == keys[r] &&
+          batchGroups[batchCount - 1] == groups[r] &&
+          batchLast[batchCount - 1] + 1 == firstIndex[r]) {
+        batchLast[batchCount - 1] += indexCount[r];
+      } else {
+        if (batchCount == batchKeys.length) {
+          int n = batchCount << 1;
+          batchKeys = Arrays.copyOf(batchKeys, n);
+          batchGroups = Arrays.copyOf(batchGroups, n);
+          batchFirst = Arrays.copyOf(batchFirst, n);
+          batchLast = Arrays.copyOf(batchLast, n);
+        }
+        batchKeys[batchCount] = keys[r];
+        batchGroups[batchCount] = groups[r];
+        batchFirst[batchCount] = firstIndex[r];
+        batchLast[batchCount] = firstIndex[r] + indexCount[r] - 1;
+        batchCount++;
+      }
+    }
+  }
+
+
+  public int getBatchCount() {
+    return batchCount;
+  }
+
+
+  public Object getBatchKey(int i) {
+    return batchKeys[i];
+  }
+
+
+  public int getBatchGroup(int i) {
+    return batchGroups[i];
+  }
+
+
+  /** First index of the batch. */
+  public int getBatchFirst(int i) {
+    return batchFirst[i];
+  }
+
+
+  /** Last index of the batch, inclusive. */
+  public int getBatchLast(int i) {
+    return batchLast[i];
+  }
+}
@@ -0,0 +1,159 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.util.Arrays;
+
+
+/**
+ * Counts how often a renderer draws the geometry it has batched, and why,
+ * see PGraphicsOpenGL.getFlushStats(). The counts are those of the last
+ * frame, between beginDraw() and endDraw(), so they can be read at any
+ * time during the next one. Flushes with nothing to draw aren't counted.
+ */
+public class FlushStats {
+  /** Reasons for a flush. */
+  static public final int OTHER      = 0;
+  static public final int FULL       = 1;
+  static public final int CONTINUOUS = 2;
+  static public final int END_DRAW   = 3;
+  static public final int BLEND      = 4;
+  static public final int SHADER     = 5;
+  static public final int TEXTURE    = 6;
+  static public final int PROJECTION = 7;
+  static public final int LIGHTS     = 8;
+  static public final int CLIP       = 9;
+  static public final int SHAPE      = 10;
+  static public final int PIXELS     = 11;
+  static public final int HINT       = 12;
+  static public final int BACKGROUND = 13;
+
+  static final String[] REASON_NAMES = {
+    "other", "full", "continuous", "endDraw", "blend", "shader", "texture",
+    "projection", "lights", "clip", "shape", "pixels", "hint", "background"
+  };
+
+  static public final int REASON_COUNT = REASON_NAMES.length;
+
+
+  // the frame being drawn
+  protected int[] flushes = new int[REASON_COUNT];
+  protected int vertices;
+  protected int draws;
+  protected int merged;
+
+  // the last frame
+  protected int[] lastFlushes = new int[REASON_COUNT];
+  protected int lastVertices;
+  protected int lastDraws;
+  protected int lastMerged;
+
+
+  protected void flushed(int reason, int vertexCount) {
+    if (reason < 0 || REASON_COUNT <= reason) reason = OTHER;
+    flushes[reason]++;
+    vertices += vertexCount;
+  }
+
+
+  protected void drawn() {
+    draws++;
+  }
+
+
+  protected void merged(int count) {
+    merged += count;
+  }
+
+
+  /** Keep the counts of the frame that just ended, and start over. */
+  protected void endFrame() {
+    System.arraycopy(flushes, 0, lastFlushes, 0, REASON_COUNT);
+    lastVertices = vertices;
+    lastDraws = draws;
+    lastMerged = merged;
+    Arrays.fill(flushes, 0);
+    vertices = 0;
+    draws = 0;
+    merged = 0;
+  }
+
+
+  public int getFlushCount() {
+    int count = 0;
+    for (int i = 0; i < REASON_COUNT; i++) count += lastFlushes[i];
+    return count;
+  }
+
+
+  /** Number of flushes for one of the reasons, such as FlushStats.BLEND. */
+  public int getFlushCount(int reason) {
+    return lastFlushes[reason];
+  }
+
+
+  /** Vertices of all kinds (polygons, lines, points) that were flushed. */
+  public int getVertexCount() {
+    return lastVertices;
+  }
+
+
+  /** Draw calls made by the flushes. */
+  public int getDrawCount() {
+    return lastDraws;
+  }
+
+
+  /** Draw calls saved by PGraphicsOpenGL.setMergeBatches(). */
+  public int getMergedCount() {
+    return lastMerged;
+  }
+
+
+  public void resetStats() {
+    Arrays.fill(flushes, 0);
+    Arrays.fill(lastFlushes, 0);
+    vertices = lastVertices = 0;
+    draws = lastDraws = 0;
+    merged = lastMerged = 0;
+  }
+
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("FlushStats ").append(getFlushCount()).append(" flushes, ");
+    sb.append(lastVertices).append(" vertices, ");
+    sb.append(lastDraws).append(" draws, ");
+    sb.append(lastMerged).append(" merged");
+    String sep = " (";
+    for (int i = 0; i < REASON_COUNT; i++) {
+      if (0 < lastFlushes[i]) {
+        sb.append(sep).append(REASON_NAMES[i]).append(' ').append(lastFlushes[i]);
+        sep = ", ";
+      }
+    }
+    if (!sep.equals(" (")) sb.append(')');
+    return sb.toString();
+  }
+}
@@ -2680,6 +2680,19 @@ public abstract class PGL {
   protected abstract Tessellator createTessellator(TessellatorCallback callback);
 
 
+  /**
+   * Tessellator written in Java for the fill of polygons, used instead of
+   * the one from createTessellator() after
+   * PGraphicsOpenGL.setJavaTessellator(true). It sends the triangles all
+   * at once to TessellatorCallback.triangles(), sharing their vertices,
+   * and hands the polygons that intersect themselves to fallback.
+   */
+  protected Tessellator createFillTessellator(TessellatorCallback callback,
+                                              Tessellator fallback) {
+    return new PolygonTessellator(callback, fallback);
+  }
+
+
   protected interface Tessellator {
     public void setCallback(int flag);
     public void setWindingRule(int rule);
@@ -2702,6 +2715,20 @@ public abstract class PGL {
     public void combine(double[] coords, Object[] data,
                         float[] weight, Object[] outData);
     public void error(int errnum);
+
+    /**
+     * Triangles that share vertices, as three indices into the vertices
+     * for each triangle. Only called by createFillTessellator(). By
+     * default the corners of each triangle go through vertex().
+     */
+    default public void triangles(Object[] vertices, int vertexCount,
+                                  int[] indices, int indexCount) {
+      begin(TRIANGLES);
+      for (int i = 0; i < indexCount; i++) {
+        vertex(vertices[indices[i]]);
+      }
+      end();
+    }
   }
 
 
@@ -32,6 +32,8 @@ import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.nio.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 /**
@@ -103,6 +105,11 @@ public class PGraphicsOpenGL extends PGraphics {
   static protected final int IMMEDIATE = 0;
   static protected final int RETAINED  = 1;
 
+  /** Depth sorting modes, see setDepthSortMode(). */
+  static public final int DEPTH_SORT_EXACT       = 0;
+  static public final int DEPTH_SORT_FAST        = 1;
+  static public final int DEPTH_SORT_APPROXIMATE = 2;
+
   /** Current flush mode. */
   protected int flushMode = FLUSH_WHEN_FULL;
 
@@ -225,12 +232,34 @@ public class PGraphicsOpenGL extends PGraphics {
   protected TexCache texCache;
   protected Tessellator tessellator;
 
+  // Reuses the output of identical shapes, null (off) by default
+  protected TessellationCache tessCache;
+
+  // Transformation of the current copy in shapeInstances(), and its inverse
+  protected PMatrix3D instanceMatrix;
+  protected PMatrix3D instanceNormal;
+
+  // Tessellates long 2D polylines on several threads, off by default
+  protected boolean parallelStrokes;
+
+  // Counts the flushes of each frame, and why they happened
+  protected FlushStats flushStats = new FlushStats();
+  protected int flushReason = FlushStats.OTHER;
+
+  // Reorders 2D batches to draw runs with the same texture together
+  protected boolean mergeBatches;
+  protected BatchMerger batchMerger;
+
+  // Tessellates the fill of polygons with PolygonTessellator, off by default
+  protected boolean javaTessellator;
+
   // ........................................................
 
   // Depth sorter
 
   protected DepthSorter sorter;
   protected boolean isDepthSortingEnabled;
+  protected int depthSortMode = DEPTH_SORT_EXACT;
 
   // ........................................................
 
@@ -785,7 +814,7 @@ public class PGraphicsOpenGL extends PGraphics {
         beginDraw();
         needEndDraw = true;
       }
-      flush();
+      flush(FlushStats.PIXELS);
       updatePixelSize();
 
       // get the whole async package
@@ -1447,7 +1476,7 @@ public class PGraphicsOpenGL extends PGraphics {
       // This offscreen surface is being used as a texture earlier in draw,
       // so we should update the rendering up to this point since it will be
       // modified.
-      getPrimaryPG().flush();
+      getPrimaryPG().flush(FlushStats.TEXTURE);
     }
 
     if (!glParamsRead) {
@@ -1477,7 +1506,8 @@ public class PGraphicsOpenGL extends PGraphics {
     }
 
     // Flushing any remaining geometry.
-    flush();
+    flush(FlushStats.END_DRAW);
+    flushStats.endFrame();
 
     if (primaryGraphics) {
       endOnscreenDraw();
@@ -1852,40 +1882,40 @@ public class PGraphicsOpenGL extends PGraphics {
     }
 
     if (which == DISABLE_DEPTH_TEST) {
-      flush();
+      flush(FlushStats.HINT);
       pgl.disable(PGL.DEPTH_TEST);
     } else if (which == ENABLE_DEPTH_TEST) {
-      flush();
+      flush(FlushStats.HINT);
       pgl.enable(PGL.DEPTH_TEST);
     } else if (which == DISABLE_DEPTH_MASK) {
-      flush();
+      flush(FlushStats.HINT);
       pgl.depthMask(false);
     } else if (which == ENABLE_DEPTH_MASK) {
-      flush();
+      flush(FlushStats.HINT);
       pgl.depthMask(true);
     } else if (which == ENABLE_OPTIMIZED_STROKE) {
-      flush();
+      flush(FlushStats.HINT);
       setFlushMode(FLUSH_WHEN_FULL);
     } else if (which == DISABLE_OPTIMIZED_STROKE) {
       if (is2D()) {
         PGraphics.showWarning("Optimized strokes can only be disabled in 3D");
       } else {
-        flush();
+        flush(FlushStats.HINT);
         setFlushMode(FLUSH_CONTINUOUSLY);
       }
     } else if (which == DISABLE_STROKE_PERSPECTIVE) {
       if (0 < tessGeo.lineVertexCount && 0 < tessGeo.lineIndexCount) {
         // We flush the geometry using the previous line setting.
-        flush();
+        flush(FlushStats.HINT);
       }
     } else if (which == ENABLE_STROKE_PERSPECTIVE) {
       if (0 < tessGeo.lineVertexCount && 0 < tessGeo.lineIndexCount) {
         // We flush the geometry using the previous line setting.
-        flush();
+        flush(FlushStats.HINT);
       }
     } else if (which == ENABLE_DEPTH_SORT) {
       if (is3D()) {
-        flush();
+        flush(FlushStats.HINT);
         if (sorter == null) sorter = new DepthSorter(this);
         isDepthSortingEnabled = true;
       } else {
@@ -1893,7 +1923,7 @@ public class PGraphicsOpenGL extends PGraphics {
       }
     } else if (which == DISABLE_DEPTH_SORT) {
       if (is3D()) {
-        flush();
+        flush(FlushStats.HINT);
         isDepthSortingEnabled = false;
       }
     } else if (which == ENABLE_BUFFER_READING) {
@@ -1966,7 +1996,8 @@ public class PGraphicsOpenGL extends PGraphics {
 
     if ((flushMode == FLUSH_CONTINUOUSLY) ||
         (flushMode == FLUSH_WHEN_FULL && tessGeo.isFull())) {
-      flush();
+      flush(flushMode == FLUSH_CONTINUOUSLY ? FlushStats.CONTINUOUS :
+            FlushStats.FULL);
     } else {
       // pixels array is not up-to-date anymore
       loaded = false;
@@ -1984,7 +2015,8 @@ public class PGraphicsOpenGL extends PGraphics {
 
     if (flushMode == FLUSH_CONTINUOUSLY ||
         (flushMode == FLUSH_WHEN_FULL && tessGeo.isFull())) {
-      flush();
+      flush(flushMode == FLUSH_CONTINUOUSLY ? FlushStats.CONTINUOUS :
+            FlushStats.FULL);
     } else {
       // pixels array is not up-to-date anymore
       loaded = false;
@@ -1995,7 +2027,7 @@ public class PGraphicsOpenGL extends PGraphics {
   @Override
   public void textureWrap(int wrap) {
     if (this.textureWrap != wrap) {
-      flush();
+      flush(FlushStats.TEXTURE);
     }
     this.textureWrap = wrap;
   }
@@ -2176,7 +2208,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
   @Override
   protected void clipImpl(float x1, float y1, float x2, float y2) {
-    flush();
+    flush(FlushStats.CLIP);
     pgl.enable(PGL.SCISSOR_TEST);
 
     float h = y2 - y1;
@@ -2193,7 +2225,7 @@ public class PGraphicsOpenGL extends PGraphics {
   @Override
   public void noClip() {
     if (clip) {
-      flush();
+      flush(FlushStats.CLIP);
       pgl.disable(PGL.SCISSOR_TEST);
       clip = false;
     }
@@ -2219,10 +2251,15 @@ public class PGraphicsOpenGL extends PGraphics {
     tessellator.setStrokeWeight(strokeWeight);
     tessellator.setStrokeCap(strokeCap);
     tessellator.setStrokeJoin(strokeJoin);
+    tessellator.setParallelStrokes(parallelStrokes);
     tessellator.setRenderer(this);
     tessellator.setTransform(modelview);
     tessellator.set3D(is3D());
 
+    if (tessCache != null && tessCache.begin(this, shape, mode, normalMode)) {
+      return;
+    }
+
     if (shape == POINTS) {
       tessellator.tessellatePoints();
     } else if (shape == LINES) {
@@ -2255,6 +2292,95 @@ public class PGraphicsOpenGL extends PGraphics {
       tessellator.tessellatePolygon(true, mode == CLOSE,
                                     normalMode == NORMAL_MODE_AUTO);
     }
+
+    if (tessCache != null) {
+      tessCache.end(this);
+    }
+  }
+
+
+  /**
+   * Reuse the tessellation of shapes that are drawn again with the same
+   * vertices, style, and transformation, which saves time for sketches
+   * that draw the same complex shapes every frame. Pass null to turn the
+   * cache off again, which is the default.
+   * @see TessellationCache
+   */
+  public void setTessellationCache(TessellationCache cache) {
+    tessCache = cache;
+  }
+
+
+  public TessellationCache getTessellationCache() {
+    return tessCache;
+  }
+
+
+  /**
+   * Choose how hint(ENABLE_DEPTH_SORT) orders triangles. DEPTH_SORT_EXACT
+   * is the default. DEPTH_SORT_FAST projects large scenes on several
+   * threads and sorts them with a radix sort before the same overlap
+   * checks as DEPTH_SORT_EXACT. Those checks compare each triangle with
+   * all the ones after it that overlap it in depth, so their cost still
+   * grows with the square of the triangle count, and FAST only helps up
+   * to a few tens of thousands of triangles.
+   * DEPTH_SORT_APPROXIMATE also limits the overlap checks of each
+   * triangle to the ones closest to it in the sorted order, which may
+   * leave some intersecting triangles in the wrong order, but keeps
+   * scenes with hundreds of thousands of triangles interactive.
+   */
+  public void setDepthSortMode(int mode) {
+    depthSortMode = mode;
+  }
+
+
+  public int getDepthSortMode() {
+    return depthSortMode;
+  }
+
+
+  /**
+   * Split the stroke tessellation of 2D shapes with many thousands of line
+   * segments across the common ForkJoinPool. Only applies to lines drawn
+   * without caps and joins, which is how long polylines are always drawn.
+   * The output is the same as with a single thread. Off by default.
+   */
+  public void setParallelStrokes(boolean parallel) {
+    parallelStrokes = parallel;
+  }
+
+
+  /**
+   * Draw the textured runs of a 2D batch with as few calls as possible,
+   * for instance when alternating between the glyphs of a font and the
+   * icons of an atlas. Runs are only drawn out of order when they don't
+   * overlap anything they are moved past, so the result is the same as
+   * drawing them in order. Off by default.
+   * @see BatchMerger
+   */
+  public void setMergeBatches(boolean merge) {
+    mergeBatches = merge;
+  }
+
+
+  /**
+   * Tessellate the fill of polygons with the tessellator written in Java
+   * instead of the GLU one. It's faster on polygons without crossing
+   * edges, such as glyphs, and gives indexed triangles. Polygons that
+   * intersect themselves still go through GLU. Off by default.
+   * @see PolygonTessellator
+   */
+  public void setJavaTessellator(boolean java) {
+    javaTessellator = java;
+  }
+
+
+  /**
+   * Counts of the flushes, vertices and draw calls of the last frame,
+   * and the reasons for the flushes.
+   */
+  public FlushStats getFlushStats() {
+    return flushStats;
   }
 
 
@@ -2267,6 +2393,7 @@ public class PGraphicsOpenGL extends PGraphics {
     tessellator.setStrokeWeight(strokeWeight);
     tessellator.setStrokeCap(strokeCap);
     tessellator.setStrokeJoin(strokeJoin);
+    tessellator.setParallelStrokes(parallelStrokes);
     tessellator.setTexCache(texCache, textureImage);
     tessellator.setTransform(modelview);
     tessellator.set3D(is3D());
@@ -2277,6 +2404,12 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  protected void flush(int reason) {
+    flushReason = reason;
+    flush();
+  }
+
+
   @Override
   public void flush() {
     boolean hasPolys = 0 < tessGeo.polyVertexCount &&
@@ -2288,6 +2421,18 @@ public class PGraphicsOpenGL extends PGraphics {
 
     boolean hasPixels = modified && pixels != null;
 
+    if (hasPoints || hasLines || hasPolys) {
+      flushStats.flushed(flushReason, tessGeo.polyVertexCount +
+                                      tessGeo.lineVertexCount +
+                                      tessGeo.pointVertexCount);
+    }
+    flushReason = FlushStats.OTHER;
+
+    if (hasPolys && mergeBatches && is2D() && 1 < texCache.size &&
+        flushMode == FLUSH_WHEN_FULL && !isDepthSortingEnabled) {
+      mergeTexBatches();
+    }
+
     if (hasPixels) {
       // If the user has been manipulating individual pixels,
       // the changes need to be copied to the screen before
@@ -2357,9 +2502,53 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  // Reorders the indices of the batch so that the runs drawn with the
+  // same texture are next to each other, and replaces the texture cache
+  // with one entry per merged run.
+  protected void mergeTexBatches() {
+    if (batchMerger == null) batchMerger = new BatchMerger();
+    BatchMerger merger = batchMerger;
+    merger.clear();
+
+    IndexCache cache = tessGeo.polyIndexCache;
+    for (int i = 0; i < texCache.size; i++) {
+      int first = texCache.firstCache[i];
+      int last = texCache.lastCache[i];
+      for (int n = first; n <= last; n++) {
+        int ioffset = n == first ? texCache.firstIndex[i] : cache.indexOffset[n];
+        int icount = n == last ? texCache.lastIndex[i] - ioffset + 1 :
+                                 cache.indexOffset[n] + cache.indexCount[n] - ioffset;
+        if (0 < icount) {
+          merger.add(texCache.textures[i], n, ioffset, icount,
+                     tessGeo.polyVertices, cache.vertexOffset[n],
+                     tessGeo.polyIndices);
+        }
+      }
+    }
+
+    int saved = merger.merge(tessGeo.polyIndices);
+    if (0 < saved) {
+      texCache.clear();
+      for (int b = 0; b < merger.getBatchCount(); b++) {
+        int n = merger.getBatchGroup(b);
+        texCache.addTexture((PImage) merger.getBatchKey(b),
+                            merger.getBatchFirst(b), n,
+                            merger.getBatchLast(b), n);
+      }
+      flushStats.merged(saved);
+    }
+    merger.clear();
+  }
+
+
   protected void flushPixels() {
-    drawPixels(mx1, my1, mx2 - mx1, my2 - my1);
-    modified = false;
+    int count = getModifiedRectCount();
+    for (int i = 0; i < count; i++) {
+      int x = modifiedRects[i*4];
+      int y = modifiedRects[i*4 + 1];
+      drawPixels(x, y, modifiedRects[i*4 + 2] - x, modifiedRects[i*4 + 3] - y);
+    }
+    setModified(false);
   }
 
 
@@ -2426,6 +2615,7 @@ public class PGraphicsOpenGL extends PGraphics {
         }
 
         shader.draw(bufPolyIndex.glId, icount, ioffset);
+        flushStats.drawn();
       }
 
       for (VertexAttribute attrib: polyAttribs.values()) {
@@ -2517,6 +2707,7 @@ public class PGraphicsOpenGL extends PGraphics {
       }
 
       shader.draw(bufPolyIndex.glId, icount, ioffset);
+      flushStats.drawn();
 
       for (VertexAttribute attrib: polyAttribs.values()) {
         if (attrib.active(shader)) attrib.unbind(pgl);
@@ -2755,6 +2946,7 @@ public class PGraphicsOpenGL extends PGraphics {
                               4 * voffset * PGL.SIZEOF_FLOAT);
 
       shader.draw(bufLineIndex.glId, icount, ioffset);
+      flushStats.drawn();
     }
 
     shader.unbind();
@@ -2856,6 +3048,7 @@ public class PGraphicsOpenGL extends PGraphics {
                                2 * voffset * PGL.SIZEOF_FLOAT);
 
       shader.draw(bufPointIndex.glId, icount, ioffset);
+      flushStats.drawn();
     }
 
     shader.unbind();
@@ -3346,7 +3539,7 @@ public class PGraphicsOpenGL extends PGraphics {
   @Override
   protected void shape(PShape shape, float x, float y, float z) {
     if (shape.isVisible()) { // don't do expensive matrix ops if invisible
-      flush();
+      flush(FlushStats.SHAPE);
 
       pushMatrix();
 
@@ -3369,7 +3562,7 @@ public class PGraphicsOpenGL extends PGraphics {
   protected void shape(PShape shape, float x, float y, float z,
                        float c, float d, float e) {
     if (shape.isVisible()) { // don't do expensive matrix ops if invisible
-      flush();
+      flush(FlushStats.SHAPE);
 
       pushMatrix();
 
@@ -3404,6 +3597,240 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  /**
+   * Draws count copies of a shape, each one transformed by the next 16
+   * values in matrices (in the order of PMatrix3D.get()) and tinted by the
+   * next value in colors when it's not null. The tessellated geometry of
+   * the shape is copied into the same buffers as beginShape()/endShape(),
+   * so that all the copies are drawn with as few calls as fit in them,
+   * instead of one call per copy. Shapes with custom vertex attributes,
+   * and all shapes while the renderer is not batching its geometry, are
+   * drawn one copy at a time without the colors.
+   */
+  protected void shapeInstances(PShapeOpenGL shape, float[] matrices,
+                                int[] colors, int count) {
+    if (!shape.isVisible() || count <= 0) return;
+
+    if (flushMode != FLUSH_WHEN_FULL || !shape.root.polyAttribs.isEmpty()) {
+      flush(FlushStats.SHAPE);
+      for (int i = 0; i < count; i++) {
+        int m = 16 * i;
+        pushMatrix();
+        if (is2D()) {
+          applyMatrix(matrices[m +  0], matrices[m +  1], matrices[m +  3],
+                      matrices[m +  4], matrices[m +  5], matrices[m +  7]);
+        } else {
+          applyMatrix(matrices[m +  0], matrices[m +  1], matrices[m +  2], matrices[m +  3],
+                      matrices[m +  4], matrices[m +  5], matrices[m +  6], matrices[m +  7],
+                      matrices[m +  8], matrices[m +  9], matrices[m + 10], matrices[m + 11],
+                      matrices[m + 12], matrices[m + 13], matrices[m + 14], matrices[m + 15]);
+        }
+        shape.draw(this);
+        popMatrix();
+      }
+      return;
+    }
+
+    shape.pre(this);
+    shape.updateTessellation();
+
+    tessellator.setTessGeometry(tessGeo);
+    if (instanceMatrix == null) {
+      instanceMatrix = new PMatrix3D();
+      instanceNormal = new PMatrix3D();
+    }
+    PMatrix3D mm = instanceMatrix;
+    PMatrix3D nm = instanceNormal;
+    for (int i = 0; i < count; i++) {
+      int m = 16 * i;
+      mm.set(matrices[m +  0], matrices[m +  1], matrices[m +  2], matrices[m +  3],
+             matrices[m +  4], matrices[m +  5], matrices[m +  6], matrices[m +  7],
+             matrices[m +  8], matrices[m +  9], matrices[m + 10], matrices[m + 11],
+             matrices[m + 12], matrices[m + 13], matrices[m + 14], matrices[m + 15]);
+      mm.preApply(modelview);
+      nm.set(mm);
+      nm.invert();
+      int tint = colors == null ? 0xFFFFFFFF : PGL.javaToNativeARGB(colors[i]);
+
+      shape.addInstance(this, mm, nm, tint);
+      if (tessGeo.isFull()) {
+        flush(FlushStats.FULL);
+      }
+    }
+  }
+
+
+  protected void addInstancePolys(TessGeometry src, int voffset, int vcount,
+                                  int ioffset, int icount,
+                                  PMatrix3D mm, PMatrix3D nm, int tint) {
+    if (vcount == 0 || icount == 0) return;
+
+    IndexCache cache = tessGeo.polyIndexCache;
+    int index = cache.getLast();
+    if (PGL.MAX_VERTEX_INDEX1 <= cache.vertexCount[index] + vcount) {
+      index = cache.addNew();
+    }
+    int base = cache.vertexCount[index];
+
+    tessellator.beginTex();
+    tessGeo.polyVertexCheck(vcount);
+    tessGeo.polyIndexCheck(icount);
+    int vidx = tessGeo.firstPolyVertex;
+    int iidx = tessGeo.firstPolyIndex;
+
+    float[] vertices = tessGeo.polyVertices;
+    float[] normals = tessGeo.polyNormals;
+    for (int i = 0; i < vcount; i++) {
+      int s = 4 * (voffset + i);
+      float x = src.polyVertices[s++];
+      float y = src.polyVertices[s++];
+      float z = src.polyVertices[s++];
+      float w = src.polyVertices[s  ];
+      int d = 4 * (vidx + i);
+      vertices[d++] = x*mm.m00 + y*mm.m01 + z*mm.m02 + w*mm.m03;
+      vertices[d++] = x*mm.m10 + y*mm.m11 + z*mm.m12 + w*mm.m13;
+      vertices[d++] = x*mm.m20 + y*mm.m21 + z*mm.m22 + w*mm.m23;
+      vertices[d  ] = x*mm.m30 + y*mm.m31 + z*mm.m32 + w*mm.m33;
+
+      // normals go through the inverse transpose, as in setPolyVertex()
+      s = 3 * (voffset + i);
+      float nx = src.polyNormals[s++];
+      float ny = src.polyNormals[s++];
+      float nz = src.polyNormals[s  ];
+      d = 3 * (vidx + i);
+      normals[d++] = nx*nm.m00 + ny*nm.m10 + nz*nm.m20;
+      normals[d++] = nx*nm.m01 + ny*nm.m11 + nz*nm.m21;
+      normals[d  ] = nx*nm.m02 + ny*nm.m12 + nz*nm.m22;
+
+      tessGeo.polyColors[vidx + i] = tintColor(src.polyColors[voffset + i], tint);
+    }
+    PApplet.arrayCopy(src.polyTexCoords, 2 * voffset,
+                      tessGeo.polyTexCoords, 2 * vidx, 2 * vcount);
+    PApplet.arrayCopy(src.polyAmbient, voffset,
+                      tessGeo.polyAmbient, vidx, vcount);
+    PApplet.arrayCopy(src.polySpecular, voffset,
+                      tessGeo.polySpecular, vidx, vcount);
+    PApplet.arrayCopy(src.polyEmissive, voffset,
+                      tessGeo.polyEmissive, vidx, vcount);
+    PApplet.arrayCopy(src.polyShininess, voffset,
+                      tessGeo.polyShininess, vidx, vcount);
+
+    short[] indices = tessGeo.polyIndices;
+    for (int i = 0; i < icount; i++) {
+      indices[iidx + i] = (short) (base + src.polyIndices[ioffset + i]);
+    }
+    cache.incCounts(index, icount, vcount);
+    tessellator.endTex();
+  }
+
+
+  protected void addInstanceLines(TessGeometry src, int voffset, int vcount,
+                                  int ioffset, int icount,
+                                  PMatrix3D mm, int tint) {
+    if (vcount == 0 || icount == 0) return;
+
+    IndexCache cache = tessGeo.lineIndexCache;
+    int index = cache.getLast();
+    if (PGL.MAX_VERTEX_INDEX1 <= cache.vertexCount[index] + vcount) {
+      index = cache.addNew();
+    }
+    int base = cache.vertexCount[index];
+
+    tessGeo.lineVertexCheck(vcount);
+    tessGeo.lineIndexCheck(icount);
+    int vidx = tessGeo.firstLineVertex;
+    int iidx = tessGeo.firstLineIndex;
+
+    float[] vertices = tessGeo.lineVertices;
+    float[] directions = tessGeo.lineDirections;
+    for (int i = 0; i < vcount; i++) {
+      int s = 4 * (voffset + i);
+      float x = src.lineVertices[s++];
+      float y = src.lineVertices[s++];
+      float z = src.lineVertices[s++];
+      float w = src.lineVertices[s  ];
+      int d = 4 * (vidx + i);
+      vertices[d++] = x*mm.m00 + y*mm.m01 + z*mm.m02 + w*mm.m03;
+      vertices[d++] = x*mm.m10 + y*mm.m11 + z*mm.m12 + w*mm.m13;
+      vertices[d++] = x*mm.m20 + y*mm.m21 + z*mm.m22 + w*mm.m23;
+      vertices[d  ] = x*mm.m30 + y*mm.m31 + z*mm.m32 + w*mm.m33;
+
+      // the weight stays as it is, as in setLineVertex()
+      s = 4 * (voffset + i);
+      float dx = src.lineDirections[s++];
+      float dy = src.lineDirections[s++];
+      float dz = src.lineDirections[s++];
+      d = 4 * (vidx + i);
+      directions[d++] = dx*mm.m00 + dy*mm.m01 + dz*mm.m02;
+      directions[d++] = dx*mm.m10 + dy*mm.m11 + dz*mm.m12;
+      directions[d++] = dx*mm.m20 + dy*mm.m21 + dz*mm.m22;
+      directions[d  ] = src.lineDirections[s];
+
+      tessGeo.lineColors[vidx + i] = tintColor(src.lineColors[voffset + i], tint);
+    }
+
+    short[] indices = tessGeo.lineIndices;
+    for (int i = 0; i < icount; i++) {
+      indices[iidx + i] = (short) (base + src.lineIndices[ioffset + i]);
+    }
+    cache.incCounts(index, icount, vcount);
+  }
+
+
+  protected void addInstancePoints(TessGeometry src, int voffset, int vcount,
+                                   int ioffset, int icount,
+                                   PMatrix3D mm, int tint) {
+    if (vcount == 0 || icount == 0) return;
+
+    IndexCache cache = tessGeo.pointIndexCache;
+    int index = cache.getLast();
+    if (PGL.MAX_VERTEX_INDEX1 <= cache.vertexCount[index] + vcount) {
+      index = cache.addNew();
+    }
+    int base = cache.vertexCount[index];
+
+    tessGeo.pointVertexCheck(vcount);
+    tessGeo.pointIndexCheck(icount);
+    int vidx = tessGeo.firstPointVertex;
+    int iidx = tessGeo.firstPointIndex;
+
+    float[] vertices = tessGeo.pointVertices;
+    for (int i = 0; i < vcount; i++) {
+      int s = 4 * (voffset + i);
+      float x = src.pointVertices[s++];
+      float y = src.pointVertices[s++];
+      float z = src.pointVertices[s++];
+      float w = src.pointVertices[s  ];
+      int d = 4 * (vidx + i);
+      vertices[d++] = x*mm.m00 + y*mm.m01 + z*mm.m02 + w*mm.m03;
+      vertices[d++] = x*mm.m10 + y*mm.m11 + z*mm.m12 + w*mm.m13;
+      vertices[d++] = x*mm.m20 + y*mm.m21 + z*mm.m22 + w*mm.m23;
+      vertices[d  ] = x*mm.m30 + y*mm.m31 + z*mm.m32 + w*mm.m33;
+
+      tessGeo.pointColors[vidx + i] = tintColor(src.pointColors[voffset + i], tint);
+    }
+    PApplet.arrayCopy(src.pointOffsets, 2 * voffset,
+                      tessGeo.pointOffsets, 2 * vidx, 2 * vcount);
+
+    short[] indices = tessGeo.pointIndices;
+    for (int i = 0; i < icount; i++) {
+      indices[iidx + i] = (short) (base + src.pointIndices[ioffset + i]);
+    }
+    cache.incCounts(index, icount, vcount);
+  }
+
+
+  // Multiplies each channel of two colors, both in native order
+  static protected int tintColor(int color, int tint) {
+    if (tint == 0xFFFFFFFF) return color;
+    int c0 = ((color >>> 24)       ) * ((tint >>> 24)       ) / 255;
+    int c1 = ((color >>> 16) & 0xFF) * ((tint >>> 16) & 0xFF) / 255;
+    int c2 = ((color >>>  8) & 0xFF) * ((tint >>>  8) & 0xFF) / 255;
+    int c3 = ((color       ) & 0xFF) * ((tint       ) & 0xFF) / 255;
+    return (c0 << 24) | (c1 << 16) | (c2 << 8) | c3;
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // SHAPE I/O
@@ -4103,7 +4530,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   public void popProjection() {
-    flush(); // The geometry with the old projection matrix needs to be drawn now
+    flush(FlushStats.PROJECTION); // The geometry with the old projection matrix needs to be drawn now
 
     if (projectionStackDepth == 0) {
       throw new RuntimeException(ERROR_PUSHMATRIX_UNDERFLOW);
@@ -4115,14 +4542,14 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   public void resetProjection() {
-    flush();
+    flush(FlushStats.PROJECTION);
     projection.reset();
     updateProjmodelview();
   }
 
 
   public void applyProjection(PMatrix3D mat) {
-    flush();
+    flush(FlushStats.PROJECTION);
     projection.apply(mat);
     updateProjmodelview();
   }
@@ -4132,7 +4559,7 @@ public class PGraphicsOpenGL extends PGraphics {
                               float n10, float n11, float n12, float n13,
                               float n20, float n21, float n22, float n23,
                               float n30, float n31, float n32, float n33) {
-    flush();
+    flush(FlushStats.PROJECTION);
     projection.apply(n00, n01, n02, n03,
                      n10, n11, n12, n13,
                      n20, n21, n22, n23,
@@ -4142,7 +4569,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   public void setProjection(PMatrix3D mat) {
-    flush();
+    flush(FlushStats.PROJECTION);
     projection.set(mat);
     updateProjmodelview();
   }
@@ -4502,7 +4929,7 @@ public class PGraphicsOpenGL extends PGraphics {
     float d = far - near;
 
     // Flushing geometry with a different perspective configuration.
-    flush();
+    flush(FlushStats.PROJECTION);
 
     float x = +2.0f / w;
     float y = +2.0f / h;
@@ -4571,7 +4998,7 @@ public class PGraphicsOpenGL extends PGraphics {
   public void frustum(float left, float right, float bottom, float top,
                       float znear, float zfar) {
     // Flushing geometry with a different perspective configuration.
-    flush();
+    flush(FlushStats.PROJECTION);
 
     cameraFOV = 2 * (float) Math.atan2(top, znear);
     cameraAspect = left / bottom;
@@ -4642,15 +5069,18 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   protected float screenXImpl(float x, float y, float z) {
-    float ax =
-      modelview.m00*x + modelview.m01*y + modelview.m02*z + modelview.m03;
-    float ay =
-      modelview.m10*x + modelview.m11*y + modelview.m12*z + modelview.m13;
-    float az =
-      modelview.m20*x + modelview.m21*y + modelview.m22*z + modelview.m23;
-    float aw =
-      modelview.m30*x + modelview.m31*y + modelview.m32*z + modelview.m33;
-    return screenXImpl(ax, ay, az, aw);
+    // projmodelview is kept in step with every change to the modelview and
+    // projection, so a single product does the work of both. This is what
+    // screenX() and friends spend their time on in picking code.
+    PMatrix3D pmv = projmodelview;
+    float ox = pmv.m00*x + pmv.m01*y + pmv.m02*z + pmv.m03;
+    float ow = pmv.m30*x + pmv.m31*y + pmv.m32*z + pmv.m33;
+
+    if (nonZero(ow)) {
+      ox /= ow;
+    }
+    float sx = width * (1 + ox) / 2.0f;
+    return sx;
   }
 
 
@@ -4669,15 +5099,17 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   protected float screenYImpl(float x, float y, float z) {
-    float ax =
-      modelview.m00*x + modelview.m01*y + modelview.m02*z + modelview.m03;
-    float ay =
-      modelview.m10*x + modelview.m11*y + modelview.m12*z + modelview.m13;
-    float az =
-      modelview.m20*x + modelview.m21*y + modelview.m22*z + modelview.m23;
-    float aw =
-      modelview.m30*x + modelview.m31*y + modelview.m32*z + modelview.m33;
-    return screenYImpl(ax, ay, az, aw);
+    PMatrix3D pmv = projmodelview;
+    float oy = pmv.m10*x + pmv.m11*y + pmv.m12*z + pmv.m13;
+    float ow = pmv.m30*x + pmv.m31*y + pmv.m32*z + pmv.m33;
+
+    if (nonZero(ow)) {
+      oy /= ow;
+    }
+    float sy = height * (1 + oy) / 2.0f;
+    // Turning value upside down because of Processing's inverted Y axis.
+    sy = height - sy;
+    return sy;
   }
 
 
@@ -4698,15 +5130,15 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   protected float screenZImpl(float x, float y, float z) {
-    float ax =
-      modelview.m00*x + modelview.m01*y + modelview.m02*z + modelview.m03;
-    float ay =
-      modelview.m10*x + modelview.m11*y + modelview.m12*z + modelview.m13;
-    float az =
-      modelview.m20*x + modelview.m21*y + modelview.m22*z + modelview.m23;
-    float aw =
-      modelview.m30*x + modelview.m31*y + modelview.m32*z + modelview.m33;
-    return screenZImpl(ax, ay, az, aw);
+    PMatrix3D pmv = projmodelview;
+    float oz = pmv.m20*x + pmv.m21*y + pmv.m22*z + pmv.m23;
+    float ow = pmv.m30*x + pmv.m31*y + pmv.m32*z + pmv.m33;
+
+    if (nonZero(ow)) {
+      oz /= ow;
+    }
+    float sz = (oz + 1) / 2.0f;
+    return sz;
   }
 
 
@@ -5152,13 +5584,13 @@ public class PGraphicsOpenGL extends PGraphics {
 
 
   protected void enableLighting() {
-    flush();
+    flush(FlushStats.LIGHTS);
     lights = true;
   }
 
 
   protected void disableLighting() {
-    flush();
+    flush(FlushStats.LIGHTS);
     lights = false;
   }
 
@@ -5291,7 +5723,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
   @Override
   protected void backgroundImpl() {
-    flush();
+    flush(FlushStats.BACKGROUND);
     pgl.clearBackground(backgroundR, backgroundG, backgroundB, backgroundA,
                         !hints[DISABLE_DEPTH_MASK], true);
     loaded = false;
@@ -5392,7 +5824,7 @@ public class PGraphicsOpenGL extends PGraphics {
     if (!loaded) {
       // Draws any remaining geometry in case the user is still not
       // setting/getting new pixels.
-      flush();
+      flush(FlushStats.PIXELS);
     }
 
     allocatePixels();
@@ -5858,7 +6290,7 @@ public class PGraphicsOpenGL extends PGraphics {
       needEndDraw = true;
     }
 
-    flush(); // To make sure the color buffer is updated.
+    flush(FlushStats.PIXELS); // To make sure the color buffer is updated.
 
     if (primaryGraphics) {
       updatePixelSize();
@@ -5926,7 +6358,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
   // Draws wherever it is in the screen texture right now to the display.
   public void updateDisplay() {
-    flush();
+    flush(FlushStats.PIXELS);
     beginPixelsOp(OP_WRITE);
     drawTexture();
     endPixelsOp();
@@ -6179,7 +6611,7 @@ public class PGraphicsOpenGL extends PGraphics {
       needEndDraw = true;
     }
 
-    flush(); // make sure that the screen contents are up to date.
+    flush(FlushStats.PIXELS); // make sure that the screen contents are up to date.
 
     Texture tex = getTexture(src);
     boolean invX = tex.invertedX();
@@ -6239,7 +6671,7 @@ public class PGraphicsOpenGL extends PGraphics {
   protected void blendModeImpl() {
     if (blendMode != lastBlendMode) {
       // Flush any geometry that uses a different blending mode.
-      flush();
+      flush(FlushStats.BLEND);
     }
 
     pgl.enable(PGL.BLEND);
@@ -6531,11 +6963,25 @@ public class PGraphicsOpenGL extends PGraphics {
   protected void updateTexture(PImage img, Texture tex) {
     if (tex != null) {
       if (img.isModified()) {
-        int x = img.getModifiedX1();
-        int y = img.getModifiedY1();
-        int w = img.getModifiedX2() - x;
-        int h = img.getModifiedY2() - y;
-        tex.set(img.pixels, x, y, w, h, img.format);
+        // Compact images only make the pixels array for the upload,
+        // same as in initCache()
+        boolean dispose = img.pixels == null && img instanceof PImageBuffer;
+        if (dispose) img.loadPixels();
+        // Upload each modified area separately, rather than their
+        // bounding box, so small changes on a large image stay cheap.
+        int count = img.getModifiedRectCount();
+        int[] rects = img.getModifiedRects();
+        for (int i = 0; i < count; i++) {
+          int x = rects[i*4];
+          int y = rects[i*4 + 1];
+          int w = rects[i*4 + 2] - x;
+          int h = rects[i*4 + 3] - y;
+          tex.set(img.pixels, x, y, w, h, img.format);
+        }
+        if (dispose) {
+          img.pixels = null;
+          img.loaded = false;
+        }
       }
     }
     img.setModified(false);
@@ -6996,7 +7442,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
   @Override
   public void shader(PShader shader) {
-    flush(); // Flushing geometry drawn with a different shader.
+    flush(FlushStats.SHADER); // Flushing geometry drawn with a different shader.
 
     if (shader != null) shader.init();
     if (shader.isPolyShader()) polyShader = shader;
@@ -7008,7 +7454,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
   @Override
   public void shader(PShader shader, int kind) {
-    flush(); // Flushing geometry drawn with a different shader.
+    flush(FlushStats.SHADER); // Flushing geometry drawn with a different shader.
 
     if (shader != null) shader.init();
     if (kind == TRIANGLES) polyShader = shader;
@@ -7026,7 +7472,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
   @Override
   public void resetShader(int kind) {
-    flush(); // Flushing geometry drawn with a different shader.
+    flush(FlushStats.SHADER); // Flushing geometry drawn with a different shader.
 
     if (kind == TRIANGLES || kind == QUADS || kind == POLYGON) {
       polyShader = null;
@@ -10920,6 +11366,9 @@ public class PGraphicsOpenGL extends PGraphics {
 
   // Generates tessellated geometry given a batch of input vertices.
   static protected class Tessellator {
+    // Fewest 2D line segments to split across threads, see setParallelStrokes()
+    static final int PARALLEL_STROKE_THRESHOLD = 16 * 1024;
+
     InGeometry in;
     TessGeometry tess;
     TexCache texCache;
@@ -10929,6 +11378,9 @@ public class PGraphicsOpenGL extends PGraphics {
     int firstTexCache;
 
     PGL.Tessellator gluTess;
+    PGL.Tessellator javaTess;
+    // the one of the two used for fills, see setJavaTessellator()
+    PGL.Tessellator fillTess;
     TessellatorCallback callback;
 
     boolean fill;
@@ -10938,6 +11390,7 @@ public class PGraphicsOpenGL extends PGraphics {
     int strokeJoin;
     int strokeCap;
     boolean accurate2DStrokes;
+    boolean parallelStrokes;
 
     PMatrix transform;
     float transformScale;
@@ -10984,6 +11437,14 @@ public class PGraphicsOpenGL extends PGraphics {
         callback = new TessellatorCallback(tess.polyAttribs);
         gluTess = pg.pgl.createTessellator(callback);
       }
+      if (pg.javaTessellator) {
+        if (javaTess == null) {
+          javaTess = pg.pgl.createFillTessellator(callback, gluTess);
+        }
+        fillTess = javaTess;
+      } else {
+        fillTess = gluTess;
+      }
     }
 
     void setInGeometry(InGeometry in) {
@@ -11034,6 +11495,10 @@ public class PGraphicsOpenGL extends PGraphics {
       this.accurate2DStrokes = accurate;
     }
 
+    void setParallelStrokes(boolean parallel) {
+      this.parallelStrokes = parallel;
+    }
+
     protected void setRenderer(PGraphicsOpenGL pg) {
       this.pg = pg;
     }
@@ -11404,11 +11869,7 @@ public class PGraphicsOpenGL extends PGraphics {
         firstLineIndexCache = index;
         if (firstPolyIndexCache == -1) firstPolyIndexCache = index; // If the geometry has no fill, needs the first poly index.
         boolean clamp = clampLines2D(lineCount);
-        for (int ln = 0; ln < lineCount; ln++) {
-          int i0 = 2 * ln + 0;
-          int i1 = 2 * ln + 1;
-          index = addLineSegment2D(i0, i1, index, false, clamp);
-        }
+        index = addLineSegments2D(lineCount, 0, 2, null, index, clamp);
         lastLineIndexCache = lastPolyIndexCache = index;
       } else { // full stroking algorithm
         LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
@@ -11498,13 +11959,8 @@ public class PGraphicsOpenGL extends PGraphics {
                                                 tess.polyIndexCache.getLast();
         firstLineIndexCache = index;
         if (firstPolyIndexCache == -1) firstPolyIndexCache = index; // If the geometry has no fill, needs the first poly index.
-        int i0 = 0;
         boolean clamp = clampLineStrip2D(lineCount);
-        for (int ln = 0; ln < lineCount; ln++) {
-          int i1 = ln + 1;
-          index = addLineSegment2D(i0, i1, index, false, clamp);
-          i0 = i1;
-        }
+        index = addLineSegments2D(lineCount, 0, 1, null, index, clamp);
         lastLineIndexCache = lastPolyIndexCache = index;
       } else {  // full stroking algorithm
         LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
@@ -11595,13 +12051,8 @@ public class PGraphicsOpenGL extends PGraphics {
                                                 tess.polyIndexCache.getLast();
         firstLineIndexCache = index;
         if (firstPolyIndexCache == -1) firstPolyIndexCache = index; // If the geometry has no fill, needs the first poly index.
-        int i0 = 0;
         boolean clamp = clampLineLoop2D(lineCount);
-        for (int ln = 0; ln < lineCount - 1; ln++) {
-          int i1 = ln + 1;
-          index = addLineSegment2D(i0, i1, index, false, clamp);
-          i0 = i1;
-        }
+        index = addLineSegments2D(lineCount - 1, 0, 1, null, index, clamp);
         index = addLineSegment2D(0, in.vertexCount - 1, index, false, clamp);
         lastLineIndexCache = lastPolyIndexCache = index;
       } else { // full stroking algorithm
@@ -11711,13 +12162,18 @@ public class PGraphicsOpenGL extends PGraphics {
         firstLineIndexCache = index;
         if (firstPolyIndexCache == -1) firstPolyIndexCache = index; // If the geometry has no fill, needs the first poly index.
         boolean clamp = clampEdges2D();
+        int[][] edges = in.edges;
+        int lineCount = 0;
         for (int i = 0; i <= in.edgeCount - 1; i++) {
           int[] edge = in.edges[i];
-          if (edge[2] == EDGE_CLOSE) continue; // ignoring edge closures when not doing caps or joins.
-          int i0 = edge[0];
-          int i1 = edge[1];
-          index = addLineSegment2D(i0, i1, index, false, clamp);
+          if (edge[2] == EDGE_CLOSE) { // ignoring edge closures when not doing caps or joins.
+            if (edges == in.edges) edges = Arrays.copyOf(in.edges, in.edgeCount);
+            continue;
+          }
+          if (edges != in.edges) edges[lineCount] = edge;
+          lineCount++;
         }
+        index = addLineSegments2D(lineCount, 0, 0, edges, index, clamp);
         lastLineIndexCache = lastPolyIndexCache = index;
       } else { // full stroking algorithm
         LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
@@ -11932,7 +12388,115 @@ public class PGraphicsOpenGL extends PGraphics {
       }
       int iidx = cache.indexOffset[index] + cache.indexCount[index];
       int vidx = cache.vertexOffset[index] + cache.vertexCount[index];
+      setLineSegment2D(i0, i1, vidx, iidx, count, constStroke, clamp);
+      cache.incCounts(index, 6, 4);
+      return index;
+    }
 
+    // Adding the line segments between the ends of each line, where line
+    // ln goes from vertex first + stride * ln to the next one, or from
+    // edge[0] to edge[1] of each one in edges when not null. Long runs of
+    // segments are split across the common ForkJoinPool if enabled.
+    // Every segment is an independent quad, so once the index blocks are
+    // laid out the same way as addLineSegment2D() does it one by one,
+    // the ranges can be filled in any order with identical results.
+    int addLineSegments2D(final int lineCount, final int first,
+                          final int stride, final int[][] edges,
+                          int index, final boolean clamp) {
+      int cpus = Runtime.getRuntime().availableProcessors();
+      if (!parallelStrokes || cpus == 1 ||
+          lineCount < PARALLEL_STROKE_THRESHOLD) {
+        for (int ln = 0; ln < lineCount; ln++) {
+          int i0, i1;
+          if (edges != null) {
+            i0 = edges[ln][0];
+            i1 = edges[ln][1];
+          } else {
+            i0 = first + stride * ln;
+            i1 = i0 + 1;
+          }
+          index = addLineSegment2D(i0, i1, index, false, clamp);
+        }
+        return index;
+      }
+
+      // Lay out the blocks: a new one starts whenever the next quad
+      // doesn't fit in the current one.
+      IndexCache cache = tess.polyIndexCache;
+      int blockCount = 0;
+      int[] blockLine = new int[4];
+      int[] blockCount0 = new int[4];
+      int[] blockVertex = new int[4];
+      int[] blockIndex = new int[4];
+      int line = 0;
+      while (line < lineCount) {
+        int count = cache.vertexCount[index];
+        if (PGL.MAX_VERTEX_INDEX1 <= count + 4) {
+          index = cache.addNew();
+          count = 0;
+        }
+        int fit = Math.min((PGL.MAX_VERTEX_INDEX1 - 1 - count) / 4,
+                           lineCount - line);
+        if (blockCount == blockLine.length) {
+          blockLine = PApplet.expand(blockLine);
+          blockCount0 = PApplet.expand(blockCount0);
+          blockVertex = PApplet.expand(blockVertex);
+          blockIndex = PApplet.expand(blockIndex);
+        }
+        blockLine[blockCount] = line;
+        blockCount0[blockCount] = count;
+        blockVertex[blockCount] = cache.vertexOffset[index] + count;
+        blockIndex[blockCount] = cache.indexOffset[index] +
+                                 cache.indexCount[index];
+        blockCount++;
+        cache.incCounts(index, 6 * fit, 4 * fit);
+        line += fit;
+      }
+
+      transformScale();  // cached before the tasks read it
+      final int blocks = blockCount;
+      final int[] lines = blockLine;
+      final int[] counts = blockCount0;
+      final int[] vertices = blockVertex;
+      final int[] indices = blockIndex;
+      int bands = Math.min(lineCount / 1024 + 1, cpus * 4);
+      List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(bands);
+      for (int i = 0; i < bands; i++) {
+        final int start = (int) ((long) lineCount * i / bands);
+        final int stop = (int) ((long) lineCount * (i + 1) / bands);
+        tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+          public void run() {
+            int b = 0;
+            while (b + 1 < blocks && lines[b + 1] <= start) b++;
+            for (int ln = start; ln < stop; ln++) {
+              while (b + 1 < blocks && lines[b + 1] <= ln) b++;
+              int j = ln - lines[b];
+              int i0, i1;
+              if (edges != null) {
+                i0 = edges[ln][0];
+                i1 = edges[ln][1];
+              } else {
+                i0 = first + stride * ln;
+                i1 = i0 + 1;
+              }
+              setLineSegment2D(i0, i1, vertices[b] + 4 * j,
+                               indices[b] + 6 * j, counts[b] + 4 * j,
+                               false, clamp);
+            }
+          }
+        }));
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.join();
+      }
+      return index;
+    }
+
+    // Writing the 4 vertices and 6 indices of the quad for the segment
+    // from i0 to i1, at the given positions of the poly arrays. count is
+    // the number of vertices before it in its index block.
+    void setLineSegment2D(int i0, int i1, int vidx, int iidx, int count,
+                          boolean constStroke, boolean clamp) {
       int color = constStroke ? strokeColor : strokeColors[i0];
       float weight = constStroke ? strokeWeight : strokeWeights[i0];
       if (subPixelStroke(weight)) clamp = false;
@@ -12016,9 +12580,6 @@ public class PGraphicsOpenGL extends PGraphics {
           unclampLine2D(vidx - 1, x1 + normdx + dirdx, y1 + normdy + dirdy);
         }
       }
-
-      cache.incCounts(index, 6, 4);
-      return index;
     }
 
     void unclampLine2D(int tessIdx, float x, float y) {
@@ -12558,15 +13119,15 @@ public class PGraphicsOpenGL extends PGraphics {
         callback.init(in.renderMode == RETAINED, false, calcNormals, clamp);
 
         if (fill) {
-          gluTess.beginPolygon();
+          fillTess.beginPolygon();
           if (solid) {
             // Using NONZERO winding rule for solid polygons.
-            gluTess.setWindingRule(PGL.TESS_WINDING_NONZERO);
+            fillTess.setWindingRule(PGL.TESS_WINDING_NONZERO);
           } else {
             // Using ODD winding rule to generate polygon with holes.
-            gluTess.setWindingRule(PGL.TESS_WINDING_ODD);
+            fillTess.setWindingRule(PGL.TESS_WINDING_ODD);
           }
-          gluTess.beginContour();
+          fillTess.beginContour();
         }
 
         if (stroke) {
@@ -12593,8 +13154,8 @@ public class PGraphicsOpenGL extends PGraphics {
               beginStrokePath();
             }
             if (fill) {
-              gluTess.endContour();
-              gluTess.beginContour();
+              fillTess.endContour();
+              fillTess.beginContour();
             }
           }
 
@@ -12617,8 +13178,8 @@ public class PGraphicsOpenGL extends PGraphics {
           endPolygonStroke();
         }
         if (fill) {
-          gluTess.endContour();
-          gluTess.endPolygon();
+          fillTess.endContour();
+          fillTess.endPolygon();
         }
       }
       endTex();
@@ -12678,7 +13239,7 @@ public class PGraphicsOpenGL extends PGraphics {
           vertex[0] = x1;
           vertex[1] = y1;
           vertex[2] = z1;
-          gluTess.addVertex(vertex);
+          fillTess.addVertex(vertex);
         }
         if (stroke) addStrokeVertex(x1, y1, z1, strokeColor, strokeWeight);
       }
@@ -12743,7 +13304,7 @@ public class PGraphicsOpenGL extends PGraphics {
           vertex[0] = x1;
           vertex[1] = y1;
           vertex[2] = z1;
-          gluTess.addVertex(vertex);
+          fillTess.addVertex(vertex);
         }
         if (stroke) addStrokeVertex(x1, y1, z1, strokeColor, strokeWeight);
       }
@@ -12781,7 +13342,7 @@ public class PGraphicsOpenGL extends PGraphics {
         vertex0[0] = x;
         vertex0[1] = y;
         vertex0[2] = z;
-        gluTess.addVertex(vertex0);
+        fillTess.addVertex(vertex0);
       }
       if (stroke) {
         addStrokeVertex(x, y, z, in.strokeColors[i], strokeWeight);
@@ -12828,7 +13389,7 @@ public class PGraphicsOpenGL extends PGraphics {
           vertex1[0] = x;
           vertex1[1] = y;
           vertex1[2] = z;
-          gluTess.addVertex(vertex1);
+          fillTess.addVertex(vertex1);
         }
         if (stroke) addStrokeVertex(x, y, z, strokeColor, strokeWeight);
       }
@@ -12846,7 +13407,7 @@ public class PGraphicsOpenGL extends PGraphics {
         vertex[0] = x;
         vertex[1] = y;
         vertex[2] = z;
-        gluTess.addVertex(vertex);
+        fillTess.addVertex(vertex);
       }
       if (stroke) {
         addStrokeVertex(x, y, z, in.strokeColors[i], in.strokeWeights[i]);
@@ -13076,6 +13637,10 @@ public class PGraphicsOpenGL extends PGraphics {
       int vertOffset;
       int primitive;
 
+      // indices of the triangles when they come from triangles()
+      int[] triIndices;
+      int triIndexCount;
+
       public TessellatorCallback(AttributeMap attribs) {
         this.attribs = attribs;
       }
@@ -13151,6 +13716,19 @@ public class PGraphicsOpenGL extends PGraphics {
           }
           break;
         case TRIANGLES:
+          if (triIndices != null) {
+            indCount = triIndexCount;
+            for (int i = 0; i < triIndexCount; i++) {
+              addIndex(triIndices[i]);
+            }
+            if (calcNormals) {
+              for (int i = 0; i < triIndexCount; i += 3) {
+                calcTriNormal(triIndices[i], triIndices[i + 1],
+                              triIndices[i + 2]);
+              }
+            }
+            break;
+          }
           indCount = vertCount;
           for (int i = 0; i < vertCount; i++) {
             addIndex(i);
@@ -13173,6 +13751,18 @@ public class PGraphicsOpenGL extends PGraphics {
         }
       }
 
+      public void triangles(Object[] vertices, int vertexCount,
+                            int[] indices, int indexCount) {
+        begin(PGL.TRIANGLES);
+        for (int i = 0; i < vertexCount; i++) {
+          vertex(vertices[i]);
+        }
+        triIndices = indices;
+        triIndexCount = indexCount;
+        end();
+        triIndices = null;
+      }
+
       protected void addIndex(int tessIdx) {
         tess.polyIndexCheck();
         tess.polyIndices[tess.polyIndexCount - 1] =
@@ -13314,6 +13904,11 @@ public class PGraphicsOpenGL extends PGraphics {
 
     float[] screenVertices = new float[0];
 
+    // radix sort keys, and the other half of its buffers
+    int[] sortKeys = new int[0];
+    int[] sortKeysTemp = new int[0];
+    int[] triangleIndicesTemp = new int[0];
+
     float[] triA = new float[9];
     float[] triB = new float[9];
 
@@ -13322,6 +13917,16 @@ public class PGraphicsOpenGL extends PGraphics {
 
     PGraphicsOpenGL pg;
 
+    // Fewest vertices to project on several threads
+    static final int PARALLEL_THRESHOLD = 16 * 1024;
+
+    // Triangles after the active one that DEPTH_SORT_APPROXIMATE checks
+    static final int APPROXIMATE_WINDOW = 32;
+
+    interface Range {
+      void run(int start, int stop);
+    }
+
     DepthSorter (PGraphicsOpenGL pg) {
       this.pg = pg;
     }
@@ -13341,6 +13946,15 @@ public class PGraphicsOpenGL extends PGraphics {
       }
     }
 
+    void checkSortBuffers(int newTriangleCount) {
+      if (sortKeys.length < newTriangleCount) {
+        int newSize = (newTriangleCount / 4 + 1) * 5;
+        sortKeys            = new int[newSize];
+        sortKeysTemp        = new int[newSize];
+        triangleIndicesTemp = new int[newSize];
+      }
+    }
+
     void checkVertexBuffer(int newVertexCount) {
       int coordCount = 3*newVertexCount;
       if (screenVertices.length < coordCount) {
@@ -13353,6 +13967,8 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void sort(TessGeometry tessGeo) {
 
+      int mode = pg.depthSortMode;
+      boolean exact = mode == DEPTH_SORT_EXACT;
       int triangleCount = tessGeo.polyIndexCount / 3;
       checkIndexBuffers(triangleCount);
       int[] triangleIndices = this.triangleIndices;
@@ -13390,55 +14006,48 @@ public class PGraphicsOpenGL extends PGraphics {
       { // Map vertices to screen
         int polyVertexCount = tessGeo.polyVertexCount;
         checkVertexBuffer(polyVertexCount);
-        float[] screenVertices = this.screenVertices;
-
-        float[] polyVertices = tessGeo.polyVertices;
-
-        PMatrix3D projection = pg.projection;
-
-        for (int i = 0; i < polyVertexCount; i++) {
-          float x = polyVertices[4*i+X];
-          float y = polyVertices[4*i+Y];
-          float z = polyVertices[4*i+Z];
-          float w = polyVertices[4*i+W];
-
-          float ox = projection.m00 * x + projection.m01 * y +
-              projection.m02 * z + projection.m03 * w;
-          float oy = projection.m10 * x + projection.m11 * y +
-              projection.m12 * z + projection.m13 * w;
-          float oz = projection.m20 * x + projection.m21 * y +
-              projection.m22 * z + projection.m23 * w;
-          float ow = projection.m30 * x + projection.m31 * y +
-              projection.m32 * z + projection.m33 * w;
-          if (nonZero(ow)) {
-            ox /= ow;
-            oy /= ow;
-            oz /= ow;
+        final float[] polyVertices = tessGeo.polyVertices;
+        final PMatrix3D projection = pg.projection;
+        split(polyVertexCount, !exact, new Range() {
+          public void run(int start, int stop) {
+            project(polyVertices, projection, start, stop);
           }
-          screenVertices[3*i+X] = ox;
-          screenVertices[3*i+Y] = oy;
-          screenVertices[3*i+Z] = -oz;
-        }
+        });
       }
-      float[] screenVertices = this.screenVertices;
+      final float[] screenVertices = this.screenVertices;
 
-      int[] vertexOffset = tessGeo.polyIndexCache.vertexOffset;
-      short[] polyIndices = tessGeo.polyIndices;
+      final int[] vertexOffset = tessGeo.polyIndexCache.vertexOffset;
+      final short[] polyIndices = tessGeo.polyIndices;
 
       float[] triA = this.triA;
       float[] triB = this.triB;
 
-      for (int i = 0; i < triangleCount; i++) {
-        fetchTriCoords(triA, i, vertexOffset, voffsetMap, screenVertices, polyIndices);
-        minXBuffer[i] = PApplet.min(triA[X0], triA[X1], triA[X2]);
-        maxXBuffer[i] = PApplet.max(triA[X0], triA[X1], triA[X2]);
-        minYBuffer[i] = PApplet.min(triA[Y0], triA[Y1], triA[Y2]);
-        maxYBuffer[i] = PApplet.max(triA[Y0], triA[Y1], triA[Y2]);
-        minZBuffer[i] = PApplet.min(triA[Z0], triA[Z1], triA[Z2]);
-        maxZBuffer[i] = PApplet.max(triA[Z0], triA[Z1], triA[Z2]);
+      // Triangle bounds, each range using its own coordinates array
+      split(triangleCount, !exact, new Range() {
+        public void run(int start, int stop) {
+          float[] tri = new float[9];
+          for (int i = start; i < stop; i++) {
+            fetchTriCoords(tri, i, vertexOffset, voffsetMap, screenVertices,
+                polyIndices);
+            minXBuffer[i] = PApplet.min(tri[X0], tri[X1], tri[X2]);
+            maxXBuffer[i] = PApplet.max(tri[X0], tri[X1], tri[X2]);
+            minYBuffer[i] = PApplet.min(tri[Y0], tri[Y1], tri[Y2]);
+            maxYBuffer[i] = PApplet.max(tri[Y0], tri[Y1], tri[Y2]);
+            minZBuffer[i] = PApplet.min(tri[Z0], tri[Z1], tri[Z2]);
+            maxZBuffer[i] = PApplet.max(tri[Z0], tri[Z1], tri[Z2]);
+          }
+        }
+      });
+
+      if (exact) {
+        sortByMinZ(0, triangleCount - 1, triangleIndices, minZBuffer);
+      } else {
+        radixSortByMinZ(triangleCount);
       }
 
-      sortByMinZ(0, triangleCount - 1, triangleIndices, minZBuffer);
+      // Triangles after the active one that get checked for overlaps
+      int window = mode == DEPTH_SORT_APPROXIMATE ?
+          APPROXIMATE_WINDOW : triangleCount;
 
       int activeTid = 0;
 
@@ -13462,7 +14071,8 @@ public class PGraphicsOpenGL extends PGraphics {
 
         fetchTriCoords(triA, ati, vertexOffset, voffsetMap, screenVertices, polyIndices);
 
-        while (!draw && testTid < triangleCount) {
+        while (!draw && testTid < triangleCount &&
+               testTid - activeTid <= window) {
           int tti = triangleIndices[testTid];
 
           // TEST 1 // Z overlap
@@ -13552,6 +14162,58 @@ public class PGraphicsOpenGL extends PGraphics {
 
     }
 
+    // Run range over 0..count, split across the common ForkJoinPool when
+    // there are enough of them and parallel is true
+    static void split(int count, boolean parallel, final Range range) {
+      int cpus = Runtime.getRuntime().availableProcessors();
+      if (!parallel || cpus == 1 || count < PARALLEL_THRESHOLD) {
+        range.run(0, count);
+        return;
+      }
+      int bands = Math.min(count / 1024 + 1, cpus * 4);
+      List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(bands);
+      for (int i = 0; i < bands; i++) {
+        final int start = (int) ((long) count * i / bands);
+        final int stop = (int) ((long) count * (i + 1) / bands);
+        tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+          public void run() {
+            range.run(start, stop);
+          }
+        }));
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.join();
+      }
+    }
+
+    void project(float[] polyVertices, PMatrix3D projection,
+                 int start, int stop) {
+      float[] screenVertices = this.screenVertices;
+      for (int i = start; i < stop; i++) {
+        float x = polyVertices[4*i+X];
+        float y = polyVertices[4*i+Y];
+        float z = polyVertices[4*i+Z];
+        float w = polyVertices[4*i+W];
+
+        float ox = projection.m00 * x + projection.m01 * y +
+            projection.m02 * z + projection.m03 * w;
+        float oy = projection.m10 * x + projection.m11 * y +
+            projection.m12 * z + projection.m13 * w;
+        float oz = projection.m20 * x + projection.m21 * y +
+            projection.m22 * z + projection.m23 * w;
+        float ow = projection.m30 * x + projection.m31 * y +
+            projection.m32 * z + projection.m33 * w;
+        if (nonZero(ow)) {
+          ox /= ow;
+          oy /= ow;
+          oz /= ow;
+        }
+        screenVertices[3*i+X] = ox;
+        screenVertices[3*i+Y] = oy;
+        screenVertices[3*i+Z] = -oz;
+      }
+    }
+
     static void fetchTriCoords(float[] tri, int ti, int[] vertexOffset,
         int[] voffsetMap, float[] screenVertices, short[] polyIndices) {
       int voffset = vertexOffset[voffsetMap[ti]];
@@ -13595,6 +14257,50 @@ public class PGraphicsOpenGL extends PGraphics {
           minZBuffer);
     }
 
+    // Stable LSD radix sort of triangleIndices by min z, 8 bits at a time.
+    // The floats are turned into ints that sort in the same order: the
+    // sign bit is flipped for positive values, and all bits for negative.
+    void radixSortByMinZ(int triangleCount) {
+      checkSortBuffers(triangleCount);
+      int[] keys = sortKeys;
+      int[] keysTemp = sortKeysTemp;
+      int[] indices = triangleIndices;
+      int[] indicesTemp = triangleIndicesTemp;
+
+      for (int i = 0; i < triangleCount; i++) {
+        int bits = Float.floatToIntBits(minZBuffer[indices[i]] + 0.0f);
+        keys[i] = bits ^ ((bits >> 31) | 0x80000000);
+      }
+
+      int[] counts = new int[256];
+      for (int shift = 0; shift < 32; shift += 8) {
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < triangleCount; i++) {
+          counts[(keys[i] >>> shift) & 0xFF]++;
+        }
+        if (counts[(keys[0] >>> shift) & 0xFF] == triangleCount) {
+          continue;  // all the same in this byte
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b++) {
+          int c = counts[b];
+          counts[b] = total;
+          total += c;
+        }
+        for (int i = 0; i < triangleCount; i++) {
+          int pos = counts[(keys[i] >>> shift) & 0xFF]++;
+          keysTemp[pos] = keys[i];
+          indicesTemp[pos] = indices[i];
+        }
+        int[] temp = keys; keys = keysTemp; keysTemp = temp;
+        temp = indices; indices = indicesTemp; indicesTemp = temp;
+      }
+
+      if (indices != triangleIndices) {
+        System.arraycopy(indices, 0, triangleIndices, 0, triangleCount);
+      }
+    }
+
     // Math -----------------------------------------------
 
     static int side(float[] tri1, float[] tri2, float tz) {
@@ -98,6 +98,9 @@ public class PShapeOpenGL extends PShape {
   protected boolean strokedTexture;
   protected boolean untexChild;
 
+  // Packed matrices for drawInstances(PMatrix3D[], int[])
+  protected float[] instanceMatrices;
+
   // ........................................................
 
   // OpenGL buffers
@@ -1657,11 +1660,10 @@ public class PShapeOpenGL extends PShape {
       return;
     }
 
-    // TODO: in certain cases (kind = TRIANGLE, etc) the correspondence between
-    // input and tessellated vertices is 1-1, so in those cases re-tessellation
-    // wouldn't be necessary. But in order to reasonable take care of that
-    // situation, we would need a complete rethinking of the rendering architecture
-    // in Processing :-)
+    // In certain cases (kind = TRIANGLES, etc) the correspondence between
+    // input and tessellated vertices is 1-1, so the tessellated vertex is
+    // updated in place, see tessPolyIndex(). Otherwise the whole shape
+    // needs to be tessellated again.
     if (family == PATH) {
       if (vertexCodes != null && vertexCodeCount > 0 &&
           vertexCodes[index] != VERTEX) {
@@ -1678,6 +1680,7 @@ public class PShapeOpenGL extends PShape {
       inGeo.vertices[3 * index + 0] = x;
       inGeo.vertices[3 * index + 1] = y;
       inGeo.vertices[3 * index + 2] = z;
+      if (updateTessPolyFace(index)) return;
     }
     markForTessellation();
   }
@@ -1705,6 +1708,7 @@ public class PShapeOpenGL extends PShape {
       inGeo.vertices[3 * index + 0] = vec.x;
       inGeo.vertices[3 * index + 1] = vec.y;
       inGeo.vertices[3 * index + 2] = vec.z;
+      if (updateTessPolyFace(index)) return;
     }
     markForTessellation();
   }
@@ -1750,6 +1754,9 @@ public class PShapeOpenGL extends PShape {
     inGeo.normals[3 * index + 0] = nx;
     inGeo.normals[3 * index + 1] = ny;
     inGeo.normals[3 * index + 2] = nz;
+    // Automatic normals are calculated again when tessellating
+    if (normalMode != NORMAL_MODE_AUTO &&
+        updateTessPolyVertices(index, index)) return;
     markForTessellation();
   }
 
@@ -1831,6 +1838,13 @@ public class PShapeOpenGL extends PShape {
     inGeo.texcoords[2 * index + 0] = u;
     inGeo.texcoords[2 * index + 1] = v;
 
+    int tessIdx = tessPolyIndex(index);
+    if (-1 < tessIdx) {
+      tessGeo.polyTexCoords[2 * tessIdx + 0] = u;
+      tessGeo.polyTexCoords[2 * tessIdx + 1] = v;
+      root.setModifiedPolyTexCoords(tessIdx, tessIdx);
+      return;
+    }
     markForTessellation();
   }
 
@@ -1925,7 +1939,7 @@ public class PShapeOpenGL extends PShape {
 
     if (image == null) {
       inGeo.colors[index] = PGL.javaToNativeARGB(fill);
-      markForTessellation();
+      updateTessPolyColor(index);
     }
   }
 
@@ -2011,7 +2025,7 @@ public class PShapeOpenGL extends PShape {
 
     if (image != null) {
       inGeo.colors[index] = PGL.javaToNativeARGB(tint);
-      markForTessellation();
+      updateTessPolyColor(index);
     }
   }
 
@@ -2316,7 +2330,13 @@ public class PShapeOpenGL extends PShape {
     }
 
     inGeo.ambient[index] = PGL.javaToNativeARGB(ambient);
-    markForTessellation();
+    int tessIdx = tessPolyIndex(index);
+    if (-1 < tessIdx) {
+      tessGeo.polyAmbient[tessIdx] = inGeo.ambient[index];
+      root.setModifiedPolyAmbient(tessIdx, tessIdx);
+    } else {
+      markForTessellation();
+    }
     setAmbient = true;
   }
 
@@ -2380,7 +2400,13 @@ public class PShapeOpenGL extends PShape {
     }
 
     inGeo.specular[index] = PGL.javaToNativeARGB(specular);
-    markForTessellation();
+    int tessIdx = tessPolyIndex(index);
+    if (-1 < tessIdx) {
+      tessGeo.polySpecular[tessIdx] = inGeo.specular[index];
+      root.setModifiedPolySpecular(tessIdx, tessIdx);
+    } else {
+      markForTessellation();
+    }
   }
 
 
@@ -2443,7 +2469,13 @@ public class PShapeOpenGL extends PShape {
     }
 
     inGeo.emissive[index] = PGL.javaToNativeARGB(emissive);
-    markForTessellation();
+    int tessIdx = tessPolyIndex(index);
+    if (-1 < tessIdx) {
+      tessGeo.polyEmissive[tessIdx] = inGeo.emissive[index];
+      root.setModifiedPolyEmissive(tessIdx, tessIdx);
+    } else {
+      markForTessellation();
+    }
   }
 
 
@@ -2504,7 +2536,13 @@ public class PShapeOpenGL extends PShape {
     }
 
     inGeo.shininess[index] = shine;
-    markForTessellation();
+    int tessIdx = tessPolyIndex(index);
+    if (-1 < tessIdx) {
+      tessGeo.polyShininess[tessIdx] = inGeo.shininess[index];
+      root.setModifiedPolyShininess(tessIdx, tessIdx);
+    } else {
+      markForTessellation();
+    }
   }
 
   ///////////////////////////////////////////////////////////
@@ -2776,6 +2814,150 @@ public class PShapeOpenGL extends PShape {
   }
 
 
+  // Returns the position of the input vertex in the tessellated geometry,
+  // or -1 when the vertex can't be updated in place. This only happens for
+  // the triangle and quad kinds without strokes, that fit in a single index
+  // block, since their input vertices are copied one to one into the
+  // tessellation.
+  protected int tessPolyIndex(int index) {
+    if (family != GEOMETRY || !shapeCreated || !tessellated ||
+        !root.tessellated || !hasPolys || hasLines || hasPoints || stroke) {
+      return -1;
+    }
+    if (kind != TRIANGLE && kind != TRIANGLES &&
+        kind != TRIANGLE_FAN && kind != TRIANGLE_STRIP &&
+        kind != QUAD && kind != QUADS && kind != QUAD_STRIP) {
+      return -1;
+    }
+    if (firstPolyIndexCache != lastPolyIndexCache ||
+        lastPolyVertex - firstPolyVertex + 1 != inGeo.vertexCount) {
+      return -1;
+    }
+    return firstPolyVertex + index;
+  }
+
+
+  // Copies the input vertices from first to last into the tessellated
+  // geometry, transformed by the matrices of the shape and its parents
+  // as aggregate() and applyMatrix() do, and marks them for upload.
+  // Returns false if they need to be tessellated again instead.
+  protected boolean updateTessPolyVertices(int first, int last) {
+    int tessFirst = tessPolyIndex(first);
+    if (tessFirst == -1) return false;
+
+    PMatrix mat = null;
+    for (PShapeOpenGL shape = this; shape != null;
+         shape = (PShapeOpenGL) shape.parent) {
+      if (shape.matrix != null) {
+        if (mat == null) {
+          mat = shape.matrix.get();
+        } else {
+          mat.preApply(shape.matrix);
+        }
+      }
+    }
+
+    float[] vertices = tessGeo.polyVertices;
+    float[] normals = tessGeo.polyNormals;
+    for (int i = first; i <= last; i++) {
+      int index = 3 * i;
+      float x = inGeo.vertices[index++];
+      float y = inGeo.vertices[index++];
+      float z = inGeo.vertices[index  ];
+
+      index = 3 * i;
+      float nx = inGeo.normals[index++];
+      float ny = inGeo.normals[index++];
+      float nz = inGeo.normals[index  ];
+
+      if (mat instanceof PMatrix3D) {
+        PMatrix3D tr = (PMatrix3D) mat;
+        float x1 = x*tr.m00 + y*tr.m01 + z*tr.m02 + tr.m03;
+        float y1 = x*tr.m10 + y*tr.m11 + z*tr.m12 + tr.m13;
+        float z1 = x*tr.m20 + y*tr.m21 + z*tr.m22 + tr.m23;
+        float w1 = x*tr.m30 + y*tr.m31 + z*tr.m32 + tr.m33;
+        float nx1 = nx*tr.m00 + ny*tr.m01 + nz*tr.m02;
+        float ny1 = nx*tr.m10 + ny*tr.m11 + nz*tr.m12;
+        float nz1 = nx*tr.m20 + ny*tr.m21 + nz*tr.m22;
+        x = x1; y = y1; z = z1;
+        nx = nx1; ny = ny1; nz = nz1;
+        index = 4 * (tessFirst + i - first);
+        vertices[index + 3] = w1;
+      } else {
+        if (mat instanceof PMatrix2D) {
+          PMatrix2D tr = (PMatrix2D) mat;
+          float x1 = x*tr.m00 + y*tr.m01 + tr.m02;
+          float y1 = x*tr.m10 + y*tr.m11 + tr.m12;
+          float nx1 = nx*tr.m00 + ny*tr.m01;
+          float ny1 = nx*tr.m10 + ny*tr.m11;
+          x = x1; y = y1;
+          nx = nx1; ny = ny1;
+        }
+        index = 4 * (tessFirst + i - first);
+        vertices[index + 3] = 1;
+      }
+
+      index = 4 * (tessFirst + i - first);
+      vertices[index++] = x;
+      vertices[index++] = y;
+      vertices[index  ] = z;
+
+      index = 3 * (tessFirst + i - first);
+      normals[index++] = nx;
+      normals[index++] = ny;
+      normals[index  ] = nz;
+    }
+
+    int tessLast = tessFirst + last - first;
+    root.setModifiedPolyVertices(tessFirst, tessLast);
+    root.setModifiedPolyNormals(tessFirst, tessLast);
+    return true;
+  }
+
+
+  // Copies the color of the input vertex into the tessellated geometry.
+  protected void updateTessPolyColor(int index) {
+    int tessIdx = tessPolyIndex(index);
+    if (-1 < tessIdx) {
+      tessGeo.polyColors[tessIdx] = inGeo.colors[index];
+      root.setModifiedPolyColors(tessIdx, tessIdx);
+    } else {
+      markForTessellation();
+    }
+  }
+
+
+  // Recalculates the automatic normals of the faces that share the input
+  // vertex, and updates the tessellated geometry of the whole faces.
+  // Only triangles and quads have faces that don't share vertices, so the
+  // other kinds need to be tessellated again.
+  protected boolean updateTessPolyFace(int index) {
+    if (normalMode != NORMAL_MODE_AUTO) {
+      return updateTessPolyVertices(index, index);
+    }
+    int first, last;
+    if (kind == TRIANGLE || kind == TRIANGLES) {
+      first = 3 * (index / 3);
+      last = first + 2;
+      if (inGeo.vertexCount <= last || tessPolyIndex(index) == -1) {
+        return false;
+      }
+      inGeo.calcTriangleNormal(first, first + 1, first + 2);
+    } else if (kind == QUAD || kind == QUADS) {
+      first = 4 * (index / 4);
+      last = first + 3;
+      if (inGeo.vertexCount <= last || tessPolyIndex(index) == -1) {
+        return false;
+      }
+      inGeo.calcTriangleNormal(first, first + 1, first + 2);
+      inGeo.calcTriangleNormal(first + 2, first + 3, first);
+    } else {
+      return false;
+    }
+    return updateTessPolyVertices(first, last);
+  }
+
+
   protected void initModified() {
     modified = false;
 
@@ -4706,6 +4888,121 @@ public class PShapeOpenGL extends PShape {
   }
 
 
+  /**
+   * Draw a copy of the shape for each transformation in matrices, in the
+   * order of PMatrix3D.get(), 16 values per copy. When colors isn't null,
+   * each copy is also tinted by its color. All the copies are drawn
+   * together in as few calls as possible, instead of one for each.
+   */
+  public void drawInstances(float[] matrices, int[] colors) {
+    drawInstances(pg, matrices, colors, matrices.length / 16);
+  }
+
+
+  public void drawInstances(PMatrix3D[] matrices, int[] colors) {
+    if (instanceMatrices == null ||
+        instanceMatrices.length < 16 * matrices.length) {
+      instanceMatrices = new float[16 * matrices.length];
+    }
+    for (int i = 0; i < matrices.length; i++) {
+      PMatrix3D m = matrices[i];
+      int k = 16 * i;
+      instanceMatrices[k +  0] = m.m00; instanceMatrices[k +  1] = m.m01;
+      instanceMatrices[k +  2] = m.m02; instanceMatrices[k +  3] = m.m03;
+      instanceMatrices[k +  4] = m.m10; instanceMatrices[k +  5] = m.m11;
+      instanceMatrices[k +  6] = m.m12; instanceMatrices[k +  7] = m.m13;
+      instanceMatrices[k +  8] = m.m20; instanceMatrices[k +  9] = m.m21;
+      instanceMatrices[k + 10] = m.m22; instanceMatrices[k + 11] = m.m23;
+      instanceMatrices[k + 12] = m.m30; instanceMatrices[k + 13] = m.m31;
+      instanceMatrices[k + 14] = m.m32; instanceMatrices[k + 15] = m.m33;
+    }
+    drawInstances(pg, instanceMatrices, colors, matrices.length);
+  }
+
+
+  public void drawInstances(PGraphics g, float[] matrices, int[] colors,
+                            int count) {
+    if (g instanceof PGraphicsOpenGL) {
+      ((PGraphicsOpenGL) g).shapeInstances(this, matrices, colors, count);
+    } else {
+      for (int i = 0; i < count; i++) {
+        int m = 16 * i;
+        g.pushMatrix();
+        if (g.is2D()) {
+          g.applyMatrix(matrices[m +  0], matrices[m +  1], matrices[m +  3],
+                        matrices[m +  4], matrices[m +  5], matrices[m +  7]);
+        } else {
+          g.applyMatrix(matrices[m +  0], matrices[m +  1], matrices[m +  2], matrices[m +  3],
+                        matrices[m +  4], matrices[m +  5], matrices[m +  6], matrices[m +  7],
+                        matrices[m +  8], matrices[m +  9], matrices[m + 10], matrices[m + 11],
+                        matrices[m + 12], matrices[m + 13], matrices[m + 14], matrices[m + 15]);
+        }
+        draw(g);
+        g.popMatrix();
+      }
+    }
+  }
+
+
+  // Copy the tessellated geometry of this shape into the immediate buffers
+  // of g, or that of its children when they can't be drawn together,
+  // transformed by mm (and the normals by nm) and tinted by tint.
+  protected void addInstance(PGraphicsOpenGL g, PMatrix3D mm,
+                             PMatrix3D nm, int tint) {
+    if (family == GROUP && fragmentedGroup(g)) {
+      for (int i = 0; i < childCount; i++) {
+        PShapeOpenGL child = (PShapeOpenGL) children[i];
+        if (child.visible) {
+          child.pre(g);
+          child.addInstance(g, mm, nm, tint);
+        }
+      }
+      return;
+    }
+
+    PImage tex = image;
+    if (family == GROUP) {
+      tex = null;
+      if (textures != null && textures.size() == 1) {
+        tex = (PImage)textures.toArray()[0];
+      }
+    }
+
+    if (hasPolys) {
+      IndexCache cache = tessGeo.polyIndexCache;
+      for (int n = firstPolyIndexCache; n <= lastPolyIndexCache; n++) {
+        // same choice of texture for each block as renderPolys()
+        boolean textured = tex != null &&
+          (is3D() || ((firstLineIndexCache == -1 || n < firstLineIndexCache) &&
+                      (firstPointIndexCache == -1 || n < firstPointIndexCache)));
+        g.tessellator.setTexCache(g.texCache, textured ? tex : null);
+        g.addInstancePolys(tessGeo, cache.vertexOffset[n], cache.vertexCount[n],
+                           cache.indexOffset[n], cache.indexCount[n],
+                           mm, nm, tint);
+      }
+    }
+
+    if (is3D()) {
+      if (hasLines) {
+        IndexCache cache = tessGeo.lineIndexCache;
+        for (int n = firstLineIndexCache; n <= lastLineIndexCache; n++) {
+          g.addInstanceLines(tessGeo, cache.vertexOffset[n], cache.vertexCount[n],
+                             cache.indexOffset[n], cache.indexCount[n],
+                             mm, tint);
+        }
+      }
+      if (hasPoints) {
+        IndexCache cache = tessGeo.pointIndexCache;
+        for (int n = firstPointIndexCache; n <= lastPointIndexCache; n++) {
+          g.addInstancePoints(tessGeo, cache.vertexOffset[n], cache.vertexCount[n],
+                              cache.indexOffset[n], cache.indexCount[n],
+                              mm, tint);
+        }
+      }
+    }
+  }
+
+
   private void inGeoToVertices() {
     vertexCount = 0;
     vertexCodeCount = 0;
@@ -69,6 +69,7 @@ import com.jogamp.opengl.util.FPSAnimator;
 import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PGraphics;
+import processing.core.PHistogram;
 import processing.core.PImage;
 import processing.core.PSurface;
 import processing.event.KeyEvent;
@@ -85,6 +86,10 @@ public class PSurfaceJOGL implements PSurface {
   protected FPSAnimator animator;
   protected Rectangle screenRect;
 
+  // time between frames, see getFrameTimes()
+  protected PHistogram frameTimes = new PHistogram();
+  protected long lastFrameStart;
+
   private Thread drawExceptionHandler;
 
   protected PApplet sketch;
@@ -813,6 +818,11 @@ public class PSurfaceJOGL implements PSurface {
   }
 
 
+  public PHistogram getFrameTimes() {
+    return frameTimes;
+  }
+
+
   public void setFrameRate(float fps) {
     if (fps < 1) {
       PGraphics.showWarning(
@@ -852,6 +862,12 @@ public class PSurfaceJOGL implements PSurface {
         return;
       }
 
+      long now = System.nanoTime();
+      if (lastFrameStart != 0) {
+        frameTimes.add(now - lastFrameStart);
+      }
+      lastFrameStart = now;
+
       if (sketch.frameCount == 0) {
         if (sketchWidth < sketchWidth0 || sketchHeight < sketchHeight0) {
           PGraphics.showWarning("The sketch has been automatically resized to fit the screen resolution");
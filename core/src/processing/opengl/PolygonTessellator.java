@@ -0,0 +1,1008 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.util.Arrays;
+
+
+/**
+ * Polygon tessellator written in Java, used for the fill of shapes instead
+ * of the GLU tessellator. Takes the same calls as GLU (contours of vertices
+ * with a data object each) and sends the triangles to the callback.
+ * <p/>
+ * Polygons whose contours don't cross or touch each other, which is most
+ * of them, are triangulated with ear clipping after the holes are joined
+ * to their outer contour, using only the original vertices. This follows
+ * the earcut library by Mapbox (ISC license). Polygons that intersect
+ * themselves, or that ear clipping can't finish, are handed to the
+ * fallback tessellator, usually the GLU one, which does the same callbacks.
+ * <p/>
+ * Arrays are kept between polygons, so tessellating doesn't allocate.
+ */
+public class PolygonTessellator implements PGL.Tessellator {
+  protected PGL.TessellatorCallback callback;
+  protected PGL.Tessellator fallback;
+  protected int windingRule;
+
+  // input, xyz and data of each vertex, and where each contour starts
+  protected int vertexCount;
+  protected double[] coords = new double[3 * 64];
+  protected Object[] data = new Object[64];
+  protected int contourCount;
+  protected int[] contourStart = new int[8];
+  protected boolean inContour;
+
+  // vertices projected onto the plane of the polygon
+  protected double[] pu = new double[64];
+  protected double[] pv = new double[64];
+
+  // contours without repeated vertices, as ranges of ring
+  protected int ringCount;
+  protected int[] ring = new int[64];
+  protected int[] ringStart = new int[8];
+  protected int[] ringEnd = new int[8];
+  protected double[] ringArea = new double[8];
+  protected int[] ringParent = new int[8];
+
+  // edges, from vertex edgeA to vertex edgeB
+  protected int edgeCount;
+  protected int[] edgeA = new int[64];
+  protected int[] edgeB = new int[64];
+  protected double[] edgeMin = new double[64];
+  protected double[] edgeMax = new double[64];
+  protected int[] sorted = new int[64];
+  protected int[] active = new int[64];
+
+  // linked list of vertices for ear clipping
+  protected int nodeCount;
+  protected int[] nodeVertex = new int[64];
+  protected int[] nodePrev = new int[64];
+  protected int[] nodeNext = new int[64];
+
+  // nodes in z-order, to find the ones inside an ear without checking
+  // them all, which is only done for large polygons
+  protected boolean hashed;
+  protected double hashX, hashY, hashScale;
+  protected int[] nodeZ = new int[64];
+  protected int[] nodePrevZ = new int[64];
+  protected int[] nodeNextZ = new int[64];
+
+  // output, indices into outData
+  protected int outCount;
+  protected Object[] outData = new Object[64];
+  protected int[] vertexOut = new int[64];
+  protected int indexCount;
+  protected int[] indices = new int[192];
+
+  // reused to pass the coordinates to the fallback, which copies them
+  protected double[] fallbackCoords = new double[3];
+
+
+  /**
+   * @param fallback tessellator for the polygons that intersect themselves,
+   * with the same callback
+   */
+  public PolygonTessellator(PGL.TessellatorCallback callback,
+                            PGL.Tessellator fallback) {
+    this.callback = callback;
+    this.fallback = fallback;
+    windingRule = PGL.TESS_WINDING_ODD;
+  }
+
+
+  @Override
+  public void setCallback(int flag) {
+    // all of the callbacks are always used
+  }
+
+
+  @Override
+  public void setWindingRule(int rule) {
+    windingRule = rule;
+  }
+
+
+  @Override
+  public void setProperty(int property, int value) {
+    // the winding rule is the only property, see setWindingRule()
+  }
+
+
+  @Override
+  public void beginPolygon() {
+    beginPolygon(null);
+  }
+
+
+  @Override
+  public void beginPolygon(Object polygonData) {
+    vertexCount = 0;
+    contourCount = 0;
+    inContour = false;
+  }
+
+
+  @Override
+  public void beginContour() {
+    if (contourCount + 1 >= contourStart.length) {
+      contourStart = Arrays.copyOf(contourStart, contourStart.length << 1);
+    }
+    contourStart[contourCount++] = vertexCount;
+    inContour = true;
+  }
+
+
+  @Override
+  public void endContour() {
+    inContour = false;
+  }
+
+
+  @Override
+  public void addVertex(double[] v) {
+    addVertex(v, 0, v);
+  }
+
+
+  @Override
+  public void addVertex(double[] v, int n, Object vertexData) {
+    if (!inContour) beginContour();
+    if (vertexCount == data.length) {
+      int size = vertexCount << 1;
+      coords = Arrays.copyOf(coords, 3 * size);
+      data = Arrays.copyOf(data, size);
+    }
+    coords[3 * vertexCount + 0] = v[n + 0];
+    coords[3 * vertexCount + 1] = v[n + 1];
+    coords[3 * vertexCount + 2] = v[n + 2];
+    data[vertexCount] = vertexData;
+    vertexCount++;
+  }
+
+
+  @Override
+  public void endPolygon() {
+    contourStart[contourCount] = vertexCount;
+    if (project()) {
+      outCount = 0;
+      indexCount = 0;
+      if (vertexOut.length < vertexCount) {
+        vertexOut = new int[data.length];
+      }
+      Arrays.fill(vertexOut, 0, vertexCount, -1);
+
+      buildRings();
+      buildEdges();
+      if (!intersects() && clipEars()) {
+        emit();
+      } else {
+        Arrays.fill(outData, 0, outCount, null);
+        tessellateFallback();
+      }
+    }
+    Arrays.fill(data, 0, vertexCount, null);
+  }
+
+
+  // Send the whole polygon, as it was given, to the fallback tessellator
+  protected void tessellateFallback() {
+    fallback.setWindingRule(windingRule);
+    fallback.beginPolygon();
+    for (int c = 0; c < contourCount; c++) {
+      fallback.beginContour();
+      for (int i = contourStart[c]; i < contourStart[c + 1]; i++) {
+        fallbackCoords[0] = coords[3 * i + 0];
+        fallbackCoords[1] = coords[3 * i + 1];
+        fallbackCoords[2] = coords[3 * i + 2];
+        fallback.addVertex(fallbackCoords, 0, data[i]);
+      }
+      fallback.endContour();
+    }
+    fallback.endPolygon();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SETUP
+
+
+  // Find the plane of the polygon, and project the vertices onto it so that
+  // the polygon is counter-clockwise when looking down the normal.
+  protected boolean project() {
+    double nx = 0, ny = 0, nz = 0;
+    for (int c = 0; c < contourCount; c++) {
+      int start = contourStart[c];
+      int stop = contourStart[c + 1];
+      for (int i = start, j = stop - 1; i < stop; j = i++) {
+        double xi = coords[3*i], yi = coords[3*i+1], zi = coords[3*i+2];
+        double xj = coords[3*j], yj = coords[3*j+1], zj = coords[3*j+2];
+        nx += (yj - yi) * (zj + zi);
+        ny += (zj - zi) * (xj + xi);
+        nz += (xj - xi) * (yj + yi);
+      }
+    }
+    if (nx == 0 && ny == 0 && nz == 0) {
+      // parts going in opposite directions cancel out, like in a bowtie,
+      // so use the largest triangle made with the first vertex instead
+      double largest = 0;
+      double x0 = coords[0], y0 = coords[1], z0 = coords[2];
+      for (int i = 1; i + 1 < vertexCount; i++) {
+        double x1 = coords[3*i] - x0;
+        double y1 = coords[3*i+1] - y0;
+        double z1 = coords[3*i+2] - z0;
+        double x2 = coords[3*i+3] - x0;
+        double y2 = coords[3*i+4] - y0;
+        double z2 = coords[3*i+5] - z0;
+        double cx = y1 * z2 - z1 * y2;
+        double cy = z1 * x2 - x1 * z2;
+        double cz = x1 * y2 - y1 * x2;
+        double size = cx * cx + cy * cy + cz * cz;
+        if (size > largest) {
+          largest = size;
+          nx = cx; ny = cy; nz = cz;
+        }
+      }
+      if (largest == 0) {
+        return false;  // nothing but lines
+      }
+    }
+    double ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+
+    if (pu.length < vertexCount) {
+      pu = new double[data.length];
+      pv = new double[data.length];
+    }
+    // u, v, and the normal are right-handed
+    int iu, iv;
+    double sign;
+    if (az >= ax && az >= ay) {
+      iu = 0; iv = 1; sign = nz;
+    } else if (ax >= ay) {
+      iu = 1; iv = 2; sign = nx;
+    } else {
+      iu = 2; iv = 0; sign = ny;
+    }
+    double flip = (sign > 0) ? 1 : -1;
+    for (int i = 0; i < vertexCount; i++) {
+      pu[i] = coords[3*i + iu];
+      pv[i] = coords[3*i + iv] * flip;
+    }
+    return true;
+  }
+
+
+  // Contours without repeated vertices, their area, and which ones
+  // they're inside of
+  protected void buildRings() {
+    if (ring.length < vertexCount) {
+      ring = new int[data.length];
+    }
+    if (ringStart.length < contourCount) {
+      int size = contourStart.length;
+      ringStart = new int[size];
+      ringEnd = new int[size];
+      ringArea = new double[size];
+      ringParent = new int[size];
+    }
+
+    ringCount = 0;
+    int count = 0;
+    for (int c = 0; c < contourCount; c++) {
+      int start = count;
+      for (int i = contourStart[c]; i < contourStart[c + 1]; i++) {
+        if (count > start && same(ring[count - 1], i)) continue;
+        ring[count++] = i;
+      }
+      while (count - start > 1 && same(ring[count - 1], ring[start])) {
+        count--;
+      }
+      if (count - start < 3) {
+        count = start;  // a line or a point
+        continue;
+      }
+      ringStart[ringCount] = start;
+      ringEnd[ringCount] = count;
+      double area = 0;
+      for (int i = start, j = count - 1; i < count; j = i++) {
+        area += (pu[ring[j]] - pu[ring[i]]) * (pv[ring[i]] + pv[ring[j]]);
+      }
+      ringArea[ringCount] = area / 2;
+      ringCount++;
+    }
+  }
+
+
+  protected void buildEdges() {
+    edgeCount = 0;
+    for (int r = 0; r < ringCount; r++) {
+      int start = ringStart[r];
+      int stop = ringEnd[r];
+      for (int i = start; i < stop; i++) {
+        int j = (i + 1 == stop) ? start : i + 1;
+        addEdge(ring[i], ring[j]);
+      }
+    }
+  }
+
+
+  protected void addEdge(int a, int b) {
+    if (edgeCount == edgeA.length) {
+      int size = edgeCount << 1;
+      edgeA = Arrays.copyOf(edgeA, size);
+      edgeB = Arrays.copyOf(edgeB, size);
+      edgeMin = new double[size];
+      edgeMax = new double[size];
+      sorted = new int[size];
+      active = new int[size];
+    }
+    edgeA[edgeCount] = a;
+    edgeB[edgeCount] = b;
+    edgeCount++;
+  }
+
+
+  protected boolean same(int a, int b) {
+    return pu[a] == pu[b] && pv[a] == pv[b];
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // INTERSECTIONS
+
+
+  static protected double cross(double ax, double ay, double bx, double by,
+                                double cx, double cy) {
+    return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+  }
+
+
+  /**
+   * Look for edges that cross or touch, other than neighbors at their
+   * shared vertex.
+   */
+  protected boolean intersects() {
+    // sweep from left to right, only comparing edges that overlap in u
+    for (int i = 0; i < edgeCount; i++) {
+      sorted[i] = i;
+      edgeMin[i] = Math.min(pu[edgeA[i]], pu[edgeB[i]]);
+      edgeMax[i] = Math.max(pu[edgeA[i]], pu[edgeB[i]]);
+    }
+    sortEdges(0, edgeCount - 1);
+
+    int activeCount = 0;
+    for (int s = 0; s < edgeCount; s++) {
+      int e = sorted[s];
+      double minU = edgeMin[e];
+      int kept = 0;
+      for (int k = 0; k < activeCount; k++) {
+        int f = active[k];
+        if (edgeMax[f] < minU) continue;
+        active[kept++] = f;
+        if (intersect(e, f)) return true;
+      }
+      activeCount = kept;
+      active[activeCount++] = e;
+    }
+    return false;
+  }
+
+
+  // quicksort of edges by their smallest u
+  protected void sortEdges(int lo, int hi) {
+    while (lo < hi) {
+      double pivot = edgeMin[sorted[(lo + hi) >>> 1]];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (edgeMin[sorted[i]] < pivot) i++;
+        while (edgeMin[sorted[j]] > pivot) j--;
+        if (i <= j) {
+          int temp = sorted[i]; sorted[i] = sorted[j]; sorted[j] = temp;
+          i++; j--;
+        }
+      }
+      if (j - lo < hi - i) {
+        sortEdges(lo, j);
+        lo = i;
+      } else {
+        sortEdges(i, hi);
+        hi = j;
+      }
+    }
+  }
+
+
+  protected boolean intersect(int e, int f) {
+    int a = edgeA[e], b = edgeB[e];
+    int c = edgeA[f], d = edgeB[f];
+    double ax = pu[a], ay = pv[a], bx = pu[b], by = pv[b];
+    double cx = pu[c], cy = pv[c], dx = pu[d], dy = pv[d];
+
+    if (b == c || a == d) {
+      // neighbors only intersect if the path turns back on itself
+      int shared = (b == c) ? b : a;
+      int p = (b == c) ? a : b;
+      int q = (b == c) ? d : c;
+      double sx = pu[shared], sy = pv[shared];
+      return cross(sx, sy, pu[p], pv[p], pu[q], pv[q]) == 0 &&
+        (pu[p] - sx) * (pu[q] - sx) + (pv[p] - sy) * (pv[q] - sy) > 0;
+    }
+
+    double o1 = cross(ax, ay, bx, by, cx, cy);
+    double o2 = cross(ax, ay, bx, by, dx, dy);
+    double o3 = cross(cx, cy, dx, dy, ax, ay);
+    double o4 = cross(cx, cy, dx, dy, bx, by);
+
+    if (((o1 > 0 && o2 < 0) || (o1 < 0 && o2 > 0)) &&
+        ((o3 > 0 && o4 < 0) || (o3 < 0 && o4 > 0))) {
+      return true;
+    }
+    // touching, where one of the ends lies on the other edge
+    return (o1 == 0 && between(ax, ay, bx, by, cx, cy)) ||
+      (o2 == 0 && between(ax, ay, bx, by, dx, dy)) ||
+      (o3 == 0 && between(cx, cy, dx, dy, ax, ay)) ||
+      (o4 == 0 && between(cx, cy, dx, dy, bx, by));
+  }
+
+
+  // is p, which is on the line through a and b, between them
+  static private boolean between(double ax, double ay, double bx, double by,
+                                 double px, double py) {
+    return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) &&
+      Math.min(ay, by) <= py && py <= Math.max(ay, by);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // EAR CLIPPING
+
+
+  // Triangulate polygons made of contours that don't touch: each contour
+  // that is filled on its inside, together with the contours directly
+  // inside it as holes.
+  protected boolean clipEars() {
+    findParents();
+    for (int r = 0; r < ringCount; r++) {
+      int depth = 0;
+      int winding = 0;
+      for (int p = r; p != -1; p = ringParent[p]) {
+        depth++;
+        winding += (ringArea[p] > 0) ? 1 : -1;
+      }
+      boolean filled = (windingRule == PGL.TESS_WINDING_ODD) ?
+        (depth % 2 == 1) : (winding != 0);
+      if (filled && !clipFace(r)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  // The parent of a contour is the smallest one that contains it
+  protected void findParents() {
+    for (int r = 0; r < ringCount; r++) {
+      ringParent[r] = -1;
+      int vertex = ring[ringStart[r]];
+      double smallest = Double.MAX_VALUE;
+      for (int o = 0; o < ringCount; o++) {
+        if (o == r) continue;
+        double area = Math.abs(ringArea[o]);
+        if (area < smallest && contains(o, pu[vertex], pv[vertex])) {
+          ringParent[r] = o;
+          smallest = area;
+        }
+      }
+    }
+  }
+
+
+  protected boolean contains(int r, double x, double y) {
+    boolean inside = false;
+    int start = ringStart[r];
+    int stop = ringEnd[r];
+    for (int i = start, j = stop - 1; i < stop; j = i++) {
+      double xi = pu[ring[i]], yi = pv[ring[i]];
+      double xj = pu[ring[j]], yj = pv[ring[j]];
+      if ((yi > y) != (yj > y) &&
+          x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+        inside = !inside;
+      }
+    }
+    return inside;
+  }
+
+
+  protected boolean clipFace(int outer) {
+    nodeCount = 0;
+    int outerNode = linkRing(outer, true);
+
+    // holes are joined from left to right
+    int holeCount = 0;
+    for (int r = 0; r < ringCount; r++) {
+      if (ringParent[r] == outer) {
+        active[holeCount++] = leftmost(linkRing(r, false));
+      }
+    }
+    for (int i = 1; i < holeCount; i++) {
+      int hole = active[i];
+      int j = i - 1;
+      while (j >= 0 && compareLeft(active[j], hole) > 0) {
+        active[j + 1] = active[j];
+        j--;
+      }
+      active[j + 1] = hole;
+    }
+    for (int i = 0; i < holeCount; i++) {
+      outerNode = joinHole(active[i], outerNode);
+    }
+
+    hashed = false;
+    int start = ringStart[outer];
+    int stop = ringEnd[outer];
+    if (stop - start > 80) {
+      double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+      double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+      for (int i = start; i < stop; i++) {
+        minX = Math.min(minX, pu[ring[i]]);
+        minY = Math.min(minY, pv[ring[i]]);
+        maxX = Math.max(maxX, pu[ring[i]]);
+        maxY = Math.max(maxY, pv[ring[i]]);
+      }
+      double size = Math.max(maxX - minX, maxY - minY);
+      if (size > 0) {
+        hashed = true;
+        hashX = minX;
+        hashY = minY;
+        hashScale = 32767 / size;
+        sortZ(outerNode);
+      }
+    }
+    return clipLinked(outerNode, 0);
+  }
+
+
+  // z-order of a point, interleaving the bits of its 15-bit coordinates
+  protected int zOrder(double px, double py) {
+    int x = (int) ((px - hashX) * hashScale);
+    int y = (int) ((py - hashY) * hashScale);
+
+    x = (x | (x << 8)) & 0x00FF00FF;
+    x = (x | (x << 4)) & 0x0F0F0F0F;
+    x = (x | (x << 2)) & 0x33333333;
+    x = (x | (x << 1)) & 0x55555555;
+
+    y = (y | (y << 8)) & 0x00FF00FF;
+    y = (y | (y << 4)) & 0x0F0F0F0F;
+    y = (y | (y << 2)) & 0x33333333;
+    y = (y | (y << 1)) & 0x55555555;
+
+    return x | (y << 1);
+  }
+
+
+  // Link the nodes in z-order, with a merge sort of the list
+  protected void sortZ(int start) {
+    int p = start;
+    do {
+      nodeZ[p] = zOrder(x(p), y(p));
+      nodePrevZ[p] = nodePrev[p];
+      nodeNextZ[p] = nodeNext[p];
+      p = nodeNext[p];
+    } while (p != start);
+    nodeNextZ[nodePrevZ[p]] = -1;
+    nodePrevZ[p] = -1;
+
+    int list = p;
+    int merges;
+    int size = 1;
+    do {
+      p = list;
+      list = -1;
+      int tail = -1;
+      merges = 0;
+      while (p != -1) {
+        merges++;
+        int q = p;
+        int pSize = 0;
+        for (int i = 0; i < size; i++) {
+          pSize++;
+          q = nodeNextZ[q];
+          if (q == -1) break;
+        }
+        int qSize = size;
+        while (pSize > 0 || (qSize > 0 && q != -1)) {
+          int e;
+          if (pSize != 0 && (qSize == 0 || q == -1 || nodeZ[p] <= nodeZ[q])) {
+            e = p;
+            p = nodeNextZ[p];
+            pSize--;
+          } else {
+            e = q;
+            q = nodeNextZ[q];
+            qSize--;
+          }
+          if (tail != -1) {
+            nodeNextZ[tail] = e;
+          } else {
+            list = e;
+          }
+          nodePrevZ[e] = tail;
+          tail = e;
+        }
+        p = q;
+      }
+      nodeNextZ[tail] = -1;
+      size *= 2;
+    } while (merges > 1);
+  }
+
+
+  // Node coordinates, and the area of the triangle p, q, r. This uses the
+  // same orientation as earcut, where it's negative for a convex corner.
+  private double x(int node) { return pu[nodeVertex[node]]; }
+  private double y(int node) { return pv[nodeVertex[node]]; }
+
+  private double area(int p, int q, int r) {
+    return (y(q) - y(p)) * (x(r) - x(q)) - (x(q) - x(p)) * (y(r) - y(q));
+  }
+
+  private boolean equals(int p, int q) {
+    return x(p) == x(q) && y(p) == y(q);
+  }
+
+
+  protected int addNode(int vertex, int last) {
+    if (nodeCount == nodeVertex.length) {
+      int size = nodeCount << 1;
+      nodeVertex = Arrays.copyOf(nodeVertex, size);
+      nodePrev = Arrays.copyOf(nodePrev, size);
+      nodeNext = Arrays.copyOf(nodeNext, size);
+      nodeZ = Arrays.copyOf(nodeZ, size);
+      nodePrevZ = Arrays.copyOf(nodePrevZ, size);
+      nodeNextZ = Arrays.copyOf(nodeNextZ, size);
+    }
+    int node = nodeCount++;
+    nodeVertex[node] = vertex;
+    nodePrevZ[node] = -1;
+    nodeNextZ[node] = -1;
+    if (last == -1) {
+      nodePrev[node] = node;
+      nodeNext[node] = node;
+    } else {
+      nodeNext[node] = nodeNext[last];
+      nodePrev[node] = last;
+      nodePrev[nodeNext[last]] = node;
+      nodeNext[last] = node;
+    }
+    return node;
+  }
+
+
+  protected void removeNode(int p) {
+    nodePrev[nodeNext[p]] = nodePrev[p];
+    nodeNext[nodePrev[p]] = nodeNext[p];
+    if (nodePrevZ[p] != -1) nodeNextZ[nodePrevZ[p]] = nodeNextZ[p];
+    if (nodeNextZ[p] != -1) nodePrevZ[nodeNextZ[p]] = nodePrevZ[p];
+  }
+
+
+  // Circular list of a contour, counter-clockwise for outer contours
+  // and clockwise for holes.
+  protected int linkRing(int r, boolean ccw) {
+    int start = ringStart[r];
+    int stop = ringEnd[r];
+    int last = -1;
+    if (ccw == (ringArea[r] > 0)) {
+      for (int i = start; i < stop; i++) last = addNode(ring[i], last);
+    } else {
+      for (int i = stop - 1; i >= start; i--) last = addNode(ring[i], last);
+    }
+    return last;
+  }
+
+
+  protected int leftmost(int start) {
+    int p = start, left = start;
+    do {
+      if (x(p) < x(left) || (x(p) == x(left) && y(p) < y(left))) left = p;
+      p = nodeNext[p];
+    } while (p != start);
+    return left;
+  }
+
+
+  private int compareLeft(int a, int b) {
+    return Double.compare(x(a), x(b));
+  }
+
+
+  protected int joinHole(int hole, int outerNode) {
+    int bridge = findBridge(hole, outerNode);
+    if (bridge == -1) return outerNode;
+
+    int bridgeReverse = splitPolygon(bridge, hole);
+    filterPoints(bridgeReverse, nodeNext[bridgeReverse]);
+    return filterPoints(bridge, nodeNext[bridge]);
+  }
+
+
+  // David Eberly's algorithm for finding a bridge between a hole and
+  // the outer contour
+  protected int findBridge(int hole, int outerNode) {
+    int p = outerNode;
+    double hx = x(hole), hy = y(hole);
+    double qx = Double.NEGATIVE_INFINITY;
+    int m = -1;
+
+    // find a segment intersected by a ray from the hole's leftmost point
+    // to the left, the end of the segment with lesser x is the candidate
+    do {
+      int n = nodeNext[p];
+      if (hy <= y(p) && hy >= y(n) && y(n) != y(p)) {
+        double sx = x(p) + (hy - y(p)) * (x(n) - x(p)) / (y(n) - y(p));
+        if (sx <= hx && sx > qx) {
+          qx = sx;
+          m = x(p) < x(n) ? p : n;
+          if (sx == hx) return m;  // hole touches the outer segment
+        }
+      }
+      p = n;
+    } while (p != outerNode);
+
+    if (m == -1) return -1;
+
+    // look for points inside the triangle of hole point, segment
+    // intersection and endpoint, if there are none then m is visible,
+    // otherwise use the point with the smallest angle to the ray
+    int stop = m;
+    double mx = x(m), my = y(m);
+    double tanMin = Double.POSITIVE_INFINITY;
+    p = m;
+    do {
+      if (hx >= x(p) && x(p) >= mx && hx != x(p) &&
+          pointInTriangle(hy < my ? hx : qx, hy, mx, my,
+                          hy < my ? qx : hx, hy, x(p), y(p))) {
+        double tan = Math.abs(hy - y(p)) / (hx - x(p));
+        if (locallyInside(p, hole) &&
+            (tan < tanMin ||
+             (tan == tanMin &&
+              (x(p) > x(m) || (x(p) == x(m) && sectorContainsSector(m, p)))))) {
+          m = p;
+          tanMin = tan;
+        }
+      }
+      p = nodeNext[p];
+    } while (p != stop);
+
+    return m;
+  }
+
+
+  private boolean sectorContainsSector(int m, int p) {
+    return area(nodePrev[m], m, nodePrev[p]) < 0 &&
+      area(nodeNext[p], m, nodeNext[m]) < 0;
+  }
+
+
+  private boolean locallyInside(int a, int b) {
+    return area(nodePrev[a], a, nodeNext[a]) < 0 ?
+      area(a, b, nodeNext[a]) >= 0 && area(a, nodePrev[a], b) >= 0 :
+      area(a, b, nodePrev[a]) < 0 || area(a, nodeNext[a], b) < 0;
+  }
+
+
+  static private boolean pointInTriangle(double ax, double ay,
+                                         double bx, double by,
+                                         double cx, double cy,
+                                         double px, double py) {
+    return (cx - px) * (ay - py) >= (ax - px) * (cy - py) &&
+      (ax - px) * (by - py) >= (bx - px) * (ay - py) &&
+      (bx - px) * (cy - py) >= (cx - px) * (by - py);
+  }
+
+
+  // Link a to b with two new nodes, so that the polygon is split in two
+  protected int splitPolygon(int a, int b) {
+    int a2 = addNode(nodeVertex[a], -1);
+    int b2 = addNode(nodeVertex[b], -1);
+    int an = nodeNext[a];
+    int bp = nodePrev[b];
+
+    nodeNext[a] = b;
+    nodePrev[b] = a;
+
+    nodeNext[a2] = an;
+    nodePrev[an] = a2;
+
+    nodeNext[b2] = a2;
+    nodePrev[a2] = b2;
+
+    nodeNext[bp] = b2;
+    nodePrev[b2] = bp;
+
+    return b2;
+  }
+
+
+  // Remove duplicate and collinear points
+  protected int filterPoints(int start, int end) {
+    int p = start;
+    boolean again;
+    do {
+      again = false;
+      if (equals(p, nodeNext[p]) || area(nodePrev[p], p, nodeNext[p]) == 0) {
+        removeNode(p);
+        p = end = nodePrev[p];
+        if (p == nodeNext[p]) break;
+        again = true;
+      } else {
+        p = nodeNext[p];
+      }
+    } while (again || p != end);
+    return end;
+  }
+
+
+  protected boolean clipLinked(int ear, int pass) {
+    int stop = ear;
+    while (nodePrev[ear] != nodeNext[ear]) {
+      int prev = nodePrev[ear];
+      int next = nodeNext[ear];
+
+      if (isEar(ear)) {
+        addTriangle(output(nodeVertex[prev]), output(nodeVertex[ear]),
+                    output(nodeVertex[next]));
+        removeNode(ear);
+        // skipping the next vertex leads to less sliver triangles
+        ear = nodeNext[next];
+        stop = nodeNext[next];
+        continue;
+      }
+
+      ear = next;
+      if (ear == stop) {
+        // no more ears, try again without collinear points, and give up
+        // (and use slabs) if that doesn't help
+        if (pass == 0) {
+          return clipLinked(filterPoints(ear, ear), 1);
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  protected boolean isEar(int ear) {
+    int a = nodePrev[ear], b = ear, c = nodeNext[ear];
+    if (area(a, b, c) >= 0) return false;  // reflex
+
+    double ax = x(a), bx = x(b), cx = x(c);
+    double ay = y(a), by = y(b), cy = y(c);
+    double x0 = Math.min(ax, Math.min(bx, cx));
+    double y0 = Math.min(ay, Math.min(by, cy));
+    double x1 = Math.max(ax, Math.max(bx, cx));
+    double y1 = Math.max(ay, Math.max(by, cy));
+
+    // make sure there are no other points inside the ear
+    if (hashed) {
+      // only the nodes between the z-order of the corners of the bounds
+      int minZ = zOrder(x0, y0);
+      int maxZ = zOrder(x1, y1);
+      int p = nodePrevZ[ear];
+      int n = nodeNextZ[ear];
+      while (p != -1 && nodeZ[p] >= minZ && n != -1 && nodeZ[n] <= maxZ) {
+        if (p != a && p != c && inEar(p, a, b, c, x0, y0, x1, y1)) return false;
+        p = nodePrevZ[p];
+        if (n != a && n != c && inEar(n, a, b, c, x0, y0, x1, y1)) return false;
+        n = nodeNextZ[n];
+      }
+      while (p != -1 && nodeZ[p] >= minZ) {
+        if (p != a && p != c && inEar(p, a, b, c, x0, y0, x1, y1)) return false;
+        p = nodePrevZ[p];
+      }
+      while (n != -1 && nodeZ[n] <= maxZ) {
+        if (n != a && n != c && inEar(n, a, b, c, x0, y0, x1, y1)) return false;
+        n = nodeNextZ[n];
+      }
+      return true;
+    }
+
+    int p = nodeNext[c];
+    while (p != a) {
+      if (inEar(p, a, b, c, x0, y0, x1, y1)) return false;
+      p = nodeNext[p];
+    }
+    return true;
+  }
+
+
+  // Is a reflex point p inside the ear a, b, c other than at a
+  private boolean inEar(int p, int a, int b, int c,
+                        double x0, double y0, double x1, double y1) {
+    double px = x(p), py = y(p);
+    return px >= x0 && px <= x1 && py >= y0 && py <= y1 &&
+      !(px == x(a) && py == y(a)) &&
+      pointInTriangle(x(a), y(a), x(b), y(b), x(c), y(c), px, py) &&
+      area(nodePrev[p], p, nodeNext[p]) >= 0;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // OUTPUT
+
+
+  protected int output(int vertex) {
+    int index = vertexOut[vertex];
+    if (index == -1) {
+      index = addOutput(data[vertex]);
+      vertexOut[vertex] = index;
+    }
+    return index;
+  }
+
+
+  protected int addOutput(Object vertexData) {
+    if (outCount == outData.length) {
+      outData = Arrays.copyOf(outData, outCount << 1);
+    }
+    outData[outCount] = vertexData;
+    return outCount++;
+  }
+
+
+  protected void addTriangle(int a, int b, int c) {
+    if (indexCount + 3 > indices.length) {
+      indices = Arrays.copyOf(indices, indices.length << 1);
+    }
+    indices[indexCount++] = a;
+    indices[indexCount++] = b;
+    indices[indexCount++] = c;
+  }
+
+
+  protected void emit() {
+    if (indexCount > 0) {
+      if (outCount < PGL.MAX_VERTEX_INDEX1) {
+        callback.triangles(outData, outCount, indices, indexCount);
+      } else {
+        // too many vertices for a single block of indices, so send
+        // each triangle's vertices separately, a block at a time
+        int block = 3 * (PGL.MAX_VERTEX_INDEX1 / 3 - 1);
+        for (int i = 0; i < indexCount; i += block) {
+          int stop = Math.min(indexCount, i + block);
+          callback.begin(PGL.TRIANGLES);
+          for (int j = i; j < stop; j++) {
+            callback.vertex(outData[indices[j]]);
+          }
+          callback.end();
+        }
+      }
+    }
+    Arrays.fill(outData, 0, outCount, null);
+  }
+}
@@ -0,0 +1,552 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import processing.opengl.PGraphicsOpenGL.IndexCache;
+import processing.opengl.PGraphicsOpenGL.InGeometry;
+import processing.opengl.PGraphicsOpenGL.TessGeometry;
+
+
+/**
+ * Remembers the tessellated geometry of shapes drawn between beginShape()
+ * and endShape() (which includes ellipse(), rect(), arc() and the like),
+ * so that a shape drawn exactly the same way as before, with the same
+ * vertices, style and transformation, is copied instead of tessellated
+ * again. Turned on with PGraphicsOpenGL.setTessellationCache().
+ * <p/>
+ * Textured shapes, shapes with custom vertex attributes, and shapes too
+ * large to fit in a single block of 16-bit indices are never cached. A
+ * cached shape that doesn't fit in what is left of the current block is
+ * tessellated again, so that the blocks are the same as without cache.
+ * When the cached geometry takes up more than the memory budget, the
+ * least recently used shapes are dropped.
+ */
+public class TessellationCache {
+  static public final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+
+
+  // The input of a tessellation, stored as the raw bits of its values
+  static class Key {
+    int[] data;
+    int length;
+    int hash;
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key) o;
+      if (length != k.length || hash != k.hash) return false;
+      for (int i = 0; i < length; i++) {
+        if (data[i] != k.data[i]) return false;
+      }
+      return true;
+    }
+  }
+
+
+  // The output of a tessellation, with indices relative to its first vertex
+  static class Fragment {
+    float[] polyVertices;
+    int[] polyColors;
+    float[] polyNormals;
+    float[] polyTexCoords;
+    int[] polyAmbient;
+    int[] polySpecular;
+    int[] polyEmissive;
+    float[] polyShininess;
+    short[] polyIndices;
+
+    float[] lineVertices;
+    int[] lineColors;
+    float[] lineDirections;
+    short[] lineIndices;
+
+    float[] pointVertices;
+    int[] pointColors;
+    float[] pointOffsets;
+    short[] pointIndices;
+
+    long bytes;
+  }
+
+
+  protected long budget;
+  protected long used;
+
+  // least recently used first
+  protected final LinkedHashMap<Key, Fragment> entries =
+    new LinkedHashMap<>(64, 0.75f, true);
+
+  // signature of the shape being tessellated, reused between shapes
+  protected final Key probe = new Key();
+
+  // where the output of a miss starts, -1 when not caching this shape
+  protected int polyVertex0 = -1;
+  protected int polyIndex0;
+  protected int lineVertex0;
+  protected int lineIndex0;
+  protected int pointVertex0;
+  protected int pointIndex0;
+
+  protected long hits;
+  protected long misses;
+  protected long evictions;
+
+
+  public TessellationCache() {
+    this(DEFAULT_BUDGET);
+  }
+
+
+  public TessellationCache(long budget) {
+    this.budget = budget;
+    probe.data = new int[1024];
+  }
+
+
+  public void setMemoryBudget(long bytes) {
+    budget = bytes;
+    trim();
+  }
+
+
+  public long getMemoryBudget() {
+    return budget;
+  }
+
+
+  /** Estimated number of bytes used by the cached geometry. */
+  public long getMemoryUsed() {
+    return used;
+  }
+
+
+  public void clear() {
+    entries.clear();
+    used = 0;
+  }
+
+
+  public int getCount() {
+    return entries.size();
+  }
+
+
+  /** Number of shapes that were copied from the cache. */
+  public long getHits() {
+    return hits;
+  }
+
+
+  /** Number of shapes that could be cached, but had to be tessellated. */
+  public long getMisses() {
+    return misses;
+  }
+
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+
+  public void resetStats() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+
+  @Override
+  public String toString() {
+    return "TessellationCache " + entries.size() + " shapes, " +
+      (used / 1024) + "k of " + (budget / 1024) + "k, " +
+      hits + " hits, " + misses + " misses, " + evictions + " evictions";
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // CALLED BY PGraphicsOpenGL.tessellate()
+
+
+  /**
+   * Look for the shape in the cache, once the tessellator is set up.
+   * @return true if the geometry was added from the cache, false if the
+   * shape needs to be tessellated, followed by a call to end()
+   */
+  boolean begin(PGraphicsOpenGL pg, int shape, int mode, int normalMode) {
+    polyVertex0 = -1;
+    InGeometry in = pg.inGeo;
+    if (pg.textureImage != null || !pg.polyAttribs.isEmpty() ||
+        in.renderMode != PGraphicsOpenGL.IMMEDIATE) {
+      return false;
+    }
+
+    probe.length = 0;
+    add(shape);
+    add(mode);
+    add(normalMode);
+    add(pg.defaultEdges ? 1 : 0);
+    add(pg.fill ? 1 : 0);
+    add(pg.stroke ? 1 : 0);
+    add(pg.strokeColor);
+    add(pg.strokeWeight);
+    add(pg.strokeCap);
+    add(pg.strokeJoin);
+    add(pg.is3D() ? 1 : 0);
+    add(pg.flushMode);
+    add(pg.tessellator.accurate2DStrokes ? 1 : 0);
+    add(pg.bezierDetail);
+    add(pg.curveDetail);
+    add(pg.curveTightness);
+    pg.modelview.get(matrix);
+    for (float m : matrix) add(m);
+
+    int count = in.vertexCount;
+    add(count);
+    add(in.vertices, 3 * count);
+    add(in.colors, count);
+    add(in.normals, 3 * count);
+    add(in.texcoords, 2 * count);
+    add(in.strokeColors, count);
+    add(in.strokeWeights, count);
+    add(in.ambient, count);
+    add(in.specular, count);
+    add(in.emissive, count);
+    add(in.shininess, count);
+    add(in.codeCount);
+    add(in.codes, in.codeCount);
+    add(in.edgeCount);
+    for (int i = 0; i < in.edgeCount; i++) {
+      add(in.edges[i], 3);
+    }
+
+    int hash = 1;
+    for (int i = 0; i < probe.length; i++) {
+      hash = 31 * hash + probe.data[i];
+    }
+    probe.hash = hash;
+
+    TessGeometry tess = pg.tessGeo;
+    Fragment fragment = entries.get(probe);
+    if (fragment != null && fits(tess, fragment)) {
+      hits++;
+      replay(pg, tess, fragment);
+      return true;
+    }
+
+    misses++;
+    polyVertex0 = tess.polyVertexCount;
+    polyIndex0 = tess.polyIndexCount;
+    lineVertex0 = tess.lineVertexCount;
+    lineIndex0 = tess.lineIndexCount;
+    pointVertex0 = tess.pointVertexCount;
+    pointIndex0 = tess.pointIndexCount;
+    return false;
+  }
+
+
+  /** Store the geometry just added by the tessellator. */
+  void end(PGraphicsOpenGL pg) {
+    if (polyVertex0 == -1) return;
+
+    TessGeometry tess = pg.tessGeo;
+    Fragment f = new Fragment();
+    if (capturePoly(tess, f) && captureLines(tess, f) &&
+        capturePoints(tess, f)) {
+      Key key = new Key();
+      key.data = Arrays.copyOf(probe.data, probe.length);
+      key.length = probe.length;
+      key.hash = probe.hash;
+      f.bytes += 64 + 4L * key.length;
+
+      Fragment previous = entries.put(key, f);
+      if (previous != null) {
+        used -= previous.bytes;
+      }
+      used += f.bytes;
+      trim();
+    }
+    polyVertex0 = -1;
+  }
+
+
+  protected void trim() {
+    Iterator<Fragment> it = entries.values().iterator();
+    while (used > budget && it.hasNext()) {
+      used -= it.next().bytes;
+      it.remove();
+      evictions++;
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  private final float[] matrix = new float[16];
+
+
+  private void add(int value) {
+    if (probe.length == probe.data.length) {
+      probe.data = Arrays.copyOf(probe.data, probe.length << 1);
+    }
+    probe.data[probe.length++] = value;
+  }
+
+
+  private void add(float value) {
+    add(Float.floatToIntBits(value));
+  }
+
+
+  private void add(int[] values, int count) {
+    room(count);
+    System.arraycopy(values, 0, probe.data, probe.length, count);
+    probe.length += count;
+  }
+
+
+  private void add(float[] values, int count) {
+    room(count);
+    int[] data = probe.data;
+    int length = probe.length;
+    for (int i = 0; i < count; i++) {
+      data[length++] = Float.floatToIntBits(values[i]);
+    }
+    probe.length = length;
+  }
+
+
+  private void room(int count) {
+    if (probe.length + count > probe.data.length) {
+      int size = probe.data.length << 1;
+      while (size < probe.length + count) size <<= 1;
+      probe.data = Arrays.copyOf(probe.data, size);
+    }
+  }
+
+
+  // Offset of the first new vertex in the last index block, or -1 if the
+  // new geometry isn't entirely inside that block.
+  static private int base(IndexCache cache, int vertex0, int index0,
+                          int vertex1, int index1) {
+    if (cache.size == 0) return -1;
+    int last = cache.size - 1;
+    int vo = cache.vertexOffset[last];
+    int io = cache.indexOffset[last];
+    if (vo > vertex0 || io > index0 ||
+        vo + cache.vertexCount[last] != vertex1 ||
+        io + cache.indexCount[last] != index1) {
+      return -1;
+    }
+    return vertex0 - vo;
+  }
+
+
+  static private short[] relative(short[] indices, int index0, int count,
+                                  int base, int vertexCount) {
+    short[] outgoing = new short[count];
+    for (int i = 0; i < count; i++) {
+      int index = indices[index0 + i] - base;
+      if (index < 0 || index >= vertexCount) return null;
+      outgoing[i] = (short) index;
+    }
+    return outgoing;
+  }
+
+
+  private boolean capturePoly(TessGeometry tess, Fragment f) {
+    int vcount = tess.polyVertexCount - polyVertex0;
+    int icount = tess.polyIndexCount - polyIndex0;
+    if (vcount == 0 && icount == 0) return true;
+
+    int base = base(tess.polyIndexCache, polyVertex0, polyIndex0,
+                    tess.polyVertexCount, tess.polyIndexCount);
+    if (base == -1) return false;
+    f.polyIndices = relative(tess.polyIndices, polyIndex0, icount,
+                             base, vcount);
+    if (f.polyIndices == null) return false;
+
+    int v0 = polyVertex0;
+    int v1 = tess.polyVertexCount;
+    f.polyVertices = Arrays.copyOfRange(tess.polyVertices, 4 * v0, 4 * v1);
+    f.polyColors = Arrays.copyOfRange(tess.polyColors, v0, v1);
+    f.polyNormals = Arrays.copyOfRange(tess.polyNormals, 3 * v0, 3 * v1);
+    f.polyTexCoords = Arrays.copyOfRange(tess.polyTexCoords, 2 * v0, 2 * v1);
+    f.polyAmbient = Arrays.copyOfRange(tess.polyAmbient, v0, v1);
+    f.polySpecular = Arrays.copyOfRange(tess.polySpecular, v0, v1);
+    f.polyEmissive = Arrays.copyOfRange(tess.polyEmissive, v0, v1);
+    f.polyShininess = Arrays.copyOfRange(tess.polyShininess, v0, v1);
+    f.bytes += 4L * 14 * vcount + 2L * icount;
+    return true;
+  }
+
+
+  private boolean captureLines(TessGeometry tess, Fragment f) {
+    int vcount = tess.lineVertexCount - lineVertex0;
+    int icount = tess.lineIndexCount - lineIndex0;
+    if (vcount == 0 && icount == 0) return true;
+
+    int base = base(tess.lineIndexCache, lineVertex0, lineIndex0,
+                    tess.lineVertexCount, tess.lineIndexCount);
+    if (base == -1) return false;
+    f.lineIndices = relative(tess.lineIndices, lineIndex0, icount,
+                             base, vcount);
+    if (f.lineIndices == null) return false;
+
+    int v0 = lineVertex0;
+    int v1 = tess.lineVertexCount;
+    f.lineVertices = Arrays.copyOfRange(tess.lineVertices, 4 * v0, 4 * v1);
+    f.lineColors = Arrays.copyOfRange(tess.lineColors, v0, v1);
+    f.lineDirections = Arrays.copyOfRange(tess.lineDirections, 4 * v0, 4 * v1);
+    f.bytes += 4L * 9 * vcount + 2L * icount;
+    return true;
+  }
+
+
+  private boolean capturePoints(TessGeometry tess, Fragment f) {
+    int vcount = tess.pointVertexCount - pointVertex0;
+    int icount = tess.pointIndexCount - pointIndex0;
+    if (vcount == 0 && icount == 0) return true;
+
+    int base = base(tess.pointIndexCache, pointVertex0, pointIndex0,
+                    tess.pointVertexCount, tess.pointIndexCount);
+    if (base == -1) return false;
+    f.pointIndices = relative(tess.pointIndices, pointIndex0, icount,
+                              base, vcount);
+    if (f.pointIndices == null) return false;
+
+    int v0 = pointVertex0;
+    int v1 = tess.pointVertexCount;
+    f.pointVertices = Arrays.copyOfRange(tess.pointVertices, 4 * v0, 4 * v1);
+    f.pointColors = Arrays.copyOfRange(tess.pointColors, v0, v1);
+    f.pointOffsets = Arrays.copyOfRange(tess.pointOffsets, 2 * v0, 2 * v1);
+    f.bytes += 4L * 7 * vcount + 2L * icount;
+    return true;
+  }
+
+
+  // Whether the fragment goes into the last index blocks as a whole.
+  // Near the end of a block the tessellator splits the shape or starts a
+  // new block, splitRawIndices() as early as three vertices before the
+  // limit, so such a shape is tessellated again to get the same blocks.
+  static private boolean fits(TessGeometry tess, Fragment f) {
+    return (f.polyIndices == null ||
+            fits(tess.polyIndexCache, f.polyColors.length)) &&
+           (f.lineIndices == null ||
+            fits(tess.lineIndexCache, f.lineColors.length)) &&
+           (f.pointIndices == null ||
+            fits(tess.pointIndexCache, f.pointColors.length));
+  }
+
+
+  static private boolean fits(IndexCache cache, int count) {
+    int used = (cache.size == 0) ? 0 : cache.vertexCount[cache.size - 1];
+    return used + count + 3 <= PGL.MAX_VERTEX_INDEX1;
+  }
+
+
+  private void replay(PGraphicsOpenGL pg, TessGeometry tess, Fragment f) {
+    // The texture blocks are updated even when there are no polygons,
+    // same as the tessellator does for lines and points.
+    pg.tessellator.beginTex();
+    if (f.polyIndices != null) {
+      int vcount = f.polyColors.length;
+      int icount = f.polyIndices.length;
+      int index = tess.polyIndexCache.getLast();
+      int base = tess.polyIndexCache.vertexCount[index];
+
+      int v0 = tess.polyVertexCount;
+      tess.polyVertexCheck(vcount);
+      System.arraycopy(f.polyVertices, 0, tess.polyVertices, 4 * v0, 4 * vcount);
+      System.arraycopy(f.polyColors, 0, tess.polyColors, v0, vcount);
+      System.arraycopy(f.polyNormals, 0, tess.polyNormals, 3 * v0, 3 * vcount);
+      System.arraycopy(f.polyTexCoords, 0, tess.polyTexCoords, 2 * v0, 2 * vcount);
+      System.arraycopy(f.polyAmbient, 0, tess.polyAmbient, v0, vcount);
+      System.arraycopy(f.polySpecular, 0, tess.polySpecular, v0, vcount);
+      System.arraycopy(f.polyEmissive, 0, tess.polyEmissive, v0, vcount);
+      System.arraycopy(f.polyShininess, 0, tess.polyShininess, v0, vcount);
+
+      int i0 = tess.polyIndexCount;
+      tess.polyIndexCheck(icount);
+      short[] indices = tess.polyIndices;
+      for (int i = 0; i < icount; i++) {
+        indices[i0 + i] = (short) (base + f.polyIndices[i]);
+      }
+      tess.polyIndexCache.incCounts(index, icount, vcount);
+    }
+    pg.tessellator.endTex();
+
+    if (f.lineIndices != null) {
+      int vcount = f.lineColors.length;
+      int icount = f.lineIndices.length;
+      int index = tess.lineIndexCache.getLast();
+      int base = tess.lineIndexCache.vertexCount[index];
+
+      int v0 = tess.lineVertexCount;
+      tess.lineVertexCheck(vcount);
+      System.arraycopy(f.lineVertices, 0, tess.lineVertices, 4 * v0, 4 * vcount);
+      System.arraycopy(f.lineColors, 0, tess.lineColors, v0, vcount);
+      System.arraycopy(f.lineDirections, 0, tess.lineDirections, 4 * v0, 4 * vcount);
+
+      int i0 = tess.lineIndexCount;
+      tess.lineIndexCheck(icount);
+      short[] indices = tess.lineIndices;
+      for (int i = 0; i < icount; i++) {
+        indices[i0 + i] = (short) (base + f.lineIndices[i]);
+      }
+      tess.lineIndexCache.incCounts(index, icount, vcount);
+    }
+
+    if (f.pointIndices != null) {
+      int vcount = f.pointColors.length;
+      int icount = f.pointIndices.length;
+      int index = tess.pointIndexCache.getLast();
+      int base = tess.pointIndexCache.vertexCount[index];
+
+      int v0 = tess.pointVertexCount;
+      tess.pointVertexCheck(vcount);
+      System.arraycopy(f.pointVertices, 0, tess.pointVertices, 4 * v0, 4 * vcount);
+      System.arraycopy(f.pointColors, 0, tess.pointColors, v0, vcount);
+      System.arraycopy(f.pointOffsets, 0, tess.pointOffsets, 2 * v0, 2 * vcount);
+
+      int i0 = tess.pointIndexCount;
+      tess.pointIndexCheck(icount);
+      short[] indices = tess.pointIndices;
+      for (int i = 0; i < icount; i++) {
+        indices[i0 + i] = (short) (base + f.pointIndices[i]);
+      }
+      tess.pointIndexCache.incCounts(index, icount, vcount);
+    }
+  }
+}
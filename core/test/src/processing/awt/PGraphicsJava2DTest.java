@@ -0,0 +1,76 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.awt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Graphics2D;
+
+import org.junit.Test;
+
+import processing.core.PApplet;
+import processing.core.PMatrix2D;
+
+
+public class PGraphicsJava2DTest {
+
+  static PGraphicsJava2D createRenderer() {
+    PGraphicsJava2D pg = new PGraphicsJava2D();
+    pg.setParent(new PApplet());
+    pg.setPrimary(false);
+    pg.setSize(100, 100);
+    pg.beginDraw();
+    return pg;
+  }
+
+
+  @Test
+  public void transformFollowsRendererCalls() {
+    PGraphicsJava2D pg = createRenderer();
+    assertEquals(5, pg.screenX(5, 7), 0);
+    pg.translate(10, 20);
+    pg.scale(2);
+    assertEquals(20, pg.screenX(5, 7), 0);
+    assertEquals(34, pg.screenY(5, 7), 0);
+    pg.resetMatrix();
+    assertEquals(5, pg.screenX(5, 7), 0);
+    pg.endDraw();
+  }
+
+
+  @Test
+  public void transformFollowsNativeCalls() {
+    PGraphicsJava2D pg = createRenderer();
+    assertEquals(5, pg.screenX(5, 7), 0);
+    Graphics2D g2 = (Graphics2D) pg.getNative();
+    g2.translate(10, 20);
+    assertEquals(15, pg.screenX(5, 7), 0);
+    assertEquals(27, pg.screenY(5, 7), 0);
+    g2.scale(2, 2);
+    PMatrix2D matrix = pg.getMatrix((PMatrix2D) null);
+    assertEquals(2, matrix.m00, 0);
+    assertEquals(10, matrix.m02, 0);
+    assertEquals(20, matrix.m12, 0);
+    pg.endDraw();
+  }
+}
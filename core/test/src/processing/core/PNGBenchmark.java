@@ -0,0 +1,150 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import processing.awt.PGraphicsJava2D;
+
+
+/**
+ * Times writing a .png with ImageIO, as PImage.save() does by default,
+ * against PNGEncoder at the fast and default levels, on one thread and
+ * on the common fork/join pool. Each output is decoded with ImageIO and
+ * compared with the pixels. Not part of the core build, run it headless
+ * after "ant test-compile", with the processor count to try:
+ * <pre>
+ * java -Djava.awt.headless=true -XX:ActiveProcessorCount=4 \
+ *   -cp core/bin:core/test/bin processing.core.PNGBenchmark 3840 2160
+ * </pre>
+ * The speedup of the parallel encoder depends on the cores actually
+ * available, ActiveProcessorCount only sets the size of the pool.
+ */
+public class PNGBenchmark {
+  static final int ROUNDS = 5;
+
+
+  interface Writer {
+    void write(File file) throws IOException;
+  }
+
+
+  // Translucent ellipses, somewhere between a photo and flat artwork
+  static PImage createImage(int width, int height) {
+    PGraphicsJava2D pg = new PGraphicsJava2D();
+    pg.setParent(new PApplet());
+    pg.setPrimary(false);
+    pg.setSize(width, height);
+    pg.beginDraw();
+    pg.background(240);
+    pg.noStroke();
+    Random random = new Random(11);
+    for (int i = 0; i < 3000; i++) {
+      pg.fill(random.nextInt(256), random.nextInt(256), random.nextInt(256), 80);
+      float d = 20 + random.nextFloat() * width / 8;
+      pg.ellipse(random.nextFloat() * width, random.nextFloat() * height, d, d);
+    }
+    pg.endDraw();
+    return pg.get();
+  }
+
+
+  static void time(String name, PImage image, File file, Writer writer)
+    throws IOException {
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < ROUNDS; r++) {
+      long start = System.nanoTime();
+      writer.write(file);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    boolean same = decodesTo(file, image);
+    System.out.printf("%-24s %8.1f ms %8d KB  %s%n", name, best / 1e6,
+                      file.length() / 1024, same ? "ok" : "DIFFERENT");
+  }
+
+
+  static boolean decodesTo(File file, PImage image) throws IOException {
+    BufferedImage decoded = ImageIO.read(file);
+    if (decoded.getWidth() != image.pixelWidth ||
+        decoded.getHeight() != image.pixelHeight) {
+      return false;
+    }
+    int[] rgb = decoded.getRGB(0, 0, image.pixelWidth, image.pixelHeight,
+                               null, 0, image.pixelWidth);
+    int mask = (image.format == PConstants.ARGB) ? 0xffffffff : 0xffffff;
+    for (int i = 0; i < rgb.length; i++) {
+      if ((rgb[i] & mask) != (image.pixels[i] & mask)) return false;
+    }
+    return true;
+  }
+
+
+  static Writer encoder(final PImage image, final int level,
+                        final boolean parallel) {
+    return new Writer() {
+      public void write(File file) throws IOException {
+        PNGEncoder encoder = new PNGEncoder(level, PNGEncoder.FILTER_ADAPTIVE);
+        encoder.setParallel(parallel);
+        OutputStream output =
+          new BufferedOutputStream(new FileOutputStream(file), 65536);
+        try {
+          encoder.write(output, image);
+        } finally {
+          output.close();
+        }
+      }
+    };
+  }
+
+
+  public static void main(String[] args) throws IOException {
+    int width = (args.length > 0) ? Integer.parseInt(args[0]) : 3840;
+    int height = (args.length > 1) ? Integer.parseInt(args[1]) : 2160;
+    final PImage image = createImage(width, height);
+    image.loadPixels();
+    File file = File.createTempFile("pngbenchmark", ".png");
+    file.deleteOnExit();
+
+    System.out.println(width + "x" + height + ", " +
+                       Runtime.getRuntime().availableProcessors() + " processors");
+    time("ImageIO", image, file, new Writer() {
+      public void write(File file) throws IOException {
+        image.saveImageIO(file.getAbsolutePath());
+      }
+    });
+    for (int level : new int[] { PNGEncoder.LEVEL_FAST, PNGEncoder.LEVEL_DEFAULT }) {
+      time("PNGEncoder " + level + " serial", image, file,
+           encoder(image, level, false));
+      time("PNGEncoder " + level + " parallel", image, file,
+           encoder(image, level, true));
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Random;
+
+import processing.awt.PGraphicsJava2D;
+
+
+/**
+ * Times the batch mult() of PMatrix2D and PMatrix3D against calling
+ * mult() for each point, and screenX()/screenY() of the Java2D renderer
+ * with its transform cached and after getNative(), which turns the cache
+ * off. Warmed-up loops, best of several rounds, no JMH. Not part of the
+ * core build, run it headless after "ant test-compile":
+ * <pre>
+ * java -Djava.awt.headless=true -cp core/bin:core/test/bin \
+ *   processing.core.TransformBenchmark 100000
+ * </pre>
+ */
+public class TransformBenchmark {
+  static final int WARMUP = 20;
+  static final int ROUNDS = 20;
+
+  // sink for the results, so the loops can't be dropped
+  static float sink;
+
+
+  interface Body {
+    void run();
+  }
+
+
+  static double time(Body body) {
+    for (int i = 0; i < WARMUP; i++) body.run();
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      body.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1e6;
+  }
+
+
+  static void report(String name, double ms, int count) {
+    System.out.printf("%-28s %8.3f ms  %6.1f ns/point%n",
+                      name, ms, ms * 1e6 / count);
+  }
+
+
+  public static void main(String[] args) {
+    final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    Random random = new Random(3);
+
+    // interleaved like vertex data, xyzw
+    final float[] points = new float[4 * count];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = random.nextFloat() * 200 - 100;
+    }
+    final float[] target = new float[4 * count];
+
+    final PMatrix3D m3 = new PMatrix3D();
+    m3.translate(10, 20, 30);
+    m3.rotateY(0.4f);
+    m3.rotateX(0.3f);
+    m3.scale(1.5f);
+
+    final PMatrix2D m2 = new PMatrix2D();
+    m2.translate(10, 20);
+    m2.rotate(0.4f);
+    m2.scale(1.5f);
+
+    final PVector in = new PVector();
+    final PVector out = new PVector();
+
+    report("PMatrix3D mult(PVector)", time(new Body() {
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          in.set(points[4*i], points[4*i + 1], points[4*i + 2]);
+          m3.mult(in, out);
+          target[4*i] = out.x; target[4*i + 1] = out.y; target[4*i + 2] = out.z;
+        }
+        sink += target[0];
+      }
+    }), count);
+    final float[] expected3 = target.clone();
+
+    report("PMatrix3D mult(batch)", time(new Body() {
+      public void run() {
+        m3.mult(points, 0, target, 0, count, 4);
+        sink += target[0];
+      }
+    }), count);
+    check("PMatrix3D", expected3, target, 3);
+
+    report("PMatrix2D mult(PVector)", time(new Body() {
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          in.set(points[4*i], points[4*i + 1]);
+          m2.mult(in, out);
+          target[4*i] = out.x; target[4*i + 1] = out.y;
+        }
+        sink += target[0];
+      }
+    }), count);
+    final float[] expected2 = target.clone();
+
+    report("PMatrix2D mult(batch)", time(new Body() {
+      public void run() {
+        m2.mult(points, 0, target, 0, count, 4);
+        sink += target[0];
+      }
+    }), count);
+    check("PMatrix2D", expected2, target, 2);
+
+    final PGraphicsJava2D cached = createJava2D();
+    final PGraphicsJava2D uncached = createJava2D();
+    uncached.getNative();
+
+    report("Java2D screenX/Y cached", time(new Body() {
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          sink += cached.screenX(points[4*i], points[4*i + 1]);
+          sink += cached.screenY(points[4*i], points[4*i + 1]);
+        }
+      }
+    }), count);
+
+    report("Java2D screenX/Y getNative", time(new Body() {
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          sink += uncached.screenX(points[4*i], points[4*i + 1]);
+          sink += uncached.screenY(points[4*i], points[4*i + 1]);
+        }
+      }
+    }), count);
+
+    cached.endDraw();
+    uncached.endDraw();
+  }
+
+
+  static PGraphicsJava2D createJava2D() {
+    PGraphicsJava2D pg = new PGraphicsJava2D();
+    pg.setParent(new PApplet());
+    pg.setPrimary(false);
+    pg.setSize(400, 400);
+    pg.beginDraw();
+    pg.translate(10, 20);
+    pg.rotate(0.4f);
+    pg.scale(1.5f);
+    return pg;
+  }
+
+
+  static void check(String name, float[] expected, float[] actual, int dims) {
+    for (int i = 0; i < expected.length; i += 4) {
+      for (int k = 0; k < dims; k++) {
+        if (expected[i + k] != actual[i + k]) {
+          throw new AssertionError(name + " batch differs at point " + i / 4);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class BatchMergerTest {
+  static final Object FONT = "font";
+  static final Object ATLAS = "atlas";
+
+
+  // Indices numbered after their position, so moves are easy to see
+  static short[] indices(int count) {
+    short[] indices = new short[count];
+    for (int i = 0; i < count; i++) indices[i] = (short) i;
+    return indices;
+  }
+
+
+  // A run of one triangle at index 3 * i, in the square x..x+10
+  static void addRun(BatchMerger merger, Object key, int group, int i, float x) {
+    merger.add(key, group, 3 * i, 3, x, 0, x + 10, 10);
+  }
+
+
+  @Test
+  public void overlappingRunsKeepTheirOrder() {
+    BatchMerger merger = new BatchMerger();
+    addRun(merger, FONT, 0, 0, 0);
+    addRun(merger, ATLAS, 0, 1, 20);
+    // same key as the first run, but on top of the second one
+    addRun(merger, FONT, 0, 2, 25);
+    short[] indices = indices(9);
+
+    assertEquals(0, merger.merge(indices));
+    assertArrayEquals(indices(9), indices);
+    assertEquals(3, merger.getBatchCount());
+    assertSame(FONT, merger.getBatchKey(0));
+    assertSame(ATLAS, merger.getBatchKey(1));
+    assertSame(FONT, merger.getBatchKey(2));
+  }
+
+
+  @Test
+  public void separateRunsWithTheSameKeyMerge() {
+    BatchMerger merger = new BatchMerger();
+    addRun(merger, FONT, 0, 0, 0);
+    addRun(merger, ATLAS, 0, 1, 20);
+    addRun(merger, FONT, 0, 2, 40);
+    short[] indices = indices(9);
+
+    assertEquals(1, merger.merge(indices));
+    assertArrayEquals(new short[] { 0, 1, 2, 6, 7, 8, 3, 4, 5 }, indices);
+    assertEquals(2, merger.getBatchCount());
+    assertSame(FONT, merger.getBatchKey(0));
+    assertEquals(0, merger.getBatchFirst(0));
+    assertEquals(5, merger.getBatchLast(0));
+    assertSame(ATLAS, merger.getBatchKey(1));
+    assertEquals(6, merger.getBatchFirst(1));
+    assertEquals(8, merger.getBatchLast(1));
+  }
+
+
+  @Test
+  public void runsStayInTheirGroup() {
+    BatchMerger merger = new BatchMerger();
+    addRun(merger, FONT, 0, 0, 0);
+    addRun(merger, ATLAS, 0, 1, 20);
+    addRun(merger, FONT, 1, 2, 40);
+    short[] indices = indices(9);
+
+    assertEquals(0, merger.merge(indices));
+    assertArrayEquals(indices(9), indices);
+    assertEquals(3, merger.getBatchCount());
+    assertEquals(0, merger.getBatchGroup(1));
+    assertEquals(1, merger.getBatchGroup(2));
+  }
+
+
+  @Test
+  public void nonContiguousGroupIsLeftInPlace() {
+    BatchMerger merger = new BatchMerger();
+    addRun(merger, FONT, 0, 0, 0);
+    addRun(merger, ATLAS, 0, 1, 20);
+    // skips the triangle at index 6, so the runs don't cover their range
+    addRun(merger, FONT, 0, 3, 40);
+    short[] indices = indices(12);
+
+    merger.merge(indices);
+    assertArrayEquals(indices(12), indices);
+    // nothing was moved, so nothing is drawn together either
+    assertEquals(3, merger.getBatchCount());
+    for (int i = 0; i < merger.getBatchCount(); i++) {
+      int first = merger.getBatchFirst(i);
+      assertEquals(2, merger.getBatchLast(i) - first);
+    }
+  }
+
+
+  @Test
+  public void randomRunsNeverSwapOverlappingKeys() {
+    Random random = new Random(17);
+    Object[] keys = { FONT, ATLAS, "third" };
+    for (int round = 0; round < 200; round++) {
+      BatchMerger merger = new BatchMerger();
+      int count = 2 + random.nextInt(40);
+      float[] bounds = new float[4 * count];
+      Object[] runKeys = new Object[count];
+      int[] groups = new int[count];
+      int group = 0;
+      for (int i = 0; i < count; i++) {
+        if (random.nextInt(10) == 0) group++;
+        float x = random.nextFloat() * 200, y = random.nextFloat() * 200;
+        float w = 5 + random.nextFloat() * 30, h = 5 + random.nextFloat() * 30;
+        bounds[4 * i + 0] = x;
+        bounds[4 * i + 1] = y;
+        bounds[4 * i + 2] = x + w;
+        bounds[4 * i + 3] = y + h;
+        runKeys[i] = keys[random.nextInt(keys.length)];
+        groups[i] = group;
+        merger.add(runKeys[i], group, 3 * i, 3, x, y, x + w, y + h);
+      }
+      short[] indices = indices(3 * count);
+      int saved = merger.merge(indices);
+      assertEquals(count - merger.getBatchCount(), saved);
+
+      // where each run ended up
+      int[] position = new int[count];
+      for (int i = 0; i < count; i++) {
+        assertEquals(0, indices[3 * i] % 3);
+        position[indices[3 * i] / 3] = i;
+        assertEquals(indices[3 * i] + 1, indices[3 * i + 1]);
+        assertEquals(indices[3 * i] + 2, indices[3 * i + 2]);
+      }
+      for (int i = 0; i < count; i++) {
+        for (int j = i + 1; j < count; j++) {
+          if (groups[i] != groups[j]) {
+            assertTrue(position[i] < position[j]);
+          } else if (runKeys[i] != runKeys[j] && overlap(bounds, i, j)) {
+            assertTrue("runs " + i + " and " + j + " were swapped",
+                       position[i] < position[j]);
+          }
+        }
+      }
+    }
+  }
+
+
+  static boolean overlap(float[] bounds, int a, int b) {
+    float pad = 2 * BatchMerger.BOUNDS_PADDING;
+    return bounds[4*a] <= bounds[4*b + 2] + pad && bounds[4*b] <= bounds[4*a + 2] + pad &&
+      bounds[4*a + 1] <= bounds[4*b + 3] + pad && bounds[4*b + 1] <= bounds[4*a + 3] + pad;
+  }
+}
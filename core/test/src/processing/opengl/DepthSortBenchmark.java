@@ -0,0 +1,154 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+
+/**
+ * Times the depth sorting modes of PGraphicsOpenGL on soups of small
+ * random triangles. Doesn't need an OpenGL context, the triangles are
+ * tessellated and sorted without drawing them. Not part of the core build,
+ * compile it against the core classes and the JOGL jars, then run:
+ * <pre>
+ * java -Djava.awt.headless=true -XX:ActiveProcessorCount=4 \
+ *   -cp core/bin:core/library/jogl-all.jar:core/library/gluegen-rt.jar:. \
+ *   processing.opengl.DepthSortBenchmark 2000 20000 200000
+ * </pre>
+ * DEPTH_SORT_EXACT is skipped above 100k triangles, where it takes minutes.
+ */
+public class DepthSortBenchmark {
+  static final int EXACT_LIMIT = 100000;
+  static final int REPEATS = 3;
+
+  static final int[] MODES = {
+    PGraphicsOpenGL.DEPTH_SORT_EXACT,
+    PGraphicsOpenGL.DEPTH_SORT_FAST,
+    PGraphicsOpenGL.DEPTH_SORT_APPROXIMATE
+  };
+  static final String[] MODE_NAMES = { "exact", "fast", "approximate" };
+
+
+  static PGraphicsOpenGL createRenderer() {
+    PGraphicsOpenGL pg = new PGraphics3D() {
+      @Override
+      public void flush() {
+        // keep the geometry in tessGeo, there's nothing to draw it on
+      }
+    };
+    pg.setParent(new PApplet());
+    pg.setPrimary(true);
+    pg.setSize(400, 400);
+    pg.modelview.reset();
+    pg.modelviewInv.reset();
+    pg.projmodelview.reset();
+    pg.colorMode(PConstants.RGB, 255);
+    pg.fill(255, 100);
+    pg.noStroke();
+    // perspective(PI/3, 1, 10, 1000), without a surface to get it from
+    pg.projection.set(1.7f, 0, 0, 0,
+                      0, 1.7f, 0, 0,
+                      0, 0, -1.02f, -20.2f,
+                      0, 0, -1, 0);
+    return pg;
+  }
+
+
+  static void addTriangles(PGraphicsOpenGL pg, int count) {
+    Random random = new Random(5);
+    pg.beginShape(PConstants.TRIANGLES);
+    for (int i = 0; i < count; i++) {
+      float x = random.nextFloat() * 200 - 100;
+      float y = random.nextFloat() * 200 - 100;
+      float z = -200 - random.nextFloat() * 600;
+      for (int k = 0; k < 3; k++) {
+        pg.vertex(x + random.nextFloat() * 10,
+                  y + random.nextFloat() * 10,
+                  z + random.nextFloat() * 10);
+      }
+    }
+    pg.endShape();
+  }
+
+
+  // Neighbors in the sorted order whose min z goes the wrong way
+  static int countOutOfOrder(PGraphicsOpenGL pg, PGraphicsOpenGL.DepthSorter sorter) {
+    PGraphicsOpenGL.TessGeometry tessGeo = pg.tessGeo;
+    int[] vertexOffset = tessGeo.polyIndexCache.vertexOffset;
+    float[] screen = sorter.screenVertices;
+    int count = 0;
+    float prev = -Float.MAX_VALUE;
+    for (int t = 0; t < tessGeo.polyIndexCount / 3; t++) {
+      int offset = vertexOffset[sorter.voffsetMap[t]];
+      float minZ = Float.MAX_VALUE;
+      for (int k = 0; k < 3; k++) {
+        int v = offset + tessGeo.polyIndices[3 * t + k];
+        minZ = Math.min(minZ, screen[3 * v + 2]);
+      }
+      if (minZ < prev) count++;
+      prev = minZ;
+    }
+    return count;
+  }
+
+
+  public static void main(String[] args) {
+    int[] sizes = { 2000, 20000, 200000 };
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    for (int size : sizes) {
+      PGraphicsOpenGL pg = createRenderer();
+      addTriangles(pg, size);
+      short[] indices = Arrays.copyOf(pg.tessGeo.polyIndices,
+                                      pg.tessGeo.polyIndexCount);
+
+      for (int m = 0; m < MODES.length; m++) {
+        if (MODES[m] == PGraphicsOpenGL.DEPTH_SORT_EXACT && size > EXACT_LIMIT) {
+          System.out.printf("%7d triangles %-12s skipped%n", size, MODE_NAMES[m]);
+          continue;
+        }
+        pg.setDepthSortMode(MODES[m]);
+        PGraphicsOpenGL.DepthSorter sorter = new PGraphicsOpenGL.DepthSorter(pg);
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < REPEATS; r++) {
+          System.arraycopy(indices, 0, pg.tessGeo.polyIndices, 0, indices.length);
+          long start = System.nanoTime();
+          sorter.sort(pg.tessGeo);
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%7d triangles %-12s %10.1f ms, %d out of order%n",
+                          size, MODE_NAMES[m], best / 1e6,
+                          countOutOfOrder(pg, sorter));
+      }
+    }
+  }
+}
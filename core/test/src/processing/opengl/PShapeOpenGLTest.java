@@ -0,0 +1,438 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PMatrix3D;
+
+
+/**
+ * The setters of a retained shape patch the tessellated vertices in place
+ * when they map one to one to the input vertices, and the result is the
+ * same as tessellating the whole shape again. The copies of a shape from
+ * drawInstances() are transformed and tinted one by one, as they would
+ * be drawn separately.
+ */
+public class PShapeOpenGLTest {
+  // positions go through two or three matrices in a different order
+  static final float EPSILON = 1e-3f;
+
+
+  @BeforeClass
+  static public void init() throws ClassNotFoundException {
+    // sets the PGL constants
+    Class.forName("processing.opengl.PJOGL");
+  }
+
+
+  static PGraphicsOpenGL create(boolean threeD) {
+    PGraphicsOpenGL g = threeD ?
+      new PGraphics3D() {
+        @Override
+        public void flush() { }
+      } :
+      new PGraphics2D() {
+        @Override
+        public void flush() { }
+      };
+    g.setParent(new PApplet());
+    g.setPrimary(true);
+    g.setSize(200, 200);
+    g.modelview.reset();
+    g.modelviewInv.reset();
+    g.projmodelview.reset();
+    return g;
+  }
+
+
+  static PShapeOpenGL createLeaf(PGraphicsOpenGL g, int kind, int count,
+                                 boolean normals) {
+    PShapeOpenGL shape = (PShapeOpenGL) g.createShape();
+    shape.beginShape(kind);
+    shape.noStroke();
+    shape.fill(255, 0, 0);
+    Random random = new Random(kind);
+    for (int i = 0; i < count; i++) {
+      if (normals) shape.normal(random.nextFloat(), random.nextFloat(), 1);
+      shape.vertex(random.nextFloat() * 100, random.nextFloat() * 100,
+                   g.is3D() ? random.nextFloat() * 100 : 0);
+    }
+    shape.endShape();
+    return shape;
+  }
+
+
+  /**
+   * A group with two children of the given kind, transformed before and
+   * after tessellation, with nothing marked as modified. Returns the
+   * second child, which doesn't start at the first tessellated vertex.
+   */
+  static PShapeOpenGL createChild(boolean threeD, int kind, boolean normals) {
+    PGraphicsOpenGL g = create(threeD);
+    PShapeOpenGL group = (PShapeOpenGL) g.createShape(PConstants.GROUP);
+    PShapeOpenGL first = createLeaf(g, kind, 120, normals);
+    PShapeOpenGL child = createLeaf(g, kind, 240, normals);
+    group.addChild(first);
+    group.addChild(child);
+    if (threeD) {
+      child.translate(5, 6, 7);
+      group.rotate(0.3f, 0, 0, 1);
+    } else {
+      child.translate(5, 6);
+      group.rotate(0.3f);
+    }
+    group.updateTessellation();
+    // applied to the tessellated geometry
+    child.scale(1.5f);
+    group.initModified();
+    assertTrue(-1 < child.tessPolyIndex(0));
+    return child;
+  }
+
+
+  static class Snapshot {
+    float[] vertices;
+    float[] normals;
+    float[] texCoords;
+    int[] colors;
+
+    Snapshot(PGraphicsOpenGL.TessGeometry tess) {
+      int count = tess.polyVertexCount;
+      vertices = Arrays.copyOf(tess.polyVertices, 4 * count);
+      normals = Arrays.copyOf(tess.polyNormals, 3 * count);
+      texCoords = Arrays.copyOf(tess.polyTexCoords, 2 * count);
+      colors = Arrays.copyOf(tess.polyColors, count);
+    }
+  }
+
+
+  // The patched geometry against tessellating the whole group again
+  static void assertSameAsTessellation(PShapeOpenGL child) {
+    PShapeOpenGL root = (PShapeOpenGL) child.getParent();
+    assertTrue("updated in place", root.tessellated);
+    Snapshot patched = new Snapshot(root.tessGeo);
+    root.markForTessellation();
+    root.updateTessellation();
+    Snapshot full = new Snapshot(root.tessGeo);
+    assertArrayEquals(full.vertices, patched.vertices, EPSILON);
+    assertArrayEquals(full.normals, patched.normals, EPSILON);
+    assertArrayEquals(full.texCoords, patched.texCoords, 0);
+    assertArrayEquals(full.colors, patched.colors);
+  }
+
+
+  static void assertVertexRange(PShapeOpenGL root, int first, int last) {
+    assertEquals(first, root.firstModifiedPolyVertex);
+    assertEquals(last, root.lastModifiedPolyVertex);
+  }
+
+
+  static void assertNormalRange(PShapeOpenGL root, int first, int last) {
+    assertEquals(first, root.firstModifiedPolyNormal);
+    assertEquals(last, root.lastModifiedPolyNormal);
+  }
+
+
+  static void assertColorRange(PShapeOpenGL root, int first, int last) {
+    assertEquals(first, root.firstModifiedPolyColor);
+    assertEquals(last, root.lastModifiedPolyColor);
+  }
+
+
+  static void assertNothingModified(PShapeOpenGL root) {
+    assertVertexRange(root, PConstants.MAX_INT, PConstants.MIN_INT);
+  }
+
+
+  @Test
+  public void setVertexPatchesOneVertex() {
+    for (boolean threeD : new boolean[] { false, true }) {
+      for (int kind : new int[] { PConstants.TRIANGLES, PConstants.QUADS }) {
+        PShapeOpenGL child = createChild(threeD, kind, true);
+        PShapeOpenGL root = (PShapeOpenGL) child.getParent();
+        int tessIdx = child.firstPolyVertex + 7;
+        child.setVertex(7, 1, 2, threeD ? 3 : 0);
+        assertVertexRange(root, tessIdx, tessIdx);
+        assertNormalRange(root, tessIdx, tessIdx);
+        assertColorRange(root, PConstants.MAX_INT, PConstants.MIN_INT);
+        assertSameAsTessellation(child);
+      }
+    }
+  }
+
+
+  @Test
+  public void setVertexPatchesTheFaceOfAutoNormals() {
+    for (boolean threeD : new boolean[] { false, true }) {
+      PShapeOpenGL child = createChild(threeD, PConstants.TRIANGLES, false);
+      PShapeOpenGL root = (PShapeOpenGL) child.getParent();
+      // the triangle of vertices 6, 7 and 8
+      int first = child.firstPolyVertex + 6;
+      child.setVertex(7, 1, 2, threeD ? 3 : 0);
+      assertVertexRange(root, first, first + 2);
+      assertNormalRange(root, first, first + 2);
+      assertSameAsTessellation(child);
+
+      child = createChild(threeD, PConstants.QUADS, false);
+      root = (PShapeOpenGL) child.getParent();
+      // the quad of vertices 4 to 7
+      first = child.firstPolyVertex + 4;
+      child.setVertex(7, 1, 2, threeD ? 3 : 0);
+      assertVertexRange(root, first, first + 3);
+      assertNormalRange(root, first, first + 3);
+      assertSameAsTessellation(child);
+    }
+  }
+
+
+  @Test
+  public void setFillPatchesOneColor() {
+    for (boolean threeD : new boolean[] { false, true }) {
+      for (int kind : new int[] { PConstants.TRIANGLES, PConstants.QUADS }) {
+        PShapeOpenGL child = createChild(threeD, kind, false);
+        PShapeOpenGL root = (PShapeOpenGL) child.getParent();
+        int tessIdx = child.firstPolyVertex + 9;
+        child.setFill(9, 0xff00ff00);
+        assertColorRange(root, tessIdx, tessIdx);
+        assertNothingModified(root);
+        assertSameAsTessellation(child);
+      }
+    }
+  }
+
+
+  @Test
+  public void setNormalPatchesOneNormal() {
+    for (boolean threeD : new boolean[] { false, true }) {
+      for (int kind : new int[] { PConstants.TRIANGLES, PConstants.QUADS }) {
+        PShapeOpenGL child = createChild(threeD, kind, true);
+        PShapeOpenGL root = (PShapeOpenGL) child.getParent();
+        int tessIdx = child.firstPolyVertex + 14;
+        child.setNormal(14, 0, 1, 0);
+        assertNormalRange(root, tessIdx, tessIdx);
+        assertColorRange(root, PConstants.MAX_INT, PConstants.MIN_INT);
+        assertSameAsTessellation(child);
+      }
+    }
+  }
+
+
+  @Test
+  public void sharedFacesAreTessellatedAgain() {
+    // the faces of a strip share vertices, so automatic normals
+    // can't be patched one face at a time
+    PShapeOpenGL child = createChild(true, PConstants.TRIANGLE_STRIP, false);
+    PShapeOpenGL root = (PShapeOpenGL) child.getParent();
+    child.setVertex(7, 1, 2, 3);
+    assertFalse(root.tessellated);
+    assertNothingModified(root);
+  }
+
+
+  // Vertices in the buffers each time they were flushed
+  static class Recorder extends PGraphics3D {
+    int[] flushes = new int[0];
+
+    @Override
+    public void flush() {
+      flushes = PApplet.append(flushes, tessGeo.polyVertexCount);
+    }
+  }
+
+
+  static Recorder createRecorder() {
+    Recorder g = new Recorder();
+    g.setParent(new PApplet());
+    g.setPrimary(true);
+    g.setSize(200, 200);
+    g.modelview.reset();
+    g.modelviewInv.reset();
+    g.projmodelview.reset();
+    g.colorMode(PConstants.RGB, 255);
+    return g;
+  }
+
+
+  // Triangles with their own normals and colors
+  static PShapeOpenGL createMesh(PGraphicsOpenGL g, int count) {
+    PShapeOpenGL shape = (PShapeOpenGL) g.createShape();
+    shape.beginShape(PConstants.TRIANGLES);
+    shape.noStroke();
+    Random random = new Random(9);
+    for (int i = 0; i < count; i++) {
+      shape.fill(random.nextInt(256), random.nextInt(256),
+                 random.nextInt(256), 128 + random.nextInt(128));
+      shape.normal(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, 1);
+      shape.vertex(random.nextFloat() * 100, random.nextFloat() * 100,
+                   random.nextFloat() * 100);
+    }
+    shape.endShape();
+    return shape;
+  }
+
+
+  // Rotated and scaled unevenly, so the normals need the inverse transpose
+  static float[] createMatrices(int count) {
+    float[] matrices = new float[16 * count];
+    float[] values = new float[16];
+    Random random = new Random(4);
+    PMatrix3D m = new PMatrix3D();
+    for (int i = 0; i < count; i++) {
+      m.reset();
+      m.translate(random.nextFloat() * 100, random.nextFloat() * 100,
+                  random.nextFloat() * 100);
+      m.rotate(random.nextFloat(), 0.3f, 1, 0.2f);
+      m.scale(1 + random.nextFloat(), 0.5f, 2);
+      m.get(values);
+      System.arraycopy(values, 0, matrices, 16 * i, 16);
+    }
+    return matrices;
+  }
+
+
+  static int tint(int argb, int tint) {
+    int a = (argb >>> 24) * (tint >>> 24) / 255;
+    int r = ((argb >> 16) & 0xFF) * ((tint >> 16) & 0xFF) / 255;
+    int g = ((argb >> 8) & 0xFF) * ((tint >> 8) & 0xFF) / 255;
+    int b = (argb & 0xFF) * (tint & 0xFF) / 255;
+    return (a << 24) | (r << 16) | (g << 8) | b;
+  }
+
+
+  static void assertInstances(int vertices, int count, boolean tinted) {
+    Recorder g = createRecorder();
+    PShapeOpenGL shape = createMesh(g, vertices);
+    float[] matrices = createMatrices(count);
+    int[] colors = null;
+    if (tinted) {
+      colors = new int[count];
+      Random random = new Random(6);
+      for (int i = 0; i < count; i++) colors[i] = random.nextInt();
+    }
+    g.translate(3, 4, 5);
+    g.rotateX(0.2f);
+    PMatrix3D modelview = g.modelview.get();
+    shape.drawInstances(g, matrices, colors, count);
+
+    PGraphicsOpenGL.TessGeometry src = shape.tessGeo;
+    PGraphicsOpenGL.TessGeometry dst = g.tessGeo;
+    assertEquals(count * vertices, dst.polyVertexCount);
+    assertEquals(count * src.polyIndexCount, dst.polyIndexCount);
+    for (int flushed : g.flushes) {
+      assertTrue(PGL.FLUSH_VERTEX_COUNT <= flushed);
+    }
+
+    float[] in = new float[3];
+    float[] out = new float[3];
+    for (int i = 0; i < count; i++) {
+      PMatrix3D mm = modelview.get();
+      mm.apply(matrices[16*i +  0], matrices[16*i +  1], matrices[16*i +  2], matrices[16*i +  3],
+               matrices[16*i +  4], matrices[16*i +  5], matrices[16*i +  6], matrices[16*i +  7],
+               matrices[16*i +  8], matrices[16*i +  9], matrices[16*i + 10], matrices[16*i + 11],
+               matrices[16*i + 12], matrices[16*i + 13], matrices[16*i + 14], matrices[16*i + 15]);
+      PMatrix3D nm = mm.get();
+      nm.invert();
+      nm.transpose();
+      nm.m03 = nm.m13 = nm.m23 = 0;
+
+      for (int j = 0; j < vertices; j++) {
+        int v = i * vertices + j;
+        in[0] = src.polyVertices[4 * j];
+        in[1] = src.polyVertices[4 * j + 1];
+        in[2] = src.polyVertices[4 * j + 2];
+        mm.mult(in, out);
+        assertEquals(out[0], dst.polyVertices[4 * v], EPSILON);
+        assertEquals(out[1], dst.polyVertices[4 * v + 1], EPSILON);
+        assertEquals(out[2], dst.polyVertices[4 * v + 2], EPSILON);
+        assertEquals(1, dst.polyVertices[4 * v + 3], EPSILON);
+
+        in[0] = src.polyNormals[3 * j];
+        in[1] = src.polyNormals[3 * j + 1];
+        in[2] = src.polyNormals[3 * j + 2];
+        nm.mult(in, out);
+        assertEquals(out[0], dst.polyNormals[3 * v], EPSILON);
+        assertEquals(out[1], dst.polyNormals[3 * v + 1], EPSILON);
+        assertEquals(out[2], dst.polyNormals[3 * v + 2], EPSILON);
+
+        int color = PGL.nativeToJavaARGB(src.polyColors[j]);
+        if (tinted) color = tint(color, colors[i]);
+        assertEquals(color, PGL.nativeToJavaARGB(dst.polyColors[v]));
+      }
+    }
+
+    // Every index points at the same vertex of its own copy, in a block
+    // small enough for 16-bit indices
+    PGraphicsOpenGL.IndexCache cache = dst.polyIndexCache;
+    int[] expected = new int[dst.polyIndexCount];
+    for (int i = 0; i < count; i++) {
+      for (int k = 0; k < src.polyIndexCount; k++) {
+        expected[i * src.polyIndexCount + k] = i * vertices + src.polyIndices[k];
+      }
+    }
+    int[] actual = new int[dst.polyIndexCount];
+    for (int n = 0; n < cache.size; n++) {
+      assertTrue(cache.vertexCount[n] < PGL.MAX_VERTEX_INDEX1);
+      for (int k = 0; k < cache.indexCount[n]; k++) {
+        int index = dst.polyIndices[cache.indexOffset[n] + k];
+        assertTrue(index < cache.vertexCount[n]);
+        actual[cache.indexOffset[n] + k] = cache.vertexOffset[n] + index;
+      }
+    }
+    assertArrayEquals(expected, actual);
+    if (vertices * count >= PGL.MAX_VERTEX_INDEX1) {
+      assertTrue("spans more than one index block", 1 < cache.size);
+      assertTrue(0 < g.flushes.length);
+    }
+  }
+
+
+  @Test
+  public void drawInstancesTransformsEachCopy() {
+    assertInstances(30, 5, false);
+  }
+
+
+  @Test
+  public void drawInstancesTintsEachCopy() {
+    assertInstances(30, 5, true);
+  }
+
+
+  @Test
+  public void drawInstancesAcrossIndexBlocks() {
+    // the copies don't all fit in one block, or before the first flush
+    assertInstances(6000, 8, true);
+  }
+}
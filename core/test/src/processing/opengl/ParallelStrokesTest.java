@@ -0,0 +1,199 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+
+/**
+ * The strokes of long 2D shapes, drawn without caps and joins, come out
+ * the same whether they are tessellated on one thread or split across
+ * the common pool. The build runs the tests with more than one processor
+ * reported, or the parallel path would never be taken.
+ */
+public class ParallelStrokesTest {
+  // above PARALLEL_STROKE_THRESHOLD, and four vertices per segment is
+  // more than one index block
+  static final int SEGMENTS =
+    2 * PGraphicsOpenGL.Tessellator.PARALLEL_STROKE_THRESHOLD + 100;
+
+
+  interface Scene {
+    void draw(PGraphicsOpenGL g);
+  }
+
+
+  @BeforeClass
+  static public void init() throws ClassNotFoundException {
+    // sets the PGL constants, such as the index block size
+    Class.forName("processing.opengl.PJOGL");
+    assertTrue("needs more than one processor, see the test target",
+               Runtime.getRuntime().availableProcessors() > 1);
+  }
+
+
+  // Immediate mode renderer that never draws
+  static PGraphicsOpenGL create(boolean parallel) {
+    PGraphicsOpenGL g = new PGraphics2D() {
+      @Override
+      public void flush() { }
+    };
+    g.setParent(new PApplet());
+    g.setPrimary(true);
+    g.setSize(400, 400);
+    g.modelview.reset();
+    g.modelviewInv.reset();
+    g.projmodelview.reset();
+    g.setParallelStrokes(parallel);
+    g.colorMode(PConstants.RGB, 255);
+    g.noFill();
+    // thin enough to go without caps and joins
+    g.strokeWeight(1);
+    g.translate(20, 10);
+    g.rotate(0.3f);
+    return g;
+  }
+
+
+  static void assertSameStrokes(Scene scene) {
+    PGraphicsOpenGL serial = create(false);
+    PGraphicsOpenGL parallel = create(true);
+    scene.draw(serial);
+    scene.draw(parallel);
+
+    PGraphicsOpenGL.TessGeometry expected = serial.tessGeo;
+    PGraphicsOpenGL.TessGeometry actual = parallel.tessGeo;
+    assertTrue(SEGMENTS * 4 <= expected.polyVertexCount);
+    assertEquals(expected.polyVertexCount, actual.polyVertexCount);
+    assertEquals(expected.polyIndexCount, actual.polyIndexCount);
+    assertArrayEquals(
+      Arrays.copyOf(expected.polyVertices, 4 * expected.polyVertexCount),
+      Arrays.copyOf(actual.polyVertices, 4 * actual.polyVertexCount), 0);
+    assertArrayEquals(
+      Arrays.copyOf(expected.polyColors, expected.polyVertexCount),
+      Arrays.copyOf(actual.polyColors, actual.polyVertexCount));
+    assertArrayEquals(
+      Arrays.copyOf(expected.polyIndices, expected.polyIndexCount),
+      Arrays.copyOf(actual.polyIndices, actual.polyIndexCount));
+
+    PGraphicsOpenGL.IndexCache cache = expected.polyIndexCache;
+    PGraphicsOpenGL.IndexCache other = actual.polyIndexCache;
+    assertTrue("spans more than one index block", 1 < cache.size);
+    assertEquals(cache.size, other.size);
+    for (int i = 0; i < cache.size; i++) {
+      assertEquals(cache.indexOffset[i], other.indexOffset[i]);
+      assertEquals(cache.indexCount[i], other.indexCount[i]);
+      assertEquals(cache.vertexOffset[i], other.vertexOffset[i]);
+      assertEquals(cache.vertexCount[i], other.vertexCount[i]);
+      assertTrue(cache.vertexCount[i] <= PGL.MAX_VERTEX_INDEX1);
+    }
+  }
+
+
+  // Same points and colors every time it's called
+  static void vertices(PGraphicsOpenGL g, int count, boolean contours) {
+    Random random = new Random(5);
+    for (int i = 0; i < count; i++) {
+      if (contours && i % 5000 == 4000) g.beginContour();
+      g.stroke(random.nextInt(256), random.nextInt(256), 0);
+      g.vertex(random.nextFloat() * 400, random.nextFloat() * 400);
+      if (contours && i % 5000 == 4999) g.endContour();
+    }
+  }
+
+
+  @Test
+  public void lines() {
+    assertSameStrokes(new Scene() {
+      public void draw(PGraphicsOpenGL g) {
+        g.beginShape(PConstants.LINES);
+        vertices(g, 2 * SEGMENTS, false);
+        g.endShape();
+      }
+    });
+  }
+
+
+  @Test
+  public void lineStrip() {
+    assertSameStrokes(new Scene() {
+      public void draw(PGraphicsOpenGL g) {
+        g.beginShape(PConstants.LINE_STRIP);
+        vertices(g, SEGMENTS + 1, false);
+        g.endShape();
+      }
+    });
+  }
+
+
+  @Test
+  public void lineLoop() {
+    assertSameStrokes(new Scene() {
+      public void draw(PGraphicsOpenGL g) {
+        g.beginShape(PConstants.LINE_LOOP);
+        vertices(g, SEGMENTS, false);
+        g.endShape();
+      }
+    });
+  }
+
+
+  @Test
+  public void closedPolygonEdges() {
+    // closed contours add edges with EDGE_CLOSE, which are skipped
+    assertSameStrokes(new Scene() {
+      public void draw(PGraphicsOpenGL g) {
+        g.beginShape();
+        vertices(g, SEGMENTS + 2000, true);
+        g.endShape(PConstants.CLOSE);
+      }
+    });
+  }
+
+
+  @Test
+  public void afterPartialBlock() {
+    // the long strip starts in a block another shape already used
+    assertSameStrokes(new Scene() {
+      public void draw(PGraphicsOpenGL g) {
+        g.beginShape(PConstants.LINES);
+        vertices(g, 2 * 7000, false);
+        g.endShape();
+        g.beginShape(PConstants.LINE_STRIP);
+        vertices(g, SEGMENTS + 1, false);
+        g.endShape();
+      }
+    });
+  }
+}
@@ -0,0 +1,173 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+
+
+/**
+ * Times the GLU tessellator against PolygonTessellator on the outlines
+ * of glyphs, flattened from their curves like SVG paths are, and on
+ * large rings with holes. Not part of the core build, run it headless
+ * after "ant test-compile":
+ * <pre>
+ * java -Djava.awt.headless=true \
+ *   -cp core/bin:core/test/bin:core/library/jogl-all.jar:core/library/gluegen-rt.jar \
+ *   processing.opengl.PolygonTessellatorBenchmark
+ * </pre>
+ */
+public class PolygonTessellatorBenchmark {
+  static final int ROUNDS = 5;
+
+
+  /** Counts the triangles, and the polygons that arrive through triangles(). */
+  static class Counter implements PGL.TessellatorCallback {
+    int type;
+    int vertices;
+    int triangles;
+    int batches;
+
+    public void begin(int type) {
+      this.type = type;
+      vertices = 0;
+    }
+    public void end() {
+      triangles += (type == PGL.TRIANGLES) ? vertices / 3 : vertices - 2;
+    }
+    public void vertex(Object data) { vertices++; }
+    public void combine(double[] coords, Object[] data,
+                        float[] weight, Object[] outData) {
+      outData[0] = new double[] { coords[0], coords[1], coords[2] };
+    }
+    public void error(int errnum) { }
+    public void triangles(Object[] vertices, int vertexCount,
+                          int[] indices, int indexCount) {
+      triangles += indexCount / 3;
+      batches++;
+    }
+  }
+
+
+  // Contours of each glyph in the string, with the curves flattened
+  static ArrayList<double[][][]> glyphs(String text, float size) {
+    Font font = new Font(Font.SERIF, Font.PLAIN, 1).deriveFont(size);
+    FontRenderContext frc = new FontRenderContext(null, true, true);
+    ArrayList<double[][][]> polygons = new ArrayList<double[][][]>();
+    for (int i = 0; i < text.length(); i++) {
+      Shape outline =
+        font.createGlyphVector(frc, text.substring(i, i + 1)).getOutline();
+      ArrayList<double[][]> contours = new ArrayList<double[][]>();
+      ArrayList<double[]> contour = new ArrayList<double[]>();
+      double[] coords = new double[6];
+      for (PathIterator it = outline.getPathIterator(null, 0.1);
+           !it.isDone(); it.next()) {
+        int type = it.currentSegment(coords);
+        if (type == PathIterator.SEG_MOVETO && !contour.isEmpty()) {
+          contours.add(contour.toArray(new double[0][]));
+          contour.clear();
+        }
+        if (type != PathIterator.SEG_CLOSE) {
+          contour.add(new double[] { coords[0], coords[1] });
+        }
+      }
+      if (!contour.isEmpty()) contours.add(contour.toArray(new double[0][]));
+      if (!contours.isEmpty()) polygons.add(contours.toArray(new double[0][][]));
+    }
+    return polygons;
+  }
+
+
+  static double[][] circle(double cx, double cy, double r, int n, boolean ccw) {
+    double[][] points = new double[n][];
+    for (int i = 0; i < n; i++) {
+      double a = (ccw ? 1 : -1) * 2 * Math.PI * i / n;
+      points[i] = new double[] { cx + r * Math.cos(a), cy + r * Math.sin(a) };
+    }
+    return points;
+  }
+
+
+  static void tessellate(PGL.Tessellator tess, double[][][] polygon) {
+    tess.beginPolygon();
+    tess.setWindingRule(PGL.TESS_WINDING_ODD);
+    for (double[][] contour : polygon) {
+      tess.beginContour();
+      for (double[] p : contour) {
+        tess.addVertex(new double[] { p[0], p[1], 0 });
+      }
+      tess.endContour();
+    }
+    tess.endPolygon();
+  }
+
+
+  static void time(String name, ArrayList<double[][][]> polygons, int repeat) {
+    Counter glu = new Counter();
+    Counter java = new Counter();
+    PGL.Tessellator gluTess = new PJOGL.Tessellator(glu);
+    PGL.Tessellator javaTess =
+      new PolygonTessellator(java, new PJOGL.Tessellator(java));
+    double gluBest = Double.MAX_VALUE, javaBest = Double.MAX_VALUE;
+    for (int r = 0; r < ROUNDS; r++) {
+      long start = System.nanoTime();
+      for (int k = 0; k < repeat; k++) {
+        for (double[][][] polygon : polygons) tessellate(gluTess, polygon);
+      }
+      gluBest = Math.min(gluBest, (System.nanoTime() - start) / 1e6);
+      start = System.nanoTime();
+      for (int k = 0; k < repeat; k++) {
+        for (double[][][] polygon : polygons) tessellate(javaTess, polygon);
+      }
+      javaBest = Math.min(javaBest, (System.nanoTime() - start) / 1e6);
+    }
+    int count = repeat * polygons.size();
+    System.out.printf("%-24s glu %7.3f ms, java %7.3f ms per polygon, " +
+                      "%d / %d triangles, %d of %d clipped by java%n", name,
+                      gluBest / count, javaBest / count,
+                      glu.triangles / (ROUNDS * repeat),
+                      java.triangles / (ROUNDS * repeat),
+                      java.batches / (ROUNDS * repeat), polygons.size());
+  }
+
+
+  public static void main(String[] args) throws ClassNotFoundException {
+    // sets the PGL constants
+    Class.forName("processing.opengl.PJOGL");
+
+    String text = "The quick brown fox jumps over the lazy dog 0123456789&@%";
+    time("glyphs at 24", glyphs(text, 24), 200);
+    time("glyphs at 200", glyphs(text, 200), 50);
+
+    ArrayList<double[][][]> rings = new ArrayList<double[][][]>();
+    rings.add(new double[][][] {
+      circle(0, 0, 100, 500, true),
+      circle(30, 0, 20, 100, false),
+      circle(-30, 0, 20, 100, false)
+    });
+    time("ring of 500, two holes", rings, 100);
+  }
+}
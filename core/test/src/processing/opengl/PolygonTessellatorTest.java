@@ -0,0 +1,306 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+public class PolygonTessellatorTest {
+  static final double EPSILON = 1e-6;
+
+  static int ODD;
+  static int NONZERO;
+
+
+  /** Keeps the triangles, however they arrive. */
+  static class Recorder implements PGL.TessellatorCallback {
+    ArrayList<double[]> triangles = new ArrayList<double[]>();
+    ArrayList<double[]> current = new ArrayList<double[]>();
+    int type;
+    // how the triangles arrived, triangles() or begin/vertex/end
+    int batches;
+    int primitives;
+
+    public void begin(int type) {
+      this.type = type;
+      current.clear();
+      primitives++;
+    }
+
+    public void vertex(Object data) {
+      current.add((double[]) data);
+    }
+
+    public void end() {
+      int n = current.size();
+      if (type == PGL.TRIANGLES) {
+        for (int i = 0; i + 2 < n; i += 3) {
+          add(current.get(i), current.get(i + 1), current.get(i + 2));
+        }
+      } else if (type == PGL.TRIANGLE_FAN) {
+        for (int i = 1; i + 1 < n; i++) {
+          add(current.get(0), current.get(i), current.get(i + 1));
+        }
+      } else if (type == PGL.TRIANGLE_STRIP) {
+        for (int i = 0; i + 2 < n; i++) {
+          if (i % 2 == 0) {
+            add(current.get(i), current.get(i + 1), current.get(i + 2));
+          } else {
+            add(current.get(i + 1), current.get(i), current.get(i + 2));
+          }
+        }
+      }
+    }
+
+    public void triangles(Object[] vertices, int vertexCount,
+                          int[] indices, int indexCount) {
+      batches++;
+      for (int i = 0; i < indexCount; i += 3) {
+        add((double[]) vertices[indices[i]],
+            (double[]) vertices[indices[i + 1]],
+            (double[]) vertices[indices[i + 2]]);
+      }
+    }
+
+    public void combine(double[] coords, Object[] data,
+                        float[] weight, Object[] outData) {
+      outData[0] = new double[] { coords[0], coords[1], coords[2] };
+    }
+
+    public void error(int errnum) {
+      throw new AssertionError("tessellator error " + errnum);
+    }
+
+    void add(double[] a, double[] b, double[] c) {
+      triangles.add(new double[] { a[0], a[1], b[0], b[1], c[0], c[1] });
+    }
+
+    // Counter-clockwise triangles count as positive
+    double signedArea() {
+      double sum = 0;
+      for (double[] t : triangles) {
+        sum += ((t[2] - t[0]) * (t[5] - t[1]) - (t[3] - t[1]) * (t[4] - t[0])) / 2;
+      }
+      return sum;
+    }
+
+    double area() {
+      double sum = 0;
+      for (double[] t : triangles) {
+        sum += Math.abs((t[2] - t[0]) * (t[5] - t[1]) - (t[3] - t[1]) * (t[4] - t[0])) / 2;
+      }
+      return sum;
+    }
+  }
+
+
+  @BeforeClass
+  static public void init() throws ClassNotFoundException {
+    // sets the PGL constants, such as the winding rules
+    Class.forName("processing.opengl.PJOGL");
+    ODD = PGL.TESS_WINDING_ODD;
+    NONZERO = PGL.TESS_WINDING_NONZERO;
+  }
+
+
+  static Recorder tessellate(double[][][] contours, int rule, boolean java) {
+    Recorder recorder = new Recorder();
+    PGL.Tessellator tess = new PJOGL.Tessellator(recorder);
+    if (java) {
+      tess = new PolygonTessellator(recorder, tess);
+    }
+    tess.beginPolygon();
+    tess.setWindingRule(rule);
+    for (double[][] contour : contours) {
+      tess.beginContour();
+      for (double[] p : contour) {
+        tess.addVertex(new double[] { p[0], p[1], 0 });
+      }
+      tess.endContour();
+    }
+    tess.endPolygon();
+    return recorder;
+  }
+
+
+  static double[][] rect(double x, double y, double w, double h, boolean ccw) {
+    return ccw ?
+      new double[][] { {x, y}, {x + w, y}, {x + w, y + h}, {x, y + h} } :
+      new double[][] { {x, y}, {x, y + h}, {x + w, y + h}, {x + w, y} };
+  }
+
+
+  static double[][] circle(double cx, double cy, double r, int n, boolean ccw) {
+    double[][] points = new double[n][];
+    for (int i = 0; i < n; i++) {
+      double a = (ccw ? 1 : -1) * 2 * Math.PI * i / n;
+      points[i] = new double[] { cx + r * Math.cos(a), cy + r * Math.sin(a) };
+    }
+    return points;
+  }
+
+
+  // Shoelace area of a contour, positive when counter-clockwise
+  static double contourArea(double[][] contour) {
+    double sum = 0;
+    for (int i = 0, j = contour.length - 1; i < contour.length; j = i++) {
+      sum += (contour[j][0] * contour[i][1] - contour[i][0] * contour[j][1]);
+    }
+    return sum / 2;
+  }
+
+
+  // Filled by the ear clipper, with area and orientation checked
+  static void assertClipped(double[][][] contours, int rule, double area) {
+    Recorder java = tessellate(contours, rule, true);
+    assertEquals(1, java.batches);
+    assertEquals(0, java.primitives);
+    assertEquals(area, java.area(), EPSILON * Math.max(1, area));
+    // no triangle folds over the others
+    assertEquals(java.area(), Math.abs(java.signedArea()), EPSILON * Math.max(1, area));
+    Recorder glu = tessellate(contours, rule, false);
+    assertEquals(glu.area(), java.area(), EPSILON * Math.max(1, area));
+    assertEquals(Math.signum(glu.signedArea()), Math.signum(java.signedArea()), 0);
+  }
+
+
+  @Test
+  public void simplePolygons() {
+    assertClipped(new double[][][] { rect(0, 0, 10, 10, true) }, ODD, 100);
+    assertClipped(new double[][][] { rect(0, 0, 10, 10, false) }, ODD, 100);
+    double[][] concave = { {0, 0}, {10, 0}, {10, 10}, {5, 3}, {0, 10} };
+    assertClipped(new double[][][] { concave }, ODD, contourArea(concave));
+    double[][] dups = { {0, 0}, {5, 0}, {5, 0}, {10, 0}, {10, 5}, {10, 10}, {0, 10}, {0, 0} };
+    assertClipped(new double[][][] { dups }, NONZERO, 100);
+  }
+
+
+  @Test
+  public void holes() {
+    assertClipped(new double[][][] {
+      rect(0, 0, 10, 10, true), rect(3, 3, 4, 4, false)
+    }, ODD, 84);
+    double[][] outer = circle(0, 0, 10, 40, true);
+    double[][] left = circle(-4, 0, 2, 12, false);
+    double[][] right = circle(4, 0, 2, 12, false);
+    assertClipped(new double[][][] { outer, left, right }, ODD,
+                  contourArea(outer) + contourArea(left) + contourArea(right));
+  }
+
+
+  @Test
+  public void nestedContours() {
+    double[][][] nested = {
+      rect(0, 0, 10, 10, true), rect(2, 2, 6, 6, false), rect(4, 4, 2, 2, true)
+    };
+    // ODD fills the outer ring and the innermost square
+    assertClipped(nested, ODD, 100 - 36 + 4);
+    // NONZERO: winding 1, 0, 1, same as ODD for alternating directions
+    assertClipped(nested, NONZERO, 100 - 36 + 4);
+
+    double[][][] sameDirection = {
+      rect(0, 0, 10, 10, true), rect(3, 3, 4, 4, true)
+    };
+    // a hole for ODD, but winding 2 is still inside for NONZERO
+    assertClipped(sameDirection, ODD, 84);
+    assertClipped(sameDirection, NONZERO, 100);
+  }
+
+
+  @Test
+  public void triangleAreaEqualsPolygonArea() {
+    Random random = new Random(7);
+    for (int k = 0; k < 50; k++) {
+      // star-shaped, so simple, with a hole in the middle
+      int n = 5 + random.nextInt(200);
+      double[][] outer = new double[n][];
+      for (int i = 0; i < n; i++) {
+        double a = 2 * Math.PI * i / n;
+        double r = 20 + random.nextDouble() * 80;
+        outer[i] = new double[] { r * Math.cos(a), r * Math.sin(a) };
+      }
+      double[][] hole = circle(0, 0, 8, 10, false);
+      assertClipped(new double[][][] { outer, hole }, ODD,
+                    contourArea(outer) + contourArea(hole));
+    }
+  }
+
+
+  // Crossing or touching edges go to GLU as they are
+  static void assertFallback(double[][][] contours, int rule) {
+    Recorder java = tessellate(contours, rule, true);
+    Recorder glu = tessellate(contours, rule, false);
+    assertEquals(0, java.batches);
+    assertTrue(java.primitives > 0);
+    assertEquals(glu.triangles.size(), java.triangles.size());
+    assertEquals(glu.area(), java.area(), EPSILON);
+    assertEquals(glu.signedArea(), java.signedArea(), EPSILON);
+  }
+
+
+  @Test
+  public void crossingEdgesUseFallback() {
+    double[][] bowtie = { {0, 0}, {10, 10}, {10, 0}, {0, 10} };
+    assertFallback(new double[][][] { bowtie }, ODD);
+    double[][] star = { {0, 10}, {6, -8}, {-9.5, 3}, {9.5, 3}, {-6, -8} };
+    assertFallback(new double[][][] { star }, ODD);
+    assertFallback(new double[][][] { star }, NONZERO);
+    double[][][] overlap = { rect(0, 0, 10, 10, true), rect(5, 5, 10, 10, true) };
+    assertFallback(overlap, ODD);
+    assertFallback(overlap, NONZERO);
+    // holes that touch at a corner
+    assertFallback(new double[][][] {
+      rect(0, 0, 10, 10, true), rect(2, 2, 3, 3, false), rect(5, 5, 3, 3, false)
+    }, ODD);
+  }
+
+
+  @Test
+  public void fallbackAfterSimplePolygon() {
+    // the same tessellator alternates between clipping and replaying
+    Recorder recorder = new Recorder();
+    PolygonTessellator tess =
+      new PolygonTessellator(recorder, new PJOGL.Tessellator(recorder));
+    double[][][] shapes = {
+      rect(0, 0, 10, 10, true), { {0, 0}, {10, 10}, {10, 0}, {0, 10} },
+      rect(20, 0, 10, 10, true)
+    };
+    for (double[][] shape : shapes) {
+      tess.beginPolygon();
+      tess.setWindingRule(ODD);
+      tess.beginContour();
+      for (double[] p : shape) tess.addVertex(new double[] { p[0], p[1], 0 });
+      tess.endContour();
+      tess.endPolygon();
+    }
+    assertEquals(2, recorder.batches);
+    assertEquals(100 + 50 + 100, recorder.area(), EPSILON);
+  }
+}
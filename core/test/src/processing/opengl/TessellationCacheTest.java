@@ -0,0 +1,283 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.opengl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+
+/**
+ * Shapes copied from the tessellation cache leave exactly the same
+ * geometry, index blocks and texture ranges behind as tessellating them.
+ */
+public class TessellationCacheTest {
+  // the shapes drawn by scene()
+  static final int SHAPES = 8;
+
+
+  @BeforeClass
+  static public void init() throws ClassNotFoundException {
+    // sets the PGL constants, such as the index block size
+    Class.forName("processing.opengl.PJOGL");
+  }
+
+
+  // Immediate mode renderer that never draws, so the geometry piles up
+  static PGraphicsOpenGL create(boolean threeD, boolean cached) {
+    PGraphicsOpenGL g = threeD ?
+      new PGraphics3D() {
+        @Override
+        public void flush() { }
+      } :
+      new PGraphics2D() {
+        @Override
+        public void flush() { }
+      };
+    g.setParent(new PApplet());
+    g.setPrimary(true);
+    g.setSize(400, 400);
+    g.modelview.reset();
+    g.modelviewInv.reset();
+    g.projmodelview.reset();
+    if (cached) g.setTessellationCache(new TessellationCache());
+    g.colorMode(PConstants.RGB, 255);
+    return g;
+  }
+
+
+  static void scene(PGraphicsOpenGL g) {
+    g.fill(200, 50, 50);
+    g.stroke(0);
+    g.strokeWeight(4);
+    g.ellipse(100, 100, 80, 60);
+    g.rect(10, 10, 50, 40);
+
+    g.beginShape();
+    g.vertex(0, 0);
+    g.vertex(100, 0);
+    g.vertex(100, 100);
+    g.vertex(50, 20);
+    g.vertex(0, 100);
+    g.beginContour();
+    g.vertex(10, 10);
+    g.vertex(10, 20);
+    g.vertex(20, 20);
+    g.endContour();
+    g.endShape(PConstants.CLOSE);
+
+    g.pushMatrix();
+    g.translate(30, 40);
+    g.rotate(0.3f);
+    g.beginShape(PConstants.TRIANGLES);
+    g.vertex(0, 0);
+    g.vertex(30, 0);
+    g.vertex(0, 30);
+    g.endShape();
+    g.popMatrix();
+
+    // a polyline with caps and joins
+    g.noFill();
+    g.strokeWeight(3);
+    g.beginShape();
+    for (int i = 0; i < 40; i++) {
+      g.vertex(5 * i, 200 + 30 * PApplet.sin(0.4f * i));
+    }
+    g.endShape();
+
+    g.strokeWeight(6);
+    g.point(40, 40);
+    g.point(60, 40);
+
+    // big enough to fill up an index block every few scenes
+    g.fill(0, 255, 0);
+    g.noStroke();
+    g.beginShape();
+    for (int i = 0; i < 3000; i++) {
+      float r = (i % 2 == 0) ? 150 : 120;
+      float a = PConstants.TWO_PI * i / 3000;
+      g.vertex(200 + r * PApplet.cos(a), 200 + r * PApplet.sin(a));
+    }
+    g.endShape(PConstants.CLOSE);
+  }
+
+
+  static void assertSameCache(PGraphicsOpenGL.IndexCache expected,
+                              PGraphicsOpenGL.IndexCache actual) {
+    assertEquals(expected.size, actual.size);
+    for (int i = 0; i < expected.size; i++) {
+      assertEquals(expected.indexOffset[i], actual.indexOffset[i]);
+      assertEquals(expected.indexCount[i], actual.indexCount[i]);
+      assertEquals(expected.vertexOffset[i], actual.vertexOffset[i]);
+      assertEquals(expected.vertexCount[i], actual.vertexCount[i]);
+    }
+  }
+
+
+  static void assertSameGeometry(PGraphicsOpenGL expected,
+                                 PGraphicsOpenGL actual) {
+    PGraphicsOpenGL.TessGeometry e = expected.tessGeo;
+    PGraphicsOpenGL.TessGeometry a = actual.tessGeo;
+
+    int n = e.polyVertexCount;
+    assertEquals(n, a.polyVertexCount);
+    assertEquals(e.polyIndexCount, a.polyIndexCount);
+    assertArrayEquals(Arrays.copyOf(e.polyVertices, 4 * n),
+                      Arrays.copyOf(a.polyVertices, 4 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.polyColors, n),
+                      Arrays.copyOf(a.polyColors, n));
+    assertArrayEquals(Arrays.copyOf(e.polyNormals, 3 * n),
+                      Arrays.copyOf(a.polyNormals, 3 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.polyTexCoords, 2 * n),
+                      Arrays.copyOf(a.polyTexCoords, 2 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.polyAmbient, n),
+                      Arrays.copyOf(a.polyAmbient, n));
+    assertArrayEquals(Arrays.copyOf(e.polySpecular, n),
+                      Arrays.copyOf(a.polySpecular, n));
+    assertArrayEquals(Arrays.copyOf(e.polyEmissive, n),
+                      Arrays.copyOf(a.polyEmissive, n));
+    assertArrayEquals(Arrays.copyOf(e.polyShininess, n),
+                      Arrays.copyOf(a.polyShininess, n), 0);
+    assertArrayEquals(Arrays.copyOf(e.polyIndices, e.polyIndexCount),
+                      Arrays.copyOf(a.polyIndices, a.polyIndexCount));
+    assertSameCache(e.polyIndexCache, a.polyIndexCache);
+
+    n = e.lineVertexCount;
+    assertEquals(n, a.lineVertexCount);
+    assertEquals(e.lineIndexCount, a.lineIndexCount);
+    assertArrayEquals(Arrays.copyOf(e.lineVertices, 4 * n),
+                      Arrays.copyOf(a.lineVertices, 4 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.lineColors, n),
+                      Arrays.copyOf(a.lineColors, n));
+    assertArrayEquals(Arrays.copyOf(e.lineDirections, 4 * n),
+                      Arrays.copyOf(a.lineDirections, 4 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.lineIndices, e.lineIndexCount),
+                      Arrays.copyOf(a.lineIndices, a.lineIndexCount));
+    assertSameCache(e.lineIndexCache, a.lineIndexCache);
+
+    n = e.pointVertexCount;
+    assertEquals(n, a.pointVertexCount);
+    assertEquals(e.pointIndexCount, a.pointIndexCount);
+    assertArrayEquals(Arrays.copyOf(e.pointVertices, 4 * n),
+                      Arrays.copyOf(a.pointVertices, 4 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.pointColors, n),
+                      Arrays.copyOf(a.pointColors, n));
+    assertArrayEquals(Arrays.copyOf(e.pointOffsets, 2 * n),
+                      Arrays.copyOf(a.pointOffsets, 2 * n), 0);
+    assertArrayEquals(Arrays.copyOf(e.pointIndices, e.pointIndexCount),
+                      Arrays.copyOf(a.pointIndices, a.pointIndexCount));
+    assertSameCache(e.pointIndexCache, a.pointIndexCache);
+
+    PGraphicsOpenGL.TexCache et = expected.texCache;
+    PGraphicsOpenGL.TexCache at = actual.texCache;
+    assertEquals(et.size, at.size);
+    for (int i = 0; i < et.size; i++) {
+      assertSame(et.textures[i], at.textures[i]);
+      assertEquals(et.firstIndex[i], at.firstIndex[i]);
+      assertEquals(et.lastIndex[i], at.lastIndex[i]);
+      assertEquals(et.firstCache[i], at.firstCache[i]);
+      assertEquals(et.lastCache[i], at.lastCache[i]);
+    }
+  }
+
+
+  static void assertDrawnTwice(boolean threeD) {
+    PGraphicsOpenGL plain = create(threeD, false);
+    PGraphicsOpenGL cached = create(threeD, true);
+    TessellationCache cache = cached.getTessellationCache();
+
+    scene(plain);
+    scene(cached);
+    assertSameGeometry(plain, cached);
+    assertEquals(0, cache.getHits());
+    assertEquals(SHAPES, cache.getMisses());
+    assertEquals(SHAPES, cache.getCount());
+
+    scene(plain);
+    scene(cached);
+    assertSameGeometry(plain, cached);
+    assertEquals(SHAPES, cache.getHits());
+    assertEquals(SHAPES, cache.getMisses());
+
+    // same shapes, but moved, so they are different shapes
+    plain.translate(1, 0);
+    cached.translate(1, 0);
+    scene(plain);
+    scene(cached);
+    assertSameGeometry(plain, cached);
+    assertEquals(SHAPES, cache.getHits());
+    assertEquals(2 * SHAPES, cache.getMisses());
+  }
+
+
+  @Test
+  public void drawnTwice2D() {
+    assertDrawnTwice(false);
+  }
+
+
+  @Test
+  public void drawnTwice3D() {
+    assertDrawnTwice(true);
+  }
+
+
+  static void assertAcrossIndexBlocks(boolean threeD) {
+    PGraphicsOpenGL plain = create(threeD, false);
+    PGraphicsOpenGL cached = create(threeD, true);
+    TessellationCache cache = cached.getTessellationCache();
+
+    int scenes = 0;
+    while (plain.tessGeo.polyIndexCache.size < 4) {
+      scene(plain);
+      scene(cached);
+      scenes++;
+      assertSameGeometry(plain, cached);
+    }
+    assertEquals(scenes * SHAPES, cache.getHits() + cache.getMisses());
+    assertTrue(SHAPES < cache.getHits());
+    // the shapes that didn't fit in their block were tessellated again
+    assertTrue(SHAPES < cache.getMisses());
+  }
+
+
+  @Test
+  public void acrossIndexBlocks2D() {
+    assertAcrossIndexBlocks(false);
+  }
+
+
+  @Test
+  public void acrossIndexBlocks3D() {
+    assertAcrossIndexBlocks(true);
+  }
+}